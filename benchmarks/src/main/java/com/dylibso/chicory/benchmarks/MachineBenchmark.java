@@ -0,0 +1,74 @@
+package com.dylibso.chicory.benchmarks;
+
+import com.dylibso.chicory.runtime.ExportFunction;
+import com.dylibso.chicory.runtime.Instance;
+import com.dylibso.chicory.runtime.Module;
+import com.dylibso.chicory.wasm.types.Value;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the steady state of the interpreter loop once it has been JIT compiled.
+ * Build with {@code mvn package -pl benchmarks -am} and run
+ * {@code java -jar benchmarks/target/benchmarks.jar}; adding {@code -jvmArgs
+ * -XX:+PrintCompilation} shows that {@code Machine.eval} and its handlers get compiled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MachineBenchmark {
+
+    @Param({"1000", "100000"})
+    private int iterations;
+
+    private ExportFunction iterFact;
+
+    private Instance vowels;
+    private ExportFunction countVowels;
+    private int textPtr;
+    private int textLen;
+
+    @Setup
+    public void setup() {
+        iterFact = instantiate("iterfact.wat.wasm").getExport("iterFact");
+
+        vowels = instantiate("count_vowels.rs.wasm");
+        countVowels = vowels.getExport("count_vowels");
+        var text =
+                "The quick brown fox jumps over the lazy dog. "
+                        .repeat(10)
+                        .getBytes(StandardCharsets.UTF_8);
+        textLen = text.length;
+        textPtr = vowels.getExport("alloc").apply(Value.i32(textLen))[0].asInt();
+        vowels.getMemory().put(textPtr, text);
+    }
+
+    private static Instance instantiate(String name) {
+        var wasm = MachineBenchmark.class.getResourceAsStream("/wasm/" + name);
+        return Module.build(wasm).instantiate();
+    }
+
+    @Benchmark
+    public int loop() {
+        return iterFact.apply(Value.i32(iterations))[0].asInt();
+    }
+
+    @Benchmark
+    public int countVowels() {
+        return countVowels.apply(Value.i32(textPtr), Value.i32(textLen))[0].asInt();
+    }
+}
@@ -0,0 +1,99 @@
+package com.dylibso.chicory.benchmarks;
+
+import com.dylibso.chicory.wasm.Module;
+import com.dylibso.chicory.wasm.Parser;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of machine-generated function bodies: a single function nesting
+ * {@code depth} blocks, every block holding a {@code br_if} to the outermost label, and the
+ * innermost one a {@code br_table} targeting every enclosing label.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"1000", "10000"})
+    private int depth;
+
+    private byte[] wasm;
+
+    @Setup
+    public void setup() {
+        wasm = nestedBlocks(depth);
+    }
+
+    @Benchmark
+    public Module parseNestedBlocks() {
+        return new Parser(ByteBuffer.wrap(wasm)).parseModule();
+    }
+
+    private static byte[] nestedBlocks(int depth) {
+        var body = new ByteArrayOutputStream();
+        body.write(0x00); // no locals
+        for (var i = 0; i < depth; i++) {
+            body.write(0x02); // block
+            body.write(0x40); // empty block type
+            body.write(0x41); // i32.const 0
+            body.write(0x00);
+            body.write(0x0D); // br_if to the function label
+            writeUnsigned(body, i + 1);
+        }
+        body.write(0x41); // i32.const 0
+        body.write(0x00);
+        body.write(0x0E); // br_table
+        writeUnsigned(body, depth);
+        for (var i = 0; i < depth; i++) {
+            writeUnsigned(body, i);
+        }
+        writeUnsigned(body, depth);
+        for (var i = 0; i <= depth; i++) {
+            body.write(0x0B); // end
+        }
+
+        var out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[] {0x00, 0x61, 0x73, 0x6D, 0x01, 0x00, 0x00, 0x00});
+        // type section: () -> ()
+        writeSection(out, 1, new byte[] {0x01, 0x60, 0x00, 0x00});
+        // function section: one function of type 0
+        writeSection(out, 3, new byte[] {0x01, 0x00});
+        // code section: one body
+        var code = new ByteArrayOutputStream();
+        code.write(0x01);
+        writeUnsigned(code, body.size());
+        code.writeBytes(body.toByteArray());
+        writeSection(out, 10, code.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static void writeSection(ByteArrayOutputStream out, int id, byte[] content) {
+        out.write(id);
+        writeUnsigned(out, content.length);
+        out.writeBytes(content);
+    }
+
+    private static void writeUnsigned(ByteArrayOutputStream out, long value) {
+        do {
+            var b = (int) (value & 0x7F);
+            value >>>= 7;
+            out.write(value != 0 ? b | 0x80 : b);
+        } while (value != 0);
+    }
+}
@@ -0,0 +1,57 @@
+package com.dylibso.chicory.benchmarks;
+
+import com.dylibso.chicory.runtime.ExportFunction;
+import com.dylibso.chicory.runtime.Module;
+import com.dylibso.chicory.wasm.types.Value;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a vectorized guest kernel, summing {@code count} i32 four lanes at a time, with
+ * the SIMD instructions running on the Vector API and on the scalar fallback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SimdBenchmark {
+
+    @Param({"4096"})
+    private int count;
+
+    private ExportFunction sum;
+
+    @Setup
+    public void setup() {
+        var wasm = SimdBenchmark.class.getResourceAsStream("/wasm/simd.wat.wasm");
+        var instance = Module.build(wasm).instantiate();
+        sum = instance.getExport("sum");
+        for (var i = 0; i < count; i++) {
+            instance.getMemory().putI32(i * 4, i);
+        }
+    }
+
+    // only differs from sumScalar with a runtime built with -Pvector
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public int sumVector() {
+        return sum.apply(Value.i32(0), Value.i32(count))[0].asInt();
+    }
+
+    @Benchmark
+    @Fork(1)
+    public int sumScalar() {
+        return sum.apply(Value.i32(0), Value.i32(count))[0].asInt();
+    }
+}
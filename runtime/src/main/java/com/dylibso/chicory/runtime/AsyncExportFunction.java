@@ -0,0 +1,14 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.wasm.types.Value;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An Exported function from the Wasm module which can suspend on asynchronous host functions.
+ * The returned future completes with the results of the function, or exceptionally with the
+ * trap that stopped it.
+ */
+@FunctionalInterface
+public interface AsyncExportFunction {
+    CompletableFuture<Value[]> apply(Value... args);
+}
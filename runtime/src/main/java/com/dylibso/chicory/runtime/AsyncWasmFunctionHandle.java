@@ -0,0 +1,14 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.wasm.types.Value;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Represents a Java function that can be called from Wasm and completes later,
+ * e.g. after some I/O. When the guest runs through an {@link AsyncExportFunction}
+ * the guest is suspended, without holding any thread, until the returned stage completes.
+ */
+@FunctionalInterface
+public interface AsyncWasmFunctionHandle {
+    CompletionStage<Value[]> apply(Memory memory, Value... args);
+}
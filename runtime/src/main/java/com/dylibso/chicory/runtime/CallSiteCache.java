@@ -0,0 +1,48 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.runtime.exceptions.WASMRuntimeException;
+import com.dylibso.chicory.wasm.types.FunctionType;
+
+/**
+ * A polymorphic inline cache for a single call_indirect site.
+ * It remembers the last few table elements called from the site, with their signature
+ * already checked, so that a hit resolves the callee with a couple of int compares.
+ * Every entry is dropped as soon as the table is modified.
+ */
+final class CallSiteCache {
+    static final int MAX_ENTRIES = 4;
+
+    private final int[] elements = new int[MAX_ENTRIES];
+    private final int[] targets = new int[MAX_ENTRIES];
+    private int size;
+    private int tableVersion;
+
+    /**
+     * Returns the id of the function stored at the given element of the table,
+     * trapping if its type is not the expected one.
+     */
+    int resolve(Instance instance, Table table, int element, FunctionType expected) {
+        if (tableVersion != table.getVersion()) {
+            size = 0;
+            tableVersion = table.getVersion();
+        }
+        for (var i = 0; i < size; i++) {
+            if (elements[i] == element) {
+                return targets[i];
+            }
+        }
+
+        var funcId = table.getFuncRef(element);
+        var actual = instance.getTypes()[instance.getFunctionType(funcId)];
+        if (!expected.equals(actual)) {
+            throw new WASMRuntimeException("indirect call type mismatch");
+        }
+        // megamorphic sites keep their first entries, they are as good as any others
+        if (size < MAX_ENTRIES) {
+            elements[size] = element;
+            targets[size] = funcId;
+            size++;
+        }
+        return funcId;
+    }
+}
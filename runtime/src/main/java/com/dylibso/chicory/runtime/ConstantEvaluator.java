@@ -0,0 +1,108 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.wasm.exceptions.InvalidException;
+import com.dylibso.chicory.wasm.types.Instruction;
+import com.dylibso.chicory.wasm.types.OpCode;
+import com.dylibso.chicory.wasm.types.Value;
+import com.dylibso.chicory.wasm.types.ValueType;
+
+/**
+ * Evaluates the constant expressions used by global initializers and by data and element
+ * segment offsets, including the arithmetic of the extended-const proposal.
+ */
+final class ConstantEvaluator {
+
+    private ConstantEvaluator() {}
+
+    /**
+     * Evaluates {@code expr} against {@code globals}, indexed in the global index space
+     * (imported globals first).
+     * Returns null when the expression reads a global whose value isn't known yet, the
+     * caller can then retry once the imported globals have been resolved.
+     */
+    static Value eval(Instruction[] expr, Value[] globals) {
+        var stack = new Value[expr.length];
+        var sp = 0;
+        for (var instr : expr) {
+            var operands = instr.getOperands();
+            switch (instr.getOpcode()) {
+                case I32_CONST:
+                    stack[sp++] = Value.i32(operands[0]);
+                    break;
+                case I64_CONST:
+                    stack[sp++] = Value.i64(operands[0]);
+                    break;
+                case F32_CONST:
+                    stack[sp++] = Value.f32(operands[0]);
+                    break;
+                case F64_CONST:
+                    stack[sp++] = Value.f64(operands[0]);
+                    break;
+                case V128_CONST:
+                    stack[sp++] = Value.v128(operands[0], operands[1]);
+                    break;
+                case REF_NULL:
+                    stack[sp++] =
+                            operands[0] == ValueType.FuncRef.id()
+                                    ? Value.funcRef(Table.NULL_REF)
+                                    : Value.REF_NULL;
+                    break;
+                case REF_FUNC:
+                    stack[sp++] = Value.funcRef(operands[0]);
+                    break;
+                case GLOBAL_GET:
+                    {
+                        var idx = (int) operands[0];
+                        if (idx < 0 || idx >= globals.length) {
+                            throw new InvalidException("unknown global " + idx);
+                        }
+                        if (globals[idx] == null) {
+                            return null;
+                        }
+                        stack[sp++] = globals[idx];
+                        break;
+                    }
+                case I32_ADD:
+                case I32_SUB:
+                case I32_MUL:
+                case I64_ADD:
+                case I64_SUB:
+                case I64_MUL:
+                    if (sp < 2) {
+                        throw new InvalidException("type mismatch");
+                    }
+                    sp--;
+                    stack[sp - 1] = binary(instr.getOpcode(), stack[sp - 1], stack[sp]);
+                    break;
+                case END:
+                    break;
+                default:
+                    throw new InvalidException(
+                            "constant expression required, found " + instr.getOpcode());
+            }
+        }
+        if (sp != 1) {
+            throw new InvalidException("type mismatch");
+        }
+        return stack[0];
+    }
+
+    private static Value binary(OpCode opcode, Value a, Value b) {
+        switch (opcode) {
+            case I32_ADD:
+                return Value.i32(a.asInt() + b.asInt());
+            case I32_SUB:
+                return Value.i32(a.asInt() - b.asInt());
+            case I32_MUL:
+                return Value.i32(a.asInt() * b.asInt());
+            case I64_ADD:
+                return Value.i64(a.asLong() + b.asLong());
+            case I64_SUB:
+                return Value.i64(a.asLong() - b.asLong());
+            case I64_MUL:
+                return Value.i64(a.asLong() * b.asLong());
+            default:
+                throw new InvalidException("constant expression required, found " + opcode);
+        }
+    }
+}
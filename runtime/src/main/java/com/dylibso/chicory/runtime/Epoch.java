@@ -0,0 +1,23 @@
+package com.dylibso.chicory.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A coarse grained clock, usually advanced by a host side ticker, that can be shared
+ * by many instances. An {@link Instance} with an epoch deadline only reads it at function
+ * entries and loop back-edges, so bounding the run time of a guest is almost free.
+ */
+public final class Epoch {
+    private final AtomicLong ticks = new AtomicLong();
+
+    /**
+     * Advances the epoch by one tick, returning the new value.
+     */
+    public long increment() {
+        return ticks.incrementAndGet();
+    }
+
+    public long get() {
+        return ticks.get();
+    }
+}
@@ -0,0 +1,14 @@
+package com.dylibso.chicory.runtime;
+
+import java.util.Stack;
+
+/**
+ * Raised when an {@link Instance} is still running once its epoch deadline has passed.
+ * The execution state is left untouched, so after extending the deadline the computation
+ * can be continued with {@link Instance#resume()}.
+ */
+public class EpochDeadlineExceededException extends TrapException {
+    public EpochDeadlineExceededException(long deadline, Stack<StackFrame> callStack) {
+        super("Epoch deadline " + deadline + " exceeded", callStack);
+    }
+}
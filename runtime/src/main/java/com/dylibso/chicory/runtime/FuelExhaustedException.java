@@ -0,0 +1,24 @@
+package com.dylibso.chicory.runtime;
+
+import java.util.Stack;
+
+/**
+ * Raised when an {@link Instance} runs out of fuel.
+ * The execution state is left untouched, so the computation can be
+ * continued with {@link Instance#resume()} after adding more fuel.
+ */
+public class FuelExhaustedException extends TrapException {
+    private final long requiredFuel;
+
+    public FuelExhaustedException(long requiredFuel, Stack<StackFrame> callStack) {
+        super("Fuel exhausted, " + requiredFuel + " units required", callStack);
+        this.requiredFuel = requiredFuel;
+    }
+
+    /**
+     * The fuel needed to run the basic block the execution stopped at.
+     */
+    public long getRequiredFuel() {
+        return requiredFuel;
+    }
+}
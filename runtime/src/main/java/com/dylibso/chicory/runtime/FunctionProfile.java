@@ -0,0 +1,63 @@
+package com.dylibso.chicory.runtime;
+
+/**
+ * What a {@link Profiler} recorded for one function.
+ * The total time includes the callees, the self time doesn't. The total time of a recursive
+ * function only counts its outermost calls.
+ */
+public final class FunctionProfile {
+    private final int funcId;
+    private final String name;
+    private long calls;
+    private long totalNanos;
+    private long selfNanos;
+    private long instructions;
+
+    FunctionProfile(int funcId, String name) {
+        this.funcId = funcId;
+        this.name = name;
+    }
+
+    void add(long calls, long totalNanos, long selfNanos, long instructions) {
+        this.calls += calls;
+        this.totalNanos += totalNanos;
+        this.selfNanos += selfNanos;
+        this.instructions += instructions;
+    }
+
+    public int getFuncId() {
+        return funcId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getSelfNanos() {
+        return selfNanos;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public String toString() {
+        return name
+                + " calls="
+                + calls
+                + " total="
+                + totalNanos
+                + "ns self="
+                + selfNanos
+                + "ns instructions="
+                + instructions;
+    }
+}
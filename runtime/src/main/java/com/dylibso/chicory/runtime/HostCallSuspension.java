@@ -0,0 +1,22 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.wasm.exceptions.ChicoryException;
+import com.dylibso.chicory.wasm.types.Value;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Unwinds the Java stack when the guest waits on an asynchronous host function.
+ * The guest frames stay on the {@link Machine} call stack, so nothing is lost.
+ */
+class HostCallSuspension extends ChicoryException {
+    private final CompletableFuture<Value[]> pending;
+
+    HostCallSuspension(CompletableFuture<Value[]> pending) {
+        super("Suspended on an asynchronous host function");
+        this.pending = pending;
+    }
+
+    CompletableFuture<Value[]> getPending() {
+        return pending;
+    }
+}
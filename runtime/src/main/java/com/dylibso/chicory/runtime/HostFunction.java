@@ -5,6 +5,7 @@ import java.util.List;
 
 public class HostFunction {
     private final WasmFunctionHandle handle;
+    private final AsyncWasmFunctionHandle asyncHandle;
     private final String moduleName;
     private final String fieldName;
     private final List<ValueType> paramTypes;
@@ -16,17 +17,55 @@ public class HostFunction {
             String fieldName,
             List<ValueType> paramTypes,
             List<ValueType> returnTypes) {
+        this(handle, null, moduleName, fieldName, paramTypes, returnTypes);
+    }
+
+    private HostFunction(
+            WasmFunctionHandle handle,
+            AsyncWasmFunctionHandle asyncHandle,
+            String moduleName,
+            String fieldName,
+            List<ValueType> paramTypes,
+            List<ValueType> returnTypes) {
         this.handle = handle;
+        this.asyncHandle = asyncHandle;
         this.moduleName = moduleName;
         this.fieldName = fieldName;
         this.paramTypes = paramTypes;
         this.returnTypes = returnTypes;
     }
 
+    /**
+     * Creates a host function which completes asynchronously, see {@link AsyncExportFunction}.
+     * Plain calls through an {@link ExportFunction} block until it completes.
+     */
+    public static HostFunction ofAsync(
+            AsyncWasmFunctionHandle asyncHandle,
+            String moduleName,
+            String fieldName,
+            List<ValueType> paramTypes,
+            List<ValueType> returnTypes) {
+        return new HostFunction(
+                (memory, args) -> asyncHandle.apply(memory, args).toCompletableFuture().join(),
+                asyncHandle,
+                moduleName,
+                fieldName,
+                paramTypes,
+                returnTypes);
+    }
+
     public WasmFunctionHandle getHandle() {
         return handle;
     }
 
+    public AsyncWasmFunctionHandle getAsyncHandle() {
+        return asyncHandle;
+    }
+
+    public boolean isAsync() {
+        return asyncHandle != null;
+    }
+
     public String getModuleName() {
         return moduleName;
     }
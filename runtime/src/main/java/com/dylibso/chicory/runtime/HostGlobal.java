@@ -0,0 +1,48 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.wasm.types.MutabilityType;
+import com.dylibso.chicory.wasm.types.Value;
+
+/**
+ * A global provided by the host to satisfy a global import.
+ * The instance reads and writes the value through this object, so a mutable global is shared
+ * between the host and the guest.
+ */
+public class HostGlobal {
+    private final String moduleName;
+    private final String fieldName;
+    private final MutabilityType mutabilityType;
+    private Value value;
+
+    public HostGlobal(String moduleName, String fieldName, Value value) {
+        this(moduleName, fieldName, value, MutabilityType.Const);
+    }
+
+    public HostGlobal(
+            String moduleName, String fieldName, Value value, MutabilityType mutabilityType) {
+        this.moduleName = moduleName;
+        this.fieldName = fieldName;
+        this.value = value;
+        this.mutabilityType = mutabilityType;
+    }
+
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public MutabilityType getMutabilityType() {
+        return mutabilityType;
+    }
+
+    public Value getValue() {
+        return value;
+    }
+
+    public void setValue(Value value) {
+        this.value = value;
+    }
+}
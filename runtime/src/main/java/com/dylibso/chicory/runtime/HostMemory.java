@@ -0,0 +1,30 @@
+package com.dylibso.chicory.runtime;
+
+/**
+ * A memory provided by the host to satisfy a memory import.
+ * The same memory can be given to several instances, when it is shared they can run on
+ * different threads and synchronize through the atomic instructions.
+ */
+public class HostMemory {
+    private final String moduleName;
+    private final String fieldName;
+    private final Memory memory;
+
+    public HostMemory(String moduleName, String fieldName, Memory memory) {
+        this.moduleName = moduleName;
+        this.fieldName = fieldName;
+        this.memory = memory;
+    }
+
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public Memory getMemory() {
+        return memory;
+    }
+}
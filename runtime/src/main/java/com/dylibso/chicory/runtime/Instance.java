@@ -1,45 +1,59 @@
 package com.dylibso.chicory.runtime;
 
+import com.dylibso.chicory.runtime.jfr.FunctionCallEvent;
 import com.dylibso.chicory.wasm.types.*;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
+/**
+ * An instantiated {@link Module}, holding the memories, globals, table and execution stacks
+ * of a running guest.
+ * An Instance is not thread-safe, it can be handed over between threads but
+ * must only be used by one thread at a time. Instantiate the shared Module once per thread
+ * when the same guest has to run concurrently.
+ */
 public class Instance {
     private static final System.Logger LOGGER = System.getLogger(Instance.class.getName());
     private Module module;
     private Machine machine;
     private FunctionBody[] functions;
-    private Memory memory;
+    private Memory[] memories;
     private Global[] globalInitalizers;
     private Value[] globals;
 
-    private int importedGlobalsOffset;
+    private HostGlobal[] importedGlobals;
     private FunctionType[] types;
     private int[] functionTypes;
     private HostFunction[] imports;
     private Table table;
+    private int[][] elements;
 
     public Instance(
             Module module,
             Global[] globalInitalizers,
             Value[] globals,
-            int importedGlobalsOffset,
-            Memory memory,
+            HostGlobal[] importedGlobals,
+            Memory[] memories,
             FunctionBody[] functions,
             FunctionType[] types,
             int[] functionTypes,
             HostFunction[] imports,
-            Table table) {
+            Table table,
+            int[][] elements) {
         this.module = module;
         this.globalInitalizers = globalInitalizers;
         this.globals = globals;
-        this.importedGlobalsOffset = importedGlobalsOffset;
-        this.memory = memory;
+        this.importedGlobals = importedGlobals;
+        this.memories = memories;
         this.functions = functions;
         this.types = types;
         this.functionTypes = functionTypes;
         this.imports = imports;
         this.machine = new Machine(this);
         this.table = table;
+        this.elements = elements;
     }
 
     public ExportFunction getExport(String name) {
@@ -47,15 +61,194 @@ public class Instance {
         var funcId = (int) export.getDesc().getIndex();
         return (args) -> {
             LOGGER.log(System.Logger.Level.DEBUG, "Args: " + Arrays.toString(args));
+            var event = new FunctionCallEvent();
+            event.begin();
+            var callDepth = machine.enterFromHost();
+            var stackSize = machine.getStackSize();
+            var suspendable = machine.isSuspendable();
             try {
+                machine.setSuspendable(false);
                 return machine.call(funcId, args, true);
             } catch (Exception e) {
-                machine.printStackTrace();
+                onTrap(e);
+                machine.exitFromHost(callDepth, stackSize, e);
                 throw e;
+            } finally {
+                // a host function calling back into the guest may run under an async export
+                machine.setSuspendable(suspendable);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.moduleName = module.getName();
+                    event.functionIndex = funcId;
+                    event.functionName = getFunctionName(funcId);
+                    event.commit();
+                }
             }
         };
     }
 
+    /**
+     * Enables fuel metering and sets the remaining budget.
+     * Every basic block of guest code consumes as much fuel as the number of instructions it
+     * holds, when the budget can't pay for the next block a {@link FuelExhaustedException}
+     * is thrown.
+     */
+    public void setFuel(long fuel) {
+        machine.setFuel(fuel);
+    }
+
+    public void addFuel(long fuel) {
+        machine.addFuel(fuel);
+    }
+
+    public long getFuel() {
+        return machine.getFuel();
+    }
+
+    public boolean isFuelMetered() {
+        return machine.isFuelMetered();
+    }
+
+    public void disableFuelMetering() {
+        machine.disableFuelMetering();
+    }
+
+    /**
+     * Makes the guest trap with an {@link EpochDeadlineExceededException} once {@code epoch}
+     * has been incremented {@code ticks} times from now.
+     * The deadline is checked when entering a function and when branching back to a loop.
+     */
+    public void setEpochDeadline(Epoch epoch, long ticks) {
+        machine.setEpochDeadline(epoch, ticks);
+    }
+
+    public void clearEpochDeadline() {
+        machine.clearEpochDeadline();
+    }
+
+    /**
+     * Same as {@link #getAsyncExport(String, Executor)}, the guest continues on the thread
+     * which completes the asynchronous host function.
+     */
+    public AsyncExportFunction getAsyncExport(String name) {
+        return getAsyncExport(name, Runnable::run);
+    }
+
+    /**
+     * Returns an Exported function which doesn't block on asynchronous host functions.
+     * The guest runs on the calling thread until it waits on a host function, then the
+     * frames are kept in the Machine and the thread is released. Once the host function
+     * completes the guest continues on the given executor.
+     * The Instance must not be used for anything else until the returned future completes.
+     */
+    public AsyncExportFunction getAsyncExport(String name, Executor executor) {
+        var export = module.getExport(name);
+        var funcId = (int) export.getDesc().getIndex();
+        return (args) -> {
+            LOGGER.log(System.Logger.Level.DEBUG, "Args: " + Arrays.toString(args));
+            var result = new CompletableFuture<Value[]>();
+            var callDepth = machine.enterFromHost();
+            var stackSize = machine.getStackSize();
+            machine.setSuspendable(true);
+            step(() -> machine.call(funcId, args, true), executor, result, callDepth, stackSize);
+            return result;
+        };
+    }
+
+    private void step(
+            Supplier<Value[]> execution,
+            Executor executor,
+            CompletableFuture<Value[]> result,
+            int callDepth,
+            int stackSize) {
+        try {
+            var results = execution.get();
+            machine.setSuspendable(false);
+            result.complete(results);
+        } catch (HostCallSuspension suspension) {
+            suspension
+                    .getPending()
+                    .whenCompleteAsync(
+                            (hostResults, error) -> {
+                                if (error != null) {
+                                    // the suspended guest is abandoned
+                                    machine.exitFromHost(callDepth, stackSize, error);
+                                    machine.setSuspendable(false);
+                                    result.completeExceptionally(error);
+                                } else {
+                                    step(
+                                            () -> machine.resumeHostCall(hostResults),
+                                            executor,
+                                            result,
+                                            callDepth,
+                                            stackSize);
+                                }
+                            },
+                            executor);
+        } catch (Exception e) {
+            machine.setSuspendable(false);
+            onTrap(e);
+            machine.exitFromHost(callDepth, stackSize, e);
+            result.completeExceptionally(e);
+        }
+    }
+
+    public void setMetrics(RuntimeMetrics metrics) {
+        machine.setMetrics(metrics);
+    }
+
+    public RuntimeMetrics getMetrics() {
+        return machine.getMetrics();
+    }
+
+    public void setProfiler(Profiler profiler) {
+        machine.setProfiler(profiler);
+    }
+
+    public Profiler getProfiler() {
+        return machine.getProfiler();
+    }
+
+    /**
+     * The name of a function in the name section, or module.field for the imported
+     * functions without one, null if the function has no name.
+     */
+    public String getFunctionName(int funcId) {
+        var nameSec = module.getNameSection();
+        if (nameSec != null) {
+            var name = nameSec.getFunctionName(funcId);
+            if (name != null) {
+                return name;
+            }
+        }
+        if (funcId < imports.length && imports[funcId] != null) {
+            return imports[funcId].getModuleName() + "." + imports[funcId].getFieldName();
+        }
+        return null;
+    }
+
+    /**
+     * Resumes the export call interrupted by a {@link FuelExhaustedException}
+     * or an {@link EpochDeadlineExceededException}, returning its results.
+     */
+    public Value[] resume() {
+        try {
+            return machine.resume();
+        } catch (Exception e) {
+            onTrap(e);
+            machine.exitFromHost(0, 0, e);
+            throw e;
+        }
+    }
+
+    private void onTrap(Exception e) {
+        machine.printStackTrace();
+        var metrics = machine.getMetrics();
+        if (metrics != null) {
+            metrics.onTrap(e);
+        }
+    }
+
     public FunctionBody[] getFunctions() {
         return functions;
     }
@@ -65,24 +258,53 @@ public class Instance {
         return functions[idx - this.imports.length];
     }
 
+    /**
+     * Gets the memory at index 0, the one host functions are given.
+     */
     public Memory getMemory() {
-        return memory;
+        return memories.length == 0 ? null : memories[0];
+    }
+
+    /**
+     * Gets a memory by its index in the memory index space, where the imported memories come
+     * first.
+     */
+    public Memory getMemory(int idx) {
+        return memories[idx];
     }
 
     public Value[] getGlobals() {
         return globals;
     }
 
+    /**
+     * Sets a global by its index in the global index space, where the imported globals come
+     * first.
+     */
     public void setGlobal(int idx, Value val) {
-        globals[idx - importedGlobalsOffset] = val;
+        if (idx < importedGlobals.length) {
+            importedGlobals[idx].setValue(val);
+        } else {
+            globals[idx - importedGlobals.length] = val;
+        }
     }
 
     public Value getGlobal(int idx) {
-        return globals[idx - importedGlobalsOffset];
+        if (idx < importedGlobals.length) {
+            return importedGlobals[idx].getValue();
+        }
+        return globals[idx - importedGlobals.length];
+    }
+
+    public MutabilityType getGlobalMutability(int idx) {
+        if (idx < importedGlobals.length) {
+            return importedGlobals[idx].getMutabilityType();
+        }
+        return globalInitalizers[idx - importedGlobals.length].getMutabilityType();
     }
 
     public Global getGlobalInitalizer(int idx) {
-        return globalInitalizers[idx - importedGlobalsOffset];
+        return globalInitalizers[idx - importedGlobals.length];
     }
 
     public FunctionType[] getTypes() {
@@ -90,7 +312,7 @@ public class Instance {
     }
 
     public int getFunctionType(int idx) {
-        return functionTypes[idx + importedGlobalsOffset];
+        return functionTypes[idx];
     }
 
     public HostFunction[] getImports() {
@@ -104,4 +326,15 @@ public class Instance {
     public Table getTable() {
         return table;
     }
+
+    /**
+     * The function ids of an element segment, empty once the segment has been dropped.
+     */
+    public int[] getElement(int idx) {
+        return elements[idx];
+    }
+
+    public void dropElement(int idx) {
+        elements[idx] = new int[0];
+    }
 }
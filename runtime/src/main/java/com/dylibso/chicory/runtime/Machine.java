@@ -1,11 +1,14 @@
 package com.dylibso.chicory.runtime;
 
 import com.dylibso.chicory.runtime.exceptions.WASMRuntimeException;
+import com.dylibso.chicory.runtime.jfr.HostCallEvent;
 import com.dylibso.chicory.wasm.exceptions.ChicoryException;
+import com.dylibso.chicory.wasm.types.FunctionBody;
 import com.dylibso.chicory.wasm.types.Instruction;
-import com.dylibso.chicory.wasm.types.MutabilityType;
+import com.dylibso.chicory.wasm.types.OpCode;
 import com.dylibso.chicory.wasm.types.Value;
 import com.dylibso.chicory.wasm.types.ValueType;
+import java.lang.invoke.VarHandle;
 import java.util.List;
 import java.util.Stack;
 
@@ -26,22 +29,145 @@ public class Machine {
 
     private final Instance instance;
 
+    private final CallSiteCache[] callSiteCaches;
+
+    private static final Simd SIMD = Simd.create();
+
+    private boolean fuelMetered;
+
+    private long fuel;
+
+    private Epoch epoch;
+
+    private long epochDeadline;
+
+    private boolean suspendable;
+
+    private Profiler profiler;
+
+    private RuntimeMetrics metrics;
+
+    // an execution stopped by fuel or an epoch deadline left its frames for resume()
+    private boolean interrupted;
+
     public Machine(Instance instance) {
         this.instance = instance;
         this.stack = new MStack();
         this.callStack = new Stack<>();
+        this.callSiteCaches = new CallSiteCache[instance.getModule().getCallSiteCount()];
+        for (var i = 0; i < callSiteCaches.length; i++) {
+            callSiteCaches[i] = new CallSiteCache();
+        }
+    }
+
+    public boolean isFuelMetered() {
+        return fuelMetered;
+    }
+
+    public long getFuel() {
+        return fuel;
+    }
+
+    public void setFuel(long fuel) {
+        if (fuel < 0) {
+            throw new IllegalArgumentException("fuel must be >= 0, but was " + fuel);
+        }
+        this.fuelMetered = true;
+        this.fuel = fuel;
+    }
+
+    public void addFuel(long fuel) {
+        setFuel(Math.addExact(this.fuel, fuel));
+    }
+
+    public void disableFuelMetering() {
+        this.fuelMetered = false;
+        this.fuel = 0;
+    }
+
+    public void setEpochDeadline(Epoch epoch, long ticks) {
+        if (ticks < 0) {
+            throw new IllegalArgumentException("ticks must be >= 0, but was " + ticks);
+        }
+        this.epoch = epoch;
+        this.epochDeadline = epoch.get() + ticks;
+    }
+
+    public void clearEpochDeadline() {
+        this.epoch = null;
+        this.epochDeadline = 0;
     }
 
     public Value[] call(int funcId, Value[] args, boolean popResults) throws ChicoryException {
+        if (profiler == null) {
+            invoke(funcId, args);
+        } else {
+            var callDepth = this.callStack.size();
+            profiler.enter(funcId);
+            try {
+                invoke(funcId, args);
+            } finally {
+                // the frames kept for resume() keep their calls open, they are exited as the
+                // frames are popped
+                if (this.callStack.size() <= callDepth) {
+                    profiler.exit();
+                }
+            }
+        }
+
+        if (!popResults) {
+            return null;
+        }
+
+        return popResults(funcId);
+    }
+
+    private void invoke(int funcId, Value[] args) throws ChicoryException {
         var func = instance.getFunction(funcId);
+        if (metrics != null) {
+            metrics.onCall(callStack.size() + 1);
+        }
         if (func != null) {
             this.callStack.push(new StackFrame(instance, funcId, 0, args, func.getLocals()));
+            // the frame is already in place, so resuming re-enters the function from the start
+            checkEpochDeadline();
             eval(func.getInstructions());
         } else {
             this.callStack.push(new StackFrame(instance, funcId, 0, args, List.of()));
             var imprt = instance.getImports()[funcId];
-            var hostFunc = imprt.getHandle();
-            var results = hostFunc.apply(this.instance.getMemory(), args);
+            if (metrics != null) {
+                metrics.onHostCall(funcId);
+            }
+            var event = new HostCallEvent();
+            event.begin();
+            Value[] results;
+            try {
+                // only guest callers can be suspended, their frames are all we need to continue
+                if (suspendable && imprt.isAsync() && this.callStack.size() > 1) {
+                    var pending =
+                            imprt.getAsyncHandle()
+                                    .apply(this.instance.getMemory(), args)
+                                    .toCompletableFuture();
+                    if (!pending.isDone()) {
+                        this.callStack.pop();
+                        if (profiler != null) {
+                            profiler.suspend();
+                        }
+                        throw new HostCallSuspension(pending);
+                    }
+                    results = pending.join();
+                } else {
+                    results = imprt.getHandle().apply(this.instance.getMemory(), args);
+                }
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.moduleName = instance.getModule().getName();
+                    event.functionIndex = funcId;
+                    event.importName = imprt.getModuleName() + "." + imprt.getFieldName();
+                    event.commit();
+                }
+            }
             // a host function can return null or an array of ints
             // which we will push onto the stack
             if (results != null) {
@@ -54,11 +180,155 @@ public class Machine {
         if (!this.callStack.isEmpty()) {
             this.callStack.pop();
         }
+    }
 
-        if (!popResults) {
-            return null;
+    /**
+     * Continues an execution which stopped with a {@link FuelExhaustedException}
+     * or an {@link EpochDeadlineExceededException}.
+     * The interrupted frames are evaluated again, innermost first, starting from the basic
+     * block that could not be paid for. The callers are resumed right after their call
+     * instruction, exactly as if the callee had returned normally.
+     */
+    public Value[] resume() throws ChicoryException {
+        if (this.callStack.isEmpty()) {
+            throw new ChicoryException("There is no suspended execution to resume");
+        }
+        this.interrupted = false;
+        if (profiler != null) {
+            profiler.resume();
+        }
+        var funcId = this.callStack.firstElement().funcId;
+        while (!this.callStack.isEmpty()) {
+            var frame = this.callStack.peek();
+            eval(instance.getFunction(frame.funcId).getInstructions());
+            popFrame();
+        }
+        return popResults(funcId);
+    }
+
+    /**
+     * Continues an execution which was suspended on an asynchronous host function,
+     * using the given values as the results of the host function.
+     */
+    public Value[] resumeHostCall(Value[] results) throws ChicoryException {
+        if (results != null) {
+            for (var result : results) {
+                this.stack.push(result);
+            }
+        }
+        return resume();
+    }
+
+    /**
+     * When enabled, calling an asynchronous host function which doesn't complete
+     * immediately suspends the guest instead of blocking the current thread.
+     */
+    public void setSuspendable(boolean suspendable) {
+        this.suspendable = suspendable;
+    }
+
+    public boolean isSuspendable() {
+        return suspendable;
+    }
+
+    /**
+     * Records the calls and the instructions executed from now on, null disables profiling.
+     */
+    public void setProfiler(Profiler profiler) {
+        if (profiler != null) {
+            profiler.attach(instance);
+        }
+        this.profiler = profiler;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Counts what is executed from now on, null disables the metrics.
+     */
+    public void setMetrics(RuntimeMetrics metrics) {
+        if (metrics != null) {
+            metrics.attach(instance);
         }
+        this.metrics = metrics;
+    }
+
+    public RuntimeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Drops any state left behind by a previous execution that was not completed.
+     */
+    public void reset() {
+        while (!this.callStack.isEmpty()) {
+            popFrame();
+        }
+        while (this.stack.size() > 0) {
+            this.stack.pop();
+        }
+        this.interrupted = false;
+        if (profiler != null) {
+            profiler.resume();
+        }
+    }
+
+    /**
+     * Prepares a call coming from the host and returns the depth of the call stack it starts
+     * at. A host function calling back into the guest starts above the frames of its callers,
+     * which are still running and are kept. A new call from the top drops the frames of an
+     * interrupted execution, which won't be resumed anymore.
+     */
+    int enterFromHost() {
+        if (interrupted) {
+            reset();
+        }
+        return this.callStack.size();
+    }
+
+    /**
+     * Cleans up after a call from the host which threw. Only an execution started from the top
+     * and stopped by fuel or an epoch deadline keeps its frames, for {@link #resume()},
+     * anything else is unwound to the call stack depth and stack size it started with.
+     */
+    void exitFromHost(int callDepth, int stackSize, Throwable e) {
+        if (callDepth == 0
+                && (e instanceof FuelExhaustedException
+                        || e instanceof EpochDeadlineExceededException)) {
+            interrupted = true;
+            if (profiler != null) {
+                profiler.suspend();
+            }
+            return;
+        }
+        while (this.callStack.size() > callDepth) {
+            popFrame();
+        }
+        while (this.stack.size() > stackSize) {
+            this.stack.pop();
+        }
+        if (profiler != null) {
+            profiler.resume();
+        }
+    }
+
+    /**
+     * Pops a frame kept after its call returned, exiting its call in the profiler.
+     */
+    private void popFrame() {
+        this.callStack.pop();
+        if (profiler != null) {
+            profiler.exit();
+        }
+    }
+
+    int getStackSize() {
+        return this.stack.size();
+    }
 
+    private Value[] popResults(int funcId) {
         var typeId = instance.getFunctionType(funcId);
         var type = instance.getTypes()[typeId];
         if (type.getReturns().length == 0) return null;
@@ -80,19 +350,32 @@ public class Machine {
             loop:
             while (frame.pc < code.size()) {
                 if (shouldReturn) return;
-                var instruction = code.get(frame.pc++);
-                LOGGER.log(
-                        System.Logger.Level.DEBUG,
-                        "func="
-                                + frame.funcId
-                                + "@"
-                                + frame.pc
-                                + ": "
-                                + instruction
-                                + " stack="
-                                + this.stack);
+                var pc = frame.pc;
+                var instruction = code.get(pc);
+                if (fuelMetered) {
+                    consumeFuel(instruction.getBasicBlockSize());
+                }
+                if (profiler != null) {
+                    profiler.countInstructions(instruction.getBasicBlockSize());
+                }
+                frame.pc++;
+                if (LOGGER.isLoggable(System.Logger.Level.DEBUG)) {
+                    LOGGER.log(
+                            System.Logger.Level.DEBUG,
+                            "func="
+                                    + frame.funcId
+                                    + "@"
+                                    + frame.pc
+                                    + ": "
+                                    + instruction
+                                    + " stack="
+                                    + this.stack);
+                }
                 var opcode = instruction.getOpcode();
                 var operands = instruction.getOperands();
+                if (metrics != null) {
+                    metrics.onInstruction(opcode, this.stack.size());
+                }
                 switch (opcode) {
                     case UNREACHABLE:
                         throw new TrapException("Trapped on unreachable instruction", callStack);
@@ -100,32 +383,8 @@ public class Machine {
                         break;
                     case LOOP:
                     case BLOCK:
-                        {
-                            frame.blockDepth++;
-
-                            frame.isControlFrame = true;
-                            frame.stackSizeBeforeBlock =
-                                    Math.max(this.stack.size(), frame.stackSizeBeforeBlock);
-                            var typeId = (int) operands[0];
-
-                            // https://www.w3.org/TR/wasm-core-2/binary/instructions.html#binary-blocktype
-                            if (typeId == 0x40) { // epsilon
-                                frame.numberOfValuesToReturn =
-                                        Math.max(frame.numberOfValuesToReturn, 0);
-                            } else if (ValueType.byId(typeId)
-                                    != null) { // shortcut to straight value type
-                                frame.numberOfValuesToReturn =
-                                        Math.max(frame.numberOfValuesToReturn, 1);
-                            } else { // look it up
-                                var funcType = instance.getTypes()[typeId];
-                                frame.numberOfValuesToReturn =
-                                        Math.max(
-                                                frame.numberOfValuesToReturn,
-                                                funcType.getReturns().length);
-                            }
-
-                            break;
-                        }
+                        enterBlock(frame, (int) operands[0]);
+                        break;
                     case IF:
                         {
                             frame.blockDepth++;
@@ -145,6 +404,7 @@ public class Machine {
                             frame.doControlTransfer = true;
 
                             frame.pc = instruction.getLabelTrue();
+                            checkBackEdge(frame, pc);
                             break;
                         }
                     case BR_IF:
@@ -158,107 +418,50 @@ public class Machine {
                                 frame.doControlTransfer = true;
                                 frame.branchConditionValue = predValue;
                                 frame.pc = instruction.getLabelTrue();
+                                checkBackEdge(frame, pc);
                             }
                             break;
                         }
                     case BR_TABLE:
-                        {
-                            var predValue = this.stack.pop();
-                            var pred = predValue.asInt();
-
-                            frame.doControlTransfer = true;
-
-                            if (pred < 0 || pred >= instruction.getLabelTable().length - 1) {
-                                // choose default
-                                frame.pc =
-                                        instruction
-                                                .getLabelTable()[
-                                                instruction.getLabelTable().length - 1];
-                            } else {
-                                frame.branchConditionValue = predValue;
-                                frame.pc = instruction.getLabelTable()[pred];
-                            }
-
-                            break;
-                        }
+                        branchTable(frame, instruction, pc);
+                        break;
                     case RETURN:
                         shouldReturn = true;
                         break;
                     case CALL_INDIRECT:
-                        {
-                            var tableIdx = operands[1];
-                            if (tableIdx != 0)
-                                throw new ChicoryException(
-                                        "We only support a table index of 0 in call-indirect");
-                            var funcTableIdx = this.stack.pop().asInt();
-                            var funcId = instance.getTable().getFuncRef(funcTableIdx);
-                            var typeId = (int) operands[0];
-                            var type = instance.getTypes()[typeId];
-                            // given a list of param types, let's pop those params off the stack
-                            // and pass as args to the function call
-                            var args = extractArgsForParams(type.getParams());
-                            call(funcId, args, false);
+                        callIndirect(instruction);
+                        break;
+                    case RETURN_CALL:
+                    case RETURN_CALL_INDIRECT:
+                        {
+                            var funcId =
+                                    opcode == OpCode.RETURN_CALL
+                                            ? (int) operands[0]
+                                            : resolveIndirect(instruction);
+                            var func = instance.getFunction(funcId);
+                            if (func == null) {
+                                // a host function doesn't use the frame, it is called as usual.
+                                // The return is recorded in the frame first, an async host
+                                // function can suspend the guest and resume() only sees frames
+                                frame.pc = code.size();
+                                callDirect(funcId);
+                                break;
+                            }
+                            frame = tailCall(funcId, func);
+                            code = func.getInstructions();
                             break;
                         }
                     case DROP:
                         this.stack.pop();
                         break;
-                    case SELECT:
-                        {
-                            var pred = this.stack.pop().asInt();
-                            var b = this.stack.pop();
-                            var a = this.stack.pop();
-                            if (pred == 0) {
-                                this.stack.push(b);
-                            } else {
-                                this.stack.push(a);
-                            }
-                            break;
-                        }
                     case END:
-                        {
-                            // if this is the last end, then we're done with
-                            // the function
-                            if (frame.blockDepth == 0) {
-                                break loop;
-                            }
-                            frame.blockDepth--;
-
-                            // control transfer happens on all blocks but not on the depth 0
-                            if (frame.doControlTransfer && frame.isControlFrame) {
-                                // reset the control transfer
-                                frame.doControlTransfer = false;
-
-                                var valuesToBePushedBack =
-                                        Math.min(frame.numberOfValuesToReturn, this.stack.size());
-
-                                // pop the values from the stack
-                                Value[] tmp = new Value[valuesToBePushedBack];
-                                for (int i = 0; i < valuesToBePushedBack; i++) {
-                                    tmp[i] = this.stack.pop();
-                                }
-
-                                // drop everything till the previous label
-                                while (this.stack.size() > frame.stackSizeBeforeBlock) {
-                                    this.stack.pop();
-                                }
-
-                                // this is mostly empirical
-                                // if a branch have been taken we restore the consumed value from
-                                // the stack
-                                if (frame.branchConditionValue != null
-                                        && frame.branchConditionValue.asInt() > 0) {
-                                    this.stack.push(frame.branchConditionValue);
-                                }
-
-                                // Push the values to the stack.
-                                for (int i = valuesToBePushedBack - 1; i >= 0; i--) {
-                                    this.stack.push(tmp[i]);
-                                }
-                            }
-
-                            break;
+                        // if this is the last end, then we're done with
+                        // the function
+                        if (frame.blockDepth == 0) {
+                            break loop;
                         }
+                        exitBlock(frame);
+                        break;
                     case LOCAL_GET:
                         {
                             this.stack.push(frame.getLocal((int) operands[0]));
@@ -275,1401 +478,2886 @@ public class Machine {
                             frame.setLocal((int) operands[0], this.stack.peek());
                             break;
                         }
-                    case GLOBAL_GET:
+                    case I32_CONST:
                         {
-                            var ex = instance.getImports().length;
-                            var val = instance.getGlobal((int) operands[0]);
-                            this.stack.push(val);
+                            this.stack.push(Value.i32(operands[0]));
                             break;
                         }
-                    case GLOBAL_SET:
+                    case I64_CONST:
                         {
-                            var id = (int) operands[0];
-                            var global = instance.getGlobalInitalizer(id);
-                            if (global.getMutabilityType() == MutabilityType.Const)
-                                throw new RuntimeException(
-                                        "Can't call GLOBAL_SET on immutable global");
-                            var val = this.stack.pop();
-                            instance.setGlobal(id, val);
+                            this.stack.push(Value.i64(operands[0]));
                             break;
                         }
-                        // TODO signed and unsigned are the same right now
-                    case I32_LOAD:
+                    case F32_CONST:
                         {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getI32(ptr);
-                            this.stack.push(val);
+                            this.stack.push(Value.f32(operands[0]));
                             break;
                         }
-                    case I64_LOAD:
+                    case F64_CONST:
                         {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getI64(ptr);
-                            this.stack.push(val);
+                            this.stack.push(Value.f64(operands[0]));
                             break;
                         }
+                    case CALL:
+                        callDirect((int) operands[0]);
+                        break;
+                    case SELECT:
+                    case GLOBAL_GET:
+                    case GLOBAL_SET:
+                        evalVariable(instruction);
+                        break;
+                    case TABLE_GET:
+                    case TABLE_SET:
+                    case TABLE_SIZE:
+                    case TABLE_GROW:
+                    case TABLE_FILL:
+                    case TABLE_COPY:
+                    case TABLE_INIT:
+                    case ELEM_DROP:
+                    case REF_FUNC:
+                    case REF_NULL:
+                    case REF_IS_NULL:
+                        evalTable(instruction);
+                        break;
+                    case I32_LOAD:
+                    case I64_LOAD:
                     case F32_LOAD:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getF32(ptr);
-                            this.stack.push(val);
-                            break;
-                        }
                     case F64_LOAD:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getF64(ptr);
-                            this.stack.push(val);
-                            break;
-                        }
                     case I32_LOAD8_S:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getI8(ptr);
-                            this.stack.push(val);
-                            break;
-                        }
                     case I64_LOAD8_S:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getI8(ptr);
-                            // TODO a bit hacky
-                            this.stack.push(Value.i64(val.asInt()));
-                            break;
-                        }
                     case I32_LOAD8_U:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getI8U(ptr);
-                            this.stack.push(val);
-                            break;
-                        }
                     case I64_LOAD8_U:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getI8U(ptr);
-                            // TODO a bit hacky
-                            this.stack.push(Value.i64(val.asInt()));
-                            break;
-                        }
                     case I32_LOAD16_S:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getI16(ptr);
-                            this.stack.push(val);
-                            break;
-                        }
                     case I64_LOAD16_S:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getI16(ptr);
-                            // TODO this is a bit hacky
-                            this.stack.push(Value.i64(val.asInt()));
-                            break;
-                        }
                     case I32_LOAD16_U:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getU16(ptr);
-                            this.stack.push(val);
-                            break;
-                        }
                     case I64_LOAD16_U:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getU16(ptr);
-                            // TODO this is a bit hacky
-                            this.stack.push(Value.i64(val.asInt()));
-                            break;
-                        }
                     case I64_LOAD32_S:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getI32(ptr);
-                            // TODO this is a bit hacky
-                            this.stack.push(Value.i64(val.asInt()));
-                            break;
-                        }
                     case I64_LOAD32_U:
-                        {
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            var val = instance.getMemory().getU32(ptr);
-                            this.stack.push(val);
-                            break;
-                        }
                     case I32_STORE:
-                        {
-                            var value = this.stack.pop().asInt();
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            instance.getMemory().putI32(ptr, value);
-                            break;
-                        }
                     case I32_STORE16:
                     case I64_STORE16:
-                        {
-                            var value = this.stack.pop().asShort();
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            instance.getMemory().putShort(ptr, value);
-                            break;
-                        }
                     case I64_STORE:
-                        {
-                            var value = this.stack.pop().asLong();
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            instance.getMemory().putI64(ptr, value);
-                            break;
-                        }
                     case F32_STORE:
-                        {
-                            var value = this.stack.pop().asFloat();
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            instance.getMemory().putF32(ptr, value);
-                            break;
-                        }
                     case F64_STORE:
-                        {
-                            var value = this.stack.pop().asDouble();
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            instance.getMemory().putF64(ptr, value);
-                            break;
-                        }
                     case MEMORY_GROW:
-                        {
-                            var size = stack.pop().asInt();
-                            var nPages = instance.getMemory().grow(size);
-                            stack.push(Value.i32(nPages));
-                            break;
-                        }
                     case I32_STORE8:
                     case I64_STORE8:
-                        {
-                            var value = this.stack.pop().asByte();
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            instance.getMemory().putByte(ptr, value);
-                            break;
-                        }
                     case I64_STORE32:
-                        {
-                            var value = this.stack.pop().asLong();
-                            var ptr = (int) (operands[1] + this.stack.pop().asInt());
-                            instance.getMemory().putI32(ptr, (int) value);
-                            break;
-                        }
                     case MEMORY_SIZE:
-                        {
-                            var sz = instance.getMemory().getSize();
-                            this.stack.push(Value.i32(sz));
-                            break;
-                        }
-                        // TODO 32bit and 64 bit operations are the same for now
-                    case I32_CONST:
-                        {
-                            this.stack.push(Value.i32(operands[0]));
-                            break;
-                        }
-                    case I64_CONST:
-                        {
-                            this.stack.push(Value.i64(operands[0]));
-                            break;
-                        }
-                    case F32_CONST:
-                        {
-                            this.stack.push(Value.f32(operands[0]));
-                            break;
-                        }
-                    case F64_CONST:
-                        {
-                            this.stack.push(Value.f64(operands[0]));
-                            break;
-                        }
+                    case MEMORY_INIT:
+                    case DATA_DROP:
+                    case MEMORY_COPY:
+                        evalMemory(instruction);
+                        break;
                     case I32_EQ:
-                        {
-                            var a = stack.pop().asInt();
-                            var b = stack.pop().asInt();
-                            this.stack.push(a == b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_EQ:
-                        {
-                            var a = this.stack.pop().asLong();
-                            var b = this.stack.pop().asLong();
-                            this.stack.push(a == b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_NE:
-                        {
-                            var a = this.stack.pop().asInt();
-                            var b = this.stack.pop().asInt();
-                            this.stack.push(a == b ? Value.FALSE : Value.TRUE);
-                            break;
-                        }
-                    case I64_NE:
-                        {
-                            var a = this.stack.pop().asLong();
-                            var b = this.stack.pop().asLong();
-                            this.stack.push(a == b ? Value.FALSE : Value.TRUE);
-                            break;
-                        }
                     case I32_EQZ:
-                        {
-                            var a = this.stack.pop().asInt();
-                            this.stack.push(a == 0 ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_EQZ:
-                        {
-                            var a = this.stack.pop().asLong();
-                            this.stack.push(a == 0L ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_LT_S:
-                        {
-                            var b = this.stack.pop().asInt();
-                            var a = this.stack.pop().asInt();
-                            this.stack.push(a < b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_LT_U:
-                        {
-                            var b = this.stack.pop().asUInt();
-                            var a = this.stack.pop().asUInt();
-                            this.stack.push(a < b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_LT_S:
-                        {
-                            var b = this.stack.pop().asLong();
-                            var a = this.stack.pop().asLong();
-                            this.stack.push(a < b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_LT_U:
-                        {
-                            var b = this.stack.pop().asULong();
-                            var a = this.stack.pop().asULong();
-                            this.stack.push(a.compareTo(b) < 0 ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_GT_S:
-                        {
-                            var b = this.stack.pop().asInt();
-                            var a = this.stack.pop().asInt();
-                            this.stack.push(a > b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_GT_U:
-                        {
-                            var b = this.stack.pop().asUInt();
-                            var a = this.stack.pop().asUInt();
-                            this.stack.push(a > b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_GT_S:
-                        {
-                            var b = this.stack.pop().asLong();
-                            var a = this.stack.pop().asLong();
-                            this.stack.push(a > b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_GT_U:
-                        {
-                            var b = this.stack.pop().asULong();
-                            var a = this.stack.pop().asULong();
-                            this.stack.push(a.compareTo(b) > 0 ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_GE_S:
-                        {
-                            var b = this.stack.pop().asInt();
-                            var a = this.stack.pop().asInt();
-                            this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_GE_U:
-                        {
-                            var b = this.stack.pop().asUInt();
-                            var a = this.stack.pop().asUInt();
-                            this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_GE_U:
-                        {
-                            var b = this.stack.pop().asULong();
-                            var a = this.stack.pop().asULong();
-                            this.stack.push(a.compareTo(b) >= 0 ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_GE_S:
-                        {
-                            var b = this.stack.pop().asLong();
-                            var a = this.stack.pop().asLong();
-                            this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_LE_S:
-                        {
-                            var b = this.stack.pop().asInt();
-                            var a = this.stack.pop().asInt();
-                            this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_LE_U:
-                        {
-                            var b = this.stack.pop().asUInt();
-                            var a = this.stack.pop().asUInt();
-                            this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_LE_S:
-                        {
-                            var b = this.stack.pop().asLong();
-                            var a = this.stack.pop().asLong();
-                            this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case I64_LE_U:
-                        {
-                            var b = this.stack.pop().asULong();
-                            var a = this.stack.pop().asULong();
-                            this.stack.push(a.compareTo(b) <= 0 ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F32_EQ:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
-                            this.stack.push(a == b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F64_EQ:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
-                            this.stack.push(a == b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
                     case I32_CLZ:
-                        {
-                            var tos = this.stack.pop().asInt();
-                            var count = Integer.numberOfLeadingZeros(tos);
-                            this.stack.push(Value.i32(count));
-                            break;
-                        }
                     case I32_CTZ:
-                        {
-                            var tos = this.stack.pop().asInt();
-                            var count = Integer.numberOfTrailingZeros(tos);
-                            this.stack.push(Value.i32(count));
-                            break;
-                        }
                     case I32_POPCNT:
-                        {
-                            var tos = this.stack.pop().asInt();
-                            var count = Integer.bitCount(tos);
-                            this.stack.push(Value.i32(count));
-                            break;
-                        }
                     case I32_ADD:
-                        {
-                            var a = this.stack.pop().asInt();
-                            var b = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(a + b));
-                            break;
-                        }
-                    case I64_ADD:
-                        {
-                            var a = this.stack.pop().asLong();
-                            var b = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(a + b));
-                            break;
-                        }
                     case I32_SUB:
-                        {
-                            var a = this.stack.pop().asInt();
-                            var b = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(b - a));
-                            break;
-                        }
-                    case I64_SUB:
-                        {
-                            var a = this.stack.pop().asLong();
-                            var b = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(b - a));
-                            break;
-                        }
                     case I32_MUL:
-                        {
-                            var a = this.stack.pop().asInt();
-                            var b = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(a * b));
-                            break;
-                        }
-                    case I64_MUL:
-                        {
-                            var a = this.stack.pop().asLong();
-                            var b = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(a * b));
-                            break;
-                        }
                     case I32_DIV_S:
-                        {
-                            var b = this.stack.pop().asInt();
-                            var a = this.stack.pop().asInt();
-                            if (a == Integer.MIN_VALUE && b == -1) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
-                            this.stack.push(Value.i32(a / b));
-                            break;
-                        }
                     case I32_DIV_U:
-                        {
-                            var b = this.stack.pop().asUInt();
-                            var a = this.stack.pop().asUInt();
-                            this.stack.push(Value.i32(a / b));
-                            break;
-                        }
-                    case I64_DIV_S:
-                        {
-                            var b = this.stack.pop().asLong();
-                            var a = this.stack.pop().asLong();
-                            if (a == Long.MIN_VALUE && b == -1L) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
-                            this.stack.push(Value.i64(a / b));
-                            break;
-                        }
-                    case I64_DIV_U:
-                        {
-                            var b = this.stack.pop().asLong();
-                            var a = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(Long.divideUnsigned(a, b)));
-                            break;
-                        }
                     case I32_REM_S:
-                        {
-                            var b = this.stack.pop().asInt();
-                            var a = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(a % b));
-                            break;
-                        }
                     case I32_REM_U:
-                        {
-                            var b = this.stack.pop().asUInt();
-                            var a = this.stack.pop().asUInt();
-                            this.stack.push(Value.i32(a % b));
-                            break;
-                        }
+                    case I32_AND:
+                    case I32_OR:
+                    case I32_XOR:
+                    case I32_SHL:
+                    case I32_SHR_S:
+                    case I32_SHR_U:
+                    case I32_ROTL:
+                    case I32_ROTR:
+                    case I32_EXTEND_8_S:
+                    case I32_EXTEND_16_S:
+                        evalI32(instruction);
+                        break;
+                    case I64_EQ:
+                    case I64_NE:
+                    case I64_EQZ:
+                    case I64_LT_S:
+                    case I64_LT_U:
+                    case I64_GT_S:
+                    case I64_GT_U:
+                    case I64_GE_U:
+                    case I64_GE_S:
+                    case I64_LE_S:
+                    case I64_LE_U:
+                    case I64_ADD:
+                    case I64_SUB:
+                    case I64_MUL:
+                    case I64_DIV_S:
+                    case I64_DIV_U:
                     case I64_AND:
-                        {
-                            var a = this.stack.pop().asLong();
-                            var b = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(a & b));
-                            break;
-                        }
                     case I64_OR:
-                        {
-                            var a = this.stack.pop().asLong();
-                            var b = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(a | b));
-                            break;
-                        }
                     case I64_XOR:
-                        {
-                            var a = this.stack.pop().asLong();
-                            var b = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(a ^ b));
-                            break;
-                        }
                     case I64_SHL:
-                        {
-                            var c = this.stack.pop().asLong();
-                            var v = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(v << c));
-                            break;
-                        }
                     case I64_SHR_S:
-                        {
-                            var c = this.stack.pop().asLong();
-                            var v = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(v >> c));
-                            break;
-                        }
                     case I64_SHR_U:
-                        {
-                            var c = this.stack.pop().asLong();
-                            var v = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(v >>> c));
-                            break;
-                        }
                     case I64_REM_S:
-                        {
-                            var b = this.stack.pop().asLong();
-                            var a = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(a % b));
-                            break;
-                        }
                     case I64_REM_U:
-                        {
-                            var b = this.stack.pop().asLong();
-                            var a = this.stack.pop().asLong();
-                            this.stack.push(Value.i64(Long.remainderUnsigned(a, b)));
-                            break;
-                        }
                     case I64_ROTL:
-                        {
-                            var c = this.stack.pop().asLong();
-                            var v = this.stack.pop().asLong();
-                            var z = (v << c) | (v >>> (64 - c));
-                            this.stack.push(Value.i64(z));
-                            break;
-                        }
                     case I64_ROTR:
-                        {
-                            var c = this.stack.pop().asLong();
-                            var v = this.stack.pop().asLong();
-                            var z = (v >>> c) | (v << (64 - c));
-                            this.stack.push(Value.i64(z));
-                            break;
-                        }
                     case I64_CLZ:
-                        {
-                            var tos = this.stack.pop();
-                            var count = Long.numberOfLeadingZeros(tos.asLong());
-                            this.stack.push(Value.i64(count));
-                            break;
-                        }
                     case I64_CTZ:
-                        {
-                            var tos = this.stack.pop();
-                            var count = Long.numberOfTrailingZeros(tos.asLong());
-                            this.stack.push(Value.i64(count));
-                            break;
-                        }
                     case I64_POPCNT:
-                        {
-                            var tos = this.stack.pop().asLong();
-                            var count = Long.bitCount(tos);
-                            this.stack.push(Value.i64(count));
-                            break;
-                        }
+                    case I64_EXTEND_8_S:
+                    case I64_EXTEND_16_S:
+                    case I64_EXTEND_32_S:
+                        evalI64(instruction);
+                        break;
+                    case F32_EQ:
                     case F32_NEG:
-                        {
-                            var tos = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat(-1.0f * tos));
-                            break;
-                        }
-                    case F64_NEG:
-                        {
-                            var tos = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(-1.0d * tos));
-                            break;
-                        }
-                    case CALL:
-                        {
-                            var funcId = (int) operands[0];
-                            var typeId = instance.getFunctionType(funcId);
-                            var type = instance.getTypes()[typeId];
-                            // given a list of param types, let's pop those params off the stack
-                            // and pass as args to the function call
-                            var args = extractArgsForParams(type.getParams());
-                            call(funcId, args, false);
-                            break;
-                        }
-                    case I32_AND:
-                        {
-                            var a = this.stack.pop().asInt();
-                            var b = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(a & b));
-                            break;
-                        }
-                    case I32_OR:
-                        {
-                            var a = this.stack.pop().asInt();
-                            var b = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(a | b));
-                            break;
-                        }
-                    case I32_XOR:
-                        {
-                            var a = this.stack.pop().asInt();
-                            var b = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(a ^ b));
-                            break;
-                        }
-                    case I32_SHL:
-                        {
-                            var c = this.stack.pop().asInt();
-                            var v = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(v << c));
-                            break;
-                        }
-                    case I32_SHR_S:
-                        {
-                            var c = this.stack.pop().asInt();
-                            var v = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(v >> c));
-                            break;
-                        }
-                    case I32_SHR_U:
-                        {
-                            var c = this.stack.pop().asInt();
-                            var v = this.stack.pop().asInt();
-                            this.stack.push(Value.i32(v >>> c));
-                            break;
-                        }
-                    case I32_ROTL:
-                        {
-                            var c = this.stack.pop().asInt();
-                            var v = this.stack.pop().asInt();
-                            var z = (v << c) | (v >>> (32 - c));
-                            this.stack.push(Value.i32(z));
-                            break;
-                        }
-                    case I32_ROTR:
-                        {
-                            var c = this.stack.pop().asInt();
-                            var v = this.stack.pop().asInt();
-                            var z = (v >>> c) | (v << (32 - c));
-                            this.stack.push(Value.i32(z));
-                            break;
-                        }
                     case F32_ADD:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat(a + b));
-                            break;
-                        }
-                    case F64_ADD:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(a + b));
-                            break;
-                        }
                     case F32_SUB:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat(b - a));
-                            break;
-                        }
-                    case F64_SUB:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(b - a));
-                            break;
-                        }
                     case F32_MUL:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat(b * a));
-                            break;
-                        }
-                    case F64_MUL:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(b * a));
-                            break;
-                        }
                     case F32_DIV:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat(b / a));
-                            break;
-                        }
-                    case F64_DIV:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(b / a));
-                            break;
-                        }
                     case F32_MIN:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat(Math.min(a, b)));
-                            break;
-                        }
-                    case F64_MIN:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(Math.min(a, b)));
-                            break;
-                        }
                     case F32_MAX:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat(Math.max(a, b)));
-                            break;
-                        }
-                    case F64_MAX:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(Math.max(a, b)));
-                            break;
-                        }
                     case F32_SQRT:
-                        {
-                            var val = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat((float) Math.sqrt(val)));
-                            break;
-                        }
-                    case F64_SQRT:
-                        {
-                            var val = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(Math.sqrt(val)));
-                            break;
-                        }
                     case F32_FLOOR:
-                        {
-                            var val = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat((float) Math.floor(val)));
-                            break;
-                        }
-                    case F64_FLOOR:
-                        {
-                            var val = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(Math.floor(val)));
-                            break;
-                        }
                     case F32_CEIL:
-                        {
-                            var val = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat((float) Math.ceil(val)));
-                            break;
-                        }
-                    case F64_CEIL:
-                        {
-                            var val = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(Math.ceil(val)));
-                            break;
-                        }
                     case F32_TRUNC:
-                        {
-                            var val = this.stack.pop().asFloat();
-                            this.stack.push(
-                                    Value.fromFloat(
-                                            (float)
-                                                    ((val < 0)
-                                                            ? Math.ceil(val)
-                                                            : Math.floor(val))));
-                            break;
-                        }
-                    case F64_TRUNC:
-                        {
-                            var val = this.stack.pop().asDouble();
-                            this.stack.push(
-                                    Value.fromDouble((val < 0) ? Math.ceil(val) : Math.floor(val)));
-                            break;
-                        }
                     case F32_NEAREST:
-                        {
-                            var val = this.stack.pop().asFloat();
-                            this.stack.push(Value.fromFloat((float) Math.rint(val)));
-                            break;
-                        }
+                    case F32_COPYSIGN:
+                    case F32_ABS:
+                    case F32_NE:
+                    case F32_LT:
+                    case F32_LE:
+                    case F32_GE:
+                    case F32_GT:
+                        evalF32(instruction);
+                        break;
+                    case F64_EQ:
+                    case F64_NEG:
+                    case F64_ADD:
+                    case F64_SUB:
+                    case F64_MUL:
+                    case F64_DIV:
+                    case F64_MIN:
+                    case F64_MAX:
+                    case F64_SQRT:
+                    case F64_FLOOR:
+                    case F64_CEIL:
+                    case F64_TRUNC:
                     case F64_NEAREST:
-                        {
-                            var val = this.stack.pop().asDouble();
-                            this.stack.push(Value.fromDouble(Math.rint(val)));
-                            break;
-                        }
-                        // For the extend_* operations, note that java
-                        // automatically does this when casting from
-                        // smaller to larger primitives
-                    case I32_EXTEND_8_S:
-                        {
-                            var tos = this.stack.pop().asByte();
-                            this.stack.push(Value.i32(tos));
-                            break;
-                        }
-                    case I32_EXTEND_16_S:
-                        {
-                            var original = this.stack.pop().asInt() & 0xFFFF;
-                            if ((original & 0x8000) != 0) original |= 0xFFFF0000;
-                            this.stack.push(Value.i32(original & 0xFFFFFFFFL));
-                            break;
-                        }
-                    case I64_EXTEND_8_S:
-                        {
-                            var tos = this.stack.pop().asByte();
-                            this.stack.push(Value.i64(tos));
-                            break;
-                        }
-                    case I64_EXTEND_16_S:
-                        {
-                            var tos = this.stack.pop().asShort();
-                            this.stack.push(Value.i64(tos));
-                            break;
-                        }
-                    case I64_EXTEND_32_S:
-                        {
-                            var tos = this.stack.pop().asInt();
-                            this.stack.push(Value.i64(tos));
-                            break;
-                        }
+                    case F64_COPYSIGN:
+                    case F64_ABS:
+                    case F64_NE:
+                    case F64_LT:
+                    case F64_LE:
+                    case F64_GE:
+                    case F64_GT:
+                        evalF64(instruction);
+                        break;
                     case F64_CONVERT_I64_U:
-                        {
-                            var tos = this.stack.pop().asULong();
-                            this.stack.push(Value.fromDouble(tos.doubleValue()));
-                            break;
-                        }
                     case F64_CONVERT_I32_U:
-                        {
-                            long tos = this.stack.pop().asUInt();
-                            this.stack.push(Value.f64(Double.doubleToRawLongBits(tos)));
-                            break;
-                        }
                     case F64_CONVERT_I32_S:
-                        {
-                            var tos = this.stack.pop();
-                            this.stack.push(Value.fromDouble(tos.asInt()));
-                            break;
-                        }
                     case F64_PROMOTE_F32:
-                        {
-                            var tos = this.stack.pop();
-                            this.stack.push(Value.fromDouble(tos.asFloat()));
-                            break;
-                        }
                     case F64_REINTERPRET_I64:
-                        {
-                            var tos = this.stack.pop();
-                            this.stack.push(Value.f64(tos.asLong()));
-                            break;
-                        }
                     case I64_TRUNC_F64_S:
-                        {
-                            double tos = this.stack.pop().asDouble();
-
-                            if (Double.isNaN(tos)) {
-                                throw new WASMRuntimeException("invalid conversion to integer");
-                            }
-
-                            long tosL = (long) tos;
-                            if (tos == (double) Long.MIN_VALUE) {
-                                tosL = Long.MIN_VALUE;
-                            } else if (tosL == Long.MIN_VALUE || tosL == Long.MAX_VALUE) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
-
-                            this.stack.push(Value.i64(tosL));
-                            break;
-                        }
                     case I32_WRAP_I64:
-                        {
-                            var tos = this.stack.pop();
-                            this.stack.push(Value.i32(tos.asInt()));
-                            break;
-                        }
                     case I64_EXTEND_I32_S:
-                        {
-                            var tos = this.stack.pop();
-                            this.stack.push(Value.i64(tos.asInt()));
-                            break;
-                        }
                     case I64_EXTEND_I32_U:
-                        {
-                            var tos = this.stack.pop();
-                            this.stack.push(Value.i64(tos.asUInt()));
-                            break;
-                        }
                     case I32_REINTERPRET_F32:
-                        {
-                            var tos = this.stack.pop();
-                            this.stack.push(Value.i32(tos.asInt()));
-                            break;
-                        }
                     case I64_REINTERPRET_F64:
-                        {
-                            var tos = this.stack.pop();
-                            this.stack.push(Value.i64(tos.asLong()));
-                            break;
-                        }
                     case F32_REINTERPRET_I32:
-                        {
-                            var tos = this.stack.pop();
-                            this.stack.push(Value.f32(tos.asInt()));
-                            break;
-                        }
-                    case F32_COPYSIGN:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
+                    case F32_DEMOTE_F64:
+                    case F32_CONVERT_I32_S:
+                    case I32_TRUNC_F32_S:
+                    case I32_TRUNC_SAT_F32_S:
+                    case I32_TRUNC_SAT_F32_U:
+                    case I32_TRUNC_SAT_F64_S:
+                    case I32_TRUNC_SAT_F64_U:
+                    case F32_CONVERT_I32_U:
+                    case I32_TRUNC_F32_U:
+                    case F32_CONVERT_I64_S:
+                    case F32_CONVERT_I64_U:
+                    case F64_CONVERT_I64_S:
+                    case I64_TRUNC_F32_U:
+                    case I64_TRUNC_F64_U:
+                    case I64_TRUNC_SAT_F32_S:
+                    case I64_TRUNC_SAT_F32_U:
+                    case I64_TRUNC_SAT_F64_S:
+                    case I64_TRUNC_SAT_F64_U:
+                    case I32_TRUNC_F64_S:
+                    case I32_TRUNC_F64_U:
+                    case I64_TRUNC_F32_S:
+                        evalConversion(instruction);
+                        break;
+                    case V128_LOAD:
+                    case V128_LOAD8X8_S:
+                    case V128_LOAD8X8_U:
+                    case V128_LOAD16X4_S:
+                    case V128_LOAD16X4_U:
+                    case V128_LOAD32X2_S:
+                    case V128_LOAD32X2_U:
+                    case V128_LOAD8_SPLAT:
+                    case V128_LOAD16_SPLAT:
+                    case V128_LOAD32_SPLAT:
+                    case V128_LOAD64_SPLAT:
+                    case V128_STORE:
+                    case V128_CONST:
+                    case I8X16_SHUFFLE:
+                    case I8X16_SWIZZLE:
+                    case I8X16_SPLAT:
+                    case I16X8_SPLAT:
+                    case I32X4_SPLAT:
+                    case I64X2_SPLAT:
+                    case F32X4_SPLAT:
+                    case F64X2_SPLAT:
+                    case I8X16_EXTRACT_LANE_S:
+                    case I8X16_EXTRACT_LANE_U:
+                    case I8X16_REPLACE_LANE:
+                    case I16X8_EXTRACT_LANE_S:
+                    case I16X8_EXTRACT_LANE_U:
+                    case I16X8_REPLACE_LANE:
+                    case I32X4_EXTRACT_LANE:
+                    case I32X4_REPLACE_LANE:
+                    case I64X2_EXTRACT_LANE:
+                    case I64X2_REPLACE_LANE:
+                    case F32X4_EXTRACT_LANE:
+                    case F32X4_REPLACE_LANE:
+                    case F64X2_EXTRACT_LANE:
+                    case F64X2_REPLACE_LANE:
+                    case I8X16_EQ:
+                    case I8X16_NE:
+                    case I8X16_LT_S:
+                    case I8X16_LT_U:
+                    case I8X16_GT_S:
+                    case I8X16_GT_U:
+                    case I8X16_LE_S:
+                    case I8X16_LE_U:
+                    case I8X16_GE_S:
+                    case I8X16_GE_U:
+                    case I16X8_EQ:
+                    case I16X8_NE:
+                    case I16X8_LT_S:
+                    case I16X8_LT_U:
+                    case I16X8_GT_S:
+                    case I16X8_GT_U:
+                    case I16X8_LE_S:
+                    case I16X8_LE_U:
+                    case I16X8_GE_S:
+                    case I16X8_GE_U:
+                    case I32X4_EQ:
+                    case I32X4_NE:
+                    case I32X4_LT_S:
+                    case I32X4_LT_U:
+                    case I32X4_GT_S:
+                    case I32X4_GT_U:
+                    case I32X4_LE_S:
+                    case I32X4_LE_U:
+                    case I32X4_GE_S:
+                    case I32X4_GE_U:
+                    case F32X4_EQ:
+                    case F32X4_NE:
+                    case F32X4_LT:
+                    case F32X4_GT:
+                    case F32X4_LE:
+                    case F32X4_GE:
+                    case F64X2_EQ:
+                    case F64X2_NE:
+                    case F64X2_LT:
+                    case F64X2_GT:
+                    case F64X2_LE:
+                    case F64X2_GE:
+                    case V128_NOT:
+                    case V128_AND:
+                    case V128_ANDNOT:
+                    case V128_OR:
+                    case V128_XOR:
+                    case V128_BITSELECT:
+                    case V128_ANY_TRUE:
+                    case V128_LOAD8_LANE:
+                    case V128_LOAD16_LANE:
+                    case V128_LOAD32_LANE:
+                    case V128_LOAD64_LANE:
+                    case V128_STORE8_LANE:
+                    case V128_STORE16_LANE:
+                    case V128_STORE32_LANE:
+                    case V128_STORE64_LANE:
+                    case V128_LOAD32_ZERO:
+                    case V128_LOAD64_ZERO:
+                    case F32X4_DEMOTE_F64X2_ZERO:
+                    case F64X2_PROMOTE_LOW_F32X4:
+                    case I8X16_ABS:
+                    case I8X16_NEG:
+                    case I8X16_POPCNT:
+                    case I8X16_ALL_TRUE:
+                    case I8X16_BITMASK:
+                    case I8X16_NARROW_I16X8_S:
+                    case I8X16_NARROW_I16X8_U:
+                    case F32X4_CEIL:
+                    case F32X4_FLOOR:
+                    case F32X4_TRUNC:
+                    case F32X4_NEAREST:
+                    case I8X16_SHL:
+                    case I8X16_SHR_S:
+                    case I8X16_SHR_U:
+                    case I8X16_ADD:
+                    case I8X16_ADD_SAT_S:
+                    case I8X16_ADD_SAT_U:
+                    case I8X16_SUB:
+                    case I8X16_SUB_SAT_S:
+                    case I8X16_SUB_SAT_U:
+                    case F64X2_CEIL:
+                    case F64X2_FLOOR:
+                    case I8X16_MIN_S:
+                    case I8X16_MIN_U:
+                    case I8X16_MAX_S:
+                    case I8X16_MAX_U:
+                    case F64X2_TRUNC:
+                    case I8X16_AVGR_U:
+                    case I16X8_EXTADD_PAIRWISE_I8X16_S:
+                    case I16X8_EXTADD_PAIRWISE_I8X16_U:
+                    case I32X4_EXTADD_PAIRWISE_I16X8_S:
+                    case I32X4_EXTADD_PAIRWISE_I16X8_U:
+                    case I16X8_ABS:
+                    case I16X8_NEG:
+                    case I16X8_Q15MULR_SAT_S:
+                    case I16X8_ALL_TRUE:
+                    case I16X8_BITMASK:
+                    case I16X8_NARROW_I32X4_S:
+                    case I16X8_NARROW_I32X4_U:
+                    case I16X8_EXTEND_LOW_I8X16_S:
+                    case I16X8_EXTEND_HIGH_I8X16_S:
+                    case I16X8_EXTEND_LOW_I8X16_U:
+                    case I16X8_EXTEND_HIGH_I8X16_U:
+                    case I16X8_SHL:
+                    case I16X8_SHR_S:
+                    case I16X8_SHR_U:
+                    case I16X8_ADD:
+                    case I16X8_ADD_SAT_S:
+                    case I16X8_ADD_SAT_U:
+                    case I16X8_SUB:
+                    case I16X8_SUB_SAT_S:
+                    case I16X8_SUB_SAT_U:
+                    case F64X2_NEAREST:
+                    case I16X8_MUL:
+                    case I16X8_MIN_S:
+                    case I16X8_MIN_U:
+                    case I16X8_MAX_S:
+                    case I16X8_MAX_U:
+                    case I16X8_AVGR_U:
+                    case I16X8_EXTMUL_LOW_I8X16_S:
+                    case I16X8_EXTMUL_HIGH_I8X16_S:
+                    case I16X8_EXTMUL_LOW_I8X16_U:
+                    case I16X8_EXTMUL_HIGH_I8X16_U:
+                    case I32X4_ABS:
+                    case I32X4_NEG:
+                    case I32X4_ALL_TRUE:
+                    case I32X4_BITMASK:
+                    case I32X4_EXTEND_LOW_I16X8_S:
+                    case I32X4_EXTEND_HIGH_I16X8_S:
+                    case I32X4_EXTEND_LOW_I16X8_U:
+                    case I32X4_EXTEND_HIGH_I16X8_U:
+                    case I32X4_SHL:
+                    case I32X4_SHR_S:
+                    case I32X4_SHR_U:
+                    case I32X4_ADD:
+                    case I32X4_SUB:
+                    case I32X4_MUL:
+                    case I32X4_MIN_S:
+                    case I32X4_MIN_U:
+                    case I32X4_MAX_S:
+                    case I32X4_MAX_U:
+                    case I32X4_DOT_I16X8_S:
+                    case I32X4_EXTMUL_LOW_I16X8_S:
+                    case I32X4_EXTMUL_HIGH_I16X8_S:
+                    case I32X4_EXTMUL_LOW_I16X8_U:
+                    case I32X4_EXTMUL_HIGH_I16X8_U:
+                    case I64X2_ABS:
+                    case I64X2_NEG:
+                    case I64X2_ALL_TRUE:
+                    case I64X2_BITMASK:
+                    case I64X2_EXTEND_LOW_I32X4_S:
+                    case I64X2_EXTEND_HIGH_I32X4_S:
+                    case I64X2_EXTEND_LOW_I32X4_U:
+                    case I64X2_EXTEND_HIGH_I32X4_U:
+                    case I64X2_SHL:
+                    case I64X2_SHR_S:
+                    case I64X2_SHR_U:
+                    case I64X2_ADD:
+                    case I64X2_SUB:
+                    case I64X2_MUL:
+                    case I64X2_EQ:
+                    case I64X2_NE:
+                    case I64X2_LT_S:
+                    case I64X2_GT_S:
+                    case I64X2_LE_S:
+                    case I64X2_GE_S:
+                    case I64X2_EXTMUL_LOW_I32X4_S:
+                    case I64X2_EXTMUL_HIGH_I32X4_S:
+                    case I64X2_EXTMUL_LOW_I32X4_U:
+                    case I64X2_EXTMUL_HIGH_I32X4_U:
+                    case F32X4_ABS:
+                    case F32X4_NEG:
+                    case F32X4_SQRT:
+                    case F32X4_ADD:
+                    case F32X4_SUB:
+                    case F32X4_MUL:
+                    case F32X4_DIV:
+                    case F32X4_MIN:
+                    case F32X4_MAX:
+                    case F32X4_PMIN:
+                    case F32X4_PMAX:
+                    case F64X2_ABS:
+                    case F64X2_NEG:
+                    case F64X2_SQRT:
+                    case F64X2_ADD:
+                    case F64X2_SUB:
+                    case F64X2_MUL:
+                    case F64X2_DIV:
+                    case F64X2_MIN:
+                    case F64X2_MAX:
+                    case F64X2_PMIN:
+                    case F64X2_PMAX:
+                    case I32X4_TRUNC_SAT_F32X4_S:
+                    case I32X4_TRUNC_SAT_F32X4_U:
+                    case F32X4_CONVERT_I32X4_S:
+                    case F32X4_CONVERT_I32X4_U:
+                    case I32X4_TRUNC_SAT_F64X2_S_ZERO:
+                    case I32X4_TRUNC_SAT_F64X2_U_ZERO:
+                    case F64X2_CONVERT_LOW_I32X4_S:
+                    case F64X2_CONVERT_LOW_I32X4_U:
+                        evalSimd(instruction);
+                        break;
+                    case MEMORY_ATOMIC_NOTIFY:
+                    case MEMORY_ATOMIC_WAIT32:
+                    case MEMORY_ATOMIC_WAIT64:
+                    case ATOMIC_FENCE:
+                    case I32_ATOMIC_LOAD:
+                    case I64_ATOMIC_LOAD:
+                    case I32_ATOMIC_LOAD8_U:
+                    case I32_ATOMIC_LOAD16_U:
+                    case I64_ATOMIC_LOAD8_U:
+                    case I64_ATOMIC_LOAD16_U:
+                    case I64_ATOMIC_LOAD32_U:
+                    case I32_ATOMIC_STORE:
+                    case I64_ATOMIC_STORE:
+                    case I32_ATOMIC_STORE8:
+                    case I32_ATOMIC_STORE16:
+                    case I64_ATOMIC_STORE8:
+                    case I64_ATOMIC_STORE16:
+                    case I64_ATOMIC_STORE32:
+                    case I32_ATOMIC_RMW_ADD:
+                    case I64_ATOMIC_RMW_ADD:
+                    case I32_ATOMIC_RMW8_ADD_U:
+                    case I32_ATOMIC_RMW16_ADD_U:
+                    case I64_ATOMIC_RMW8_ADD_U:
+                    case I64_ATOMIC_RMW16_ADD_U:
+                    case I64_ATOMIC_RMW32_ADD_U:
+                    case I32_ATOMIC_RMW_SUB:
+                    case I64_ATOMIC_RMW_SUB:
+                    case I32_ATOMIC_RMW8_SUB_U:
+                    case I32_ATOMIC_RMW16_SUB_U:
+                    case I64_ATOMIC_RMW8_SUB_U:
+                    case I64_ATOMIC_RMW16_SUB_U:
+                    case I64_ATOMIC_RMW32_SUB_U:
+                    case I32_ATOMIC_RMW_AND:
+                    case I64_ATOMIC_RMW_AND:
+                    case I32_ATOMIC_RMW8_AND_U:
+                    case I32_ATOMIC_RMW16_AND_U:
+                    case I64_ATOMIC_RMW8_AND_U:
+                    case I64_ATOMIC_RMW16_AND_U:
+                    case I64_ATOMIC_RMW32_AND_U:
+                    case I32_ATOMIC_RMW_OR:
+                    case I64_ATOMIC_RMW_OR:
+                    case I32_ATOMIC_RMW8_OR_U:
+                    case I32_ATOMIC_RMW16_OR_U:
+                    case I64_ATOMIC_RMW8_OR_U:
+                    case I64_ATOMIC_RMW16_OR_U:
+                    case I64_ATOMIC_RMW32_OR_U:
+                    case I32_ATOMIC_RMW_XOR:
+                    case I64_ATOMIC_RMW_XOR:
+                    case I32_ATOMIC_RMW8_XOR_U:
+                    case I32_ATOMIC_RMW16_XOR_U:
+                    case I64_ATOMIC_RMW8_XOR_U:
+                    case I64_ATOMIC_RMW16_XOR_U:
+                    case I64_ATOMIC_RMW32_XOR_U:
+                    case I32_ATOMIC_RMW_XCHG:
+                    case I64_ATOMIC_RMW_XCHG:
+                    case I32_ATOMIC_RMW8_XCHG_U:
+                    case I32_ATOMIC_RMW16_XCHG_U:
+                    case I64_ATOMIC_RMW8_XCHG_U:
+                    case I64_ATOMIC_RMW16_XCHG_U:
+                    case I64_ATOMIC_RMW32_XCHG_U:
+                    case I32_ATOMIC_RMW_CMPXCHG:
+                    case I64_ATOMIC_RMW_CMPXCHG:
+                    case I32_ATOMIC_RMW8_CMPXCHG_U:
+                    case I32_ATOMIC_RMW16_CMPXCHG_U:
+                    case I64_ATOMIC_RMW8_CMPXCHG_U:
+                    case I64_ATOMIC_RMW16_CMPXCHG_U:
+                    case I64_ATOMIC_RMW32_CMPXCHG_U:
+                        evalAtomic(instruction);
+                        break;
+                    default:
+                        throw new RuntimeException(
+                                "Machine doesn't recognize Instruction " + instruction);
+                }
+            }
+        } catch (ChicoryException e) {
+            // propagate ChicoryExceptions
+            throw e;
+        } catch (ArithmeticException e) {
+            if (e.getMessage().equalsIgnoreCase("/ by zero")
+                    || e.getMessage()
+                            .contains("divide by zero")) { // On Linux i64 throws "BigInteger divide
+                // by zero"
+                throw new WASMRuntimeException("integer divide by zero: " + e.getMessage(), e);
+            }
+            throw new WASMRuntimeException(e.getMessage(), e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new WASMRuntimeException("undefined element: " + e.getMessage(), e);
+        } catch (Exception e) {
+            throw new WASMRuntimeException("An underlying Java exception occurred", e);
+        }
+    }
 
-                            if (a == 0xFFC00000L) { // +NaN
-                                this.stack.push(Value.fromFloat(Math.copySign(b, -1)));
-                            } else if (a == 0x7FC00000L) { // -NaN
-                                this.stack.push(Value.fromFloat(Math.copySign(b, +1)));
-                            } else {
-                                this.stack.push(Value.fromFloat(Math.copySign(b, a)));
-                            }
-                            break;
-                        }
-                    case F32_ABS:
-                        {
-                            var val = this.stack.pop().asFloat();
+    private void enterBlock(StackFrame frame, int typeId) {
+        frame.blockDepth++;
+
+        frame.isControlFrame = true;
+        frame.stackSizeBeforeBlock = Math.max(this.stack.size(), frame.stackSizeBeforeBlock);
+
+        // https://www.w3.org/TR/wasm-core-2/binary/instructions.html#binary-blocktype
+        if (typeId == 0x40) { // epsilon
+            frame.numberOfValuesToReturn = Math.max(frame.numberOfValuesToReturn, 0);
+        } else if (ValueType.byId(typeId) != null) { // shortcut to straight value type
+            frame.numberOfValuesToReturn = Math.max(frame.numberOfValuesToReturn, 1);
+        } else { // look it up
+            var funcType = instance.getTypes()[typeId];
+            frame.numberOfValuesToReturn =
+                    Math.max(frame.numberOfValuesToReturn, funcType.getReturns().length);
+        }
+    }
 
-                            this.stack.push(Value.fromFloat(Math.abs(val)));
-                            break;
-                        }
-                    case F64_COPYSIGN:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
+    private void exitBlock(StackFrame frame) {
+        frame.blockDepth--;
 
-                            if (a == 0xFFC0000000000000L) { // +NaN
-                                this.stack.push(Value.fromDouble(Math.copySign(b, -1)));
-                            } else if (a == 0x7FC0000000000000L) { // -NaN
-                                this.stack.push(Value.fromDouble(Math.copySign(b, +1)));
-                            } else {
-                                this.stack.push(Value.fromDouble(Math.copySign(b, a)));
-                            }
-                            break;
-                        }
-                    case F64_ABS:
-                        {
-                            var val = this.stack.pop().asDouble();
+        // control transfer happens on all blocks but not on the depth 0
+        if (frame.doControlTransfer && frame.isControlFrame) {
+            // reset the control transfer
+            frame.doControlTransfer = false;
 
-                            this.stack.push(Value.fromDouble(Math.abs(val)));
-                            break;
-                        }
-                    case F32_NE:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
+            var valuesToBePushedBack = Math.min(frame.numberOfValuesToReturn, this.stack.size());
 
-                            this.stack.push(a == b ? Value.FALSE : Value.TRUE);
-                            break;
-                        }
-                    case F64_NE:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
+            // pop the values from the stack
+            Value[] tmp = new Value[valuesToBePushedBack];
+            for (int i = 0; i < valuesToBePushedBack; i++) {
+                tmp[i] = this.stack.pop();
+            }
 
-                            this.stack.push(a == b ? Value.FALSE : Value.TRUE);
-                            break;
-                        }
-                    case F32_LT:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
+            // drop everything till the previous label
+            while (this.stack.size() > frame.stackSizeBeforeBlock) {
+                this.stack.pop();
+            }
+
+            // this is mostly empirical
+            // if a branch have been taken we restore the consumed value from
+            // the stack
+            if (frame.branchConditionValue != null && frame.branchConditionValue.asInt() > 0) {
+                this.stack.push(frame.branchConditionValue);
+            }
+
+            // Push the values to the stack.
+            for (int i = valuesToBePushedBack - 1; i >= 0; i--) {
+                this.stack.push(tmp[i]);
+            }
+        }
+    }
+
+    private void branchTable(StackFrame frame, Instruction instruction, int pc) {
+        var predValue = this.stack.pop();
+        var pred = predValue.asInt();
+
+        frame.doControlTransfer = true;
+
+        if (pred < 0 || pred >= instruction.getLabelTable().length - 1) {
+            // choose default
+            frame.pc = instruction.getLabelTable()[instruction.getLabelTable().length - 1];
+        } else {
+            frame.branchConditionValue = predValue;
+            frame.pc = instruction.getLabelTable()[pred];
+        }
+        checkBackEdge(frame, pc);
+    }
+
+    private void callDirect(int funcId) {
+        var typeId = instance.getFunctionType(funcId);
+        var type = instance.getTypes()[typeId];
+        // given a list of param types, let's pop those params off the stack
+        // and pass as args to the function call
+        var args = extractArgsForParams(type.getParams());
+        call(funcId, args, false);
+    }
+
+    private void callIndirect(Instruction instruction) {
+        callDirect(resolveIndirect(instruction));
+    }
+
+    /**
+     * Pops the table index of a call_indirect and returns the function it refers to,
+     * once checked against the expected type.
+     */
+    private int resolveIndirect(Instruction instruction) {
+        var operands = instruction.getOperands();
+        var tableIdx = operands[1];
+        if (tableIdx != 0)
+            throw new ChicoryException("We only support a table index of 0 in call-indirect");
+        var funcTableIdx = this.stack.pop().asInt();
+        var typeId = (int) operands[0];
+        var type = instance.getTypes()[typeId];
+        return callSiteCaches[instruction.getCallSiteIndex()].resolve(
+                instance, instance.getTable(), funcTableIdx, type);
+    }
+
+    /**
+     * Replaces the frame on top of the call stack with a fresh frame of the callee, so a tail
+     * call grows neither the call stack nor the Java stack. The callee results are left on the
+     * stack for the caller of the replaced frame, exactly as if it had returned them.
+     */
+    private StackFrame tailCall(int funcId, FunctionBody func) {
+        var typeId = instance.getFunctionType(funcId);
+        var args = extractArgsForParams(instance.getTypes()[typeId].getParams());
+        this.callStack.pop();
+        var frame = new StackFrame(instance, funcId, 0, args, func.getLocals());
+        this.callStack.push(frame);
+        if (metrics != null) {
+            metrics.onCall(callStack.size());
+        }
+        if (profiler != null) {
+            profiler.exit();
+            profiler.enter(funcId);
+        }
+        // like a call, the frame is in place first so resuming enters the callee from the start
+        checkEpochDeadline();
+        return frame;
+    }
+
+    /**
+     * Executes global.get, global.set and select.
+     */
+    private void evalVariable(Instruction instruction) {
+        var operands = instruction.getOperands();
+        switch (instruction.getOpcode()) {
+            case SELECT:
+                {
+                    var pred = this.stack.pop().asInt();
+                    var b = this.stack.pop();
+                    var a = this.stack.pop();
+                    if (pred == 0) {
+                        this.stack.push(b);
+                    } else {
+                        this.stack.push(a);
+                    }
+                    break;
+                }
+            case GLOBAL_GET:
+                {
+                    var ex = instance.getImports().length;
+                    var val = instance.getGlobal((int) operands[0]);
+                    this.stack.push(val);
+                    break;
+                }
+            case GLOBAL_SET:
+                {
+                    // the validator rejects writes to immutable globals
+                    var id = (int) operands[0];
+                    var val = this.stack.pop();
+                    instance.setGlobal(id, val);
+                    break;
+                }
+            default:
+                throw new RuntimeException("Machine doesn't recognize Instruction " + instruction);
+        }
+    }
+
+    /**
+     * Executes the table and reference instructions.
+     */
+    private void evalTable(Instruction instruction) {
+        var operands = instruction.getOperands();
+        switch (instruction.getOpcode()) {
+            case TABLE_GET:
+                {
+                    var idx = this.stack.pop().asInt();
+                    this.stack.push(Value.funcRef(instance.getTable().get(idx)));
+                    break;
+                }
+            case TABLE_SET:
+                {
+                    var ref = this.stack.pop().asInt();
+                    var idx = this.stack.pop().asInt();
+                    instance.getTable().set(idx, ref);
+                    break;
+                }
+            case TABLE_SIZE:
+                {
+                    this.stack.push(Value.i32(instance.getTable().size()));
+                    break;
+                }
+            case TABLE_GROW:
+                {
+                    var delta = this.stack.pop().asInt();
+                    var ref = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(instance.getTable().grow(delta, ref)));
+                    break;
+                }
+            case TABLE_FILL:
+                {
+                    var length = this.stack.pop().asInt();
+                    var ref = this.stack.pop().asInt();
+                    var offset = this.stack.pop().asInt();
+                    instance.getTable().fill(offset, ref, length);
+                    break;
+                }
+            case TABLE_COPY:
+                {
+                    var length = this.stack.pop().asInt();
+                    var srcOffset = this.stack.pop().asInt();
+                    var offset = this.stack.pop().asInt();
+                    var table = instance.getTable();
+                    table.copy(offset, table, srcOffset, length);
+                    break;
+                }
+            case TABLE_INIT:
+                {
+                    var segment = instance.getElement((int) operands[0]);
+                    var length = this.stack.pop().asInt();
+                    var segmentOffset = this.stack.pop().asInt();
+                    var offset = this.stack.pop().asInt();
+                    instance.getTable().init(offset, segment, segmentOffset, length);
+                    break;
+                }
+            case ELEM_DROP:
+                {
+                    instance.dropElement((int) operands[0]);
+                    break;
+                }
+            case REF_FUNC:
+                {
+                    this.stack.push(Value.funcRef(operands[0]));
+                    break;
+                }
+            case REF_NULL:
+                {
+                    if (operands[0] == ValueType.FuncRef.id()) {
+                        this.stack.push(Value.funcRef(Table.NULL_REF));
+                    } else {
+                        this.stack.push(Value.REF_NULL);
+                    }
+                    break;
+                }
+            case REF_IS_NULL:
+                {
+                    var ref = this.stack.pop();
+                    var isNull =
+                            ref.getType() == ValueType.FuncRef
+                                    ? ref.asInt() == Table.NULL_REF
+                                    : ref.equals(Value.REF_NULL);
+                    this.stack.push(isNull ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            default:
+                throw new RuntimeException("Machine doesn't recognize Instruction " + instruction);
+        }
+    }
+
+    /**
+     * Executes the loads, stores and bulk memory instructions.
+     */
+    private void evalMemory(Instruction instruction) {
+        var operands = instruction.getOperands();
+        switch (instruction.getOpcode()) {
+            case I32_LOAD:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 4);
+                    this.stack.push(Value.i32(memory.readInt(ptr)));
+                    break;
+                }
+            case I64_LOAD:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 8);
+                    this.stack.push(Value.i64(memory.readLong(ptr)));
+                    break;
+                }
+            case F32_LOAD:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 4);
+                    this.stack.push(Value.f32(memory.readInt(ptr)));
+                    break;
+                }
+            case F64_LOAD:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 8);
+                    this.stack.push(Value.f64(memory.readLong(ptr)));
+                    break;
+                }
+            case I32_LOAD8_S:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 1);
+                    this.stack.push(Value.i32(memory.readI8(ptr)));
+                    break;
+                }
+            case I64_LOAD8_S:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 1);
+                    this.stack.push(Value.i64(memory.readI8(ptr)));
+                    break;
+                }
+            case I32_LOAD8_U:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 1);
+                    this.stack.push(Value.i32(memory.readU8(ptr)));
+                    break;
+                }
+            case I64_LOAD8_U:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 1);
+                    this.stack.push(Value.i64(memory.readU8(ptr)));
+                    break;
+                }
+            case I32_LOAD16_S:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 2);
+                    this.stack.push(Value.i32(memory.readI16(ptr)));
+                    break;
+                }
+            case I64_LOAD16_S:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 2);
+                    this.stack.push(Value.i64(memory.readI16(ptr)));
+                    break;
+                }
+            case I32_LOAD16_U:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 2);
+                    this.stack.push(Value.i32(memory.readU16(ptr)));
+                    break;
+                }
+            case I64_LOAD16_U:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 2);
+                    this.stack.push(Value.i64(memory.readU16(ptr)));
+                    break;
+                }
+            case I64_LOAD32_S:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 4);
+                    this.stack.push(Value.i64(memory.readInt(ptr)));
+                    break;
+                }
+            case I64_LOAD32_U:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 4);
+                    this.stack.push(Value.i64(memory.readU32(ptr)));
+                    break;
+                }
+            case I32_STORE:
+                {
+                    var value = this.stack.pop().asInt();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 4);
+                    memory.writeInt(ptr, value);
+                    break;
+                }
+            case I32_STORE16:
+                {
+                    var value = (short) this.stack.pop().asInt();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 2);
+                    memory.writeShort(ptr, value);
+                    break;
+                }
+            case I64_STORE16:
+                {
+                    var value = (short) this.stack.pop().asLong();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 2);
+                    memory.writeShort(ptr, value);
+                    break;
+                }
+            case I64_STORE:
+                {
+                    var value = this.stack.pop().asLong();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 8);
+                    memory.writeLong(ptr, value);
+                    break;
+                }
+            case F32_STORE:
+                {
+                    var value = this.stack.pop().asFloat();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 4);
+                    memory.writeFloat(ptr, value);
+                    break;
+                }
+            case F64_STORE:
+                {
+                    var value = this.stack.pop().asDouble();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 8);
+                    memory.writeDouble(ptr, value);
+                    break;
+                }
+            case MEMORY_GROW:
+                {
+                    var memory = instance.getMemory((int) operands[0]);
+                    var delta = memory.isMemory64() ? stack.pop().asLong() : stack.pop().asInt();
+                    // a negative i32 is a delta of more pages than a memory can ever have
+                    var size = delta >= 0 && delta <= Integer.MAX_VALUE ? (int) delta : -1;
+                    var nPages = size == -1 ? -1 : memory.grow(size);
+                    if (metrics != null) {
+                        metrics.onMemoryGrow(size, nPages != -1);
+                    }
+                    stack.push(memory.isMemory64() ? Value.i64(nPages) : Value.i32(nPages));
+                    break;
+                }
+            case I32_STORE8:
+                {
+                    var value = (byte) this.stack.pop().asInt();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 1);
+                    memory.writeByte(ptr, value);
+                    break;
+                }
+            case I64_STORE8:
+                {
+                    var value = (byte) this.stack.pop().asLong();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 1);
+                    memory.writeByte(ptr, value);
+                    break;
+                }
+            case I64_STORE32:
+                {
+                    var value = (int) this.stack.pop().asLong();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 4);
+                    memory.writeInt(ptr, value);
+                    break;
+                }
+            case MEMORY_SIZE:
+                {
+                    var memory = instance.getMemory((int) operands[0]);
+                    var sz = memory.getSize();
+                    this.stack.push(memory.isMemory64() ? Value.i64(sz) : Value.i32(sz));
+                    break;
+                }
+                // TODO 32bit and 64 bit operations are the same for now
+            case MEMORY_INIT:
+                {
+                    var segmentId = (int) operands[0];
+                    var memory = instance.getMemory((int) operands[1]);
+                    var size = this.stack.pop().asInt();
+                    var offset = this.stack.pop().asInt();
+                    var destination = Memory.toAddress(this.stack.pop());
+                    // the memory may be imported, the segments are the ones of this module
+                    var segment = instance.getModule().getDataSegment(segmentId);
+                    memory.initPassiveSegment(segment, destination, offset, size);
+                    break;
+                }
+            case DATA_DROP:
+                {
+                    // do nothing
+                    // TODO we'll need to tell the segment it's been dropped which changes
+                    // the behavior
+                    // next time we try to do memory.init
+                    break;
+                }
+            case MEMORY_COPY:
+                {
+                    var target = instance.getMemory((int) operands[0]);
+                    var source = instance.getMemory((int) operands[1]);
+                    var size = Memory.toAddress(this.stack.pop());
+                    var offset = Memory.toAddress(this.stack.pop());
+                    var destination = Memory.toAddress(this.stack.pop());
+                    target.copy(destination, source, offset, size);
+                    break;
+                }
+            default:
+                throw new RuntimeException("Machine doesn't recognize Instruction " + instruction);
+        }
+    }
+
+    /**
+     * Executes the i32 numeric instructions.
+     */
+    private void evalI32(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case I32_EQ:
+                {
+                    var a = stack.pop().asInt();
+                    var b = stack.pop().asInt();
+                    this.stack.push(a == b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_NE:
+                {
+                    var a = this.stack.pop().asInt();
+                    var b = this.stack.pop().asInt();
+                    this.stack.push(a == b ? Value.FALSE : Value.TRUE);
+                    break;
+                }
+            case I32_EQZ:
+                {
+                    var a = this.stack.pop().asInt();
+                    this.stack.push(a == 0 ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_LT_S:
+                {
+                    var b = this.stack.pop().asInt();
+                    var a = this.stack.pop().asInt();
+                    this.stack.push(a < b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_LT_U:
+                {
+                    var b = this.stack.pop().asUInt();
+                    var a = this.stack.pop().asUInt();
+                    this.stack.push(a < b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_GT_S:
+                {
+                    var b = this.stack.pop().asInt();
+                    var a = this.stack.pop().asInt();
+                    this.stack.push(a > b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_GT_U:
+                {
+                    var b = this.stack.pop().asUInt();
+                    var a = this.stack.pop().asUInt();
+                    this.stack.push(a > b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_GE_S:
+                {
+                    var b = this.stack.pop().asInt();
+                    var a = this.stack.pop().asInt();
+                    this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_GE_U:
+                {
+                    var b = this.stack.pop().asUInt();
+                    var a = this.stack.pop().asUInt();
+                    this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_LE_S:
+                {
+                    var b = this.stack.pop().asInt();
+                    var a = this.stack.pop().asInt();
+                    this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_LE_U:
+                {
+                    var b = this.stack.pop().asUInt();
+                    var a = this.stack.pop().asUInt();
+                    this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I32_CLZ:
+                {
+                    var tos = this.stack.pop().asInt();
+                    var count = Integer.numberOfLeadingZeros(tos);
+                    this.stack.push(Value.i32(count));
+                    break;
+                }
+            case I32_CTZ:
+                {
+                    var tos = this.stack.pop().asInt();
+                    var count = Integer.numberOfTrailingZeros(tos);
+                    this.stack.push(Value.i32(count));
+                    break;
+                }
+            case I32_POPCNT:
+                {
+                    var tos = this.stack.pop().asInt();
+                    var count = Integer.bitCount(tos);
+                    this.stack.push(Value.i32(count));
+                    break;
+                }
+            case I32_ADD:
+                {
+                    var a = this.stack.pop().asInt();
+                    var b = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(a + b));
+                    break;
+                }
+            case I32_SUB:
+                {
+                    var a = this.stack.pop().asInt();
+                    var b = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(b - a));
+                    break;
+                }
+            case I32_MUL:
+                {
+                    var a = this.stack.pop().asInt();
+                    var b = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(a * b));
+                    break;
+                }
+            case I32_DIV_S:
+                {
+                    var b = this.stack.pop().asInt();
+                    var a = this.stack.pop().asInt();
+                    if (a == Integer.MIN_VALUE && b == -1) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
+                    this.stack.push(Value.i32(a / b));
+                    break;
+                }
+            case I32_DIV_U:
+                {
+                    var b = this.stack.pop().asUInt();
+                    var a = this.stack.pop().asUInt();
+                    this.stack.push(Value.i32(a / b));
+                    break;
+                }
+            case I32_REM_S:
+                {
+                    var b = this.stack.pop().asInt();
+                    var a = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(a % b));
+                    break;
+                }
+            case I32_REM_U:
+                {
+                    var b = this.stack.pop().asUInt();
+                    var a = this.stack.pop().asUInt();
+                    this.stack.push(Value.i32(a % b));
+                    break;
+                }
+            case I32_AND:
+                {
+                    var a = this.stack.pop().asInt();
+                    var b = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(a & b));
+                    break;
+                }
+            case I32_OR:
+                {
+                    var a = this.stack.pop().asInt();
+                    var b = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(a | b));
+                    break;
+                }
+            case I32_XOR:
+                {
+                    var a = this.stack.pop().asInt();
+                    var b = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(a ^ b));
+                    break;
+                }
+            case I32_SHL:
+                {
+                    var c = this.stack.pop().asInt();
+                    var v = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(v << c));
+                    break;
+                }
+            case I32_SHR_S:
+                {
+                    var c = this.stack.pop().asInt();
+                    var v = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(v >> c));
+                    break;
+                }
+            case I32_SHR_U:
+                {
+                    var c = this.stack.pop().asInt();
+                    var v = this.stack.pop().asInt();
+                    this.stack.push(Value.i32(v >>> c));
+                    break;
+                }
+            case I32_ROTL:
+                {
+                    var c = this.stack.pop().asInt();
+                    var v = this.stack.pop().asInt();
+                    var z = (v << c) | (v >>> (32 - c));
+                    this.stack.push(Value.i32(z));
+                    break;
+                }
+            case I32_ROTR:
+                {
+                    var c = this.stack.pop().asInt();
+                    var v = this.stack.pop().asInt();
+                    var z = (v >>> c) | (v << (32 - c));
+                    this.stack.push(Value.i32(z));
+                    break;
+                }
+            case I32_EXTEND_8_S:
+                {
+                    var tos = this.stack.pop().asByte();
+                    this.stack.push(Value.i32(tos));
+                    break;
+                }
+            case I32_EXTEND_16_S:
+                {
+                    var original = this.stack.pop().asInt() & 0xFFFF;
+                    if ((original & 0x8000) != 0) original |= 0xFFFF0000;
+                    this.stack.push(Value.i32(original & 0xFFFFFFFFL));
+                    break;
+                }
+            default:
+                throw new RuntimeException("Machine doesn't recognize Instruction " + instruction);
+        }
+    }
+
+    /**
+     * Executes the i64 numeric instructions.
+     */
+    private void evalI64(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case I64_EQ:
+                {
+                    var a = this.stack.pop().asLong();
+                    var b = this.stack.pop().asLong();
+                    this.stack.push(a == b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_NE:
+                {
+                    var a = this.stack.pop().asLong();
+                    var b = this.stack.pop().asLong();
+                    this.stack.push(a == b ? Value.FALSE : Value.TRUE);
+                    break;
+                }
+            case I64_EQZ:
+                {
+                    var a = this.stack.pop().asLong();
+                    this.stack.push(a == 0L ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_LT_S:
+                {
+                    var b = this.stack.pop().asLong();
+                    var a = this.stack.pop().asLong();
+                    this.stack.push(a < b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_LT_U:
+                {
+                    var b = this.stack.pop().asULong();
+                    var a = this.stack.pop().asULong();
+                    this.stack.push(a.compareTo(b) < 0 ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_GT_S:
+                {
+                    var b = this.stack.pop().asLong();
+                    var a = this.stack.pop().asLong();
+                    this.stack.push(a > b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_GT_U:
+                {
+                    var b = this.stack.pop().asULong();
+                    var a = this.stack.pop().asULong();
+                    this.stack.push(a.compareTo(b) > 0 ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_GE_U:
+                {
+                    var b = this.stack.pop().asULong();
+                    var a = this.stack.pop().asULong();
+                    this.stack.push(a.compareTo(b) >= 0 ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_GE_S:
+                {
+                    var b = this.stack.pop().asLong();
+                    var a = this.stack.pop().asLong();
+                    this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_LE_S:
+                {
+                    var b = this.stack.pop().asLong();
+                    var a = this.stack.pop().asLong();
+                    this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_LE_U:
+                {
+                    var b = this.stack.pop().asULong();
+                    var a = this.stack.pop().asULong();
+                    this.stack.push(a.compareTo(b) <= 0 ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case I64_ADD:
+                {
+                    var a = this.stack.pop().asLong();
+                    var b = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(a + b));
+                    break;
+                }
+            case I64_SUB:
+                {
+                    var a = this.stack.pop().asLong();
+                    var b = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(b - a));
+                    break;
+                }
+            case I64_MUL:
+                {
+                    var a = this.stack.pop().asLong();
+                    var b = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(a * b));
+                    break;
+                }
+            case I64_DIV_S:
+                {
+                    var b = this.stack.pop().asLong();
+                    var a = this.stack.pop().asLong();
+                    if (a == Long.MIN_VALUE && b == -1L) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
+                    this.stack.push(Value.i64(a / b));
+                    break;
+                }
+            case I64_DIV_U:
+                {
+                    var b = this.stack.pop().asLong();
+                    var a = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(Long.divideUnsigned(a, b)));
+                    break;
+                }
+            case I64_AND:
+                {
+                    var a = this.stack.pop().asLong();
+                    var b = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(a & b));
+                    break;
+                }
+            case I64_OR:
+                {
+                    var a = this.stack.pop().asLong();
+                    var b = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(a | b));
+                    break;
+                }
+            case I64_XOR:
+                {
+                    var a = this.stack.pop().asLong();
+                    var b = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(a ^ b));
+                    break;
+                }
+            case I64_SHL:
+                {
+                    var c = this.stack.pop().asLong();
+                    var v = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(v << c));
+                    break;
+                }
+            case I64_SHR_S:
+                {
+                    var c = this.stack.pop().asLong();
+                    var v = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(v >> c));
+                    break;
+                }
+            case I64_SHR_U:
+                {
+                    var c = this.stack.pop().asLong();
+                    var v = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(v >>> c));
+                    break;
+                }
+            case I64_REM_S:
+                {
+                    var b = this.stack.pop().asLong();
+                    var a = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(a % b));
+                    break;
+                }
+            case I64_REM_U:
+                {
+                    var b = this.stack.pop().asLong();
+                    var a = this.stack.pop().asLong();
+                    this.stack.push(Value.i64(Long.remainderUnsigned(a, b)));
+                    break;
+                }
+            case I64_ROTL:
+                {
+                    var c = this.stack.pop().asLong();
+                    var v = this.stack.pop().asLong();
+                    var z = (v << c) | (v >>> (64 - c));
+                    this.stack.push(Value.i64(z));
+                    break;
+                }
+            case I64_ROTR:
+                {
+                    var c = this.stack.pop().asLong();
+                    var v = this.stack.pop().asLong();
+                    var z = (v >>> c) | (v << (64 - c));
+                    this.stack.push(Value.i64(z));
+                    break;
+                }
+            case I64_CLZ:
+                {
+                    var tos = this.stack.pop();
+                    var count = Long.numberOfLeadingZeros(tos.asLong());
+                    this.stack.push(Value.i64(count));
+                    break;
+                }
+            case I64_CTZ:
+                {
+                    var tos = this.stack.pop();
+                    var count = Long.numberOfTrailingZeros(tos.asLong());
+                    this.stack.push(Value.i64(count));
+                    break;
+                }
+            case I64_POPCNT:
+                {
+                    var tos = this.stack.pop().asLong();
+                    var count = Long.bitCount(tos);
+                    this.stack.push(Value.i64(count));
+                    break;
+                }
+            case I64_EXTEND_8_S:
+                {
+                    var tos = this.stack.pop().asByte();
+                    this.stack.push(Value.i64(tos));
+                    break;
+                }
+            case I64_EXTEND_16_S:
+                {
+                    var tos = this.stack.pop().asShort();
+                    this.stack.push(Value.i64(tos));
+                    break;
+                }
+            case I64_EXTEND_32_S:
+                {
+                    var tos = this.stack.pop().asInt();
+                    this.stack.push(Value.i64(tos));
+                    break;
+                }
+            default:
+                throw new RuntimeException("Machine doesn't recognize Instruction " + instruction);
+        }
+    }
+
+    /**
+     * Executes the f32 numeric instructions.
+     */
+    private void evalF32(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case F32_EQ:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+                    this.stack.push(a == b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case F32_NEG:
+                {
+                    var tos = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat(-1.0f * tos));
+                    break;
+                }
+            case F32_ADD:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat(a + b));
+                    break;
+                }
+            case F32_SUB:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat(b - a));
+                    break;
+                }
+            case F32_MUL:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat(b * a));
+                    break;
+                }
+            case F32_DIV:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat(b / a));
+                    break;
+                }
+            case F32_MIN:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat(Math.min(a, b)));
+                    break;
+                }
+            case F32_MAX:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat(Math.max(a, b)));
+                    break;
+                }
+            case F32_SQRT:
+                {
+                    var val = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat((float) Math.sqrt(val)));
+                    break;
+                }
+            case F32_FLOOR:
+                {
+                    var val = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat((float) Math.floor(val)));
+                    break;
+                }
+            case F32_CEIL:
+                {
+                    var val = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat((float) Math.ceil(val)));
+                    break;
+                }
+            case F32_TRUNC:
+                {
+                    var val = this.stack.pop().asFloat();
+                    this.stack.push(
+                            Value.fromFloat(
+                                    (float) ((val < 0) ? Math.ceil(val) : Math.floor(val))));
+                    break;
+                }
+            case F32_NEAREST:
+                {
+                    var val = this.stack.pop().asFloat();
+                    this.stack.push(Value.fromFloat((float) Math.rint(val)));
+                    break;
+                }
+            case F32_COPYSIGN:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+
+                    if (a == 0xFFC00000L) { // +NaN
+                        this.stack.push(Value.fromFloat(Math.copySign(b, -1)));
+                    } else if (a == 0x7FC00000L) { // -NaN
+                        this.stack.push(Value.fromFloat(Math.copySign(b, +1)));
+                    } else {
+                        this.stack.push(Value.fromFloat(Math.copySign(b, a)));
+                    }
+                    break;
+                }
+            case F32_ABS:
+                {
+                    var val = this.stack.pop().asFloat();
+
+                    this.stack.push(Value.fromFloat(Math.abs(val)));
+                    break;
+                }
+            case F32_NE:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+
+                    this.stack.push(a == b ? Value.FALSE : Value.TRUE);
+                    break;
+                }
+            case F32_LT:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+
+                    this.stack.push(a > b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case F32_LE:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+
+                    this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case F32_GE:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+
+                    this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case F32_GT:
+                {
+                    var a = this.stack.pop().asFloat();
+                    var b = this.stack.pop().asFloat();
+
+                    this.stack.push(a < b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            default:
+                throw new RuntimeException("Machine doesn't recognize Instruction " + instruction);
+        }
+    }
+
+    /**
+     * Executes the f64 numeric instructions.
+     */
+    private void evalF64(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case F64_EQ:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+                    this.stack.push(a == b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case F64_NEG:
+                {
+                    var tos = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(-1.0d * tos));
+                    break;
+                }
+            case F64_ADD:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(a + b));
+                    break;
+                }
+            case F64_SUB:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(b - a));
+                    break;
+                }
+            case F64_MUL:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(b * a));
+                    break;
+                }
+            case F64_DIV:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(b / a));
+                    break;
+                }
+            case F64_MIN:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(Math.min(a, b)));
+                    break;
+                }
+            case F64_MAX:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(Math.max(a, b)));
+                    break;
+                }
+            case F64_SQRT:
+                {
+                    var val = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(Math.sqrt(val)));
+                    break;
+                }
+            case F64_FLOOR:
+                {
+                    var val = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(Math.floor(val)));
+                    break;
+                }
+            case F64_CEIL:
+                {
+                    var val = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(Math.ceil(val)));
+                    break;
+                }
+            case F64_TRUNC:
+                {
+                    var val = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble((val < 0) ? Math.ceil(val) : Math.floor(val)));
+                    break;
+                }
+            case F64_NEAREST:
+                {
+                    var val = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromDouble(Math.rint(val)));
+                    break;
+                }
+                // For the extend_* operations, note that java
+                // automatically does this when casting from
+                // smaller to larger primitives
+            case F64_COPYSIGN:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+
+                    if (a == 0xFFC0000000000000L) { // +NaN
+                        this.stack.push(Value.fromDouble(Math.copySign(b, -1)));
+                    } else if (a == 0x7FC0000000000000L) { // -NaN
+                        this.stack.push(Value.fromDouble(Math.copySign(b, +1)));
+                    } else {
+                        this.stack.push(Value.fromDouble(Math.copySign(b, a)));
+                    }
+                    break;
+                }
+            case F64_ABS:
+                {
+                    var val = this.stack.pop().asDouble();
+
+                    this.stack.push(Value.fromDouble(Math.abs(val)));
+                    break;
+                }
+            case F64_NE:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+
+                    this.stack.push(a == b ? Value.FALSE : Value.TRUE);
+                    break;
+                }
+            case F64_LT:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+
+                    this.stack.push(a > b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case F64_LE:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+
+                    this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case F64_GE:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+
+                    this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            case F64_GT:
+                {
+                    var a = this.stack.pop().asDouble();
+                    var b = this.stack.pop().asDouble();
+
+                    this.stack.push(a < b ? Value.TRUE : Value.FALSE);
+                    break;
+                }
+            default:
+                throw new RuntimeException("Machine doesn't recognize Instruction " + instruction);
+        }
+    }
+
+    /**
+     * Executes the conversions between numeric types.
+     */
+    private void evalConversion(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case F64_CONVERT_I64_U:
+                {
+                    var tos = this.stack.pop().asULong();
+                    this.stack.push(Value.fromDouble(tos.doubleValue()));
+                    break;
+                }
+            case F64_CONVERT_I32_U:
+                {
+                    long tos = this.stack.pop().asUInt();
+                    this.stack.push(Value.f64(Double.doubleToRawLongBits(tos)));
+                    break;
+                }
+            case F64_CONVERT_I32_S:
+                {
+                    var tos = this.stack.pop();
+                    this.stack.push(Value.fromDouble(tos.asInt()));
+                    break;
+                }
+            case F64_PROMOTE_F32:
+                {
+                    var tos = this.stack.pop();
+                    this.stack.push(Value.fromDouble(tos.asFloat()));
+                    break;
+                }
+            case F64_REINTERPRET_I64:
+                {
+                    var tos = this.stack.pop();
+                    this.stack.push(Value.f64(tos.asLong()));
+                    break;
+                }
+            case I64_TRUNC_F64_S:
+                {
+                    double tos = this.stack.pop().asDouble();
+
+                    if (Double.isNaN(tos)) {
+                        throw new WASMRuntimeException("invalid conversion to integer");
+                    }
+
+                    long tosL = (long) tos;
+                    if (tos == (double) Long.MIN_VALUE) {
+                        tosL = Long.MIN_VALUE;
+                    } else if (tosL == Long.MIN_VALUE || tosL == Long.MAX_VALUE) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
+
+                    this.stack.push(Value.i64(tosL));
+                    break;
+                }
+            case I32_WRAP_I64:
+                {
+                    var tos = this.stack.pop();
+                    this.stack.push(Value.i32(tos.asInt()));
+                    break;
+                }
+            case I64_EXTEND_I32_S:
+                {
+                    var tos = this.stack.pop();
+                    this.stack.push(Value.i64(tos.asInt()));
+                    break;
+                }
+            case I64_EXTEND_I32_U:
+                {
+                    var tos = this.stack.pop();
+                    this.stack.push(Value.i64(tos.asUInt()));
+                    break;
+                }
+            case I32_REINTERPRET_F32:
+                {
+                    var tos = this.stack.pop();
+                    this.stack.push(Value.i32(tos.asInt()));
+                    break;
+                }
+            case I64_REINTERPRET_F64:
+                {
+                    var tos = this.stack.pop();
+                    this.stack.push(Value.i64(tos.asLong()));
+                    break;
+                }
+            case F32_REINTERPRET_I32:
+                {
+                    var tos = this.stack.pop();
+                    this.stack.push(Value.f32(tos.asInt()));
+                    break;
+                }
+            case F32_DEMOTE_F64:
+                {
+                    var val = this.stack.pop().asDouble();
 
-                            this.stack.push(a > b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F64_LT:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
+                    this.stack.push(Value.fromFloat((float) val));
+                    break;
+                }
+            case F32_CONVERT_I32_S:
+                {
+                    var tos = this.stack.pop().asInt();
+                    this.stack.push(Value.fromFloat((float) tos));
+                    break;
+                }
+            case I32_TRUNC_F32_S:
+                {
+                    float tos = this.stack.pop().asFloat();
 
-                            this.stack.push(a > b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F32_LE:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
+                    if (Float.isNaN(tos)) {
+                        throw new WASMRuntimeException("invalid conversion to integer");
+                    }
 
-                            this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F64_LE:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
+                    if (tos < Integer.MIN_VALUE || tos >= Integer.MAX_VALUE) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
 
-                            this.stack.push(a >= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F32_GE:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
+                    this.stack.push(Value.i32((long) tos));
+                    break;
+                }
 
-                            this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F64_GE:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
+            case I32_TRUNC_SAT_F32_S:
+                {
+                    var tos = this.stack.pop().asFloat();
 
-                            this.stack.push(a <= b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F32_GT:
-                        {
-                            var a = this.stack.pop().asFloat();
-                            var b = this.stack.pop().asFloat();
+                    if (Float.isNaN(tos)) {
+                        tos = 0;
+                    } else if (tos < Integer.MIN_VALUE) {
+                        tos = Integer.MIN_VALUE;
+                    } else if (tos > Integer.MAX_VALUE) {
+                        tos = Integer.MAX_VALUE;
+                    }
 
-                            this.stack.push(a < b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F64_GT:
-                        {
-                            var a = this.stack.pop().asDouble();
-                            var b = this.stack.pop().asDouble();
+                    this.stack.push(Value.i32((int) tos));
+                    break;
+                }
+            case I32_TRUNC_SAT_F32_U:
+                {
+                    var tos = this.stack.pop().asFloat();
+
+                    long tosL;
+                    if (Float.isNaN(tos) || tos < 0) {
+                        tosL = 0L;
+                    } else if (tos >= 0xFFFFFFFFL) {
+                        tosL = 0xFFFFFFFFL;
+                    } else {
+                        tosL = (long) tos;
+                    }
+
+                    this.stack.push(Value.i32(tosL));
+                    break;
+                }
 
-                            this.stack.push(a < b ? Value.TRUE : Value.FALSE);
-                            break;
-                        }
-                    case F32_DEMOTE_F64:
-                        {
-                            var val = this.stack.pop().asDouble();
+            case I32_TRUNC_SAT_F64_S:
+                {
+                    var tos = this.stack.pop().asDouble();
 
-                            this.stack.push(Value.fromFloat((float) val));
-                            break;
-                        }
-                    case F32_CONVERT_I32_S:
-                        {
-                            var tos = this.stack.pop().asInt();
-                            this.stack.push(Value.fromFloat((float) tos));
-                            break;
-                        }
-                    case I32_TRUNC_F32_S:
-                        {
-                            float tos = this.stack.pop().asFloat();
+                    if (Double.isNaN(tos)) {
+                        tos = 0;
+                    } else if (tos <= Integer.MIN_VALUE) {
+                        tos = Integer.MIN_VALUE;
+                    } else if (tos >= Integer.MAX_VALUE) {
+                        tos = Integer.MAX_VALUE;
+                    }
 
-                            if (Float.isNaN(tos)) {
-                                throw new WASMRuntimeException("invalid conversion to integer");
-                            }
+                    this.stack.push(Value.i32((int) tos));
+                    break;
+                }
+            case I32_TRUNC_SAT_F64_U:
+                {
+                    double tos = Double.longBitsToDouble(this.stack.pop().asLong());
+
+                    long tosL;
+                    if (Double.isNaN(tos) || tos < 0) {
+                        tosL = 0;
+                    } else if (tos > 0xFFFFFFFFL) {
+                        tosL = 0xFFFFFFFFL;
+                    } else {
+                        tosL = (long) tos;
+                    }
+                    this.stack.push(Value.i32(tosL));
+                    break;
+                }
+            case F32_CONVERT_I32_U:
+                {
+                    var tos = this.stack.pop().asUInt();
 
-                            if (tos < Integer.MIN_VALUE || tos >= Integer.MAX_VALUE) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
+                    this.stack.push(Value.fromFloat((float) tos));
+                    break;
+                }
+            case I32_TRUNC_F32_U:
+                {
+                    var tos = this.stack.pop().asFloat();
 
-                            this.stack.push(Value.i32((long) tos));
-                            break;
-                        }
+                    if (Float.isNaN(tos)) {
+                        throw new WASMRuntimeException("invalid conversion to integer");
+                    }
 
-                    case I32_TRUNC_SAT_F32_S:
-                        {
-                            var tos = this.stack.pop().asFloat();
-
-                            if (Float.isNaN(tos)) {
-                                tos = 0;
-                            } else if (tos < Integer.MIN_VALUE) {
-                                tos = Integer.MIN_VALUE;
-                            } else if (tos > Integer.MAX_VALUE) {
-                                tos = Integer.MAX_VALUE;
-                            }
+                    long tosL = (long) tos;
+                    if (tosL < 0 || tosL >= 0xFFFFFFFFL) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
 
-                            this.stack.push(Value.i32((int) tos));
-                            break;
-                        }
-                    case I32_TRUNC_SAT_F32_U:
-                        {
-                            var tos = this.stack.pop().asFloat();
+                    this.stack.push(Value.i32(tosL));
+                    break;
+                }
+            case F32_CONVERT_I64_S:
+                {
+                    var tos = this.stack.pop().asLong();
 
-                            long tosL;
-                            if (Float.isNaN(tos) || tos < 0) {
-                                tosL = 0L;
-                            } else if (tos >= 0xFFFFFFFFL) {
-                                tosL = 0xFFFFFFFFL;
-                            } else {
-                                tosL = (long) tos;
-                            }
+                    this.stack.push(Value.fromFloat((float) tos));
+                    break;
+                }
+            case F32_CONVERT_I64_U:
+                {
+                    var tos = this.stack.pop().asULong();
+                    float tosF;
+                    if (tos.floatValue() < 0) {
+                        /*
+                        (the BigInteger is large, sign bit is set), tos.longValue() gets the lower 64 bits of the BigInteger (as a signed long),
+                        and 0x1.0p63 (which is 2^63 in floating-point notation) is added to adjust the float value back to the unsigned range.
+                         */
+                        tosF = (float) (tos.longValue() + TWO_POW_63_D);
+                    } else {
+                        tosF = tos.floatValue();
+                    }
+                    this.stack.push(Value.f32(Float.floatToIntBits(tosF)));
+                    break;
+                }
+            case F64_CONVERT_I64_S:
+                {
+                    var tos = this.stack.pop().asLong();
 
-                            this.stack.push(Value.i32(tosL));
-                            break;
-                        }
+                    this.stack.push(Value.fromDouble((double) tos));
+                    break;
+                }
+            case I64_TRUNC_F32_U:
+                {
+                    var tos = this.stack.pop().asFloat();
 
-                    case I32_TRUNC_SAT_F64_S:
-                        {
-                            var tos = this.stack.pop().asDouble();
-
-                            if (Double.isNaN(tos)) {
-                                tos = 0;
-                            } else if (tos <= Integer.MIN_VALUE) {
-                                tos = Integer.MIN_VALUE;
-                            } else if (tos >= Integer.MAX_VALUE) {
-                                tos = Integer.MAX_VALUE;
-                            }
+                    if (Float.isNaN(tos)) {
+                        throw new WASMRuntimeException("invalid conversion to integer");
+                    }
 
-                            this.stack.push(Value.i32((int) tos));
-                            break;
-                        }
-                    case I32_TRUNC_SAT_F64_U:
-                        {
-                            double tos = Double.longBitsToDouble(this.stack.pop().asLong());
+                    var tosL = (long) tos;
 
-                            long tosL;
-                            if (Double.isNaN(tos) || tos < 0) {
-                                tosL = 0;
-                            } else if (tos > 0xFFFFFFFFL) {
-                                tosL = 0xFFFFFFFFL;
-                            } else {
-                                tosL = (long) tos;
-                            }
-                            this.stack.push(Value.i32(tosL));
-                            break;
-                        }
-                    case F32_CONVERT_I32_U:
-                        {
-                            var tos = this.stack.pop().asUInt();
+                    if (tosL < 0 || (tosL == Long.MAX_VALUE)) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
 
-                            this.stack.push(Value.fromFloat((float) tos));
-                            break;
-                        }
-                    case I32_TRUNC_F32_U:
-                        {
-                            var tos = this.stack.pop().asFloat();
+                    this.stack.push(Value.i64(tosL));
+                    break;
+                }
+            case I64_TRUNC_F64_U:
+                {
+                    var tos = this.stack.pop().asDouble();
+
+                    if (Double.isNaN(tos)) {
+                        throw new WASMRuntimeException("invalid conversion to integer");
+                    }
+                    var tosL = (long) tos;
+                    if (tos == (double) Long.MAX_VALUE) {
+                        tosL = Long.MIN_VALUE;
+                    } else if (tosL < 0 || tosL == Long.MAX_VALUE) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
+                    this.stack.push(Value.i64(tosL));
+                    break;
+                }
 
-                            if (Float.isNaN(tos)) {
-                                throw new WASMRuntimeException("invalid conversion to integer");
-                            }
+            case I64_TRUNC_SAT_F32_S:
+                {
+                    var tos = this.stack.pop().asFloat();
 
-                            long tosL = (long) tos;
-                            if (tosL < 0 || tosL >= 0xFFFFFFFFL) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
+                    if (Float.isNaN(tos)) {
+                        tos = 0;
+                    } else if (tos <= Long.MIN_VALUE) {
+                        tos = Long.MIN_VALUE;
+                    } else if (tos >= Long.MAX_VALUE) {
+                        tos = Long.MAX_VALUE;
+                    }
 
-                            this.stack.push(Value.i32(tosL));
-                            break;
-                        }
-                    case F32_CONVERT_I64_S:
-                        {
-                            var tos = this.stack.pop().asLong();
+                    this.stack.push(Value.i64((long) tos));
+                    break;
+                }
+            case I64_TRUNC_SAT_F32_U:
+                {
+                    var tos = this.stack.pop().asFloat();
+
+                    long tosL;
+                    if (Float.isNaN(tos) || tos < 0) {
+                        tosL = 0L;
+                    } else if (tos >= Long.MAX_VALUE) {
+                        tosL = 0xFFFFFFFFFFFFFFFFL;
+                    } else {
+                        tosL = (long) tos;
+                    }
+
+                    this.stack.push(Value.i64(tosL));
+                    break;
+                }
+            case I64_TRUNC_SAT_F64_S:
+                {
+                    var tos = this.stack.pop().asDouble();
+
+                    if (Double.isNaN(tos)) {
+                        tos = 0;
+                    } else if (tos <= Long.MIN_VALUE) {
+                        tos = Long.MIN_VALUE;
+                    } else if (tos >= Long.MAX_VALUE) {
+                        tos = Long.MAX_VALUE;
+                    }
+
+                    this.stack.push(Value.i64((long) tos));
+                    break;
+                }
 
-                            this.stack.push(Value.fromFloat((float) tos));
-                            break;
-                        }
-                    case F32_CONVERT_I64_U:
-                        {
-                            var tos = this.stack.pop().asULong();
-                            float tosF;
-                            if (tos.floatValue() < 0) {
-                                /*
-                                (the BigInteger is large, sign bit is set), tos.longValue() gets the lower 64 bits of the BigInteger (as a signed long),
-                                and 0x1.0p63 (which is 2^63 in floating-point notation) is added to adjust the float value back to the unsigned range.
-                                 */
-                                tosF = (float) (tos.longValue() + TWO_POW_63_D);
-                            } else {
-                                tosF = tos.floatValue();
-                            }
-                            this.stack.push(Value.f32(Float.floatToIntBits(tosF)));
-                            break;
-                        }
-                    case F64_CONVERT_I64_S:
-                        {
-                            var tos = this.stack.pop().asLong();
+            case I64_TRUNC_SAT_F64_U:
+                {
+                    double tos = this.stack.pop().asDouble();
+
+                    long tosL;
+                    if (Double.isNaN(tos) || tos <= -1.0) {
+                        tosL = 0L;
+                    } else if (tos >= TWO_POW_64_PLUS_1_F) {
+                        tosL = 0xFFFFFFFFFFFFFFFFL;
+                    } else if (tos == Long.MAX_VALUE) {
+                        tosL = (long) tos + 1;
+                    } else {
+                        tosL = (long) tos;
+                    }
+
+                    this.stack.push(Value.i64(tosL));
+                    break;
+                }
 
-                            this.stack.push(Value.fromDouble((double) tos));
-                            break;
-                        }
-                    case I64_TRUNC_F32_U:
-                        {
-                            var tos = this.stack.pop().asFloat();
+            case I32_TRUNC_F64_S:
+                {
+                    var tos = this.stack.pop().asDouble();
 
-                            if (Float.isNaN(tos)) {
-                                throw new WASMRuntimeException("invalid conversion to integer");
-                            }
+                    if (Double.isNaN(tos)) {
+                        throw new WASMRuntimeException("invalid conversion to integer");
+                    }
 
-                            var tosL = (long) tos;
+                    var tosL = (long) tos;
+                    if (tosL < Integer.MIN_VALUE || tosL > Integer.MAX_VALUE) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
 
-                            if (tosL < 0 || (tosL == Long.MAX_VALUE)) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
+                    this.stack.push(Value.i32(tosL));
+                    break;
+                }
+            case I32_TRUNC_F64_U:
+                {
+                    double tos = this.stack.pop().asDouble();
+                    if (Double.isNaN(tos)) {
+                        throw new WASMRuntimeException("invalid conversion to integer");
+                    }
+
+                    var tosL = (long) tos;
+                    if (tosL < 0 || tosL > 0xFFFFFFFFL) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
+                    this.stack.push(Value.i32(tosL & 0xFFFFFFFFL));
+                    break;
+                }
+            case I64_TRUNC_F32_S:
+                {
+                    var tos = this.stack.pop().asFloat();
 
-                            this.stack.push(Value.i64(tosL));
-                            break;
-                        }
-                    case I64_TRUNC_F64_U:
-                        {
-                            var tos = this.stack.pop().asDouble();
+                    if (Float.isNaN(tos)) {
+                        throw new WASMRuntimeException("invalid conversion to integer");
+                    }
 
-                            if (Double.isNaN(tos)) {
-                                throw new WASMRuntimeException("invalid conversion to integer");
-                            }
-                            var tosL = (long) tos;
-                            if (tos == (double) Long.MAX_VALUE) {
-                                tosL = Long.MIN_VALUE;
-                            } else if (tosL < 0 || tosL == Long.MAX_VALUE) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
-                            this.stack.push(Value.i64(tosL));
-                            break;
-                        }
+                    if (tos < Long.MIN_VALUE || tos >= Long.MAX_VALUE) {
+                        throw new WASMRuntimeException("integer overflow");
+                    }
 
-                    case I64_TRUNC_SAT_F32_S:
-                        {
-                            var tos = this.stack.pop().asFloat();
-
-                            if (Float.isNaN(tos)) {
-                                tos = 0;
-                            } else if (tos <= Long.MIN_VALUE) {
-                                tos = Long.MIN_VALUE;
-                            } else if (tos >= Long.MAX_VALUE) {
-                                tos = Long.MAX_VALUE;
-                            }
+                    this.stack.push(Value.i64((long) tos));
+                    break;
+                }
+            default:
+                throw new RuntimeException("Machine doesn't recognize Instruction " + instruction);
+        }
+    }
 
-                            this.stack.push(Value.i64((long) tos));
-                            break;
-                        }
-                    case I64_TRUNC_SAT_F32_U:
-                        {
-                            var tos = this.stack.pop().asFloat();
+    /**
+     * Executes the SIMD instructions. The memory accesses, constants and lane moves are
+     * handled here, the lane-wise arithmetic is left to {@link Simd}.
+     */
+    private void evalSimd(Instruction instruction) {
+        var opcode = instruction.getOpcode();
+        var operands = instruction.getOperands();
+        switch (opcode) {
+            case V128_LOAD:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 16);
+                    this.stack.push(Value.v128(memory.readBytes(ptr, 16)));
+                    break;
+                }
+            case V128_LOAD8X8_S:
+                loadExtend(instruction, OpCode.I16X8_EXTEND_LOW_I8X16_S);
+                break;
+            case V128_LOAD8X8_U:
+                loadExtend(instruction, OpCode.I16X8_EXTEND_LOW_I8X16_U);
+                break;
+            case V128_LOAD16X4_S:
+                loadExtend(instruction, OpCode.I32X4_EXTEND_LOW_I16X8_S);
+                break;
+            case V128_LOAD16X4_U:
+                loadExtend(instruction, OpCode.I32X4_EXTEND_LOW_I16X8_U);
+                break;
+            case V128_LOAD32X2_S:
+                loadExtend(instruction, OpCode.I64X2_EXTEND_LOW_I32X4_S);
+                break;
+            case V128_LOAD32X2_U:
+                loadExtend(instruction, OpCode.I64X2_EXTEND_LOW_I32X4_U);
+                break;
+            case V128_LOAD8_SPLAT:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 1);
+                    var value = memory.readI8(ptr);
+                    this.stack.push(Value.v128(ScalarSimd.splat(8, value)));
+                    break;
+                }
+            case V128_LOAD16_SPLAT:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 2);
+                    var value = memory.readI16(ptr);
+                    this.stack.push(Value.v128(ScalarSimd.splat(16, value)));
+                    break;
+                }
+            case V128_LOAD32_SPLAT:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 4);
+                    var value = memory.readInt(ptr);
+                    this.stack.push(Value.v128(ScalarSimd.splat(32, value)));
+                    break;
+                }
+            case V128_LOAD64_SPLAT:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 8);
+                    var value = memory.readLong(ptr);
+                    this.stack.push(Value.v128(value, value));
+                    break;
+                }
+            case V128_LOAD32_ZERO:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 4);
+                    this.stack.push(Value.v128(memory.readU32(ptr), 0));
+                    break;
+                }
+            case V128_LOAD64_ZERO:
+                {
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 8);
+                    this.stack.push(Value.v128(memory.readLong(ptr), 0));
+                    break;
+                }
+            case V128_STORE:
+                {
+                    var value = this.stack.pop().getData();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, 16);
+                    memory.writeBytes(ptr, value);
+                    break;
+                }
+            case V128_LOAD8_LANE:
+            case V128_LOAD16_LANE:
+            case V128_LOAD32_LANE:
+            case V128_LOAD64_LANE:
+                {
+                    var bits = laneAccessBits(opcode);
+                    var vector = this.stack.pop().getData().clone();
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, bits / 8);
+                    long value;
+                    switch (bits) {
+                        case 8:
+                            value = memory.readI8(ptr);
+                            break;
+                        case 16:
+                            value = memory.readI16(ptr);
+                            break;
+                        case 32:
+                            value = memory.readInt(ptr);
+                            break;
+                        default:
+                            value = memory.readLong(ptr);
+                            break;
+                    }
+                    ScalarSimd.setLane(vector, bits, (int) operands[3], value);
+                    this.stack.push(Value.v128(vector));
+                    break;
+                }
+            case V128_STORE8_LANE:
+            case V128_STORE16_LANE:
+            case V128_STORE32_LANE:
+            case V128_STORE64_LANE:
+                {
+                    var bits = laneAccessBits(opcode);
+                    var value =
+                            ScalarSimd.lane(this.stack.pop().getData(), bits, (int) operands[3]);
+                    var memory = memory(instruction);
+                    var ptr = address(memory, instruction, bits / 8);
+                    switch (bits) {
+                        case 8:
+                            memory.writeByte(ptr, (byte) value);
+                            break;
+                        case 16:
+                            memory.writeShort(ptr, (short) value);
+                            break;
+                        case 32:
+                            memory.writeInt(ptr, (int) value);
+                            break;
+                        default:
+                            memory.writeLong(ptr, value);
+                            break;
+                    }
+                    break;
+                }
+            case V128_CONST:
+                this.stack.push(Value.v128(operands[0], operands[1]));
+                break;
+            case I8X16_SHUFFLE:
+                {
+                    var b = this.stack.pop().getData();
+                    var a = this.stack.pop().getData();
+                    var result = new byte[16];
+                    for (var i = 0; i < 16; i++) {
+                        var lane = (int) (operands[i / 8] >>> (i % 8 * 8)) & 0xFF;
+                        result[i] = lane < 16 ? a[lane] : b[lane - 16];
+                    }
+                    this.stack.push(Value.v128(result));
+                    break;
+                }
+            case I8X16_SPLAT:
+            case I16X8_SPLAT:
+            case I32X4_SPLAT:
+            case F32X4_SPLAT:
+                {
+                    var value = this.stack.pop().asInt();
+                    this.stack.push(
+                            Value.v128(ScalarSimd.splat(ScalarSimd.laneBits(opcode), value)));
+                    break;
+                }
+            case I64X2_SPLAT:
+            case F64X2_SPLAT:
+                {
+                    var value = this.stack.pop().asLong();
+                    this.stack.push(Value.v128(value, value));
+                    break;
+                }
+            case I8X16_EXTRACT_LANE_S:
+            case I16X8_EXTRACT_LANE_S:
+            case I32X4_EXTRACT_LANE:
+                {
+                    var vector = this.stack.pop().getData();
+                    var bits = ScalarSimd.laneBits(opcode);
+                    this.stack.push(Value.i32(ScalarSimd.lane(vector, bits, (int) operands[0])));
+                    break;
+                }
+            case I8X16_EXTRACT_LANE_U:
+            case I16X8_EXTRACT_LANE_U:
+                {
+                    var vector = this.stack.pop().getData();
+                    var bits = ScalarSimd.laneBits(opcode);
+                    var value = ScalarSimd.lane(vector, bits, (int) operands[0]);
+                    this.stack.push(Value.i32(value & ((1 << bits) - 1)));
+                    break;
+                }
+            case I64X2_EXTRACT_LANE:
+                {
+                    var vector = this.stack.pop().getData();
+                    this.stack.push(Value.i64(ScalarSimd.lane(vector, 64, (int) operands[0])));
+                    break;
+                }
+            case F32X4_EXTRACT_LANE:
+                {
+                    var vector = this.stack.pop().getData();
+                    this.stack.push(Value.f32(ScalarSimd.lane(vector, 32, (int) operands[0])));
+                    break;
+                }
+            case F64X2_EXTRACT_LANE:
+                {
+                    var vector = this.stack.pop().getData();
+                    this.stack.push(Value.f64(ScalarSimd.lane(vector, 64, (int) operands[0])));
+                    break;
+                }
+            case I8X16_REPLACE_LANE:
+            case I16X8_REPLACE_LANE:
+            case I32X4_REPLACE_LANE:
+            case F32X4_REPLACE_LANE:
+            case I64X2_REPLACE_LANE:
+            case F64X2_REPLACE_LANE:
+                {
+                    var bits = ScalarSimd.laneBits(opcode);
+                    var lane = this.stack.pop();
+                    var value = bits == 64 ? lane.asLong() : lane.asInt();
+                    var vector = this.stack.pop().getData().clone();
+                    ScalarSimd.setLane(vector, bits, (int) operands[0], value);
+                    this.stack.push(Value.v128(vector));
+                    break;
+                }
+            case I8X16_SHL:
+            case I8X16_SHR_S:
+            case I8X16_SHR_U:
+            case I16X8_SHL:
+            case I16X8_SHR_S:
+            case I16X8_SHR_U:
+            case I32X4_SHL:
+            case I32X4_SHR_S:
+            case I32X4_SHR_U:
+            case I64X2_SHL:
+            case I64X2_SHR_S:
+            case I64X2_SHR_U:
+                {
+                    var count = this.stack.pop().asInt();
+                    var vector = this.stack.pop().getData();
+                    this.stack.push(Value.v128(SIMD.shift(opcode, vector, count)));
+                    break;
+                }
+            case V128_ANY_TRUE:
+            case I8X16_ALL_TRUE:
+            case I16X8_ALL_TRUE:
+            case I32X4_ALL_TRUE:
+            case I64X2_ALL_TRUE:
+            case I8X16_BITMASK:
+            case I16X8_BITMASK:
+            case I32X4_BITMASK:
+            case I64X2_BITMASK:
+                this.stack.push(Value.i32(SIMD.test(opcode, this.stack.pop().getData())));
+                break;
+            case V128_BITSELECT:
+                {
+                    var mask = this.stack.pop().getData();
+                    var b = this.stack.pop().getData();
+                    var a = this.stack.pop().getData();
+                    this.stack.push(Value.v128(SIMD.bitselect(a, b, mask)));
+                    break;
+                }
+            case V128_NOT:
+            case F32X4_DEMOTE_F64X2_ZERO:
+            case F64X2_PROMOTE_LOW_F32X4:
+            case I8X16_ABS:
+            case I8X16_NEG:
+            case I8X16_POPCNT:
+            case F32X4_CEIL:
+            case F32X4_FLOOR:
+            case F32X4_TRUNC:
+            case F32X4_NEAREST:
+            case F64X2_CEIL:
+            case F64X2_FLOOR:
+            case F64X2_TRUNC:
+            case I16X8_EXTADD_PAIRWISE_I8X16_S:
+            case I16X8_EXTADD_PAIRWISE_I8X16_U:
+            case I32X4_EXTADD_PAIRWISE_I16X8_S:
+            case I32X4_EXTADD_PAIRWISE_I16X8_U:
+            case I16X8_ABS:
+            case I16X8_NEG:
+            case I16X8_EXTEND_LOW_I8X16_S:
+            case I16X8_EXTEND_HIGH_I8X16_S:
+            case I16X8_EXTEND_LOW_I8X16_U:
+            case I16X8_EXTEND_HIGH_I8X16_U:
+            case F64X2_NEAREST:
+            case I32X4_ABS:
+            case I32X4_NEG:
+            case I32X4_EXTEND_LOW_I16X8_S:
+            case I32X4_EXTEND_HIGH_I16X8_S:
+            case I32X4_EXTEND_LOW_I16X8_U:
+            case I32X4_EXTEND_HIGH_I16X8_U:
+            case I64X2_ABS:
+            case I64X2_NEG:
+            case I64X2_EXTEND_LOW_I32X4_S:
+            case I64X2_EXTEND_HIGH_I32X4_S:
+            case I64X2_EXTEND_LOW_I32X4_U:
+            case I64X2_EXTEND_HIGH_I32X4_U:
+            case F32X4_ABS:
+            case F32X4_NEG:
+            case F32X4_SQRT:
+            case F64X2_ABS:
+            case F64X2_NEG:
+            case F64X2_SQRT:
+            case I32X4_TRUNC_SAT_F32X4_S:
+            case I32X4_TRUNC_SAT_F32X4_U:
+            case F32X4_CONVERT_I32X4_S:
+            case F32X4_CONVERT_I32X4_U:
+            case I32X4_TRUNC_SAT_F64X2_S_ZERO:
+            case I32X4_TRUNC_SAT_F64X2_U_ZERO:
+            case F64X2_CONVERT_LOW_I32X4_S:
+            case F64X2_CONVERT_LOW_I32X4_U:
+                this.stack.push(Value.v128(SIMD.unary(opcode, this.stack.pop().getData())));
+                break;
+            default:
+                {
+                    var b = this.stack.pop().getData();
+                    var a = this.stack.pop().getData();
+                    this.stack.push(Value.v128(SIMD.binary(opcode, a, b)));
+                    break;
+                }
+        }
+    }
 
-                            long tosL;
-                            if (Float.isNaN(tos) || tos < 0) {
-                                tosL = 0L;
-                            } else if (tos >= Long.MAX_VALUE) {
-                                tosL = 0xFFFFFFFFFFFFFFFFL;
-                            } else {
-                                tosL = (long) tos;
-                            }
+    /**
+     * Executes the atomic instructions of the threads proposal. They trap unless their address
+     * is aligned on their width, on an unshared memory they behave as the plain accesses.
+     */
+    private void evalAtomic(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case MEMORY_ATOMIC_NOTIFY:
+                {
+                    var count = this.stack.pop().asInt();
+                    var memory = memory(instruction);
+                    var ptr = atomicAddress(memory, instruction, 4);
+                    this.stack.push(Value.i32(memory.atomicNotify(ptr, count)));
+                    break;
+                }
+            case MEMORY_ATOMIC_WAIT32:
+                {
+                    var timeout = this.stack.pop().asLong();
+                    var expected = Integer.toUnsignedLong(this.stack.pop().asInt());
+                    var memory = memory(instruction);
+                    var ptr = atomicAddress(memory, instruction, 4);
+                    this.stack.push(Value.i32(memory.atomicWait(ptr, 4, expected, timeout)));
+                    break;
+                }
+            case MEMORY_ATOMIC_WAIT64:
+                {
+                    var timeout = this.stack.pop().asLong();
+                    var expected = this.stack.pop().asLong();
+                    var memory = memory(instruction);
+                    var ptr = atomicAddress(memory, instruction, 8);
+                    this.stack.push(Value.i32(memory.atomicWait(ptr, 8, expected, timeout)));
+                    break;
+                }
+            case ATOMIC_FENCE:
+                VarHandle.fullFence();
+                break;
+            case I32_ATOMIC_LOAD:
+                atomicLoad(instruction, 4, false);
+                break;
+            case I64_ATOMIC_LOAD:
+                atomicLoad(instruction, 8, true);
+                break;
+            case I32_ATOMIC_LOAD8_U:
+                atomicLoad(instruction, 1, false);
+                break;
+            case I32_ATOMIC_LOAD16_U:
+                atomicLoad(instruction, 2, false);
+                break;
+            case I64_ATOMIC_LOAD8_U:
+                atomicLoad(instruction, 1, true);
+                break;
+            case I64_ATOMIC_LOAD16_U:
+                atomicLoad(instruction, 2, true);
+                break;
+            case I64_ATOMIC_LOAD32_U:
+                atomicLoad(instruction, 4, true);
+                break;
+            case I32_ATOMIC_STORE:
+                atomicStore(instruction, 4, false);
+                break;
+            case I64_ATOMIC_STORE:
+                atomicStore(instruction, 8, true);
+                break;
+            case I32_ATOMIC_STORE8:
+                atomicStore(instruction, 1, false);
+                break;
+            case I32_ATOMIC_STORE16:
+                atomicStore(instruction, 2, false);
+                break;
+            case I64_ATOMIC_STORE8:
+                atomicStore(instruction, 1, true);
+                break;
+            case I64_ATOMIC_STORE16:
+                atomicStore(instruction, 2, true);
+                break;
+            case I64_ATOMIC_STORE32:
+                atomicStore(instruction, 4, true);
+                break;
+            case I32_ATOMIC_RMW_ADD:
+                atomicRmw(instruction, Memory.Rmw.ADD, 4, false);
+                break;
+            case I64_ATOMIC_RMW_ADD:
+                atomicRmw(instruction, Memory.Rmw.ADD, 8, true);
+                break;
+            case I32_ATOMIC_RMW8_ADD_U:
+                atomicRmw(instruction, Memory.Rmw.ADD, 1, false);
+                break;
+            case I32_ATOMIC_RMW16_ADD_U:
+                atomicRmw(instruction, Memory.Rmw.ADD, 2, false);
+                break;
+            case I64_ATOMIC_RMW8_ADD_U:
+                atomicRmw(instruction, Memory.Rmw.ADD, 1, true);
+                break;
+            case I64_ATOMIC_RMW16_ADD_U:
+                atomicRmw(instruction, Memory.Rmw.ADD, 2, true);
+                break;
+            case I64_ATOMIC_RMW32_ADD_U:
+                atomicRmw(instruction, Memory.Rmw.ADD, 4, true);
+                break;
+            case I32_ATOMIC_RMW_SUB:
+                atomicRmw(instruction, Memory.Rmw.SUB, 4, false);
+                break;
+            case I64_ATOMIC_RMW_SUB:
+                atomicRmw(instruction, Memory.Rmw.SUB, 8, true);
+                break;
+            case I32_ATOMIC_RMW8_SUB_U:
+                atomicRmw(instruction, Memory.Rmw.SUB, 1, false);
+                break;
+            case I32_ATOMIC_RMW16_SUB_U:
+                atomicRmw(instruction, Memory.Rmw.SUB, 2, false);
+                break;
+            case I64_ATOMIC_RMW8_SUB_U:
+                atomicRmw(instruction, Memory.Rmw.SUB, 1, true);
+                break;
+            case I64_ATOMIC_RMW16_SUB_U:
+                atomicRmw(instruction, Memory.Rmw.SUB, 2, true);
+                break;
+            case I64_ATOMIC_RMW32_SUB_U:
+                atomicRmw(instruction, Memory.Rmw.SUB, 4, true);
+                break;
+            case I32_ATOMIC_RMW_AND:
+                atomicRmw(instruction, Memory.Rmw.AND, 4, false);
+                break;
+            case I64_ATOMIC_RMW_AND:
+                atomicRmw(instruction, Memory.Rmw.AND, 8, true);
+                break;
+            case I32_ATOMIC_RMW8_AND_U:
+                atomicRmw(instruction, Memory.Rmw.AND, 1, false);
+                break;
+            case I32_ATOMIC_RMW16_AND_U:
+                atomicRmw(instruction, Memory.Rmw.AND, 2, false);
+                break;
+            case I64_ATOMIC_RMW8_AND_U:
+                atomicRmw(instruction, Memory.Rmw.AND, 1, true);
+                break;
+            case I64_ATOMIC_RMW16_AND_U:
+                atomicRmw(instruction, Memory.Rmw.AND, 2, true);
+                break;
+            case I64_ATOMIC_RMW32_AND_U:
+                atomicRmw(instruction, Memory.Rmw.AND, 4, true);
+                break;
+            case I32_ATOMIC_RMW_OR:
+                atomicRmw(instruction, Memory.Rmw.OR, 4, false);
+                break;
+            case I64_ATOMIC_RMW_OR:
+                atomicRmw(instruction, Memory.Rmw.OR, 8, true);
+                break;
+            case I32_ATOMIC_RMW8_OR_U:
+                atomicRmw(instruction, Memory.Rmw.OR, 1, false);
+                break;
+            case I32_ATOMIC_RMW16_OR_U:
+                atomicRmw(instruction, Memory.Rmw.OR, 2, false);
+                break;
+            case I64_ATOMIC_RMW8_OR_U:
+                atomicRmw(instruction, Memory.Rmw.OR, 1, true);
+                break;
+            case I64_ATOMIC_RMW16_OR_U:
+                atomicRmw(instruction, Memory.Rmw.OR, 2, true);
+                break;
+            case I64_ATOMIC_RMW32_OR_U:
+                atomicRmw(instruction, Memory.Rmw.OR, 4, true);
+                break;
+            case I32_ATOMIC_RMW_XOR:
+                atomicRmw(instruction, Memory.Rmw.XOR, 4, false);
+                break;
+            case I64_ATOMIC_RMW_XOR:
+                atomicRmw(instruction, Memory.Rmw.XOR, 8, true);
+                break;
+            case I32_ATOMIC_RMW8_XOR_U:
+                atomicRmw(instruction, Memory.Rmw.XOR, 1, false);
+                break;
+            case I32_ATOMIC_RMW16_XOR_U:
+                atomicRmw(instruction, Memory.Rmw.XOR, 2, false);
+                break;
+            case I64_ATOMIC_RMW8_XOR_U:
+                atomicRmw(instruction, Memory.Rmw.XOR, 1, true);
+                break;
+            case I64_ATOMIC_RMW16_XOR_U:
+                atomicRmw(instruction, Memory.Rmw.XOR, 2, true);
+                break;
+            case I64_ATOMIC_RMW32_XOR_U:
+                atomicRmw(instruction, Memory.Rmw.XOR, 4, true);
+                break;
+            case I32_ATOMIC_RMW_XCHG:
+                atomicRmw(instruction, Memory.Rmw.XCHG, 4, false);
+                break;
+            case I64_ATOMIC_RMW_XCHG:
+                atomicRmw(instruction, Memory.Rmw.XCHG, 8, true);
+                break;
+            case I32_ATOMIC_RMW8_XCHG_U:
+                atomicRmw(instruction, Memory.Rmw.XCHG, 1, false);
+                break;
+            case I32_ATOMIC_RMW16_XCHG_U:
+                atomicRmw(instruction, Memory.Rmw.XCHG, 2, false);
+                break;
+            case I64_ATOMIC_RMW8_XCHG_U:
+                atomicRmw(instruction, Memory.Rmw.XCHG, 1, true);
+                break;
+            case I64_ATOMIC_RMW16_XCHG_U:
+                atomicRmw(instruction, Memory.Rmw.XCHG, 2, true);
+                break;
+            case I64_ATOMIC_RMW32_XCHG_U:
+                atomicRmw(instruction, Memory.Rmw.XCHG, 4, true);
+                break;
+            case I32_ATOMIC_RMW_CMPXCHG:
+                atomicCompareAndExchange(instruction, 4, false);
+                break;
+            case I64_ATOMIC_RMW_CMPXCHG:
+                atomicCompareAndExchange(instruction, 8, true);
+                break;
+            case I32_ATOMIC_RMW8_CMPXCHG_U:
+                atomicCompareAndExchange(instruction, 1, false);
+                break;
+            case I32_ATOMIC_RMW16_CMPXCHG_U:
+                atomicCompareAndExchange(instruction, 2, false);
+                break;
+            case I64_ATOMIC_RMW8_CMPXCHG_U:
+                atomicCompareAndExchange(instruction, 1, true);
+                break;
+            case I64_ATOMIC_RMW16_CMPXCHG_U:
+                atomicCompareAndExchange(instruction, 2, true);
+                break;
+            case I64_ATOMIC_RMW32_CMPXCHG_U:
+                atomicCompareAndExchange(instruction, 4, true);
+                break;
+            default:
+                throw new RuntimeException("Machine doesn't recognize Instruction " + instruction);
+        }
+    }
 
-                            this.stack.push(Value.i64(tosL));
-                            break;
-                        }
-                    case I64_TRUNC_SAT_F64_S:
-                        {
-                            var tos = this.stack.pop().asDouble();
-
-                            if (Double.isNaN(tos)) {
-                                tos = 0;
-                            } else if (tos <= Long.MIN_VALUE) {
-                                tos = Long.MIN_VALUE;
-                            } else if (tos >= Long.MAX_VALUE) {
-                                tos = Long.MAX_VALUE;
-                            }
+    // the values are zero extended by the narrow accesses, wide tells an i64 from an i32
 
-                            this.stack.push(Value.i64((long) tos));
-                            break;
-                        }
+    private void atomicLoad(Instruction instruction, int width, boolean wide) {
+        var memory = memory(instruction);
+        var ptr = atomicAddress(memory, instruction, width);
+        pushAtomic(memory.atomicLoad(ptr, width), wide);
+    }
 
-                    case I64_TRUNC_SAT_F64_U:
-                        {
-                            double tos = this.stack.pop().asDouble();
-
-                            long tosL;
-                            if (Double.isNaN(tos) || tos <= -1.0) {
-                                tosL = 0L;
-                            } else if (tos >= TWO_POW_64_PLUS_1_F) {
-                                tosL = 0xFFFFFFFFFFFFFFFFL;
-                            } else if (tos == Long.MAX_VALUE) {
-                                tosL = (long) tos + 1;
-                            } else {
-                                tosL = (long) tos;
-                            }
+    private void atomicStore(Instruction instruction, int width, boolean wide) {
+        var value = popAtomic(wide);
+        var memory = memory(instruction);
+        var ptr = atomicAddress(memory, instruction, width);
+        memory.atomicStore(ptr, width, value);
+    }
 
-                            this.stack.push(Value.i64(tosL));
-                            break;
-                        }
+    private void atomicRmw(Instruction instruction, Memory.Rmw op, int width, boolean wide) {
+        var operand = popAtomic(wide);
+        var memory = memory(instruction);
+        var ptr = atomicAddress(memory, instruction, width);
+        pushAtomic(memory.atomicRmw(op, ptr, width, operand), wide);
+    }
 
-                    case I32_TRUNC_F64_S:
-                        {
-                            var tos = this.stack.pop().asDouble();
+    private void atomicCompareAndExchange(Instruction instruction, int width, boolean wide) {
+        var replacement = popAtomic(wide);
+        var expected = popAtomic(wide);
+        var memory = memory(instruction);
+        var ptr = atomicAddress(memory, instruction, width);
+        var previous = memory.atomicCompareAndExchange(ptr, width, expected, replacement);
+        pushAtomic(previous, wide);
+    }
 
-                            if (Double.isNaN(tos)) {
-                                throw new WASMRuntimeException("invalid conversion to integer");
-                            }
+    private long popAtomic(boolean wide) {
+        var value = this.stack.pop();
+        return wide ? value.asLong() : value.asInt();
+    }
 
-                            var tosL = (long) tos;
-                            if (tosL < Integer.MIN_VALUE || tosL > Integer.MAX_VALUE) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
+    private void pushAtomic(long value, boolean wide) {
+        this.stack.push(wide ? Value.i64(value) : Value.i32((int) value));
+    }
 
-                            this.stack.push(Value.i32(tosL));
-                            break;
-                        }
-                    case I32_TRUNC_F64_U:
-                        {
-                            double tos = this.stack.pop().asDouble();
-                            if (Double.isNaN(tos)) {
-                                throw new WASMRuntimeException("invalid conversion to integer");
-                            }
+    private long atomicAddress(Memory memory, Instruction instruction, int width) {
+        var ptr = address(memory, instruction, width);
+        if ((ptr & (width - 1)) != 0) {
+            throw new WASMRuntimeException("unaligned atomic");
+        }
+        return ptr;
+    }
 
-                            var tosL = (long) tos;
-                            if (tosL < 0 || tosL > 0xFFFFFFFFL) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
-                            this.stack.push(Value.i32(tosL & 0xFFFFFFFFL));
-                            break;
-                        }
-                    case I64_TRUNC_F32_S:
-                        {
-                            var tos = this.stack.pop().asFloat();
+    /**
+     * Loads 64 bits and widens their lanes with the extend instruction {@code extend}.
+     */
+    private void loadExtend(Instruction instruction, OpCode extend) {
+        var memory = memory(instruction);
+        var ptr = address(memory, instruction, 8);
+        var half = Value.v128(memory.readLong(ptr), 0).getData();
+        this.stack.push(Value.v128(SIMD.unary(extend, half)));
+    }
 
-                            if (Float.isNaN(tos)) {
-                                throw new WASMRuntimeException("invalid conversion to integer");
-                            }
+    private static int laneAccessBits(OpCode opcode) {
+        switch (opcode) {
+            case V128_LOAD8_LANE:
+            case V128_STORE8_LANE:
+                return 8;
+            case V128_LOAD16_LANE:
+            case V128_STORE16_LANE:
+                return 16;
+            case V128_LOAD32_LANE:
+            case V128_STORE32_LANE:
+                return 32;
+            default:
+                return 64;
+        }
+    }
 
-                            if (tos < Long.MIN_VALUE || tos >= Long.MAX_VALUE) {
-                                throw new WASMRuntimeException("integer overflow");
-                            }
+    /**
+     * The memory accessed by an instruction with a memarg, whose index of the multi-memory
+     * proposal was decoded with the instruction.
+     */
+    private Memory memory(Instruction instruction) {
+        return instance.getMemory((int) instruction.getOperands()[2]);
+    }
 
-                            this.stack.push(Value.i64((long) tos));
-                            break;
-                        }
-                    case MEMORY_INIT:
-                        {
-                            var segmentId = (int) operands[0];
-                            var memidx = (int) operands[1];
-                            if (memidx != 0)
-                                throw new WASMRuntimeException(
-                                        "We don't support non zero index for memory: " + memidx);
-                            var size = this.stack.pop().asInt();
-                            var offset = this.stack.pop().asInt();
-                            var destination = this.stack.pop().asInt();
-                            instance.getMemory()
-                                    .initPassiveSegment(segmentId, destination, offset, size);
-                            break;
-                        }
-                    case DATA_DROP:
-                        {
-                            // do nothing
-                            // TODO we'll need to tell the segment it's been dropped which changes
-                            // the behavior
-                            // next time we try to do memory.init
-                            break;
-                        }
-                    case MEMORY_COPY:
-                        {
-                            var memidxSrc = (int) operands[0];
-                            var memidxDst = (int) operands[1];
-                            if (memidxDst != 0 && memidxSrc != 0)
-                                throw new WASMRuntimeException(
-                                        "We don't support non zero index for memory: "
-                                                + memidxSrc
-                                                + " "
-                                                + memidxDst);
-                            var size = this.stack.pop().asInt();
-                            var offset = this.stack.pop().asInt();
-                            var destination = this.stack.pop().asInt();
-                            instance.getMemory().copy(destination, offset, size);
-                            break;
-                        }
-                    default:
-                        throw new RuntimeException(
-                                "Machine doesn't recognize Instruction " + instruction);
-                }
+    /**
+     * Pops the base address of a memory access and returns its effective address.
+     * Base and offset are both u32, their sum is computed on 64 bits so that it never wraps.
+     * In a 64-bit memory they are both u64, a sum wrapping past 2^63 traps as it is out of
+     * bounds of any memory a Java heap can hold.
+     */
+    private long address(Memory memory, Instruction instruction, int size) {
+        var offset = instruction.getOperands()[1];
+        if (memory.isMemory64()) {
+            var base = this.stack.pop().asLong();
+            var effectiveAddress = base + offset;
+            if ((base | offset | effectiveAddress) < 0) {
+                throw new WASMRuntimeException("out of bounds memory access");
             }
-        } catch (ChicoryException e) {
-            // propagate ChicoryExceptions
-            throw e;
-        } catch (ArithmeticException e) {
-            if (e.getMessage().equalsIgnoreCase("/ by zero")
-                    || e.getMessage()
-                            .contains("divide by zero")) { // On Linux i64 throws "BigInteger divide
-                // by zero"
-                throw new WASMRuntimeException("integer divide by zero: " + e.getMessage(), e);
+            if (!instruction.isBoundsCheckElided()) {
+                memory.checkBounds(effectiveAddress, size);
             }
-            throw new WASMRuntimeException(e.getMessage(), e);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("undefined element: " + e.getMessage(), e);
-        } catch (Exception e) {
-            throw new WASMRuntimeException("An underlying Java exception occurred", e);
+            return effectiveAddress;
+        }
+        var base = Integer.toUnsignedLong(this.stack.pop().asInt());
+        var effectiveAddress = base + offset;
+        if (!instruction.isBoundsCheckElided()) {
+            memory.checkBounds(effectiveAddress, size);
+        }
+        return effectiveAddress;
+    }
+
+    private void consumeFuel(int blockSize) {
+        // only the leaders of basic blocks have a size
+        if (blockSize == 0) {
+            return;
+        }
+        if (fuel < blockSize) {
+            throw new FuelExhaustedException(blockSize, callStack);
+        }
+        fuel -= blockSize;
+    }
+
+    /**
+     * Loops can only be entered again by branching backwards, when a branch
+     * lands on an already executed instruction the epoch deadline is checked.
+     * The pc has already been moved to the target, that is where resuming continues.
+     */
+    private void checkBackEdge(StackFrame frame, int branchPc) {
+        if (epoch != null && frame.pc <= branchPc) {
+            checkEpochDeadline();
+        }
+    }
+
+    private void checkEpochDeadline() {
+        if (epoch != null && epoch.get() >= epochDeadline) {
+            throw new EpochDeadlineExceededException(epochDeadline, callStack);
         }
     }
 
@@ -1,16 +1,27 @@
 package com.dylibso.chicory.runtime;
 
 import com.dylibso.chicory.runtime.exceptions.WASMRuntimeException;
+import com.dylibso.chicory.runtime.jfr.MemoryGrowEvent;
 import com.dylibso.chicory.wasm.exceptions.ChicoryException;
 import com.dylibso.chicory.wasm.types.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents the linear memory in the Wasm program. Can be shared
  * reference b/w the host and the guest.
+ * <p>
+ * A shared memory, as defined by the threads proposal, can also be imported by several
+ * instances running on different threads. It is stored in small chunks allocated as it grows
+ * and never replaced, so growing it doesn't move what the other threads are using. The threads
+ * synchronize through the atomic instructions.
  */
 public final class Memory {
 
@@ -19,28 +30,178 @@ public final class Memory {
      */
     public static final int PAGE_SIZE = 2 << 15;
 
+    private static final VarHandle SHORT =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle FLOAT =
+            MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle DOUBLE =
+            MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The read-modify-write operations of the atomic instructions.
+     */
+    enum Rmw {
+        ADD,
+        SUB,
+        AND,
+        OR,
+        XOR,
+        XCHG;
+
+        long apply(long current, long operand) {
+            switch (this) {
+                case ADD:
+                    return current + operand;
+                case SUB:
+                    return current - operand;
+                case AND:
+                    return current & operand;
+                case OR:
+                    return current | operand;
+                case XOR:
+                    return current ^ operand;
+                default:
+                    return operand;
+            }
+        }
+    }
+
     private final MemoryLimits limits;
 
     private final DataSegment[] dataSegments;
 
-    private ByteBuffer buffer;
+    private static final int DIRTY_PAGE_SHIFT =
+            Integer.numberOfTrailingZeros(MemoryImage.PAGE_SIZE);
+
+    // the largest memory a single Java array can hold, a larger one is split into chunks
+    private static final int MAX_ARRAY_PAGES = Integer.MAX_VALUE / PAGE_SIZE;
+
+    private static final int CHUNK_SHIFT = 30;
+
+    // 1 MiB, a shared memory only allocates the chunks holding its current size
+    private static final int SHARED_CHUNK_SHIFT = 20;
+
+    private final MemoryImage image;
+
+    private final boolean shared;
+
+    private final boolean memory64;
+
+    // null unless the memory is shared
+    private final Waiters waiters;
+
+    // a chunk holds 1 << chunkShift bytes, only the last one of a memory which isn't shared
+    // can be shorter
+    private final int chunkShift;
+
+    private final long chunkMask;
+
+    // the size past which the memory is stored in chunks
+    private final long maxArrayLength;
+
+    // the whole memory, null once it is stored in chunks
+    private byte[] data;
+
+    // null until the memory grows past maxArrayLength, a shared memory is always in chunks and
+    // can hold more of them than its size needs
+    private byte[][] chunks;
+
+    // the size in bytes
+    private long length;
+
+    // one bit per MemoryImage page written since the memory was last zeroed, so zeroing only
+    // has to clear those pages
+    private long[] dirtyPages;
+
+    // one bit per MemoryImage page under a writable view, the host can write them at any time
+    // so zeroing always clears them
+    private long[] viewedPages;
 
     private int nPages;
 
+    private final List<MemoryGrowListener> growListeners = new CopyOnWriteArrayList<>();
+
     public Memory(MemoryLimits limits) {
         this(limits, null);
     }
 
     public Memory(MemoryLimits limits, DataSegment[] dataSegments) {
+        this(
+                limits,
+                dataSegments,
+                dataSegments == null
+                        ? MemoryImage.EMPTY
+                        : MemoryImage.of(dataSegments, evalDataOffsets(dataSegments), 0));
+    }
+
+    Memory(MemoryLimits limits, DataSegment[] dataSegments, MemoryImage image) {
+        this(limits, dataSegments, image, CHUNK_SHIFT, (long) MAX_ARRAY_PAGES * PAGE_SIZE);
+    }
+
+    /**
+     * An empty memory stored in chunks of {@code 1 << chunkShift} bytes as soon as it is
+     * larger than one chunk, so that the chunked store can be used without allocating GiBs.
+     */
+    Memory(MemoryLimits limits, int chunkShift) {
+        this(limits, null, MemoryImage.EMPTY, chunkShift, 1L << chunkShift);
+    }
+
+    private Memory(
+            MemoryLimits limits,
+            DataSegment[] dataSegments,
+            MemoryImage image,
+            int chunkShift,
+            long maxArrayLength) {
         this.limits = limits;
-        this.buffer = allocateByteBuffer(PAGE_SIZE * limits.getInitial());
-        this.nPages = limits.getInitial();
+        this.shared = limits.isShared();
+        this.memory64 = limits.isMemory64();
+        this.waiters = shared ? new Waiters() : null;
+        this.chunkShift = shared ? Math.min(chunkShift, SHARED_CHUNK_SHIFT) : chunkShift;
+        this.chunkMask = (1L << this.chunkShift) - 1;
+        this.maxArrayLength = maxArrayLength;
         this.dataSegments = dataSegments;
-        this.reinstantiate();
+        this.image = image;
+        this.data = new byte[0];
+        this.dirtyPages = new long[0];
+        this.viewedPages = new long[0];
+        if (shared) {
+            // room for the chunks of a 32-bit memory at its maximum, so that the array of
+            // chunks itself doesn't have to be replaced either
+            var maxLength = Math.min(limits.getMaximum(), (1L << 32) / PAGE_SIZE) * PAGE_SIZE;
+            this.chunks = new byte[(int) ((maxLength + chunkMask) >>> this.chunkShift)][];
+            this.data = null;
+        }
+        if (resize(limits.getInitial()) == -1) {
+            throw new ChicoryException(
+                    "cannot allocate a memory of " + limits.getInitial() + " pages");
+        }
+        // a new array is already zeroed
+        image.copyTo(this);
     }
 
-    private static ByteBuffer allocateByteBuffer(int capacity) {
-        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    // without an instance there are no globals, offsets can only be built from constants
+    private static long[] evalDataOffsets(DataSegment[] dataSegments) {
+        var offsets = new long[dataSegments.length];
+        for (var i = 0; i < dataSegments.length; i++) {
+            if (dataSegments[i] instanceof ActiveDataSegment) {
+                var expr = ((ActiveDataSegment) dataSegments[i]).getOffset();
+                offsets[i] = toAddress(ConstantEvaluator.eval(expr, new Value[0]));
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * The address held by an i32, unsigned, or by an i64 of a 64-bit memory.
+     */
+    static long toAddress(Value value) {
+        return value.getType() == ValueType.I64
+                ? value.asLong()
+                : Integer.toUnsignedLong(value.asInt());
     }
 
     /**
@@ -51,289 +212,871 @@ public final class Memory {
     }
 
     public int grow(int size) {
+        var event = new MemoryGrowEvent();
+        event.begin();
+        var result = resize(size);
+        event.end();
+        if (event.shouldCommit()) {
+            event.previousPages = result == -1 ? nPages : result;
+            event.deltaPages = size;
+            event.size = (long) nPages * PAGE_SIZE;
+            event.grown = result != -1;
+            event.commit();
+        }
+        if (result != -1 && size != 0) {
+            for (var listener : growListeners) {
+                listener.onGrow(this, result);
+            }
+        }
+        return result;
+    }
 
+    /**
+     * Registers a listener called every time the memory grows, so that hosts caching
+     * {@link #view(long, int) views} know when to take them again.
+     */
+    public void addGrowListener(MemoryGrowListener listener) {
+        growListeners.add(listener);
+    }
+
+    public void removeGrowListener(MemoryGrowListener listener) {
+        growListeners.remove(listener);
+    }
+
+    private int resize(long size) {
+        if (shared) {
+            synchronized (this) {
+                return resizeShared(size);
+            }
+        }
         var prevPages = nPages;
         var numPages = prevPages + size;
 
-        if (numPages > limits.getMaximum()) {
+        if (size < 0 || numPages > limits.getMaximum() || numPages > Integer.MAX_VALUE) {
+            return -1;
+        }
+        if (size == 0) {
+            // keep the array, the views taken so far stay valid
+            return prevPages;
+        }
+
+        // a memory never shrinks, an address checked once stays valid
+        var newLength = numPages * PAGE_SIZE;
+        try {
+            var grownDirtyPages = Arrays.copyOf(dirtyPages, dirtyWords(newLength));
+            var grownViewedPages = Arrays.copyOf(viewedPages, grownDirtyPages.length);
+            if (newLength > maxArrayLength) {
+                growChunks(newLength);
+            } else {
+                data = Arrays.copyOf(data, (int) newLength);
+            }
+            dirtyPages = grownDirtyPages;
+            viewedPages = grownViewedPages;
+        } catch (OutOfMemoryError e) {
+            // memory.grow is allowed to fail, the guest may fall back to a smaller size
             return -1;
         }
+        length = newLength;
+        nPages = (int) numPages;
+
+        return prevPages;
+    }
+
+    private void growChunks(long newLength) {
+        var chunkSize = 1L << chunkShift;
+        var count = (int) ((newLength + chunkSize - 1) >>> chunkShift);
+        var grown = new byte[count][];
+        for (var i = 0; i < count; i++) {
+            var start = (long) i << chunkShift;
+            var size = (int) Math.min(chunkSize, newLength - start);
+            if (chunks != null && i < chunks.length && chunks[i].length == size) {
+                grown[i] = chunks[i];
+                continue;
+            }
+            grown[i] = new byte[size];
+            if (start < length) {
+                copyOut(start, grown[i], 0, (int) Math.min(size, length - start));
+            }
+        }
+        chunks = grown;
+        data = null;
+    }
+
+    // only allocates the missing chunks, the existing ones stay where the other threads use
+    // them. The other threads see the new size once they synchronize with this one, as the
+    // guest has to do anyway before using the new pages.
+    private int resizeShared(long size) {
+        var prevPages = nPages;
+        var numPages = prevPages + size;
 
-        var oldBuffer = buffer;
-        var newBuffer = allocateByteBuffer(oldBuffer.capacity() + (PAGE_SIZE * size));
-        var position = oldBuffer.position();
-        oldBuffer.rewind();
-        newBuffer.put(oldBuffer);
-        newBuffer.position(position);
+        if (size < 0 || numPages > limits.getMaximum() || numPages > Integer.MAX_VALUE) {
+            return -1;
+        }
 
-        buffer = newBuffer;
-        nPages = numPages;
+        var newLength = numPages * PAGE_SIZE;
+        var count = (int) ((newLength + chunkMask) >>> chunkShift);
+        try {
+            // only a 64-bit memory grows past the chunks allocated up front
+            var grown = count <= chunks.length ? chunks : Arrays.copyOf(chunks, count);
+            for (var i = 0; i < count; i++) {
+                if (grown[i] == null) {
+                    grown[i] = new byte[1 << chunkShift];
+                }
+            }
+            chunks = grown;
+        } catch (OutOfMemoryError e) {
+            return -1;
+        }
+        length = newLength;
+        nPages = (int) numPages;
 
         return prevPages;
     }
 
-    public int getInitialSize() {
+    public long getInitialSize() {
         return this.limits.getInitial();
     }
 
     /**
-     * This zeros out the memory and re-writes the data segments
-     * TODO - there is probably a more efficient way to handle this and do we need to do this?
+     * Gets the maximum size of the memory in number of pages
+     */
+    public long getMaximumSize() {
+        return this.limits.getMaximum();
+    }
+
+    /**
+     * Whether the memory can be used by several threads at once.
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Whether the memory is indexed with i64 addresses, as defined by the memory64 proposal.
+     */
+    public boolean isMemory64() {
+        return memory64;
+    }
+
+    /**
+     * Gets the size of the memory in bytes, which can exceed 4 GiB for a 64-bit memory.
+     */
+    public long byteSize() {
+        return length;
+    }
+
+    /**
+     * Traps unless the size bytes at the effective address are in the memory.
+     * The effective address is either the sum of two u32, so it needs up to 33 bits, or a
+     * 64-bit address already checked for overflow. Either way it is a non negative long and a
+     * single compare covers overflowing and too large addresses.
+     */
+    public void checkBounds(long effectiveAddress, int size) {
+        if (effectiveAddress > length - size) {
+            throw new WASMRuntimeException("out of bounds memory access");
+        }
+    }
+
+    /**
+     * Traps unless the size bytes at address are in the memory, both being unsigned.
+     */
+    void checkRange(long address, long size) {
+        if (address < 0 || size < 0 || address > length - size) {
+            throw new WASMRuntimeException("out of bounds memory access");
+        }
+    }
+
+    /**
+     * This zeros out the memory and copies the data segments image back in
      */
     public void reinstantiate() {
         this.zero();
+        image.copyTo(this);
+    }
+
+    public void copy(int dest, int src, int size) {
+        copy(
+                Integer.toUnsignedLong(dest),
+                Integer.toUnsignedLong(src),
+                Integer.toUnsignedLong(size));
+    }
+
+    void copy(long dest, long src, long size) {
+        checkRange(src, size);
+        checkRange(dest, size);
+        if (chunks == null) {
+            // arraycopy behaves as if through a temporary array, overlapping ranges are fine
+            System.arraycopy(data, (int) src, data, (int) dest, (int) size);
+        } else {
+            copyChunks(dest, src, size);
+        }
+        markDirty(dest, size);
+    }
 
-        if (dataSegments == null) {
+    /**
+     * Copies size bytes at src of source to dest, source being another memory of the same
+     * instance with the multi-memory proposal.
+     */
+    void copy(long dest, Memory source, long src, long size) {
+        if (source == this) {
+            copy(dest, src, size);
             return;
         }
+        source.checkRange(src, size);
+        checkRange(dest, size);
+        var done = 0L;
+        while (done < size) {
+            var from = src + done;
+            var to = dest + done;
+            var n = Math.min(size - done, Math.min(source.toChunkEnd(from), toChunkEnd(to)));
+            System.arraycopy(source.array(from), source.index(from), array(to), index(to), (int) n);
+            done += n;
+        }
+        markDirty(dest, size);
+    }
 
-        for (var s : dataSegments) {
-            if (s instanceof ActiveDataSegment) {
-                var segment = (ActiveDataSegment) s;
-                var offsetExpr = segment.getOffset();
-                var offsetInstr = offsetExpr[0];
-                // TODO how flexible can this be? Do we need to dynamically eval the expression?
-                if (offsetInstr.getOpcode() != OpCode.I32_CONST) {
-                    throw new RuntimeException(
-                            "Don't support data segment expressions other than i32.const yet");
-                }
-                var data = segment.getData();
-                var offset = (int) offsetInstr.getOperands()[0];
-                // System.out.println("Writing data segment " + offset + " " + new String(data));
-                // TODO is there a cleaner way doing buffer.put(offset, data)?
-                for (int i = 0, j = offset; i < data.length; i++, j++) {
-                    this.buffer.put(j, data[i]);
-                }
-            } else if (s instanceof PassiveDataSegment) {
-                // System.out.println("Skipping passive segment " + s);
+    // copies piece by piece, none crossing a chunk boundary, backwards when the destination
+    // overlaps the end of the source
+    private void copyChunks(long dest, long src, long size) {
+        var backwards = dest > src && dest < src + size;
+        var done = 0L;
+        while (done < size) {
+            var remaining = size - done;
+            long from;
+            long to;
+            long n;
+            if (backwards) {
+                var srcEnd = src + remaining;
+                var destEnd = dest + remaining;
+                n = Math.min(remaining, Math.min(inChunkEnd(srcEnd), inChunkEnd(destEnd)));
+                from = srcEnd - n;
+                to = destEnd - n;
             } else {
-                throw new ChicoryException("Data segment should be active or passive: " + s);
+                from = src + done;
+                to = dest + done;
+                n = Math.min(remaining, Math.min(toChunkEnd(from), toChunkEnd(to)));
             }
+            System.arraycopy(array(from), index(from), array(to), index(to), (int) n);
+            done += n;
         }
     }
 
-    public void copy(int dest, int src, int size) {
-        var data = new byte[size];
-        this.buffer.get(data, src, size);
-        try {
-            // TODO why can't i just write this array to the buffer without the loop?
-            for (var i = 0; i < size; i++) {
-                this.buffer.put(dest + i, data[i]);
-            }
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+    // the number of bytes from address to the end of its chunk
+    private long toChunkEnd(long address) {
+        return (1L << chunkShift) - (address & chunkMask);
+    }
+
+    // the number of bytes from the start of the chunk holding the byte before end to end
+    private long inChunkEnd(long end) {
+        return ((end - 1) & chunkMask) + 1;
     }
 
     public void initPassiveSegment(int segmentId, int dest, int offset, int size) {
-        var segment = dataSegments[segmentId];
+        initPassiveSegment(dataSegments[segmentId], Integer.toUnsignedLong(dest), offset, size);
+    }
+
+    /**
+     * Same as {@link #initPassiveSegment(int, int, int, int)} with a segment of the module
+     * executing memory.init, which isn't the one which created the memory when it is imported.
+     */
+    void initPassiveSegment(DataSegment segment, long dest, int offset, int size) {
         if (!(segment instanceof PassiveDataSegment)) {
             throw new ChicoryException(
                     "data segment with id "
                             + " is not a passive segment and cannot be initialized at runtime");
         }
-        var data = segment.getData();
-        // TODO why doesn't this API work?
-        // this.buffer.put(target, segment.getData(), offset, size);
-        int j = dest;
-        try {
-            for (var i = offset; i < size; i++) {
-                this.buffer.put(j++, data[i]);
-            }
-        } catch (IndexOutOfBoundsException e) {
+        var segmentData = segment.getData();
+        var length = Integer.toUnsignedLong(size);
+        if (Integer.toUnsignedLong(offset) + length > segmentData.length) {
             throw new WASMRuntimeException("out of bounds memory access");
         }
+        checkRange(dest, length);
+        copyIn(dest, segmentData, offset, size);
+        markDirty(dest, length);
     }
 
+    /**
+     * Decodes the len bytes at offset as UTF-8, the encoding {@link #put(int, String)} uses.
+     */
     public String getString(int offset, int len) {
-        try {
-            var data = new byte[len];
-            for (int i = 0, j = offset; i < len; i++, j++) {
-                data[i] = this.buffer.get(j);
-            }
+        checkBounds(Integer.toUnsignedLong(offset), len);
+        if (chunks == null) {
+            return new String(data, offset, len, StandardCharsets.UTF_8);
+        }
+        return new String(readBytes(Integer.toUnsignedLong(offset), len), StandardCharsets.UTF_8);
+    }
 
-            return new String(data);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
+    /**
+     * Returns a little endian buffer over the length bytes at address, without copying them.
+     * Reads and writes through the buffer go straight to the memory, with the bounds of the
+     * range. Growing a memory which isn't shared leaves the buffer on the previous content,
+     * see {@link #addGrowListener(MemoryGrowListener)}. The buffer stays usable across
+     * {@link #zero()}, which keeps clearing whatever is written through it.
+     * A memory larger than 2 GiB is stored in 1 GiB chunks, and a shared memory in 1 MiB ones.
+     * A range crossing two chunks can't be viewed, {@link #readBytes(long, byte[], int, int)}
+     * copies it instead.
+     */
+    public ByteBuffer view(long address, int length) {
+        checkRange(address, length);
+        // the host may write through the buffer at any time, even after the memory is zeroed
+        markPages(viewedPages, address, length);
+        return wrap(address, length);
+    }
+
+    /**
+     * Same as {@link #view(long, int)} for a host which only reads the range.
+     */
+    public ByteBuffer readOnlyView(long address, int length) {
+        checkRange(address, length);
+        return wrap(address, length).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer wrap(long address, int length) {
+        var index = index(address);
+        var array = array(address);
+        if (index > array.length - length) {
+            throw new ChicoryException(
+                    "Cannot view " + length + " bytes at " + address + " across two chunks");
         }
+        return ByteBuffer.wrap(array, index, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copies the length bytes at address to dest, starting at offset.
+     */
+    public void readBytes(long address, byte[] dest, int offset, int length) {
+        checkRange(address, length);
+        Objects.checkFromIndexSize(offset, length, dest.length);
+        copyOut(address, dest, offset, length);
+    }
+
+    /**
+     * Copies the length bytes of src starting at offset to address.
+     */
+    public void writeBytes(long address, byte[] src, int offset, int length) {
+        checkRange(address, length);
+        Objects.checkFromIndexSize(offset, length, src.length);
+        markDirty(address, length);
+        copyIn(address, src, offset, length);
     }
 
     public void put(int offset, String data) {
-        try {
-            var bytes = data.getBytes(StandardCharsets.UTF_8);
-            for (int i = 0, j = offset; i < bytes.length; i++, j++) {
-                byte b = bytes[i];
-                this.buffer.put(j, b);
-            }
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        put(offset, data.getBytes(StandardCharsets.UTF_8));
     }
 
     public void put(int offset, byte[] data) {
-        try {
-            // System.out.println("mem-write@" + offset + " " + data);
-            for (int i = 0, j = offset; i < data.length; i++, j++) {
-                byte b = data[i];
-                this.buffer.put(j, b);
-            }
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), data.length);
+        writeBytes(Integer.toUnsignedLong(offset), data);
     }
 
     public void put(int offset, Value data) {
-        try {
-            var bytes = data.getData();
-            for (int i = 0, j = offset; i < bytes.length; i++, j++) {
-                this.buffer.put(j, bytes[i]);
-            }
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        put(offset, data.getData());
     }
 
     public void putI32(int offset, int data) {
-        try {
-            this.buffer.putInt(offset, data);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 4);
+        writeInt(Integer.toUnsignedLong(offset), data);
     }
 
     public void putF32(int offset, float data) {
-        try {
-            this.buffer.putFloat(offset, data);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 4);
+        writeFloat(Integer.toUnsignedLong(offset), data);
     }
 
     public void putF64(int offset, double data) {
-        try {
-            this.buffer.putDouble(offset, data);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 8);
+        writeDouble(Integer.toUnsignedLong(offset), data);
     }
 
     public void putShort(int offset, short data) {
-        try {
-            this.buffer.putShort(offset, data);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 2);
+        writeShort(Integer.toUnsignedLong(offset), data);
     }
 
     public void putI64(int offset, long data) {
-        try {
-            this.buffer.putLong(offset, data);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 8);
+        writeLong(Integer.toUnsignedLong(offset), data);
     }
 
     public void putByte(int offset, byte data) {
-        try {
-            this.buffer.put(offset, data);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 1);
+        writeByte(Integer.toUnsignedLong(offset), data);
     }
 
     public byte get(int offset) {
-        try {
-            // System.out.println("mem-read@" + offset);
-            return this.buffer.get(offset);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 1);
+        return readByte(Integer.toUnsignedLong(offset));
     }
 
     public Value getI32(int offset) {
-        try {
-            // System.out.println("mem-read@" + offset);
-            return Value.i32(this.buffer.getInt(offset));
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 4);
+        return Value.i32(readInt(Integer.toUnsignedLong(offset)));
     }
 
     public Value getU32(int offset) {
-        try {
-            // System.out.println("mem-read@" + offset);
-            return Value.i64(this.buffer.getLong(offset) & 0xffffffffL);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 4);
+        return Value.i64(readU32(Integer.toUnsignedLong(offset)));
     }
 
     public Value getI64(int offset) {
-        try {
-            // System.out.println("mem-read@" + offset);
-            return Value.i64(this.buffer.getLong(offset));
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 8);
+        return Value.i64(readLong(Integer.toUnsignedLong(offset)));
     }
 
     public Value getI16(int offset) {
-        try {
-            // System.out.println("mem-read@" + offset);
-            return Value.i32(this.buffer.getShort(offset));
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 2);
+        return Value.i32(readI16(Integer.toUnsignedLong(offset)));
     }
 
     public Value getU16(int offset) {
-        try {
-            // System.out.println("mem-read@" + offset);
-            return Value.i32(this.buffer.getInt(offset) & 0xffff);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 2);
+        return Value.i32(readU16(Integer.toUnsignedLong(offset)));
     }
 
     public Value getI8U(int offset) {
-        try {
-            // System.out.println("mem-read@" + offset);
-            return Value.i32(this.buffer.get(offset) & 0xff);
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 1);
+        return Value.i32(readU8(Integer.toUnsignedLong(offset)));
     }
 
     public Value getI8(int offset) {
-        try {
-            // System.out.println("mem-read@" + offset);
-            return Value.i32(this.buffer.get(offset));
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 1);
+        return Value.i32(readI8(Integer.toUnsignedLong(offset)));
     }
 
     public Value getF32(int offset) {
-        // System.out.println("mem-read@" + offset);
-        try {
-            return Value.f32(this.buffer.getInt(offset));
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
-        }
+        checkBounds(Integer.toUnsignedLong(offset), 4);
+        return Value.f32(readInt(Integer.toUnsignedLong(offset)));
     }
 
     public Value getF64(int offset) {
-        try {
-            // System.out.println("mem-read@" + offset);
-            return Value.f64(this.buffer.getLong(offset));
-        } catch (IndexOutOfBoundsException e) {
-            throw new WASMRuntimeException("out of bounds memory access");
+        checkBounds(Integer.toUnsignedLong(offset), 8);
+        return Value.f64(readLong(Integer.toUnsignedLong(offset)));
+    }
+
+    // The unchecked accessors below are for addresses already checked with checkBounds. While
+    // the memory fits in one array they go straight to it, past that they find the chunk
+    // holding the address and only an access straddling two chunks is done byte by byte.
+
+    byte readByte(long address) {
+        if (chunks != null) {
+            return array(address)[index(address)];
         }
+        return data[(int) address];
+    }
+
+    short readShort(long address) {
+        if (chunks != null) {
+            return (short) readChunks(address, 2);
+        }
+        return (short) SHORT.get(data, (int) address);
+    }
+
+    int readInt(long address) {
+        if (chunks != null) {
+            return (int) readChunks(address, 4);
+        }
+        return (int) INT.get(data, (int) address);
+    }
+
+    long readLong(long address) {
+        if (chunks != null) {
+            return readChunks(address, 8);
+        }
+        return (long) LONG.get(data, (int) address);
+    }
+
+    byte[] readBytes(long address, int length) {
+        var bytes = new byte[length];
+        copyOut(address, bytes, 0, length);
+        return bytes;
+    }
+
+    // The narrow loads sign or zero extend the value read
+
+    int readI8(long address) {
+        return readByte(address);
+    }
+
+    int readU8(long address) {
+        return readByte(address) & 0xff;
+    }
+
+    int readI16(long address) {
+        return readShort(address);
+    }
+
+    int readU16(long address) {
+        return readShort(address) & 0xffff;
+    }
+
+    long readU32(long address) {
+        return readInt(address) & 0xffffffffL;
+    }
+
+    void writeByte(long address, byte value) {
+        markDirty(address);
+        if (chunks != null) {
+            array(address)[index(address)] = value;
+            return;
+        }
+        data[(int) address] = value;
+    }
+
+    void writeShort(long address, short value) {
+        markDirty(address);
+        markDirty(address + 1);
+        if (chunks != null) {
+            writeChunks(address, 2, value);
+            return;
+        }
+        SHORT.set(data, (int) address, value);
+    }
+
+    void writeInt(long address, int value) {
+        markDirty(address);
+        markDirty(address + 3);
+        if (chunks != null) {
+            writeChunks(address, 4, value);
+            return;
+        }
+        INT.set(data, (int) address, value);
+    }
+
+    void writeLong(long address, long value) {
+        markDirty(address);
+        markDirty(address + 7);
+        if (chunks != null) {
+            writeChunks(address, 8, value);
+            return;
+        }
+        LONG.set(data, (int) address, value);
+    }
+
+    void writeFloat(long address, float value) {
+        if (chunks != null) {
+            writeInt(address, Float.floatToRawIntBits(value));
+            return;
+        }
+        markDirty(address);
+        markDirty(address + 3);
+        FLOAT.set(data, (int) address, value);
+    }
+
+    void writeDouble(long address, double value) {
+        if (chunks != null) {
+            writeLong(address, Double.doubleToRawLongBits(value));
+            return;
+        }
+        markDirty(address);
+        markDirty(address + 7);
+        DOUBLE.set(data, (int) address, value);
+    }
+
+    void writeBytes(long address, byte[] value) {
+        markDirty(address, value.length);
+        copyIn(address, value, 0, value.length);
     }
 
+    // the width bytes at address, sign extended when they fit in one chunk and zero extended
+    // when they straddle two, the callers truncate the value to width anyway
+    private long readChunks(long address, int width) {
+        var chunk = array(address);
+        var index = index(address);
+        if (index <= chunk.length - width) {
+            switch (width) {
+                case 2:
+                    return (short) SHORT.get(chunk, index);
+                case 4:
+                    return (int) INT.get(chunk, index);
+                default:
+                    return (long) LONG.get(chunk, index);
+            }
+        }
+        var value = 0L;
+        for (var i = width - 1; i >= 0; i--) {
+            value = value << 8 | readByte(address + i) & 0xff;
+        }
+        return value;
+    }
+
+    private void writeChunks(long address, int width, long value) {
+        var chunk = array(address);
+        var index = index(address);
+        if (index <= chunk.length - width) {
+            switch (width) {
+                case 2:
+                    SHORT.set(chunk, index, (short) value);
+                    return;
+                case 4:
+                    INT.set(chunk, index, (int) value);
+                    return;
+                default:
+                    LONG.set(chunk, index, value);
+                    return;
+            }
+        }
+        for (var i = 0; i < width; i++) {
+            array(address + i)[index(address + i)] = (byte) (value >>> (i << 3));
+        }
+    }
+
+    private void copyOut(long address, byte[] dest, int destOffset, int length) {
+        if (chunks == null) {
+            System.arraycopy(data, (int) address, dest, destOffset, length);
+            return;
+        }
+        while (length > 0) {
+            var n = (int) Math.min(length, toChunkEnd(address));
+            System.arraycopy(array(address), index(address), dest, destOffset, n);
+            address += n;
+            destOffset += n;
+            length -= n;
+        }
+    }
+
+    private void copyIn(long address, byte[] src, int srcOffset, int length) {
+        if (chunks == null) {
+            System.arraycopy(src, srcOffset, data, (int) address, length);
+            return;
+        }
+        while (length > 0) {
+            var n = (int) Math.min(length, toChunkEnd(address));
+            System.arraycopy(src, srcOffset, array(address), index(address), n);
+            address += n;
+            srcOffset += n;
+            length -= n;
+        }
+    }
+
+    // the array holding address, and the index of address in it
+    private byte[] array(long address) {
+        return chunks == null ? data : chunks[(int) (address >>> chunkShift)];
+    }
+
+    private int index(long address) {
+        return chunks == null ? (int) address : (int) (address & chunkMask);
+    }
+
+    // The atomic accessors below are for addresses already checked with checkBounds and aligned
+    // on the width of the access. The 8 and 16 bits accesses go through the aligned int
+    // holding them, there is no atomic access to a part of an int. An aligned access never
+    // straddles two chunks.
+
+    /**
+     * Reads width bytes atomically, zero extended.
+     */
+    long atomicLoad(long address, int width) {
+        var chunk = array(address);
+        var index = index(address);
+        switch (width) {
+            case 8:
+                return (long) LONG.getVolatile(chunk, index);
+            case 4:
+                return (int) INT.getVolatile(chunk, index) & 0xffffffffL;
+            default:
+                return (int) INT.getVolatile(chunk, index & ~3) >>> narrowShift(address)
+                        & narrowMask(width);
+        }
+    }
+
+    void atomicStore(long address, int width, long value) {
+        switch (width) {
+            case 8:
+                markDirty(address);
+                LONG.setVolatile(array(address), index(address), value);
+                break;
+            case 4:
+                markDirty(address);
+                INT.setVolatile(array(address), index(address), (int) value);
+                break;
+            default:
+                atomicRmw(Rmw.XCHG, address, width, value);
+                break;
+        }
+    }
+
+    /**
+     * Applies op to the width bytes at address and the operand atomically, returns the
+     * previous value zero extended.
+     */
+    long atomicRmw(Rmw op, long address, int width, long operand) {
+        markDirty(address);
+        var chunk = array(address);
+        var index = index(address);
+        if (width == 8) {
+            switch (op) {
+                case ADD:
+                    return (long) LONG.getAndAdd(chunk, index, operand);
+                case SUB:
+                    return (long) LONG.getAndAdd(chunk, index, -operand);
+                case AND:
+                    return (long) LONG.getAndBitwiseAnd(chunk, index, operand);
+                case OR:
+                    return (long) LONG.getAndBitwiseOr(chunk, index, operand);
+                case XOR:
+                    return (long) LONG.getAndBitwiseXor(chunk, index, operand);
+                default:
+                    return (long) LONG.getAndSet(chunk, index, operand);
+            }
+        }
+        if (width == 4) {
+            var value = (int) operand;
+            switch (op) {
+                case ADD:
+                    return (int) INT.getAndAdd(chunk, index, value) & 0xffffffffL;
+                case SUB:
+                    return (int) INT.getAndAdd(chunk, index, -value) & 0xffffffffL;
+                case AND:
+                    return (int) INT.getAndBitwiseAnd(chunk, index, value) & 0xffffffffL;
+                case OR:
+                    return (int) INT.getAndBitwiseOr(chunk, index, value) & 0xffffffffL;
+                case XOR:
+                    return (int) INT.getAndBitwiseXor(chunk, index, value) & 0xffffffffL;
+                default:
+                    return (int) INT.getAndSet(chunk, index, value) & 0xffffffffL;
+            }
+        }
+        var word = index & ~3;
+        var shift = narrowShift(address);
+        var mask = narrowMask(width);
+        while (true) {
+            var current = (int) INT.getVolatile(chunk, word);
+            var previous = current >>> shift & mask;
+            var updated = (int) op.apply(previous, operand) & mask;
+            var next = current & ~(mask << shift) | updated << shift;
+            if ((boolean) INT.compareAndSet(chunk, word, current, next)) {
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Replaces the width bytes at address when they hold expected, wrapped to width, and
+     * returns the previous value zero extended.
+     */
+    long atomicCompareAndExchange(long address, int width, long expected, long replacement) {
+        markDirty(address);
+        var chunk = array(address);
+        var index = index(address);
+        switch (width) {
+            case 8:
+                return (long) LONG.compareAndExchange(chunk, index, expected, replacement);
+            case 4:
+                return (int) INT.compareAndExchange(chunk, index, (int) expected, (int) replacement)
+                        & 0xffffffffL;
+            default:
+                break;
+        }
+        var word = index & ~3;
+        var shift = narrowShift(address);
+        var mask = narrowMask(width);
+        while (true) {
+            var current = (int) INT.getVolatile(chunk, word);
+            var previous = current >>> shift & mask;
+            if (previous != ((int) expected & mask)) {
+                return previous;
+            }
+            var next = current & ~(mask << shift) | ((int) replacement & mask) << shift;
+            if ((boolean) INT.compareAndSet(chunk, word, current, next)) {
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Parks the current thread until notified at address, unless the width bytes there don't
+     * hold expected. A negative timeout, in nanoseconds, waits forever.
+     * Returns 0 when notified, 1 when the value didn't match and 2 when timed out.
+     */
+    int atomicWait(long address, int width, long expected, long timeout) {
+        if (!shared) {
+            throw new WASMRuntimeException("expected shared memory");
+        }
+        return waiters.await(address, () -> atomicLoad(address, width) == expected, timeout);
+    }
+
+    /**
+     * Wakes up to count threads waiting at address, count being unsigned, and returns how many
+     * were woken. Nobody can wait on an unshared memory.
+     */
+    int atomicNotify(long address, int count) {
+        if (!shared) {
+            return 0;
+        }
+        return waiters.wake(address, Integer.toUnsignedLong(count));
+    }
+
+    private static int narrowShift(long address) {
+        return (int) (address & 3) << 3;
+    }
+
+    private static int narrowMask(int width) {
+        return width == 1 ? 0xff : 0xffff;
+    }
+
+    // a shared memory doesn't track its dirty pages, every thread would write the same words
+    private void markDirty(long address) {
+        if (shared) {
+            return;
+        }
+        var page = address >>> DIRTY_PAGE_SHIFT;
+        dirtyPages[(int) (page >>> 6)] |= 1L << page;
+    }
+
+    private void markDirty(long address, long length) {
+        markPages(dirtyPages, address, length);
+    }
+
+    private void markPages(long[] pages, long address, long length) {
+        if (shared || length == 0) {
+            return;
+        }
+        var last = (address + length - 1) >>> DIRTY_PAGE_SHIFT;
+        for (var page = address >>> DIRTY_PAGE_SHIFT; page <= last; page++) {
+            pages[(int) (page >>> 6)] |= 1L << page;
+        }
+    }
+
+    private static int dirtyWords(long length) {
+        var pages = (length + MemoryImage.PAGE_SIZE - 1) >>> DIRTY_PAGE_SHIFT;
+        return (int) ((pages + 63) >>> 6);
+    }
+
+    /**
+     * Zeros out the memory. Only the pages written since it was last zeroed and the pages
+     * under a writable {@link #view(long, int) view} are cleared.
+     */
     public void zero() {
-        // see https://appsintheopen.com/posts/53-resetting-bytebuffers-to-zero-in-java
-        Arrays.fill(this.buffer.array(), (byte) 0);
-        this.buffer.position(0);
+        if (shared) {
+            for (var start = 0L; start < length; start += 1L << chunkShift) {
+                Arrays.fill(
+                        array(start),
+                        0,
+                        (int) Math.min(1L << chunkShift, length - start),
+                        (byte) 0);
+            }
+            return;
+        }
+        for (var word = 0; word < dirtyPages.length; word++) {
+            var bits = dirtyPages[word] | viewedPages[word];
+            while (bits != 0) {
+                var page = ((long) word << 6) + Long.numberOfTrailingZeros(bits);
+                var start = page << DIRTY_PAGE_SHIFT;
+                // a page never straddles two chunks, they are made of whole memory pages
+                var end = Math.min(start + MemoryImage.PAGE_SIZE, length);
+                Arrays.fill(
+                        array(start), index(start), index(start) + (int) (end - start), (byte) 0);
+                bits &= bits - 1;
+            }
+            dirtyPages[word] = 0;
+        }
+    }
+
+    int getDirtyPageCount() {
+        var count = 0;
+        for (var word : dirtyPages) {
+            count += Long.bitCount(word);
+        }
+        return count;
     }
 }
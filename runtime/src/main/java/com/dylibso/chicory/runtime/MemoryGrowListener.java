@@ -0,0 +1,11 @@
+package com.dylibso.chicory.runtime;
+
+/**
+ * Notified after a {@link Memory} grew, from the thread which grew it.
+ * Growing a memory which isn't shared moves it to a new array, so the views returned
+ * by {@link Memory#view(long, int)} before the call no longer see its content.
+ */
+@FunctionalInterface
+public interface MemoryGrowListener {
+    void onGrow(Memory memory, int previousPages);
+}
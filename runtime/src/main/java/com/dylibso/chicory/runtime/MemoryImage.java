@@ -0,0 +1,112 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.runtime.exceptions.WASMRuntimeException;
+import com.dylibso.chicory.wasm.exceptions.ChicoryException;
+import com.dylibso.chicory.wasm.types.ActiveDataSegment;
+import com.dylibso.chicory.wasm.types.DataSegment;
+import com.dylibso.chicory.wasm.types.PassiveDataSegment;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+/**
+ * The initial content of a memory: the active data segments merged into the pages they touch.
+ * Only the pages holding a non-zero byte are kept, initializing a zeroed memory is a bulk copy
+ * of those pages.
+ * An image is immutable, it is built once per module and shared by all of its instances.
+ */
+final class MemoryImage {
+    static final int PAGE_SIZE = 4096;
+
+    static final MemoryImage EMPTY = new MemoryImage(new long[0], new byte[0][], 0);
+
+    private final long[] pageIndices;
+    private final byte[][] pages;
+    // the smallest memory, in bytes, every segment fits in
+    private final long minLength;
+
+    private MemoryImage(long[] pageIndices, byte[][] pages, long minLength) {
+        this.pageIndices = pageIndices;
+        this.pages = pages;
+        this.minLength = minLength;
+    }
+
+    /**
+     * Merges the active segments of {@code dataSegments} initializing the memory at
+     * {@code memoryIndex}, {@code offsets} holds the evaluated offset of each of them.
+     */
+    static MemoryImage of(DataSegment[] dataSegments, long[] offsets, int memoryIndex) {
+        var image = new TreeMap<Long, byte[]>();
+        var minLength = 0L;
+        for (var i = 0; i < dataSegments.length; i++) {
+            if (dataSegments[i] instanceof PassiveDataSegment) {
+                continue;
+            }
+            if (!(dataSegments[i] instanceof ActiveDataSegment)) {
+                throw new ChicoryException(
+                        "Data segment should be active or passive: " + dataSegments[i]);
+            }
+            if (((ActiveDataSegment) dataSegments[i]).getIdx() != memoryIndex) {
+                continue;
+            }
+            var data = dataSegments[i].getData();
+            var address = offsets[i];
+            if (address < 0) {
+                // an i64 offset past 2^63 is out of bounds of any memory
+                minLength = Long.MAX_VALUE;
+                continue;
+            }
+            minLength = Math.max(minLength, address + data.length);
+            var copied = 0;
+            while (copied < data.length) {
+                var pageIndex = address / PAGE_SIZE;
+                var pageOffset = (int) (address % PAGE_SIZE);
+                var length = Math.min(PAGE_SIZE - pageOffset, data.length - copied);
+                var page = image.computeIfAbsent(pageIndex, k -> new byte[PAGE_SIZE]);
+                System.arraycopy(data, copied, page, pageOffset, length);
+                copied += length;
+                address += length;
+            }
+        }
+
+        var pageIndices = new ArrayList<Long>();
+        var pages = new ArrayList<byte[]>();
+        for (var entry : image.entrySet()) {
+            if (!isZero(entry.getValue())) {
+                pageIndices.add(entry.getKey());
+                pages.add(entry.getValue());
+            }
+        }
+        return new MemoryImage(
+                pageIndices.stream().mapToLong(Long::longValue).toArray(),
+                pages.toArray(new byte[0][]),
+                minLength);
+    }
+
+    private static boolean isZero(byte[] page) {
+        for (var b : page) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the non-zero pages into {@code memory}, which is expected to be zeroed. Writing
+     * them marks them dirty.
+     */
+    void copyTo(Memory memory) {
+        if (minLength > memory.byteSize()) {
+            throw new WASMRuntimeException("out of bounds memory access");
+        }
+        // a memory is made of whole 64KiB pages, the page holding the last byte of a segment
+        // fits in it too
+        for (var i = 0; i < pages.length; i++) {
+            memory.writeBytes(pageIndices[i] * PAGE_SIZE, pages[i]);
+        }
+    }
+
+    int getPageCount() {
+        return pages.length;
+    }
+}
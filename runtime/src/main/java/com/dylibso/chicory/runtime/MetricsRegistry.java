@@ -0,0 +1,19 @@
+package com.dylibso.chicory.runtime;
+
+import java.util.Map;
+
+/**
+ * Receives the values of {@link RuntimeMetrics}, implement it to bridge to the metrics
+ * library in use (Micrometer, Dropwizard, OpenTelemetry, ...).
+ */
+public interface MetricsRegistry {
+    /**
+     * A monotonic count since the metrics were created or last reset.
+     */
+    void counter(String name, Map<String, String> tags, long value);
+
+    /**
+     * A value that can go up and down, e.g. a peak depth.
+     */
+    void gauge(String name, Map<String, String> tags, long value);
+}
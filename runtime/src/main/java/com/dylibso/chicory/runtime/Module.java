@@ -1,19 +1,45 @@
 package com.dylibso.chicory.runtime;
 
+import com.dylibso.chicory.runtime.jfr.InstantiateEvent;
 import com.dylibso.chicory.wasm.Parser;
+import com.dylibso.chicory.wasm.Validator;
 import com.dylibso.chicory.wasm.exceptions.ChicoryException;
 import com.dylibso.chicory.wasm.exceptions.InvalidException;
 import com.dylibso.chicory.wasm.types.*;
 import java.io.File;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * A parsed Wasm module, ready to be instantiated.
+ * <p>
+ * A Module is immutable once built: instantiating it never modifies it, so a single
+ * Module can be shared and instantiated concurrently by any number of threads.
+ * All the state an execution can modify (memory, globals, table, stacks) belongs to
+ * the {@link Instance}, which is not thread-safe and should be confined to one thread
+ * at a time; create an Instance per thread, or per request, instead.
+ */
 public class Module {
-    private com.dylibso.chicory.wasm.Module module;
-    private NameSection nameSec;
+    private final com.dylibso.chicory.wasm.Module module;
+    private volatile NameSection nameSec;
 
-    private HashMap<String, Export> exports;
+    private final Map<String, Export> exports;
+
+    // constant expressions are evaluated once per module, entries reading an imported global
+    // are left null and evaluated on instantiation instead
+    private final int importedGlobalCount;
+    private final Value[] globalValues;
+    private final Value[] dataOffsets;
+    private final Value[] elementOffsets;
+    // the imported memories come first, a module without any gets a default one
+    private final int memoryCount;
+    // one per memory, null when a data offset reads an imported global
+    private final MemoryImage[] memoryImages;
 
     public static Module build(File wasmFile) {
         var parser = new Parser(wasmFile);
@@ -41,13 +67,94 @@ public class Module {
     }
 
     protected Module(com.dylibso.chicory.wasm.Module module) {
+        // every function body is type checked once here, the interpreter relies on it
+        new Validator(module).validate();
         this.module = module;
-        this.exports = new HashMap<>();
+        var exports = new HashMap<String, Export>();
         if (module.getExportSection() != null) {
             for (var e : module.getExportSection().getExports()) {
                 exports.put(e.getName(), e);
             }
         }
+
+        Integer startFuncId = null;
+        if (module.getStartSection() != null) {
+            startFuncId = (int) module.getStartSection().getStartIndex();
+        } else if (module.getFunctionSection() != null) {
+            // function ids are assigned on imports first
+            var funcImportCount = 0;
+            if (module.getImportSection() != null) {
+                for (var i : module.getImportSection().getImports()) {
+                    if (i.getDesc().getType() == ImportDescType.FuncIdx) {
+                        funcImportCount++;
+                    }
+                }
+            }
+            startFuncId = funcImportCount;
+        }
+        if (startFuncId != null) {
+            // if we got a start func, let's add it to the exports
+            var desc = new ExportDesc(startFuncId, ExportDescType.FuncIdx);
+            exports.put("_start", new Export("_start", desc));
+        }
+        this.exports = Collections.unmodifiableMap(exports);
+
+        var importedGlobalCount = 0;
+        if (module.getImportSection() != null) {
+            for (var i : module.getImportSection().getImports()) {
+                if (i.getDesc().getType() == ImportDescType.GlobalIdx) {
+                    importedGlobalCount++;
+                }
+            }
+        }
+        this.importedGlobalCount = importedGlobalCount;
+
+        var memoryCount = 0;
+        if (module.getImportSection() != null) {
+            for (var i : module.getImportSection().getImports()) {
+                if (i.getDesc().getType() == ImportDescType.MemIdx) {
+                    memoryCount++;
+                }
+            }
+        }
+        if (module.getMemorySection() != null) {
+            memoryCount += module.getMemorySection().getMemories().length;
+        }
+        this.memoryCount = Math.max(memoryCount, 1);
+
+        var globalInitializers = new Global[0];
+        if (module.getGlobalSection() != null) {
+            globalInitializers = module.getGlobalSection().getGlobals();
+        }
+        this.globalValues = new Value[importedGlobalCount + globalInitializers.length];
+        for (var i = 0; i < globalInitializers.length; i++) {
+            globalValues[importedGlobalCount + i] =
+                    ConstantEvaluator.eval(globalInitializers[i].getInit(), globalValues);
+        }
+
+        var dataSegments = new DataSegment[0];
+        if (module.getDataSection() != null) {
+            dataSegments = module.getDataSection().getDataSegments();
+        }
+        this.dataOffsets = new Value[dataSegments.length];
+        for (var i = 0; i < dataSegments.length; i++) {
+            if (dataSegments[i] instanceof ActiveDataSegment) {
+                var offset = ((ActiveDataSegment) dataSegments[i]).getOffset();
+                dataOffsets[i] = ConstantEvaluator.eval(offset, globalValues);
+            }
+        }
+        this.memoryImages = buildMemoryImages(dataSegments, dataOffsets, this.memoryCount);
+
+        var elements = new Element[0];
+        if (module.getElementSection() != null) {
+            elements = module.getElementSection().getElements();
+        }
+        this.elementOffsets = new Value[elements.length];
+        for (var i = 0; i < elements.length; i++) {
+            if (elements[i].getMode() == ElementMode.Active) {
+                elementOffsets[i] = ConstantEvaluator.eval(elements[i].getExpr(), globalValues);
+            }
+        }
     }
 
     public Instance instantiate() {
@@ -55,61 +162,116 @@ public class Module {
     }
 
     public Instance instantiate(HostFunction[] hostFunctions) {
+        return this.instantiate(hostFunctions, new HostGlobal[0]);
+    }
+
+    public Instance instantiate(HostFunction[] hostFunctions, HostGlobal[] hostGlobals) {
+        return this.instantiate(hostFunctions, hostGlobals, new HostMemory[0]);
+    }
+
+    public Instance instantiate(
+            HostFunction[] hostFunctions, HostGlobal[] hostGlobals, HostMemory[] hostMemories) {
+        var event = new InstantiateEvent();
+        event.begin();
+        var instance = instantiateInternal(hostFunctions, hostGlobals, hostMemories);
+        event.end();
+        if (event.shouldCommit()) {
+            event.moduleName = getName();
+            event.functions = instance.getImports().length + instance.getFunctions().length;
+            event.memoryPages = instance.getMemory() == null ? 0 : instance.getMemory().getSize();
+            event.commit();
+        }
+        return instance;
+    }
+
+    private Instance instantiateInternal(
+            HostFunction[] hostFunctions, HostGlobal[] hostGlobals, HostMemory[] hostMemories) {
         var globalInitializers = new Global[] {};
         if (this.module.getGlobalSection() != null) {
             globalInitializers = this.module.getGlobalSection().getGlobals();
         }
-        var globals = new Value[globalInitializers.length];
-        for (var i = 0; i < globalInitializers.length; i++) {
-            var g = globalInitializers[i];
-            if (g.getInit().length > 2)
-                throw new RuntimeException(
-                        "We don't a global initializer with multiple instructions");
-            var instr = g.getInit()[0];
-            switch (instr.getOpcode()) {
-                case I32_CONST:
-                    globals[i] = Value.i32(instr.getOperands()[0]);
-                    break;
-                case I64_CONST:
-                    globals[i] = Value.i64(instr.getOperands()[0]);
-                    break;
-                case F32_CONST:
-                    globals[i] = Value.f32(instr.getOperands()[0]);
-                    break;
-                case F64_CONST:
-                    globals[i] = Value.f64(instr.getOperands()[0]);
+
+        var imports = new Import[0];
+        if (module.getImportSection() != null) {
+            imports = module.getImportSection().getImports();
+        }
+
+        var importedGlobals = new HostGlobal[importedGlobalCount];
+        var importedMemories = new ArrayList<Memory>();
+        var funcImportCount = 0;
+        var globalImportId = 0;
+        for (var imprt : imports) {
+            switch (imprt.getDesc().getType()) {
+                case FuncIdx:
+                    funcImportCount++;
                     break;
-                case GLOBAL_GET:
-                    // TODO this assumes that these are already initialized declared in order
-                    // should we make this more resilient? Should initialization happen later?
-                    globals[i] = globals[(int) instr.getOperands()[0]];
+                case GlobalIdx:
+                    importedGlobals[globalImportId++] = mapHostGlobal(imprt, hostGlobals);
                     break;
-                case REF_NULL:
-                    globals[i] = Value.REF_NULL;
+                case MemIdx:
+                    importedMemories.add(mapHostMemory(imprt, hostMemories));
                     break;
                 default:
-                    throw new RuntimeException(
-                            "We only support i32.const, i64.const, f32.const, f64.const,"
-                                + " global.get, and ref.null opcodes on global initializers right"
-                                + " now. We failed to initialize opcode: "
-                                    + instr.getOpcode());
+                    break;
             }
         }
 
+        // the precomputed values only need the imported globals filled in
+        var allGlobals = globalValues.clone();
+        for (var i = 0; i < importedGlobals.length; i++) {
+            allGlobals[i] = importedGlobals[i].getValue();
+        }
+        for (var i = 0; i < globalInitializers.length; i++) {
+            var idx = importedGlobalCount + i;
+            allGlobals[idx] = resolve(allGlobals[idx], globalInitializers[i].getInit(), allGlobals);
+        }
+        var globals = Arrays.copyOfRange(allGlobals, importedGlobalCount, allGlobals.length);
+
         var dataSegments = new DataSegment[0];
         if (module.getDataSection() != null) {
             dataSegments = module.getDataSection().getDataSegments();
         }
+        var offsets = new long[dataSegments.length];
+        for (var i = 0; i < dataSegments.length; i++) {
+            if (dataSegments[i] instanceof ActiveDataSegment) {
+                var expr = ((ActiveDataSegment) dataSegments[i]).getOffset();
+                offsets[i] = Memory.toAddress(resolve(dataOffsets[i], expr, allGlobals));
+            }
+        }
+        var images = memoryImages;
+        if (images == null) {
+            images = new MemoryImage[memoryCount];
+            for (var i = 0; i < memoryCount; i++) {
+                images[i] = MemoryImage.of(dataSegments, offsets, i);
+            }
+        }
 
-        Memory memory;
+        var memories = new Memory[memoryCount];
+        var importedMemoryCount = importedMemories.size();
+        for (var i = 0; i < importedMemoryCount; i++) {
+            memories[i] = importedMemories.get(i);
+        }
         if (module.getMemorySection() != null) {
-            var memories = module.getMemorySection().getMemories();
-            if (memories.length > 1) {
-                throw new ChicoryException("We don't support multiple memories");
+            var defined = module.getMemorySection().getMemories();
+            for (var i = 0; i < defined.length; i++) {
+                var idx = importedMemoryCount + i;
+                memories[idx] = new Memory(defined[i].getMemoryLimits(), dataSegments, images[idx]);
+            }
+        } else if (importedMemoryCount == 0) {
+            memories[0] = new Memory(MemoryLimits.defaultLimits(), dataSegments, images[0]);
+        }
+        // the imported memories may already be in use, only the bytes of their segments are
+        // written
+        for (var i = 0; i < dataSegments.length; i++) {
+            if (dataSegments[i] instanceof ActiveDataSegment) {
+                var idx = ((ActiveDataSegment) dataSegments[i]).getIdx();
+                if (idx < importedMemoryCount) {
+                    var memory = memories[(int) idx];
+                    var data = dataSegments[i].getData();
+                    memory.checkRange(offsets[i], data.length);
+                    memory.writeBytes(offsets[i], data);
+                }
             }
-            memory = new Memory(memories[0].getMemoryLimits(), dataSegments);
-        } else {
-            memory = new Memory(MemoryLimits.defaultLimits(), dataSegments);
         }
 
         var types = new FunctionType[0];
@@ -118,91 +280,75 @@ public class Module {
             types = module.getTypeSection().getTypes();
         }
 
-        var numFuncTypes = 0;
-        var funcSection = module.getFunctionSection();
-        if (funcSection != null) {
-            numFuncTypes = funcSection.getTypeIndices().length;
-            if (module.getImportSection() != null) {
-                numFuncTypes += module.getImportSection().getImports().length;
-            }
-        }
-
         FunctionBody[] functions = new FunctionBody[0];
         var codeSection = module.getCodeSection();
         if (codeSection != null) {
             functions = module.getCodeSection().getFunctionBodies();
         }
 
-        int importId = 0;
-        Integer startFuncId = null;
-        var functionTypes = new int[numFuncTypes];
-        var imports = new Import[0];
-
-        if (module.getImportSection() != null) {
-            imports = new Import[module.getImportSection().getImports().length];
-            for (var imprt : module.getImportSection().getImports()) {
-                switch (imprt.getDesc().getType()) {
-                    case FuncIdx:
-                        {
-                            var type = (int) imprt.getDesc().getIndex();
-                            functionTypes[importId] = type;
-                            // The global function id increases on this table
-                            // function ids are assigned on imports first
-                            imports[importId++] = imprt;
-                            break;
-                        }
-                    case TableIdx:
-                        throw new ChicoryException("Don't support table type globals yet");
-                    case MemIdx:
-                        throw new ChicoryException("Don't support mem type globals yet");
-                    case GlobalIdx:
-                        imports[importId++] = imprt;
-                }
+        // function ids are assigned on imports first
+        var funcSection = module.getFunctionSection();
+        var definedFuncCount = funcSection == null ? 0 : funcSection.getTypeIndices().length;
+        var functionTypes = new int[funcImportCount + definedFuncCount];
+        var funcId = 0;
+        for (var imprt : imports) {
+            switch (imprt.getDesc().getType()) {
+                case FuncIdx:
+                    functionTypes[funcId++] = (int) imprt.getDesc().getIndex();
+                    break;
+                case TableIdx:
+                    throw new ChicoryException("Don't support table type globals yet");
+                default:
+                    break;
             }
         }
-
-        var hostFuncs = mapHostFunctions(imports, hostFunctions);
-
-        if (module.getStartSection() != null) {
-            startFuncId = (int) module.getStartSection().getStartIndex();
-        }
-
-        if (module.getFunctionSection() != null) {
-            if (startFuncId == null) startFuncId = importId;
-            for (var ft : module.getFunctionSection().getTypeIndices()) {
-                functionTypes[importId++] = ft;
+        if (funcSection != null) {
+            for (var ft : funcSection.getTypeIndices()) {
+                functionTypes[funcId++] = ft;
             }
         }
 
-        if (startFuncId != null) {
-            // if we got a start func, let's add it to the exports
-            var desc = new ExportDesc(startFuncId, ExportDescType.FuncIdx);
-            var export = new Export("_start", desc);
-            exports.put("_start", export);
-        }
+        var hostFuncs = mapHostFunctions(imports, funcImportCount, hostFunctions);
 
         Table table = null;
         if (module.getTableSection() != null) {
             if (module.getTableSection().getTables().length > 1) {
                 throw new ChicoryException("We don't currently support more than 1 table");
             }
-            table = module.getTableSection().getTables()[0];
-            if (module.getElementSection() != null) {
-                for (var el : module.getElementSection().getElements()) {
-                    var idx = el.getTableIndex();
-                    if (idx != 0)
-                        throw new ChicoryException("We don't currently support more than 1 table");
-                    for (var fi : el.getFuncIndices()) {
-                        table.addFuncRef((int) fi);
-                    }
-                }
-            }
+            table = new Table(module.getTableSection().getTables()[0]);
         }
 
-        var globalImportsOffset = 0;
-        for (int i = 0; i < imports.length; i++) {
-            if (imports[i].getDesc().getType() == ImportDescType.GlobalIdx) {
-                globalImportsOffset++;
+        var elements = new int[0][];
+        if (module.getElementSection() != null) {
+            var segments = module.getElementSection().getElements();
+            elements = new int[segments.length][];
+            for (var i = 0; i < segments.length; i++) {
+                var el = segments[i];
+                var funcIndices = el.getFuncIndices();
+                var refs = new int[funcIndices.length];
+                for (var j = 0; j < refs.length; j++) {
+                    refs[j] = (int) funcIndices[j];
+                }
+                switch (el.getMode()) {
+                    case Active:
+                        {
+                            if (el.getTableIndex() != 0 || table == null)
+                                throw new ChicoryException(
+                                        "We don't currently support more than 1 table");
+                            var offset =
+                                    resolve(elementOffsets[i], el.getExpr(), allGlobals).asInt();
+                            table.init(offset, refs, 0, refs.length);
+                            // active and declarative segments are dropped once instantiated
+                            elements[i] = new int[0];
+                            break;
+                        }
+                    case Passive:
+                        elements[i] = refs;
+                        break;
+                    case Declarative:
+                        elements[i] = new int[0];
+                        break;
+                }
             }
         }
 
@@ -210,25 +356,60 @@ public class Module {
                 this,
                 globalInitializers,
                 globals,
-                globalImportsOffset,
-                memory,
+                importedGlobals,
+                memories,
                 functions,
                 types,
                 functionTypes,
                 hostFuncs,
-                table);
+                table,
+                elements);
     }
 
-    private HostFunction[] mapHostFunctions(Import[] imports, HostFunction[] hostFunctions) {
-        var hostImports = new HostFunction[hostFunctions.length];
+    private static MemoryImage[] buildMemoryImages(
+            DataSegment[] dataSegments, Value[] dataOffsets, int memoryCount) {
+        var offsets = new long[dataSegments.length];
+        for (var i = 0; i < dataSegments.length; i++) {
+            if (dataSegments[i] instanceof ActiveDataSegment) {
+                if (dataOffsets[i] == null) {
+                    return null;
+                }
+                offsets[i] = Memory.toAddress(dataOffsets[i]);
+            }
+        }
+        var images = new MemoryImage[memoryCount];
+        for (var i = 0; i < memoryCount; i++) {
+            images[i] = MemoryImage.of(dataSegments, offsets, i);
+        }
+        return images;
+    }
+
+    private static Value resolve(Value precomputed, Instruction[] expr, Value[] globals) {
+        if (precomputed != null) {
+            return precomputed;
+        }
+        var value = ConstantEvaluator.eval(expr, globals);
+        if (value == null) {
+            // only a global declared later in the module can still be unknown at this point
+            throw new InvalidException("unknown global");
+        }
+        return value;
+    }
+
+    private static HostFunction[] mapHostFunctions(
+            Import[] imports, int funcImportCount, HostFunction[] hostFunctions) {
+        var hostImports = new HostFunction[funcImportCount];
         for (var f : hostFunctions) {
             Integer foundId = null;
+            var funcId = 0;
             for (var i : imports) {
+                if (i.getDesc().getType() != ImportDescType.FuncIdx) continue;
                 if (i.getModuleName().equals(f.getModuleName())
                         && i.getFieldName().equals(f.getFieldName())) {
-                    foundId = (int) i.getDesc().getIndex();
+                    foundId = funcId;
                     break;
                 }
+                funcId++;
             }
             if (foundId == null) throw new RuntimeException("Couldn't map import to function");
             hostImports[foundId] = f;
@@ -236,13 +417,82 @@ public class Module {
         return hostImports;
     }
 
+    private static HostGlobal mapHostGlobal(Import imprt, HostGlobal[] hostGlobals) {
+        for (var g : hostGlobals) {
+            if (imprt.getModuleName().equals(g.getModuleName())
+                    && imprt.getFieldName().equals(g.getFieldName())) {
+                if (g.getMutabilityType() != imprt.getDesc().getMutabilityType()) {
+                    throw new ChicoryException(
+                            "incompatible import type for global "
+                                    + imprt.getModuleName()
+                                    + "."
+                                    + imprt.getFieldName());
+                }
+                return g;
+            }
+        }
+        throw new ChicoryException(
+                "unknown import, missing host global "
+                        + imprt.getModuleName()
+                        + "."
+                        + imprt.getFieldName());
+    }
+
+    private static Memory mapHostMemory(Import imprt, HostMemory[] hostMemories) {
+        var limits = imprt.getDesc().getMemoryLimits();
+        for (var m : hostMemories) {
+            if (imprt.getModuleName().equals(m.getModuleName())
+                    && imprt.getFieldName().equals(m.getFieldName())) {
+                var memory = m.getMemory();
+                if (memory.isShared() != limits.isShared()
+                        || memory.isMemory64() != limits.isMemory64()
+                        || memory.getSize() < limits.getInitial()
+                        || memory.getMaximumSize() > limits.getMaximum()) {
+                    throw new ChicoryException(
+                            "incompatible import type for memory "
+                                    + imprt.getModuleName()
+                                    + "."
+                                    + imprt.getFieldName());
+                }
+                return memory;
+            }
+        }
+        throw new ChicoryException(
+                "unknown import, missing host memory "
+                        + imprt.getModuleName()
+                        + "."
+                        + imprt.getFieldName());
+    }
+
     public Export getExport(String name) {
         var e = this.exports.get(name);
         if (e == null) throw new ChicoryException("Unknown export with name " + name);
         return e;
     }
 
+    DataSegment getDataSegment(int idx) {
+        return module.getDataSection().getDataSegments()[idx];
+    }
+
+    MemoryImage getMemoryImage() {
+        return memoryImages == null ? null : memoryImages[0];
+    }
+
+    int getCallSiteCount() {
+        var codeSection = module.getCodeSection();
+        return codeSection == null ? 0 : codeSection.getCallSiteCount();
+    }
+
+    /**
+     * The name of the module from the name section, or null if it has none.
+     */
+    public String getName() {
+        var nameSec = getNameSection();
+        return nameSec == null ? null : nameSec.getModuleName();
+    }
+
     public NameSection getNameSection() {
+        // racy but benign, every thread parses an equivalent section
         if (nameSec != null) return nameSec;
         nameSec = this.module.getNameSection();
         return nameSec;
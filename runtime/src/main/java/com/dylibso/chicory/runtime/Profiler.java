@@ -0,0 +1,164 @@
+package com.dylibso.chicory.runtime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An instrumenting profiler, enabled with {@link Instance#setProfiler(Profiler)}.
+ * Every call is recorded in a call tree, with its time and the instructions executed by it,
+ * from which the per function profiles and the collapsed stacks for flame graphs are built.
+ * The frames of an interrupted execution keep their place in the call tree until they are
+ * continued by {@link Instance#resume()}, the time in between is not recorded.
+ * A Profiler is not thread-safe, it belongs to the thread running its instance.
+ */
+public final class Profiler {
+    private static final class Node {
+        private final Node parent;
+        private final int funcId;
+        private final Map<Integer, Node> children = new LinkedHashMap<>();
+        private long calls;
+        private long totalNanos;
+        private long childrenNanos;
+        private long instructions;
+        private long enteredAt;
+
+        private Node(Node parent, int funcId) {
+            this.parent = parent;
+            this.funcId = funcId;
+        }
+
+        private Node child(int funcId) {
+            var child = children.get(funcId);
+            if (child == null) {
+                child = new Node(this, funcId);
+                children.put(funcId, child);
+            }
+            return child;
+        }
+    }
+
+    private Instance instance;
+    private Node root = new Node(null, -1);
+    private Node current = root;
+    private boolean suspended;
+    private long suspendedAt;
+
+    void attach(Instance instance) {
+        this.instance = instance;
+    }
+
+    void enter(int funcId) {
+        current = current.child(funcId);
+        current.calls++;
+        current.enteredAt = System.nanoTime();
+    }
+
+    void exit() {
+        // unbalanced after a reset in the middle of a call
+        if (current == root) {
+            return;
+        }
+        var elapsed = (suspended ? suspendedAt : System.nanoTime()) - current.enteredAt;
+        current.totalNanos += elapsed;
+        current.parent.childrenNanos += elapsed;
+        current = current.parent;
+    }
+
+    /**
+     * Stops the clock of the calls still open, their frames are kept to be resumed.
+     */
+    void suspend() {
+        if (!suspended) {
+            suspended = true;
+            suspendedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Restarts the clock of the calls still open, as if they had been entered that much later.
+     */
+    void resume() {
+        if (!suspended) {
+            return;
+        }
+        var pause = System.nanoTime() - suspendedAt;
+        for (var node = current; node != root; node = node.parent) {
+            node.enteredAt += pause;
+        }
+        suspended = false;
+    }
+
+    void countInstructions(int count) {
+        current.instructions += count;
+    }
+
+    /**
+     * Drops everything recorded so far.
+     */
+    public void reset() {
+        root = new Node(null, -1);
+        current = root;
+        suspended = false;
+    }
+
+    /**
+     * The profile of every function called so far, the ones with the highest self time first.
+     */
+    public List<FunctionProfile> getFunctionProfiles() {
+        var profiles = new HashMap<Integer, FunctionProfile>();
+        var active = new HashMap<Integer, Integer>();
+        for (var node : root.children.values()) {
+            collect(node, profiles, active);
+        }
+        var result = new ArrayList<>(profiles.values());
+        result.sort(Comparator.comparingLong(FunctionProfile::getSelfNanos).reversed());
+        return result;
+    }
+
+    private void collect(
+            Node node, Map<Integer, FunctionProfile> profiles, Map<Integer, Integer> active) {
+        var profile =
+                profiles.computeIfAbsent(node.funcId, id -> new FunctionProfile(id, name(id)));
+        var recursive = active.getOrDefault(node.funcId, 0) > 0;
+        profile.add(
+                node.calls,
+                recursive ? 0 : node.totalNanos,
+                node.totalNanos - node.childrenNanos,
+                node.instructions);
+        active.merge(node.funcId, 1, Integer::sum);
+        for (var child : node.children.values()) {
+            collect(child, profiles, active);
+        }
+        active.merge(node.funcId, -1, Integer::sum);
+    }
+
+    /**
+     * Writes one line per call path, the frames separated by semicolons and followed by the
+     * self time in nanoseconds, the input expected by flamegraph.pl and most flame graph viewers.
+     */
+    public void writeCollapsedStacks(Appendable out) throws IOException {
+        for (var node : root.children.values()) {
+            writeCollapsedStacks(out, node, name(node.funcId));
+        }
+    }
+
+    private void writeCollapsedStacks(Appendable out, Node node, String path) throws IOException {
+        var self = node.totalNanos - node.childrenNanos;
+        if (self > 0) {
+            out.append(path).append(' ').append(Long.toString(self)).append('\n');
+        }
+        for (var child : node.children.values()) {
+            writeCollapsedStacks(out, child, path + ';' + name(child.funcId));
+        }
+    }
+
+    private String name(int funcId) {
+        var name = instance == null ? null : instance.getFunctionName(funcId);
+        return name == null ? "func[" + funcId + "]" : name;
+    }
+}
@@ -0,0 +1,154 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.wasm.types.OpCode;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters of what an instance executes, enabled with {@link Instance#setMetrics(RuntimeMetrics)}.
+ * When no metrics are set the interpreter only pays a null check per instruction.
+ * RuntimeMetrics are not thread-safe, read them from the thread running the instance
+ * or once it is done.
+ */
+public final class RuntimeMetrics {
+    private static final OpCode[] OPCODES = OpCode.values();
+
+    private Instance instance;
+    private final long[] opcodes = new long[OPCODES.length];
+    private long[] hostCalls = new long[0];
+    private final Map<String, Long> traps = new HashMap<>();
+    private long memoryGrows;
+    private long memoryGrowFailures;
+    private long grownPages;
+    private int peakStackDepth;
+    private int peakCallStackDepth;
+
+    void attach(Instance instance) {
+        this.instance = instance;
+    }
+
+    void onInstruction(OpCode opcode, int stackDepth) {
+        opcodes[opcode.ordinal()]++;
+        if (stackDepth > peakStackDepth) {
+            peakStackDepth = stackDepth;
+        }
+    }
+
+    void onCall(int callStackDepth) {
+        if (callStackDepth > peakCallStackDepth) {
+            peakCallStackDepth = callStackDepth;
+        }
+    }
+
+    void onHostCall(int funcId) {
+        if (funcId >= hostCalls.length) {
+            hostCalls = Arrays.copyOf(hostCalls, funcId + 1);
+        }
+        hostCalls[funcId]++;
+    }
+
+    void onMemoryGrow(int pages, boolean grown) {
+        if (grown) {
+            memoryGrows++;
+            grownPages += pages;
+        } else {
+            memoryGrowFailures++;
+        }
+    }
+
+    void onTrap(Throwable trap) {
+        traps.merge(trap.getClass().getSimpleName(), 1L, Long::sum);
+    }
+
+    public long getOpcodeCount(OpCode opcode) {
+        return opcodes[opcode.ordinal()];
+    }
+
+    /**
+     * The number of times each opcode was executed, without the ones never executed.
+     */
+    public Map<OpCode, Long> getOpcodeCounts() {
+        var counts = new EnumMap<OpCode, Long>(OpCode.class);
+        for (var i = 0; i < opcodes.length; i++) {
+            if (opcodes[i] > 0) {
+                counts.put(OPCODES[i], opcodes[i]);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * The number of calls to each imported function, by module.field name.
+     */
+    public Map<String, Long> getHostCalls() {
+        var calls = new LinkedHashMap<String, Long>();
+        for (var funcId = 0; funcId < hostCalls.length; funcId++) {
+            if (hostCalls[funcId] > 0) {
+                var name = instance == null ? null : instance.getFunctionName(funcId);
+                calls.put(name == null ? "func[" + funcId + "]" : name, hostCalls[funcId]);
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * The number of executions stopped by a trap, by exception type.
+     */
+    public Map<String, Long> getTraps() {
+        return new HashMap<>(traps);
+    }
+
+    public long getMemoryGrows() {
+        return memoryGrows;
+    }
+
+    public long getMemoryGrowFailures() {
+        return memoryGrowFailures;
+    }
+
+    public long getGrownPages() {
+        return grownPages;
+    }
+
+    public int getPeakStackDepth() {
+        return peakStackDepth;
+    }
+
+    public int getPeakCallStackDepth() {
+        return peakCallStackDepth;
+    }
+
+    /**
+     * Publishes the current values to the given registry.
+     */
+    public void report(MetricsRegistry registry) {
+        for (var e : getOpcodeCounts().entrySet()) {
+            registry.counter("chicory.opcodes", Map.of("opcode", e.getKey().name()), e.getValue());
+        }
+        for (var e : getHostCalls().entrySet()) {
+            registry.counter("chicory.host.calls", Map.of("function", e.getKey()), e.getValue());
+        }
+        for (var e : traps.entrySet()) {
+            registry.counter("chicory.traps", Map.of("type", e.getKey()), e.getValue());
+        }
+        registry.counter("chicory.memory.grows", Map.of(), memoryGrows);
+        registry.counter("chicory.memory.grow.failures", Map.of(), memoryGrowFailures);
+        registry.counter("chicory.memory.grown.pages", Map.of(), grownPages);
+        registry.gauge("chicory.stack.peak", Map.of(), peakStackDepth);
+        registry.gauge("chicory.call.stack.peak", Map.of(), peakCallStackDepth);
+    }
+
+    public void reset() {
+        Arrays.fill(opcodes, 0);
+        hostCalls = new long[0];
+        traps.clear();
+        memoryGrows = 0;
+        memoryGrowFailures = 0;
+        grownPages = 0;
+        peakStackDepth = 0;
+        peakCallStackDepth = 0;
+    }
+}
@@ -0,0 +1,669 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.wasm.types.OpCode;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * The SIMD arithmetic in plain Java, one lane at a time.
+ * Integer lanes are handled as sign extended longs whatever their width and truncated when
+ * stored back, so a single loop serves the four lane shapes. Float lanes are computed as
+ * doubles, which rounds the results of f32 lanes exactly like f32 arithmetic does.
+ */
+class ScalarSimd implements Simd {
+
+    private static final VarHandle SHORT =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final LongBinaryOperator MUL = (x, y) -> x * y;
+
+    // the width in bits of the lanes of every SIMD opcode, by ordinal
+    private static final int[] LANE_BITS = new int[OpCode.values().length];
+
+    static {
+        for (var opcode : OpCode.values()) {
+            var name = opcode.name();
+            if (name.startsWith("I8X16")) {
+                LANE_BITS[opcode.ordinal()] = 8;
+            } else if (name.startsWith("I16X8")) {
+                LANE_BITS[opcode.ordinal()] = 16;
+            } else if (name.startsWith("I32X4") || name.startsWith("F32X4")) {
+                LANE_BITS[opcode.ordinal()] = 32;
+            } else if (name.startsWith("I64X2") || name.startsWith("F64X2")) {
+                LANE_BITS[opcode.ordinal()] = 64;
+            }
+        }
+    }
+
+    static int laneBits(OpCode opcode) {
+        return LANE_BITS[opcode.ordinal()];
+    }
+
+    /**
+     * Reads the lane {@code i} of a vector of {@code bits} wide integer lanes, sign extended.
+     */
+    static long lane(byte[] v, int bits, int i) {
+        switch (bits) {
+            case 8:
+                return v[i];
+            case 16:
+                return (short) SHORT.get(v, i * 2);
+            case 32:
+                return (int) INT.get(v, i * 4);
+            default:
+                return (long) LONG.get(v, i * 8);
+        }
+    }
+
+    static void setLane(byte[] v, int bits, int i, long value) {
+        switch (bits) {
+            case 8:
+                v[i] = (byte) value;
+                break;
+            case 16:
+                SHORT.set(v, i * 2, (short) value);
+                break;
+            case 32:
+                INT.set(v, i * 4, (int) value);
+                break;
+            default:
+                LONG.set(v, i * 8, value);
+                break;
+        }
+    }
+
+    static byte[] splat(int bits, long value) {
+        var result = new byte[16];
+        for (var i = 0; i < 128 / bits; i++) {
+            setLane(result, bits, i, value);
+        }
+        return result;
+    }
+
+    @Override
+    public byte[] unary(OpCode opcode, byte[] a) {
+        var bits = laneBits(opcode);
+        switch (opcode) {
+            case V128_NOT:
+                return lanewise(a, 64, x -> ~x);
+            case I8X16_ABS:
+            case I16X8_ABS:
+            case I32X4_ABS:
+            case I64X2_ABS:
+                return lanewise(a, bits, Math::abs);
+            case I8X16_NEG:
+            case I16X8_NEG:
+            case I32X4_NEG:
+            case I64X2_NEG:
+                return lanewise(a, bits, x -> -x);
+            case I8X16_POPCNT:
+                return lanewise(a, 8, x -> Long.bitCount(x & 0xFF));
+                // abs and neg only touch the sign bit, even of a NaN
+            case F32X4_ABS:
+                return lanewise(a, 32, x -> x & 0x7FFF_FFFFL);
+            case F32X4_NEG:
+                return lanewise(a, 32, x -> x ^ 0x8000_0000L);
+            case F64X2_ABS:
+                return lanewise(a, 64, x -> x & Long.MAX_VALUE);
+            case F64X2_NEG:
+                return lanewise(a, 64, x -> x ^ Long.MIN_VALUE);
+            case F32X4_CEIL:
+            case F64X2_CEIL:
+                return floats(a, bits, Math::ceil);
+            case F32X4_FLOOR:
+            case F64X2_FLOOR:
+                return floats(a, bits, Math::floor);
+            case F32X4_TRUNC:
+            case F64X2_TRUNC:
+                return floats(a, bits, x -> x < 0 ? Math.ceil(x) : Math.floor(x));
+            case F32X4_NEAREST:
+            case F64X2_NEAREST:
+                return floats(a, bits, Math::rint);
+            case F32X4_SQRT:
+            case F64X2_SQRT:
+                return floats(a, bits, Math::sqrt);
+            case I16X8_EXTEND_LOW_I8X16_S:
+            case I32X4_EXTEND_LOW_I16X8_S:
+            case I64X2_EXTEND_LOW_I32X4_S:
+                return extend(a, bits, 0, true);
+            case I16X8_EXTEND_HIGH_I8X16_S:
+            case I32X4_EXTEND_HIGH_I16X8_S:
+            case I64X2_EXTEND_HIGH_I32X4_S:
+                return extend(a, bits, 128 / bits, true);
+            case I16X8_EXTEND_LOW_I8X16_U:
+            case I32X4_EXTEND_LOW_I16X8_U:
+            case I64X2_EXTEND_LOW_I32X4_U:
+                return extend(a, bits, 0, false);
+            case I16X8_EXTEND_HIGH_I8X16_U:
+            case I32X4_EXTEND_HIGH_I16X8_U:
+            case I64X2_EXTEND_HIGH_I32X4_U:
+                return extend(a, bits, 128 / bits, false);
+            case I16X8_EXTADD_PAIRWISE_I8X16_S:
+            case I32X4_EXTADD_PAIRWISE_I16X8_S:
+                return extaddPairwise(a, bits, true);
+            case I16X8_EXTADD_PAIRWISE_I8X16_U:
+            case I32X4_EXTADD_PAIRWISE_I16X8_U:
+                return extaddPairwise(a, bits, false);
+            case I32X4_TRUNC_SAT_F32X4_S:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 4; i++) {
+                        setLane(result, 32, i, (int) f32(a, i));
+                    }
+                    return result;
+                }
+            case I32X4_TRUNC_SAT_F32X4_U:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 4; i++) {
+                        setLane(result, 32, i, truncSatU32(f32(a, i)));
+                    }
+                    return result;
+                }
+            case I32X4_TRUNC_SAT_F64X2_S_ZERO:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 2; i++) {
+                        setLane(result, 32, i, (int) f64(a, i));
+                    }
+                    return result;
+                }
+            case I32X4_TRUNC_SAT_F64X2_U_ZERO:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 2; i++) {
+                        setLane(result, 32, i, truncSatU32(f64(a, i)));
+                    }
+                    return result;
+                }
+            case F32X4_CONVERT_I32X4_S:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 4; i++) {
+                        setF32(result, i, (float) lane(a, 32, i));
+                    }
+                    return result;
+                }
+            case F32X4_CONVERT_I32X4_U:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 4; i++) {
+                        setF32(result, i, (float) (lane(a, 32, i) & 0xFFFF_FFFFL));
+                    }
+                    return result;
+                }
+            case F64X2_CONVERT_LOW_I32X4_S:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 2; i++) {
+                        setF64(result, i, (double) lane(a, 32, i));
+                    }
+                    return result;
+                }
+            case F64X2_CONVERT_LOW_I32X4_U:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 2; i++) {
+                        setF64(result, i, (double) (lane(a, 32, i) & 0xFFFF_FFFFL));
+                    }
+                    return result;
+                }
+            case F32X4_DEMOTE_F64X2_ZERO:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 2; i++) {
+                        setF32(result, i, (float) f64(a, i));
+                    }
+                    return result;
+                }
+            case F64X2_PROMOTE_LOW_F32X4:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 2; i++) {
+                        setF64(result, i, f32(a, i));
+                    }
+                    return result;
+                }
+            default:
+                throw new IllegalArgumentException("Not a unary SIMD instruction: " + opcode);
+        }
+    }
+
+    @Override
+    public byte[] binary(OpCode opcode, byte[] a, byte[] b) {
+        var bits = laneBits(opcode);
+        switch (opcode) {
+            case V128_AND:
+                return lanewise(a, b, 64, (x, y) -> x & y);
+            case V128_ANDNOT:
+                return lanewise(a, b, 64, (x, y) -> x & ~y);
+            case V128_OR:
+                return lanewise(a, b, 64, (x, y) -> x | y);
+            case V128_XOR:
+                return lanewise(a, b, 64, (x, y) -> x ^ y);
+            case I8X16_SWIZZLE:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 16; i++) {
+                        var index = b[i] & 0xFF;
+                        result[i] = index < 16 ? a[index] : 0;
+                    }
+                    return result;
+                }
+            case I8X16_EQ:
+            case I16X8_EQ:
+            case I32X4_EQ:
+            case I64X2_EQ:
+                return lanewise(a, b, bits, (x, y) -> mask(x == y));
+            case I8X16_NE:
+            case I16X8_NE:
+            case I32X4_NE:
+            case I64X2_NE:
+                return lanewise(a, b, bits, (x, y) -> mask(x != y));
+            case I8X16_LT_S:
+            case I16X8_LT_S:
+            case I32X4_LT_S:
+            case I64X2_LT_S:
+                return lanewise(a, b, bits, (x, y) -> mask(x < y));
+            case I8X16_GT_S:
+            case I16X8_GT_S:
+            case I32X4_GT_S:
+            case I64X2_GT_S:
+                return lanewise(a, b, bits, (x, y) -> mask(x > y));
+            case I8X16_LE_S:
+            case I16X8_LE_S:
+            case I32X4_LE_S:
+            case I64X2_LE_S:
+                return lanewise(a, b, bits, (x, y) -> mask(x <= y));
+            case I8X16_GE_S:
+            case I16X8_GE_S:
+            case I32X4_GE_S:
+            case I64X2_GE_S:
+                return lanewise(a, b, bits, (x, y) -> mask(x >= y));
+            case I8X16_LT_U:
+            case I16X8_LT_U:
+            case I32X4_LT_U:
+                return lanewise(a, b, bits, (x, y) -> mask(unsigned(x, bits) < unsigned(y, bits)));
+            case I8X16_GT_U:
+            case I16X8_GT_U:
+            case I32X4_GT_U:
+                return lanewise(a, b, bits, (x, y) -> mask(unsigned(x, bits) > unsigned(y, bits)));
+            case I8X16_LE_U:
+            case I16X8_LE_U:
+            case I32X4_LE_U:
+                return lanewise(a, b, bits, (x, y) -> mask(unsigned(x, bits) <= unsigned(y, bits)));
+            case I8X16_GE_U:
+            case I16X8_GE_U:
+            case I32X4_GE_U:
+                return lanewise(a, b, bits, (x, y) -> mask(unsigned(x, bits) >= unsigned(y, bits)));
+            case F32X4_EQ:
+            case F64X2_EQ:
+                return compare(a, b, bits, (x, y) -> x == y);
+            case F32X4_NE:
+            case F64X2_NE:
+                return compare(a, b, bits, (x, y) -> x != y);
+            case F32X4_LT:
+            case F64X2_LT:
+                return compare(a, b, bits, (x, y) -> x < y);
+            case F32X4_GT:
+            case F64X2_GT:
+                return compare(a, b, bits, (x, y) -> x > y);
+            case F32X4_LE:
+            case F64X2_LE:
+                return compare(a, b, bits, (x, y) -> x <= y);
+            case F32X4_GE:
+            case F64X2_GE:
+                return compare(a, b, bits, (x, y) -> x >= y);
+            case I8X16_ADD:
+            case I16X8_ADD:
+            case I32X4_ADD:
+            case I64X2_ADD:
+                return lanewise(a, b, bits, Long::sum);
+            case I8X16_SUB:
+            case I16X8_SUB:
+            case I32X4_SUB:
+            case I64X2_SUB:
+                return lanewise(a, b, bits, (x, y) -> x - y);
+            case I16X8_MUL:
+            case I32X4_MUL:
+            case I64X2_MUL:
+                return lanewise(a, b, bits, (x, y) -> x * y);
+            case I8X16_ADD_SAT_S:
+            case I16X8_ADD_SAT_S:
+                return lanewise(a, b, bits, (x, y) -> saturateSigned(x + y, bits));
+            case I8X16_ADD_SAT_U:
+            case I16X8_ADD_SAT_U:
+                return lanewise(
+                        a,
+                        b,
+                        bits,
+                        (x, y) -> saturateUnsigned(unsigned(x, bits) + unsigned(y, bits), bits));
+            case I8X16_SUB_SAT_S:
+            case I16X8_SUB_SAT_S:
+                return lanewise(a, b, bits, (x, y) -> saturateSigned(x - y, bits));
+            case I8X16_SUB_SAT_U:
+            case I16X8_SUB_SAT_U:
+                return lanewise(
+                        a,
+                        b,
+                        bits,
+                        (x, y) -> saturateUnsigned(unsigned(x, bits) - unsigned(y, bits), bits));
+            case I8X16_MIN_S:
+            case I16X8_MIN_S:
+            case I32X4_MIN_S:
+                return lanewise(a, b, bits, Math::min);
+            case I8X16_MAX_S:
+            case I16X8_MAX_S:
+            case I32X4_MAX_S:
+                return lanewise(a, b, bits, Math::max);
+            case I8X16_MIN_U:
+            case I16X8_MIN_U:
+            case I32X4_MIN_U:
+                return lanewise(
+                        a, b, bits, (x, y) -> unsigned(x, bits) < unsigned(y, bits) ? x : y);
+            case I8X16_MAX_U:
+            case I16X8_MAX_U:
+            case I32X4_MAX_U:
+                return lanewise(
+                        a, b, bits, (x, y) -> unsigned(x, bits) > unsigned(y, bits) ? x : y);
+            case I8X16_AVGR_U:
+            case I16X8_AVGR_U:
+                return lanewise(
+                        a, b, bits, (x, y) -> (unsigned(x, bits) + unsigned(y, bits) + 1) >>> 1);
+            case I16X8_Q15MULR_SAT_S:
+                return lanewise(a, b, 16, (x, y) -> saturateSigned((x * y + 0x4000) >> 15, 16));
+            case I8X16_NARROW_I16X8_S:
+            case I16X8_NARROW_I32X4_S:
+                return narrow(a, b, bits, true);
+            case I8X16_NARROW_I16X8_U:
+            case I16X8_NARROW_I32X4_U:
+                return narrow(a, b, bits, false);
+            case I16X8_EXTMUL_LOW_I8X16_S:
+            case I32X4_EXTMUL_LOW_I16X8_S:
+            case I64X2_EXTMUL_LOW_I32X4_S:
+                return lanewise(extend(a, bits, 0, true), extend(b, bits, 0, true), bits, MUL);
+            case I16X8_EXTMUL_HIGH_I8X16_S:
+            case I32X4_EXTMUL_HIGH_I16X8_S:
+            case I64X2_EXTMUL_HIGH_I32X4_S:
+                return lanewise(
+                        extend(a, bits, 128 / bits, true),
+                        extend(b, bits, 128 / bits, true),
+                        bits,
+                        MUL);
+            case I16X8_EXTMUL_LOW_I8X16_U:
+            case I32X4_EXTMUL_LOW_I16X8_U:
+            case I64X2_EXTMUL_LOW_I32X4_U:
+                return lanewise(extend(a, bits, 0, false), extend(b, bits, 0, false), bits, MUL);
+            case I16X8_EXTMUL_HIGH_I8X16_U:
+            case I32X4_EXTMUL_HIGH_I16X8_U:
+            case I64X2_EXTMUL_HIGH_I32X4_U:
+                return lanewise(
+                        extend(a, bits, 128 / bits, false),
+                        extend(b, bits, 128 / bits, false),
+                        bits,
+                        MUL);
+            case I32X4_DOT_I16X8_S:
+                {
+                    var result = new byte[16];
+                    for (var i = 0; i < 4; i++) {
+                        var sum =
+                                lane(a, 16, 2 * i) * lane(b, 16, 2 * i)
+                                        + lane(a, 16, 2 * i + 1) * lane(b, 16, 2 * i + 1);
+                        setLane(result, 32, i, sum);
+                    }
+                    return result;
+                }
+            case F32X4_ADD:
+            case F64X2_ADD:
+                return floats(a, b, bits, Double::sum);
+            case F32X4_SUB:
+            case F64X2_SUB:
+                return floats(a, b, bits, (x, y) -> x - y);
+            case F32X4_MUL:
+            case F64X2_MUL:
+                return floats(a, b, bits, (x, y) -> x * y);
+            case F32X4_DIV:
+            case F64X2_DIV:
+                return floats(a, b, bits, (x, y) -> x / y);
+            case F32X4_MIN:
+            case F64X2_MIN:
+                return floats(a, b, bits, Math::min);
+            case F32X4_MAX:
+            case F64X2_MAX:
+                return floats(a, b, bits, Math::max);
+            case F32X4_PMIN:
+            case F64X2_PMIN:
+                return floats(a, b, bits, (x, y) -> y < x ? y : x);
+            case F32X4_PMAX:
+            case F64X2_PMAX:
+                return floats(a, b, bits, (x, y) -> x < y ? y : x);
+            default:
+                throw new IllegalArgumentException("Not a binary SIMD instruction: " + opcode);
+        }
+    }
+
+    @Override
+    public byte[] shift(OpCode opcode, byte[] a, int count) {
+        var bits = laneBits(opcode);
+        var shift = count & (bits - 1);
+        switch (opcode) {
+            case I8X16_SHL:
+            case I16X8_SHL:
+            case I32X4_SHL:
+            case I64X2_SHL:
+                return lanewise(a, bits, x -> x << shift);
+            case I8X16_SHR_S:
+            case I16X8_SHR_S:
+            case I32X4_SHR_S:
+            case I64X2_SHR_S:
+                return lanewise(a, bits, x -> x >> shift);
+            case I8X16_SHR_U:
+            case I16X8_SHR_U:
+            case I32X4_SHR_U:
+            case I64X2_SHR_U:
+                return lanewise(a, bits, x -> unsigned(x, bits) >>> shift);
+            default:
+                throw new IllegalArgumentException("Not a SIMD shift: " + opcode);
+        }
+    }
+
+    @Override
+    public int test(OpCode opcode, byte[] a) {
+        var bits = laneBits(opcode);
+        switch (opcode) {
+            case V128_ANY_TRUE:
+                return lane(a, 64, 0) != 0 || lane(a, 64, 1) != 0 ? 1 : 0;
+            case I8X16_ALL_TRUE:
+            case I16X8_ALL_TRUE:
+            case I32X4_ALL_TRUE:
+            case I64X2_ALL_TRUE:
+                {
+                    for (var i = 0; i < 128 / bits; i++) {
+                        if (lane(a, bits, i) == 0) {
+                            return 0;
+                        }
+                    }
+                    return 1;
+                }
+            case I8X16_BITMASK:
+            case I16X8_BITMASK:
+            case I32X4_BITMASK:
+            case I64X2_BITMASK:
+                {
+                    var result = 0;
+                    for (var i = 0; i < 128 / bits; i++) {
+                        if (lane(a, bits, i) < 0) {
+                            result |= 1 << i;
+                        }
+                    }
+                    return result;
+                }
+            default:
+                throw new IllegalArgumentException("Not a SIMD test: " + opcode);
+        }
+    }
+
+    @Override
+    public byte[] bitselect(byte[] a, byte[] b, byte[] mask) {
+        var result = new byte[16];
+        for (var i = 0; i < 16; i++) {
+            result[i] = (byte) ((a[i] & mask[i]) | (b[i] & ~mask[i]));
+        }
+        return result;
+    }
+
+    private interface DoubleComparison {
+        boolean test(double x, double y);
+    }
+
+    private static long mask(boolean condition) {
+        return condition ? -1L : 0L;
+    }
+
+    private static long unsigned(long value, int bits) {
+        return bits == 64 ? value : value & ((1L << bits) - 1);
+    }
+
+    private static long saturateSigned(long value, int bits) {
+        var max = (1L << (bits - 1)) - 1;
+        return Math.max(-max - 1, Math.min(max, value));
+    }
+
+    private static long saturateUnsigned(long value, int bits) {
+        return Math.max(0, Math.min((1L << bits) - 1, value));
+    }
+
+    private static long truncSatU32(double value) {
+        // NaN truncates to 0 and the cast saturates the values out of the long range
+        return Math.max(0, Math.min(0xFFFF_FFFFL, (long) value));
+    }
+
+    private static float f32(byte[] v, int i) {
+        return Float.intBitsToFloat((int) lane(v, 32, i));
+    }
+
+    private static double f64(byte[] v, int i) {
+        return Double.longBitsToDouble(lane(v, 64, i));
+    }
+
+    private static void setF32(byte[] v, int i, float value) {
+        setLane(v, 32, i, Float.floatToRawIntBits(value));
+    }
+
+    private static void setF64(byte[] v, int i, double value) {
+        setLane(v, 64, i, Double.doubleToRawLongBits(value));
+    }
+
+    private static double floatLane(byte[] v, int bits, int i) {
+        return bits == 32 ? f32(v, i) : f64(v, i);
+    }
+
+    private static void setFloatLane(byte[] v, int bits, int i, double value) {
+        if (bits == 32) {
+            setF32(v, i, (float) value);
+        } else {
+            setF64(v, i, value);
+        }
+    }
+
+    private static byte[] lanewise(byte[] a, int bits, LongUnaryOperator op) {
+        var result = new byte[16];
+        for (var i = 0; i < 128 / bits; i++) {
+            setLane(result, bits, i, op.applyAsLong(lane(a, bits, i)));
+        }
+        return result;
+    }
+
+    private static byte[] lanewise(byte[] a, byte[] b, int bits, LongBinaryOperator op) {
+        var result = new byte[16];
+        for (var i = 0; i < 128 / bits; i++) {
+            setLane(result, bits, i, op.applyAsLong(lane(a, bits, i), lane(b, bits, i)));
+        }
+        return result;
+    }
+
+    private static byte[] floats(byte[] a, int bits, DoubleUnaryOperator op) {
+        var result = new byte[16];
+        for (var i = 0; i < 128 / bits; i++) {
+            setFloatLane(result, bits, i, op.applyAsDouble(floatLane(a, bits, i)));
+        }
+        return result;
+    }
+
+    private static byte[] floats(byte[] a, byte[] b, int bits, DoubleBinaryOperator op) {
+        var result = new byte[16];
+        for (var i = 0; i < 128 / bits; i++) {
+            setFloatLane(
+                    result,
+                    bits,
+                    i,
+                    op.applyAsDouble(floatLane(a, bits, i), floatLane(b, bits, i)));
+        }
+        return result;
+    }
+
+    private static byte[] compare(byte[] a, byte[] b, int bits, DoubleComparison op) {
+        var result = new byte[16];
+        for (var i = 0; i < 128 / bits; i++) {
+            setLane(result, bits, i, mask(op.test(floatLane(a, bits, i), floatLane(b, bits, i))));
+        }
+        return result;
+    }
+
+    /**
+     * Widens the half of {@code a} starting at lane {@code from} to lanes of {@code bits}.
+     */
+    private static byte[] extend(byte[] a, int bits, int from, boolean signed) {
+        var narrow = bits / 2;
+        var result = new byte[16];
+        for (var i = 0; i < 128 / bits; i++) {
+            var value = lane(a, narrow, from + i);
+            setLane(result, bits, i, signed ? value : unsigned(value, narrow));
+        }
+        return result;
+    }
+
+    private static byte[] extaddPairwise(byte[] a, int bits, boolean signed) {
+        var narrow = bits / 2;
+        var result = new byte[16];
+        for (var i = 0; i < 128 / bits; i++) {
+            var x = lane(a, narrow, 2 * i);
+            var y = lane(a, narrow, 2 * i + 1);
+            if (!signed) {
+                x = unsigned(x, narrow);
+                y = unsigned(y, narrow);
+            }
+            setLane(result, bits, i, x + y);
+        }
+        return result;
+    }
+
+    /**
+     * Saturates the lanes of {@code a} then of {@code b} to lanes of {@code bits}.
+     */
+    private static byte[] narrow(byte[] a, byte[] b, int bits, boolean signed) {
+        var wide = bits * 2;
+        var count = 64 / bits;
+        var result = new byte[16];
+        for (var i = 0; i < count; i++) {
+            var x = lane(a, wide, i);
+            var y = lane(b, wide, i);
+            setLane(result, bits, i, signed ? saturateSigned(x, bits) : saturateUnsigned(x, bits));
+            setLane(
+                    result,
+                    bits,
+                    count + i,
+                    signed ? saturateSigned(y, bits) : saturateUnsigned(y, bits));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.wasm.types.OpCode;
+
+/**
+ * The lane-wise arithmetic of the SIMD instructions.
+ * A v128 value is an array of 16 bytes in little-endian order, lane 0 first. The operations
+ * never modify their operands, they always return a new array.
+ */
+interface Simd {
+
+    /**
+     * The instructions taking a single v128 and returning a v128.
+     */
+    byte[] unary(OpCode opcode, byte[] a);
+
+    /**
+     * The instructions taking two v128 and returning a v128.
+     */
+    byte[] binary(OpCode opcode, byte[] a, byte[] b);
+
+    /**
+     * The shifts, the count is taken modulo the lane width.
+     */
+    byte[] shift(OpCode opcode, byte[] a, int count);
+
+    /**
+     * The instructions reducing a v128 to an i32: any_true, all_true and bitmask.
+     */
+    int test(OpCode opcode, byte[] a);
+
+    /**
+     * Takes the bits of {@code a} where {@code mask} is set and the bits of {@code b} elsewhere.
+     */
+    byte[] bitselect(byte[] a, byte[] b, byte[] mask);
+
+    /**
+     * Returns the implementation backed by the Vector API when the incubating
+     * jdk.incubator.vector module is part of the boot layer, e.g. with
+     * {@code --add-modules jdk.incubator.vector}, and the scalar one otherwise.
+     * The Vector API implementation is only compiled by the {@code vector} Maven profile, so
+     * that the default build doesn't depend on an incubating module, it is loaded by name.
+     */
+    static Simd create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (Simd)
+                        Class.forName("com.dylibso.chicory.runtime.VectorSimd")
+                                .getDeclaredConstructor()
+                                .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // not built in, or the module can't be linked on this platform, keep going
+                // with plain Java
+            }
+        }
+        return new ScalarSimd();
+    }
+}
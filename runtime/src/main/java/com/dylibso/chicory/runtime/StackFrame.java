@@ -1,5 +1,6 @@
 package com.dylibso.chicory.runtime;
 
+import com.dylibso.chicory.wasm.types.FunctionBody;
 import com.dylibso.chicory.wasm.types.Value;
 import com.dylibso.chicory.wasm.types.ValueType;
 import java.util.Arrays;
@@ -33,25 +34,14 @@ public class StackFrame {
         this.funcId = funcId;
         this.pc = pc;
         this.locals = new HashMap<>();
-        // pre-initialize everything to 0
-        for (var i = 0; i < initLocals.size(); i++) {
-            var l = initLocals.get(i);
-            var type = l.getType() == null ? ValueType.I32 : l.getType();
-            // TODO need a cleaner way to initialize?
-            // there are footguns to using the raw Value constructor
-            switch (type) {
-                case I32:
-                    this.setLocal(i, Value.i32(0));
-                    break;
-                case F32:
-                    this.setLocal(i, Value.f32(0));
-                    break;
-                case I64:
-                    this.setLocal(i, Value.i64(0));
-                    break;
-                case F64:
-                    this.setLocal(i, Value.f64(0));
-                    break;
+        // pre-initialize everything to 0, the declared locals follow the args
+        var index = args.length;
+        for (var group : initLocals) {
+            var type = group.getType() == null ? ValueType.I32 : group.getType();
+            var zero = zero(type);
+            var count = FunctionBody.localCount(group);
+            for (var j = 0; j < count; j++) {
+                this.setLocal(index++, zero);
             }
         }
         // set values from args
@@ -59,6 +49,31 @@ public class StackFrame {
         this.blockDepth = 0;
     }
 
+    // TODO need a cleaner way to initialize?
+    // there are footguns to using the raw Value constructor
+    private static Value zero(ValueType type) {
+        switch (type) {
+            case F32:
+                return Value.f32(0);
+            case I64:
+                return Value.i64(0);
+            case F64:
+                return Value.f64(0);
+            case V128:
+                return Value.v128(0, 0);
+            case FuncRef:
+                return Value.funcRef(Table.NULL_REF);
+            case ExternRef:
+                return Value.REF_NULL;
+            default:
+                return Value.i32(0);
+        }
+    }
+
+    Instance getInstance() {
+        return instance;
+    }
+
     public void setLocal(int i, Value v) {
         this.locals.put(i, v);
     }
@@ -73,12 +88,9 @@ public class StackFrame {
     }
 
     public String toString() {
-        var nameSec = instance.getModule().getNameSection();
         var id = "[" + funcId + "]";
-        if (nameSec != null) {
-            var funcName = nameSec.getFunctionNames().get(funcId);
-            if (funcName != null) id = funcName + id;
-        }
+        var funcName = instance.getFunctionName(funcId);
+        if (funcName != null) id = funcName + id;
         return id + "\n\tpc=" + pc + " locals=" + Arrays.toString(locals.values().toArray());
     }
 }
@@ -0,0 +1,128 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.runtime.exceptions.WASMRuntimeException;
+import com.dylibso.chicory.wasm.types.ElementType;
+import java.util.Arrays;
+
+/**
+ * The runtime table of an instance, holding function references as the plain function ids.
+ * All the bulk operations work on whole ranges of the backing array.
+ */
+public class Table {
+    /**
+     * The element stored for a null reference.
+     */
+    public static final int NULL_REF = -1;
+
+    private final ElementType elementType;
+    private final int limitMax;
+    private int[] refs;
+    private int version;
+
+    public Table(com.dylibso.chicory.wasm.types.Table type) {
+        this(
+                type.getElementType(),
+                (int) type.getLimitMin(),
+                type.getLimitMax() == null ? Integer.MAX_VALUE : type.getLimitMax().intValue());
+    }
+
+    public Table(ElementType elementType, int limitMin, int limitMax) {
+        this.elementType = elementType;
+        this.limitMax = limitMax;
+        this.refs = new int[limitMin];
+        Arrays.fill(refs, NULL_REF);
+    }
+
+    public ElementType getElementType() {
+        return elementType;
+    }
+
+    public int size() {
+        return refs.length;
+    }
+
+    /**
+     * Changes every time an element of the table is modified, caches of the resolved
+     * elements are valid as long as the version doesn't change.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the function id stored at the given index, or {@link #NULL_REF}.
+     */
+    public int get(int index) {
+        checkBounds(index, 1, refs.length);
+        return refs[index];
+    }
+
+    /**
+     * Returns the function id to call through the given index, trapping on a null reference.
+     */
+    public int getFuncRef(int index) {
+        if (index < 0 || index >= refs.length) {
+            throw new WASMRuntimeException("undefined element");
+        }
+        var ref = refs[index];
+        if (ref == NULL_REF) {
+            throw new WASMRuntimeException("uninitialized element " + index);
+        }
+        return ref;
+    }
+
+    public void set(int index, int ref) {
+        checkBounds(index, 1, refs.length);
+        refs[index] = ref;
+        version++;
+    }
+
+    /**
+     * Grows the table by delta elements initialized with ref.
+     * Returns the previous size, or -1 if the table can't grow that much.
+     */
+    public int grow(int delta, int ref) {
+        var oldSize = refs.length;
+        var newSize = (long) oldSize + Integer.toUnsignedLong(delta);
+        if (newSize > limitMax) {
+            return -1;
+        }
+        refs = Arrays.copyOf(refs, (int) newSize);
+        Arrays.fill(refs, oldSize, (int) newSize, ref);
+        version++;
+        return oldSize;
+    }
+
+    public void fill(int offset, int ref, int length) {
+        checkBounds(offset, length, refs.length);
+        Arrays.fill(refs, offset, offset + length, ref);
+        version++;
+    }
+
+    /**
+     * Copies length elements from src, the ranges may overlap when src is this table.
+     */
+    public void copy(int offset, Table src, int srcOffset, int length) {
+        checkBounds(srcOffset, length, src.refs.length);
+        checkBounds(offset, length, refs.length);
+        System.arraycopy(src.refs, srcOffset, refs, offset, length);
+        version++;
+    }
+
+    /**
+     * Copies length function ids of an element segment into the table.
+     */
+    public void init(int offset, int[] segment, int segmentOffset, int length) {
+        checkBounds(segmentOffset, length, segment.length);
+        checkBounds(offset, length, refs.length);
+        System.arraycopy(segment, segmentOffset, refs, offset, length);
+        version++;
+    }
+
+    private static void checkBounds(int offset, int length, int size) {
+        // the operands are u32, compare them as such
+        if (Integer.toUnsignedLong(offset) + Integer.toUnsignedLong(length) > size) {
+            throw new WASMRuntimeException("out of bounds table access");
+        }
+    }
+}
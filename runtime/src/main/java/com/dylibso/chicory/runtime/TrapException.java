@@ -1,16 +1,37 @@
 package com.dylibso.chicory.runtime;
 
+import com.dylibso.chicory.runtime.jfr.TrapEvent;
 import com.dylibso.chicory.wasm.exceptions.ChicoryException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
 
 public class TrapException extends ChicoryException {
-    private Stack<StackFrame> callStack;
+    private final List<StackFrame> callStack;
 
     public TrapException(String msg, Stack<StackFrame> callStack) {
         super(msg);
+        // a snapshot, the machine keeps using its own stack
+        this.callStack = Collections.unmodifiableList(new ArrayList<>(callStack));
+
+        var event = new TrapEvent();
+        if (event.shouldCommit()) {
+            event.message = msg;
+            event.callDepth = callStack.size();
+            if (!callStack.isEmpty()) {
+                var frame = callStack.peek();
+                event.moduleName = frame.getInstance().getModule().getName();
+                event.functionIndex = frame.funcId;
+                event.functionName = frame.getInstance().getFunctionName(frame.funcId);
+            }
+            event.commit();
+        }
     }
 
+    /**
+     * The frames active when the trap happened, the outermost first.
+     */
     public List<StackFrame> getCallStack() {
         return callStack;
     }
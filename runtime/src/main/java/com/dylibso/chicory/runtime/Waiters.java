@@ -0,0 +1,114 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.runtime.exceptions.WASMRuntimeException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The threads parked by memory.atomic.wait on a shared memory, queued by address in the order
+ * they started waiting.
+ * The value is compared under the same lock notify takes, so a notification can't slip in
+ * between the comparison and the parking of the thread.
+ */
+final class Waiters {
+
+    private static final class Waiter {
+        private final Thread thread = Thread.currentThread();
+        private volatile boolean notified;
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<Long, ArrayDeque<Waiter>> queues = new HashMap<>();
+
+    /**
+     * Returns 1 right away unless {@code matches}, otherwise parks the current thread and
+     * returns 0 once woken or 2 once {@code timeout} nanoseconds have elapsed, a negative
+     * timeout meaning forever.
+     */
+    int await(long address, BooleanSupplier matches, long timeout) {
+        var waiter = new Waiter();
+        lock.lock();
+        try {
+            if (!matches.getAsBoolean()) {
+                return 1;
+            }
+            queues.computeIfAbsent(address, k -> new ArrayDeque<>()).add(waiter);
+        } finally {
+            lock.unlock();
+        }
+
+        var deadline = System.nanoTime() + timeout;
+        while (!waiter.notified) {
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                if (remove(address, waiter)) {
+                    throw new WASMRuntimeException("interrupted while waiting");
+                }
+                // notified in the meantime
+                break;
+            }
+            if (timeout < 0) {
+                LockSupport.park(this);
+                continue;
+            }
+            var remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                if (remove(address, waiter)) {
+                    return 2;
+                }
+                break;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        return 0;
+    }
+
+    /**
+     * Wakes up to {@code count} of the threads waiting at {@code address}, the longest waiting
+     * first, and returns how many were woken.
+     */
+    int wake(long address, long count) {
+        lock.lock();
+        try {
+            var queue = queues.get(address);
+            if (queue == null) {
+                return 0;
+            }
+            var woken = 0;
+            while (woken < count && !queue.isEmpty()) {
+                var waiter = queue.poll();
+                waiter.notified = true;
+                LockSupport.unpark(waiter.thread);
+                woken++;
+            }
+            if (queue.isEmpty()) {
+                queues.remove(address);
+            }
+            return woken;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // false when the waiter has already been woken
+    private boolean remove(long address, Waiter waiter) {
+        lock.lock();
+        try {
+            var queue = queues.get(address);
+            if (queue == null || !queue.remove(waiter)) {
+                return false;
+            }
+            if (queue.isEmpty()) {
+                queues.remove(address);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.dylibso.chicory.runtime.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.dylibso.chicory.FunctionCall")
+@Label("Wasm Function Call")
+@Category({"WebAssembly", "Chicory"})
+@Description("A call from Java to an exported function")
+public final class FunctionCallEvent extends jdk.jfr.Event {
+    @Label("Module")
+    public String moduleName;
+
+    @Label("Function Index")
+    public int functionIndex;
+
+    @Label("Function")
+    public String functionName;
+}
@@ -0,0 +1,22 @@
+package com.dylibso.chicory.runtime.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.dylibso.chicory.HostCall")
+@Label("Wasm Host Call")
+@Category({"WebAssembly", "Chicory"})
+@Description("A call from the guest to an imported host function")
+public final class HostCallEvent extends jdk.jfr.Event {
+    @Label("Module")
+    public String moduleName;
+
+    @Label("Function Index")
+    public int functionIndex;
+
+    @Label("Import")
+    @Description("The imported function as module.field")
+    public String importName;
+}
@@ -0,0 +1,23 @@
+package com.dylibso.chicory.runtime.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.dylibso.chicory.Instantiate")
+@Label("Wasm Instantiate")
+@Category({"WebAssembly", "Chicory"})
+@Description("A module instantiated with Module.instantiate")
+public final class InstantiateEvent extends jdk.jfr.Event {
+    @Label("Module")
+    public String moduleName;
+
+    @Label("Functions")
+    @Description("Number of functions, including the imported ones")
+    public int functions;
+
+    @Label("Memory Pages")
+    @Description("Initial number of 64KiB memory pages")
+    public int memoryPages;
+}
@@ -0,0 +1,28 @@
+package com.dylibso.chicory.runtime.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.dylibso.chicory.MemoryGrow")
+@Label("Wasm Memory Grow")
+@Category({"WebAssembly", "Chicory"})
+@Description("A grow of a linear memory, by memory.grow or by the host")
+public final class MemoryGrowEvent extends jdk.jfr.Event {
+    @Label("Previous Pages")
+    public int previousPages;
+
+    @Label("Delta Pages")
+    public int deltaPages;
+
+    @Label("Size")
+    @Description("Size of the memory after the grow")
+    @DataAmount
+    public long size;
+
+    @Label("Grown")
+    @Description("False when the maximum size would have been exceeded")
+    public boolean grown;
+}
@@ -0,0 +1,28 @@
+package com.dylibso.chicory.runtime.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.dylibso.chicory.Trap")
+@Label("Wasm Trap")
+@Category({"WebAssembly", "Chicory"})
+@Description("A trap stopping the execution of a guest")
+public final class TrapEvent extends jdk.jfr.Event {
+    @Label("Module")
+    public String moduleName;
+
+    @Label("Function Index")
+    @Description("The function that trapped")
+    public int functionIndex;
+
+    @Label("Function")
+    public String functionName;
+
+    @Label("Call Depth")
+    public int callDepth;
+
+    @Label("Message")
+    public String message;
+}
@@ -0,0 +1,231 @@
+package com.dylibso.chicory.runtime;
+
+import com.dylibso.chicory.wasm.types.OpCode;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.Vector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The SIMD arithmetic mapped onto the Vector API, which the JIT compiles to the SIMD
+ * instructions of the host. A v128 is loaded as a 128 bits byte vector and reinterpreted with
+ * the lane shape of the instruction, both sides being little-endian the lanes line up.
+ * The instructions without a direct counterpart in the API run on the scalar implementation.
+ */
+final class VectorSimd extends ScalarSimd {
+
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_128;
+
+    @Override
+    public byte[] unary(OpCode opcode, byte[] a) {
+        var bits = laneBits(opcode);
+        switch (opcode) {
+            case V128_NOT:
+                return bytes(ints(a, 64).lanewise(VectorOperators.NOT));
+            case I8X16_ABS:
+            case I16X8_ABS:
+            case I32X4_ABS:
+            case I64X2_ABS:
+                return bytes(ints(a, bits).lanewise(VectorOperators.ABS));
+            case I8X16_NEG:
+            case I16X8_NEG:
+            case I32X4_NEG:
+            case I64X2_NEG:
+                return bytes(ints(a, bits).lanewise(VectorOperators.NEG));
+                // abs and neg only touch the sign bit, even of a NaN
+            case F32X4_ABS:
+                return bytes(ints(a, 32).lanewise(VectorOperators.AND, 0x7FFF_FFFF));
+            case F32X4_NEG:
+                return bytes(ints(a, 32).lanewise(VectorOperators.XOR, 0x8000_0000));
+            case F64X2_ABS:
+                return bytes(ints(a, 64).lanewise(VectorOperators.AND, Long.MAX_VALUE));
+            case F64X2_NEG:
+                return bytes(ints(a, 64).lanewise(VectorOperators.XOR, Long.MIN_VALUE));
+            case F32X4_SQRT:
+            case F64X2_SQRT:
+                return bytes(floats(a, bits).lanewise(VectorOperators.SQRT));
+            default:
+                return super.unary(opcode, a);
+        }
+    }
+
+    @Override
+    public byte[] binary(OpCode opcode, byte[] a, byte[] b) {
+        var bits = laneBits(opcode);
+        switch (opcode) {
+            case V128_AND:
+                return lanewise(VectorOperators.AND, ints(a, 64), ints(b, 64));
+            case V128_ANDNOT:
+                return lanewise(VectorOperators.AND_NOT, ints(a, 64), ints(b, 64));
+            case V128_OR:
+                return lanewise(VectorOperators.OR, ints(a, 64), ints(b, 64));
+            case V128_XOR:
+                return lanewise(VectorOperators.XOR, ints(a, 64), ints(b, 64));
+            case I8X16_ADD:
+            case I16X8_ADD:
+            case I32X4_ADD:
+            case I64X2_ADD:
+                return lanewise(VectorOperators.ADD, ints(a, bits), ints(b, bits));
+            case I8X16_SUB:
+            case I16X8_SUB:
+            case I32X4_SUB:
+            case I64X2_SUB:
+                return lanewise(VectorOperators.SUB, ints(a, bits), ints(b, bits));
+            case I16X8_MUL:
+            case I32X4_MUL:
+            case I64X2_MUL:
+                return lanewise(VectorOperators.MUL, ints(a, bits), ints(b, bits));
+            case I8X16_MIN_S:
+            case I16X8_MIN_S:
+            case I32X4_MIN_S:
+                return lanewise(VectorOperators.MIN, ints(a, bits), ints(b, bits));
+            case I8X16_MAX_S:
+            case I16X8_MAX_S:
+            case I32X4_MAX_S:
+                return lanewise(VectorOperators.MAX, ints(a, bits), ints(b, bits));
+            case I8X16_EQ:
+            case I16X8_EQ:
+            case I32X4_EQ:
+            case I64X2_EQ:
+                return compare(VectorOperators.EQ, ints(a, bits), ints(b, bits));
+            case I8X16_NE:
+            case I16X8_NE:
+            case I32X4_NE:
+            case I64X2_NE:
+                return compare(VectorOperators.NE, ints(a, bits), ints(b, bits));
+            case I8X16_LT_S:
+            case I16X8_LT_S:
+            case I32X4_LT_S:
+            case I64X2_LT_S:
+                return compare(VectorOperators.LT, ints(a, bits), ints(b, bits));
+            case I8X16_GT_S:
+            case I16X8_GT_S:
+            case I32X4_GT_S:
+            case I64X2_GT_S:
+                return compare(VectorOperators.GT, ints(a, bits), ints(b, bits));
+            case I8X16_LE_S:
+            case I16X8_LE_S:
+            case I32X4_LE_S:
+            case I64X2_LE_S:
+                return compare(VectorOperators.LE, ints(a, bits), ints(b, bits));
+            case I8X16_GE_S:
+            case I16X8_GE_S:
+            case I32X4_GE_S:
+            case I64X2_GE_S:
+                return compare(VectorOperators.GE, ints(a, bits), ints(b, bits));
+            case F32X4_ADD:
+            case F64X2_ADD:
+                return lanewise(VectorOperators.ADD, floats(a, bits), floats(b, bits));
+            case F32X4_SUB:
+            case F64X2_SUB:
+                return lanewise(VectorOperators.SUB, floats(a, bits), floats(b, bits));
+            case F32X4_MUL:
+            case F64X2_MUL:
+                return lanewise(VectorOperators.MUL, floats(a, bits), floats(b, bits));
+            case F32X4_DIV:
+            case F64X2_DIV:
+                return lanewise(VectorOperators.DIV, floats(a, bits), floats(b, bits));
+            case F32X4_MIN:
+            case F64X2_MIN:
+                return lanewise(VectorOperators.MIN, floats(a, bits), floats(b, bits));
+            case F32X4_MAX:
+            case F64X2_MAX:
+                return lanewise(VectorOperators.MAX, floats(a, bits), floats(b, bits));
+            default:
+                return super.binary(opcode, a, b);
+        }
+    }
+
+    @Override
+    public byte[] shift(OpCode opcode, byte[] a, int count) {
+        // the Vector API masks the count with the lane width too
+        var bits = laneBits(opcode);
+        switch (opcode) {
+            case I8X16_SHL:
+            case I16X8_SHL:
+            case I32X4_SHL:
+            case I64X2_SHL:
+                return bytes(ints(a, bits).lanewise(VectorOperators.LSHL, count));
+            case I8X16_SHR_S:
+            case I16X8_SHR_S:
+            case I32X4_SHR_S:
+            case I64X2_SHR_S:
+                return bytes(ints(a, bits).lanewise(VectorOperators.ASHR, count));
+            case I8X16_SHR_U:
+            case I16X8_SHR_U:
+            case I32X4_SHR_U:
+            case I64X2_SHR_U:
+                return bytes(ints(a, bits).lanewise(VectorOperators.LSHR, count));
+            default:
+                return super.shift(opcode, a, count);
+        }
+    }
+
+    @Override
+    public int test(OpCode opcode, byte[] a) {
+        var bits = laneBits(opcode);
+        switch (opcode) {
+            case V128_ANY_TRUE:
+                return ints(a, 64).compare(VectorOperators.NE, 0).anyTrue() ? 1 : 0;
+            case I8X16_ALL_TRUE:
+            case I16X8_ALL_TRUE:
+            case I32X4_ALL_TRUE:
+            case I64X2_ALL_TRUE:
+                return ints(a, bits).compare(VectorOperators.NE, 0).allTrue() ? 1 : 0;
+            case I8X16_BITMASK:
+            case I16X8_BITMASK:
+            case I32X4_BITMASK:
+            case I64X2_BITMASK:
+                return (int) ints(a, bits).compare(VectorOperators.LT, 0).toLong();
+            default:
+                return super.test(opcode, a);
+        }
+    }
+
+    @Override
+    public byte[] bitselect(byte[] a, byte[] b, byte[] mask) {
+        // the blend takes its second operand where the mask is set
+        return bytes(
+                ByteVector.fromArray(BYTES, b, 0)
+                        .lanewise(
+                                VectorOperators.BITWISE_BLEND,
+                                ByteVector.fromArray(BYTES, a, 0),
+                                ByteVector.fromArray(BYTES, mask, 0)));
+    }
+
+    private static Vector<?> ints(byte[] v, int bits) {
+        var bytes = ByteVector.fromArray(BYTES, v, 0);
+        switch (bits) {
+            case 8:
+                return bytes;
+            case 16:
+                return bytes.reinterpretAsShorts();
+            case 32:
+                return bytes.reinterpretAsInts();
+            default:
+                return bytes.reinterpretAsLongs();
+        }
+    }
+
+    private static Vector<?> floats(byte[] v, int bits) {
+        var bytes = ByteVector.fromArray(BYTES, v, 0);
+        return bits == 32 ? bytes.reinterpretAsFloats() : bytes.reinterpretAsDoubles();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> byte[] lanewise(VectorOperators.Binary op, Vector<?> a, Vector<?> b) {
+        return bytes(((Vector<E>) a).lanewise(op, (Vector<E>) b));
+    }
+
+    // a true lane of the mask becomes -1, all the bits of the lane set
+    @SuppressWarnings("unchecked")
+    private static <E> byte[] compare(VectorOperators.Comparison op, Vector<?> a, Vector<?> b) {
+        return bytes(((Vector<E>) a).compare(op, (Vector<E>) b).toVector());
+    }
+
+    private static byte[] bytes(Vector<?> vector) {
+        var result = new byte[16];
+        vector.reinterpretAsBytes().intoArray(result, 0);
+        return result;
+    }
+}
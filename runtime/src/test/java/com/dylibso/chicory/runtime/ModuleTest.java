@@ -2,10 +2,30 @@ package com.dylibso.chicory.runtime;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.dylibso.chicory.runtime.exceptions.WASMRuntimeException;
+import com.dylibso.chicory.wasm.exceptions.ChicoryException;
+import com.dylibso.chicory.wasm.types.MemoryLimits;
+import com.dylibso.chicory.wasm.types.MutabilityType;
+import com.dylibso.chicory.wasm.types.OpCode;
 import com.dylibso.chicory.wasm.types.Value;
 import com.dylibso.chicory.wasm.types.ValueType;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
 
 class Printer {
@@ -112,6 +132,197 @@ public class ModuleTest {
         assertEquals(10, printer.times());
     }
 
+    @Test
+    public void shouldSuspendOnAsyncHostFunction() throws Exception {
+        record Pending(int arg, CompletableFuture<Value[]> future) {}
+        var requests = new LinkedBlockingQueue<Pending>();
+        var fetch =
+                HostFunction.ofAsync(
+                        (Memory memory, Value... args) -> {
+                            var future = new CompletableFuture<Value[]>();
+                            requests.add(new Pending(args[0].asInt(), future));
+                            return future;
+                        },
+                        "env",
+                        "fetch",
+                        List.of(ValueType.I32),
+                        List.of(ValueType.I32));
+        var instance =
+                Module.build(new File("src/test/resources/wasm/host-function-result.wat.wasm"))
+                        .instantiate(new HostFunction[] {fetch});
+        var run = instance.getAsyncExport("run");
+
+        var result = run.apply(Value.i32(5));
+        // the calling thread is released while the guest waits on the host
+        assertFalse(result.isDone());
+
+        var io = Executors.newSingleThreadExecutor();
+        try {
+            for (var expected : new int[] {5, 10}) {
+                var pending = requests.poll(5, TimeUnit.SECONDS);
+                assertNotNull(pending);
+                assertEquals(expected, pending.arg());
+                io.submit(
+                        () ->
+                                pending.future()
+                                        .complete(new Value[] {Value.i32(pending.arg() * 2)}));
+            }
+            assertEquals(21, result.get(5, TimeUnit.SECONDS)[0].asInt());
+        } finally {
+            io.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldCallBackIntoTheGuestFromHostFunctions() {
+        var instance = new Instance[1];
+        var host =
+                new HostFunction(
+                        (Memory memory, Value... args) -> {
+                            var run = instance[0].getExport("run");
+                            switch (args[0].asInt()) {
+                                case 0:
+                                    return new Value[] {Value.i32(2)};
+                                case 1:
+                                    return run.apply(Value.i32(0));
+                                case 2:
+                                    // the failed call must leave the running frames alone
+                                    assertThrows(
+                                            WASMRuntimeException.class,
+                                            () -> run.apply(Value.i32(3)));
+                                    return new Value[] {Value.i32(1)};
+                                default:
+                                    throw new IllegalStateException("no host result");
+                            }
+                        },
+                        "env",
+                        "host",
+                        List.of(ValueType.I32),
+                        List.of(ValueType.I32));
+        instance[0] =
+                Module.build(new File("src/test/resources/wasm/reentrant.wat.wasm"))
+                        .instantiate(new HostFunction[] {host});
+        var run = instance[0].getExport("run");
+        assertEquals(202, run.apply(Value.i32(1))[0].asInt());
+        assertEquals(101, run.apply(Value.i32(2))[0].asInt());
+        assertEquals(102, run.apply(Value.i32(0))[0].asInt());
+    }
+
+    @Test
+    public void shouldBlockOnAsyncHostFunctionWhenCalledSynchronously() {
+        var fetch =
+                HostFunction.ofAsync(
+                        (Memory memory, Value... args) ->
+                                CompletableFuture.supplyAsync(
+                                        () -> new Value[] {Value.i32(args[0].asInt() * 2)}),
+                        "env",
+                        "fetch",
+                        List.of(ValueType.I32),
+                        List.of(ValueType.I32));
+        var instance =
+                Module.build(new File("src/test/resources/wasm/host-function-result.wat.wasm"))
+                        .instantiate(new HostFunction[] {fetch});
+        var run = instance.getExport("run");
+        assertEquals(13, run.apply(Value.i32(3))[0].asInt());
+    }
+
+    @Test
+    public void shouldCollectRuntimeMetrics() {
+        var printer = new Printer("Hello, World!");
+        var func =
+                new HostFunction(
+                        (Memory memory, Value... args) -> {
+                            printer.println(memory.getString(args[1].asInt(), args[0].asInt()));
+                            return null;
+                        },
+                        "console",
+                        "log",
+                        List.of(ValueType.I32, ValueType.I32),
+                        List.of());
+        var instance =
+                Module.build(new File("src/test/resources/wasm/host-function.wat.wasm"))
+                        .instantiate(new HostFunction[] {func});
+        var metrics = new RuntimeMetrics();
+        instance.setMetrics(metrics);
+        instance.getExport("logIt").apply();
+
+        assertEquals(Map.of("console.log", 10L), metrics.getHostCalls());
+        assertEquals(10, metrics.getOpcodeCount(OpCode.CALL));
+        assertEquals(10, metrics.getOpcodeCount(OpCode.BR_IF));
+        assertEquals(2, metrics.getPeakStackDepth());
+        assertEquals(2, metrics.getPeakCallStackDepth());
+
+        var counters = new HashMap<String, Long>();
+        metrics.report(
+                new MetricsRegistry() {
+                    @Override
+                    public void counter(String name, Map<String, String> tags, long value) {
+                        counters.put(name + tags.values(), value);
+                    }
+
+                    @Override
+                    public void gauge(String name, Map<String, String> tags, long value) {
+                        counters.put(name, value);
+                    }
+                });
+        assertEquals(10L, counters.get("chicory.host.calls[console.log]"));
+        assertEquals(10L, counters.get("chicory.opcodes[CALL]"));
+        assertEquals(2L, counters.get("chicory.call.stack.peak"));
+
+        var trapping =
+                Module.build(new File("src/test/resources/wasm/trap.wat.wasm")).instantiate();
+        trapping.setMetrics(metrics);
+        assertThrows(TrapException.class, () -> trapping.getExport("_start").apply());
+        assertEquals(Map.of("TrapException", 1L), metrics.getTraps());
+        assertEquals(3, metrics.getPeakCallStackDepth());
+    }
+
+    @Test
+    public void shouldEmitFlightRecorderEvents() throws Exception {
+        var func =
+                new HostFunction(
+                        (Memory memory, Value... args) -> null,
+                        "console",
+                        "log",
+                        List.of(ValueType.I32, ValueType.I32),
+                        List.of());
+        var jfr = Files.createTempFile("chicory", ".jfr");
+        try (var recording = new Recording()) {
+            for (var event :
+                    List.of("Instantiate", "FunctionCall", "HostCall", "MemoryGrow", "Trap")) {
+                recording.enable("com.dylibso.chicory." + event).withoutThreshold();
+            }
+            recording.start();
+            var instance =
+                    Module.build(new File("src/test/resources/wasm/host-function.wat.wasm"))
+                            .instantiate(new HostFunction[] {func});
+            instance.getExport("logIt").apply();
+            instance.getMemory().grow(1);
+            var trapping =
+                    Module.build(new File("src/test/resources/wasm/trap.wat.wasm")).instantiate();
+            assertThrows(TrapException.class, () -> trapping.getExport("_start").apply());
+            recording.stop();
+            recording.dump(jfr);
+        }
+
+        var counts = new HashMap<String, Integer>();
+        RecordedEvent trap = null;
+        for (var event : RecordingFile.readAllEvents(jfr)) {
+            counts.merge(event.getEventType().getName(), 1, Integer::sum);
+            if (event.getEventType().getName().equals("com.dylibso.chicory.Trap")) {
+                trap = event;
+            }
+        }
+        Files.delete(jfr);
+        assertEquals(2, counts.get("com.dylibso.chicory.Instantiate"));
+        assertEquals(2, counts.get("com.dylibso.chicory.FunctionCall"));
+        assertEquals(10, counts.get("com.dylibso.chicory.HostCall"));
+        assertEquals(1, counts.get("com.dylibso.chicory.MemoryGrow"));
+        assertEquals(1, counts.get("com.dylibso.chicory.Trap"));
+        assertEquals(0, trap.getInt("functionIndex"));
+        assertEquals(3, trap.getInt("callDepth"));
+    }
+
     @Test
     public void shouldComputeFactorial() {
         var module =
@@ -126,6 +337,141 @@ public class ModuleTest {
         }
     }
 
+    @Test
+    public void shouldMeterFuelDeterministically() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/iterfact.wat.wasm")).instantiate();
+        var iterFact = instance.getExport("iterFact");
+        instance.setFuel(1000);
+        assertEquals(120, iterFact.apply(Value.i32(5))[0].asInt());
+        var consumed = 1000 - instance.getFuel();
+        assertTrue(consumed > 0);
+
+        instance.setFuel(1000);
+        assertEquals(120, iterFact.apply(Value.i32(5))[0].asInt());
+        assertEquals(consumed, 1000 - instance.getFuel());
+
+        instance.disableFuelMetering();
+        assertEquals(120, iterFact.apply(Value.i32(5))[0].asInt());
+        assertEquals(0, instance.getFuel());
+    }
+
+    @Test
+    public void shouldResumeWhenFuelIsExhausted() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/iterfact.wat.wasm")).instantiate();
+        var iterFact = instance.getExport("iterFact");
+        instance.setFuel(10);
+        var exhausted =
+                assertThrows(FuelExhaustedException.class, () -> iterFact.apply(Value.i32(5)));
+        assertTrue(exhausted.getRequiredFuel() > instance.getFuel());
+
+        // refuel a bit at a time, the result must not depend on the interruptions
+        Value[] result = null;
+        while (result == null) {
+            instance.addFuel(10);
+            try {
+                result = instance.resume();
+            } catch (FuelExhaustedException e) {
+                // keep going
+            }
+        }
+        assertEquals(120, result[0].asInt());
+    }
+
+    @Test
+    public void shouldInterruptGuestOnEpochDeadline() throws Exception {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/spin.wat.wasm")).instantiate();
+        var spin = instance.getExport("spin");
+        var epoch = new Epoch();
+        instance.setEpochDeadline(epoch, 5);
+        var ticker = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ticker.scheduleAtFixedRate(epoch::increment, 10, 10, TimeUnit.MILLISECONDS);
+            assertTimeoutPreemptively(
+                    Duration.ofSeconds(10),
+                    () -> assertThrows(EpochDeadlineExceededException.class, spin::apply));
+        } finally {
+            ticker.shutdownNow();
+        }
+        assertTrue(epoch.get() >= 5);
+    }
+
+    @Test
+    public void shouldResumeAfterExtendingEpochDeadline() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/spin.wat.wasm")).instantiate();
+        var nop = instance.getExport("nop");
+        var epoch = new Epoch();
+        instance.setEpochDeadline(epoch, 0);
+        assertThrows(EpochDeadlineExceededException.class, nop::apply);
+
+        instance.setEpochDeadline(epoch, 1);
+        assertNull(instance.resume());
+        instance.clearEpochDeadline();
+        epoch.increment();
+        assertNull(nop.apply());
+    }
+
+    @Test
+    public void shouldExposeStartFunctionBeforeInstantiation() {
+        var module = Module.build(new File("src/test/resources/wasm/trap.wat.wasm"));
+        assertEquals(2, module.getExport("_start").getDesc().getIndex());
+    }
+
+    @Test
+    public void shouldInstantiateSharedModuleConcurrently() throws Exception {
+        var iterFact = Module.build(new File("src/test/resources/wasm/iterfact.wat.wasm"));
+        var callIndirect = Module.build(new File("src/test/resources/wasm/call_indirect.wat.wasm"));
+        var countVowels = Module.build(new File("src/test/resources/wasm/count_vowels.rs.wasm"));
+
+        var threads = 8;
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            var start = new CountDownLatch(1);
+            var tasks = new ArrayList<Future<?>>();
+            for (var t = 0; t < threads; t++) {
+                var n = t;
+                tasks.add(
+                        executor.submit(
+                                () -> {
+                                    start.await();
+                                    for (var i = 0; i < 20; i++) {
+                                        var fact = iterFact.instantiate().getExport("iterFact");
+                                        assertEquals(
+                                                factorial(n), fact.apply(Value.i32(n))[0].asInt());
+
+                                        var dispatch =
+                                                callIndirect.instantiate().getExport("dispatch");
+                                        assertEquals(42, dispatch.apply(Value.i32(0))[0].asInt());
+                                        assertEquals(7, dispatch.apply(Value.i32(1))[0].asInt());
+
+                                        var instance = countVowels.instantiate();
+                                        var message = "a".repeat(n) + "xyz";
+                                        var len = message.getBytes().length;
+                                        var ptr =
+                                                instance.getExport("alloc")
+                                                        .apply(Value.i32(len))[0]
+                                                        .asInt();
+                                        instance.getMemory().put(ptr, message);
+                                        var result =
+                                                instance.getExport("count_vowels")
+                                                        .apply(Value.i32(ptr), Value.i32(len));
+                                        assertEquals(n, result[0].asInt());
+                                    }
+                                    return null;
+                                }));
+            }
+            start.countDown();
+            for (var task : tasks) {
+                task.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private static long factorial(int number) {
         long result = 1;
         for (int factor = 2; factor <= number; factor++) {
@@ -161,7 +507,365 @@ public class ModuleTest {
         var instance =
                 Module.build(new File("src/test/resources/wasm/trap.wat.wasm")).instantiate();
         var start = instance.getExport("_start");
-        assertThrows(TrapException.class, start::apply);
+        var trap = assertThrows(TrapException.class, start::apply);
+        var funcIds = new ArrayList<Integer>();
+        for (var frame : trap.getCallStack()) {
+            funcIds.add(frame.funcId);
+        }
+        assertEquals(List.of(2, 1, 0), funcIds);
+    }
+
+    @Test
+    public void shouldProfileFunctionCalls() throws Exception {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/count_vowels.rs.wasm"))
+                        .instantiate();
+        var message = "Hello, World!";
+        var len = message.getBytes().length;
+        var ptr = instance.getExport("alloc").apply(Value.i32(len))[0].asInt();
+        instance.getMemory().put(ptr, message);
+
+        var profiler = new Profiler();
+        instance.setProfiler(profiler);
+        var result = instance.getExport("count_vowels").apply(Value.i32(ptr), Value.i32(len));
+        assertEquals(3, result[0].asInt());
+
+        var profiles = profiler.getFunctionProfiles();
+        var countVowels =
+                profiles.stream()
+                        .filter(p -> "count_vowels".equals(p.getName()))
+                        .findFirst()
+                        .orElseThrow();
+        assertEquals(1, countVowels.getCalls());
+        assertTrue(countVowels.getInstructions() > 0);
+        for (var profile : profiles) {
+            assertTrue(profile.getCalls() > 0);
+            assertTrue(profile.getTotalNanos() >= profile.getSelfNanos());
+        }
+
+        var collapsed = new StringBuilder();
+        profiler.writeCollapsedStacks(collapsed);
+        for (var line : collapsed.toString().split("\n")) {
+            assertTrue(line.matches("count_vowels(;[^;]+)* \\d+"), line);
+        }
+    }
+
+    @Test
+    public void shouldProfileResumedFramesInTheirCalls() throws Exception {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/count_vowels.rs.wasm"))
+                        .instantiate();
+        var message = "Hello, World!";
+        var len = message.getBytes().length;
+        var ptr = instance.getExport("alloc").apply(Value.i32(len))[0].asInt();
+        instance.getMemory().put(ptr, message);
+        var countVowels = instance.getExport("count_vowels");
+
+        var straight = new Profiler();
+        instance.setProfiler(straight);
+        countVowels.apply(Value.i32(ptr), Value.i32(len));
+
+        // the same call interrupted every few blocks must end up with the same call tree
+        var resumed = new Profiler();
+        instance.setProfiler(resumed);
+        instance.setFuel(5);
+        Value[] result = null;
+        try {
+            result = countVowels.apply(Value.i32(ptr), Value.i32(len));
+        } catch (FuelExhaustedException e) {
+            while (result == null) {
+                instance.addFuel(5);
+                try {
+                    result = instance.resume();
+                } catch (FuelExhaustedException again) {
+                    // keep going
+                }
+            }
+        }
+        instance.disableFuelMetering();
+        assertEquals(3, result[0].asInt());
+
+        var expected = new HashMap<String, String>();
+        for (var profile : straight.getFunctionProfiles()) {
+            expected.put(
+                    profile.getName(), profile.getCalls() + " calls " + profile.getInstructions());
+        }
+        var actual = new HashMap<String, String>();
+        for (var profile : resumed.getFunctionProfiles()) {
+            actual.put(
+                    profile.getName(), profile.getCalls() + " calls " + profile.getInstructions());
+        }
+        assertEquals(expected, actual);
+
+        var collapsed = new StringBuilder();
+        resumed.writeCollapsedStacks(collapsed);
+        for (var line : collapsed.toString().split("\n")) {
+            assertTrue(line.matches("count_vowels(;[^;]+)* \\d+"), line);
+        }
+    }
+
+    @Test
+    public void shouldDispatchIndirectCallsThroughTheTable() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/call_indirect.wat.wasm"))
+                        .instantiate();
+        var dispatch = instance.getExport("dispatch");
+        // more than once, so the second round is served by the call site cache
+        for (var i = 0; i < 3; i++) {
+            assertEquals(42, dispatch.apply(Value.i32(0))[0].asInt());
+            assertEquals(7, dispatch.apply(Value.i32(1))[0].asInt());
+        }
+        var mismatch = assertThrows(WASMRuntimeException.class, () -> dispatch.apply(Value.i32(2)));
+        assertEquals("indirect call type mismatch", mismatch.getMessage());
+        assertEquals(42, dispatch.apply(Value.i32(0))[0].asInt());
+    }
+
+    @Test
+    public void shouldSupportTableOperations() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/table.wat.wasm")).instantiate();
+        var call = instance.getExport("call");
+        var size = instance.getExport("size");
+        var grow = instance.getExport("grow");
+        var init = instance.getExport("init");
+        var copy = instance.getExport("copy");
+        var fill = instance.getExport("fill");
+        var isNull = instance.getExport("is_null");
+
+        // the active segment honours its offset, the rest of the table is null
+        assertEquals(2, size.apply()[0].asInt());
+        assertEquals(1, call.apply(Value.i32(1))[0].asInt());
+        assertEquals(1, isNull.apply(Value.i32(0))[0].asInt());
+        assertThrows(WASMRuntimeException.class, () -> call.apply(Value.i32(0)));
+
+        assertEquals(2, grow.apply(Value.i32(2))[0].asInt());
+        assertEquals(4, size.apply()[0].asInt());
+        assertEquals(-1, grow.apply(Value.i32(1))[0].asInt());
+
+        init.apply(Value.i32(2));
+        assertEquals(2, call.apply(Value.i32(2))[0].asInt());
+        assertEquals(3, call.apply(Value.i32(3))[0].asInt());
+
+        copy.apply(Value.i32(0), Value.i32(2), Value.i32(1));
+        assertEquals(2, call.apply(Value.i32(0))[0].asInt());
+        // overwrites an element the call site has already cached
+        fill.apply(Value.i32(2), Value.i32(1), Value.i32(2));
+        assertEquals(1, call.apply(Value.i32(2))[0].asInt());
+        assertEquals(1, call.apply(Value.i32(3))[0].asInt());
+
+        instance.getExport("drop").apply();
+        var dropped = assertThrows(WASMRuntimeException.class, () -> init.apply(Value.i32(0)));
+        assertEquals("out of bounds table access", dropped.getMessage());
+    }
+
+    @Test
+    public void shouldTrapOnOutOfBoundsMemoryAccess() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/bounds.wat.wasm")).instantiate();
+        var load = instance.getExport("load");
+        var store = instance.getExport("store");
+        var sum = instance.getExport("sum");
+
+        store.apply(Value.i32(65528), Value.i32(42));
+        assertEquals(42, load.apply(Value.i32(65528))[0].asInt());
+        assertThrows(WASMRuntimeException.class, () -> load.apply(Value.i32(65529)));
+        // base and offset are u32, their sum must not wrap around to a valid address
+        assertThrows(WASMRuntimeException.class, () -> load.apply(Value.i32(-4)));
+        assertThrows(WASMRuntimeException.class, () -> store.apply(Value.i32(-4), Value.i32(1)));
+
+        assertEquals(42, sum.apply(Value.i32(65524))[0].asInt());
+        assertThrows(WASMRuntimeException.class, () -> sum.apply(Value.i32(65528)));
+    }
+
+    @Test
+    public void shouldSignAndZeroExtendNarrowLoads() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/extend.wat.wasm")).instantiate();
+        var addr = Value.i32(0);
+
+        assertEquals(-16, instance.getExport("i32_load8_s").apply(addr)[0].asInt());
+        assertEquals(0xf0, instance.getExport("i32_load8_u").apply(addr)[0].asInt());
+        assertEquals(-16, instance.getExport("i32_load16_s").apply(addr)[0].asInt());
+        assertEquals(0xfff0, instance.getExport("i32_load16_u").apply(addr)[0].asInt());
+        assertEquals(-16L, instance.getExport("i64_load8_s").apply(addr)[0].asLong());
+        assertEquals(0xf0L, instance.getExport("i64_load8_u").apply(addr)[0].asLong());
+        assertEquals(-16L, instance.getExport("i64_load16_s").apply(addr)[0].asLong());
+        assertEquals(0xfff0L, instance.getExport("i64_load16_u").apply(addr)[0].asLong());
+        assertEquals(-16L, instance.getExport("i64_load32_s").apply(addr)[0].asLong());
+        assertEquals(0xfffffff0L, instance.getExport("i64_load32_u").apply(addr)[0].asLong());
+
+        var stored = instance.getExport("stores").apply(Value.i64(0x1122334455667788L))[0];
+        assertEquals(ValueType.I64, stored.getType());
+        assertEquals(0x8888778855667788L, stored.asLong());
+    }
+
+    @Test
+    public void shouldRunSimdInstructions() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/simd.wat.wasm")).instantiate();
+
+        assertEquals(
+                5, instance.getExport("splat_add").apply(Value.i32(2), Value.i32(3))[0].asInt());
+        assertEquals(204, instance.getExport("dot").apply()[0].asInt());
+        assertEquals(0xAAAA, instance.getExport("shuffle_bitmask").apply()[0].asInt());
+        assertEquals(4.5f, instance.getExport("scale").apply(Value.fromFloat(1.5f))[0].asFloat());
+        assertEquals(127, instance.getExport("narrow").apply(Value.i32(300))[0].asInt());
+        assertEquals(-128, instance.getExport("narrow").apply(Value.i32(-300))[0].asInt());
+
+        var memory = instance.getMemory();
+        for (var i = 0; i < 64; i++) {
+            memory.putI32(i * 4, i);
+        }
+        assertEquals(2016, instance.getExport("sum").apply(Value.i32(0), Value.i32(64))[0].asInt());
+
+        instance.getExport("store_lane").apply(Value.i32(1024));
+        assertEquals(30, memory.getI32(1024).asInt());
+    }
+
+    @Test
+    public void shouldComputeTheSameLanesOnEverySimdImplementation() {
+        // built without -Pvector both sides are scalar, with it the vector backend must load
+        var scalar = new ScalarSimd();
+        var simd = Simd.create();
+        if (Boolean.getBoolean("chicory.vector")) {
+            assertEquals("com.dylibso.chicory.runtime.VectorSimd", simd.getClass().getName());
+        }
+        var random = new java.util.Random(42);
+        for (var opcode : OpCode.values()) {
+            if (ScalarSimd.laneBits(opcode) == 0 && !opcode.name().startsWith("V128")) {
+                continue;
+            }
+            for (var round = 0; round < 100; round++) {
+                var a = new byte[16];
+                var b = new byte[16];
+                var c = new byte[16];
+                random.nextBytes(a);
+                random.nextBytes(b);
+                random.nextBytes(c);
+                var count = random.nextInt(80);
+                try {
+                    assertSameLanes(opcode, scalar.unary(opcode, a), simd.unary(opcode, a));
+                } catch (IllegalArgumentException e) {
+                    // not unary
+                }
+                try {
+                    assertSameLanes(opcode, scalar.binary(opcode, a, b), simd.binary(opcode, a, b));
+                } catch (IllegalArgumentException e) {
+                    // not binary
+                }
+                try {
+                    assertSameLanes(
+                            opcode, scalar.shift(opcode, a, count), simd.shift(opcode, a, count));
+                } catch (IllegalArgumentException e) {
+                    // not a shift
+                }
+                try {
+                    assertEquals(scalar.test(opcode, a), simd.test(opcode, a), opcode.name());
+                } catch (IllegalArgumentException e) {
+                    // not a test
+                }
+            }
+        }
+        var a = new byte[16];
+        var b = new byte[16];
+        var mask = new byte[16];
+        random.nextBytes(a);
+        random.nextBytes(b);
+        random.nextBytes(mask);
+        assertArrayEquals(scalar.bitselect(a, b, mask), simd.bitselect(a, b, mask));
+    }
+
+    // NaN lanes can have any payload
+    private static void assertSameLanes(OpCode opcode, byte[] expected, byte[] actual) {
+        var bits = opcode.name().startsWith("F") ? ScalarSimd.laneBits(opcode) : 8;
+        for (var i = 0; i < 128 / bits; i++) {
+            var e = ScalarSimd.lane(expected, bits, i);
+            var x = ScalarSimd.lane(actual, bits, i);
+            if (e != x) {
+                assertTrue(
+                        bits == 32
+                                ? Float.isNaN(Float.intBitsToFloat((int) e))
+                                        && Float.isNaN(Float.intBitsToFloat((int) x))
+                                : bits == 64
+                                        && Double.isNaN(Double.longBitsToDouble(e))
+                                        && Double.isNaN(Double.longBitsToDouble(x)),
+                        opcode + " lane " + i + ": " + e + " != " + x);
+            }
+        }
+    }
+
+    @Test
+    public void shouldEvaluateConstantExpressions() {
+        var module = Module.build(new File("src/test/resources/wasm/const-expr.wat.wasm"));
+        var counter = new HostGlobal("env", "counter", Value.i32(10), MutabilityType.Var);
+        var hostFunctions = new HostFunction[0];
+
+        var first =
+                module.instantiate(
+                        hostFunctions,
+                        new HostGlobal[] {new HostGlobal("env", "base", Value.i32(100)), counter});
+        assertEquals(108, first.getExport("offset").apply()[0].asInt());
+        assertEquals(42L, first.getExport("answer").apply()[0].asLong());
+        assertEquals(42, first.getExport("load").apply(Value.i32(104))[0].asInt());
+        assertEquals(11, first.getExport("bump").apply()[0].asInt());
+        assertEquals(11, counter.getValue().asInt());
+
+        // the same module resolves the imported globals again for every instance
+        var second =
+                module.instantiate(
+                        hostFunctions,
+                        new HostGlobal[] {new HostGlobal("env", "base", Value.i32(200)), counter});
+        assertEquals(208, second.getExport("offset").apply()[0].asInt());
+        assertEquals(42, second.getExport("load").apply(Value.i32(204))[0].asInt());
+        assertEquals(0, second.getExport("load").apply(Value.i32(104))[0].asInt());
+        assertEquals(12, second.getExport("bump").apply()[0].asInt());
+
+        assertThrows(ChicoryException.class, () -> module.instantiate(hostFunctions));
+    }
+
+    @Test
+    public void shouldInitializeMemoryFromDataImage() {
+        var module = Module.build(new File("src/test/resources/wasm/data.wat.wasm"));
+        // the all zeros segment is left out, the last segment straddles two pages
+        assertEquals(3, module.getMemoryImage().getPageCount());
+
+        var instance = module.instantiate();
+        var memory = instance.getMemory();
+        assertEquals("abc", memory.getString(0, 3));
+        assertEquals("xyzw", memory.getString(69630, 4));
+        assertEquals(0, instance.getExport("load").apply(Value.i32(8192))[0].asInt());
+
+        memory.put(0, "zzz");
+        memory.put(100, "dirty");
+        memory.reinstantiate();
+        assertEquals("abc", memory.getString(0, 3));
+        assertEquals(0, memory.get(100));
+
+        // instances don't share the image buffers
+        assertEquals("abc", module.instantiate().getMemory().getString(0, 3));
+    }
+
+    @Test
+    public void shouldOnlyZeroWrittenPages() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/data.wat.wasm")).instantiate();
+        var memory = instance.getMemory();
+        // a fresh memory only holds the image pages
+        assertEquals(3, memory.getDirtyPageCount());
+
+        memory.putI32(40000, 42);
+        memory.putI64(4094, -1L);
+        assertEquals(5, memory.getDirtyPageCount());
+        memory.grow(1);
+        memory.putByte(Memory.PAGE_SIZE * 2 + 1, (byte) 7);
+        assertEquals(6, memory.getDirtyPageCount());
+
+        memory.reinstantiate();
+        assertEquals(3, memory.getDirtyPageCount());
+        assertEquals(0, memory.getI32(40000).asInt());
+        assertEquals(0L, memory.getI64(4094).asLong());
+        assertEquals(0, memory.get(Memory.PAGE_SIZE * 2 + 1));
+        assertEquals("abc", memory.getString(0, 3));
     }
 
     @Test
@@ -248,6 +952,301 @@ public class ModuleTest {
         assertEquals(Long.MAX_VALUE, result.asLong());
     }
 
+    @Test
+    public void shouldShareMemoryBetweenInstancesOnSeparateThreads() throws Exception {
+        var module = Module.build(new File("src/test/resources/wasm/threads.wat.wasm"));
+        var memory = new Memory(new MemoryLimits(1, 1, true));
+        var imports = new HostMemory[] {new HostMemory("env", "memory", memory)};
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (var t = 0; t < 4; t++) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    var instance =
+                                            module.instantiate(
+                                                    new HostFunction[0],
+                                                    new HostGlobal[0],
+                                                    imports);
+                                    instance.getExport("count")
+                                            .apply(Value.i32(0), Value.i32(10_000));
+                                }));
+            }
+            for (var future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        var instance = module.instantiate(new HostFunction[0], new HostGlobal[0], imports);
+        assertSame(memory, instance.getMemory());
+        assertEquals(40_000, instance.getExport("load").apply(Value.i32(0))[0].asInt());
+
+        var cmpxchg = instance.getExport("cmpxchg");
+        assertEquals(40_000, cmpxchg.apply(Value.i32(0), Value.i32(1), Value.i32(2))[0].asInt());
+        assertEquals(
+                40_000, cmpxchg.apply(Value.i32(0), Value.i32(40_000), Value.i32(7))[0].asInt());
+        assertEquals(7, memory.getI32(0).asInt());
+
+        // the narrow operations wrap without touching the neighbouring bytes
+        memory.putI32(8, 0x11223344);
+        assertEquals(
+                0x33, instance.getExport("add8").apply(Value.i32(9), Value.i32(0xff))[0].asInt());
+        assertEquals(0x11223244, memory.getI32(8).asInt());
+
+        var xchg64 = instance.getExport("xchg64");
+        assertEquals(0L, xchg64.apply(Value.i32(16), Value.i64(-1L))[0].asLong());
+        assertEquals(-1L, xchg64.apply(Value.i32(16), Value.i64(3L))[0].asLong());
+
+        var exception =
+                assertThrows(
+                        WASMRuntimeException.class,
+                        () -> instance.getExport("load").apply(Value.i32(2)));
+        assertEquals("unaligned atomic", exception.getMessage());
+
+        var unshared =
+                new HostMemory[] {
+                    new HostMemory("env", "memory", new Memory(new MemoryLimits(1, 1)))
+                };
+        assertThrows(
+                ChicoryException.class,
+                () -> module.instantiate(new HostFunction[0], new HostGlobal[0], unshared));
+    }
+
+    @Test
+    public void shouldAllocateSharedMemoryOnDemand() {
+        // 4 GiB each if the maximum was allocated up front
+        var memories = new ArrayList<Memory>();
+        for (var i = 0; i < 16; i++) {
+            memories.add(new Memory(new MemoryLimits(1, MemoryLimits.MAX_PAGES, true)));
+        }
+        var memory = memories.get(0);
+        memory.putI32(Memory.PAGE_SIZE - 4, 7);
+        var view = memory.view(0, 16);
+
+        assertEquals(1, memory.grow(40));
+        assertEquals(41, memory.getSize());
+        assertEquals(7, memory.getI32(Memory.PAGE_SIZE - 4).asInt());
+        // the chunks are never replaced, growing doesn't move what is already in use
+        view.put(0, (byte) 5);
+        assertEquals(5, memory.get(0));
+
+        // straddling the first two chunks of 16 pages
+        var address = 16 * Memory.PAGE_SIZE - 4;
+        memory.putI64(address, 0x0102030405060708L);
+        assertEquals(0x0102030405060708L, memory.getI64(address).asLong());
+        memory.zero();
+        assertEquals(0L, memory.getI64(address).asLong());
+        assertEquals(-1, memory.grow(MemoryLimits.MAX_PAGES));
+    }
+
+    @Test
+    public void shouldWaitUntilNotified() throws Exception {
+        var module = Module.build(new File("src/test/resources/wasm/threads.wat.wasm"));
+        var memory = new Memory(new MemoryLimits(1, 1, true));
+        var imports = new HostMemory[] {new HostMemory("env", "memory", memory)};
+        var waiting = module.instantiate(new HostFunction[0], new HostGlobal[0], imports);
+        var notifying = module.instantiate(new HostFunction[0], new HostGlobal[0], imports);
+        var wait = waiting.getExport("wait");
+
+        assertEquals(1, wait.apply(Value.i32(32), Value.i32(1), Value.i64(-1))[0].asInt());
+        assertEquals(2, wait.apply(Value.i32(32), Value.i32(0), Value.i64(1_000_000))[0].asInt());
+        assertEquals(
+                0, notifying.getExport("notify").apply(Value.i32(32), Value.i32(1))[0].asInt());
+
+        var result =
+                CompletableFuture.supplyAsync(
+                        () -> wait.apply(Value.i32(32), Value.i32(0), Value.i64(-1))[0].asInt());
+        var woken = 0;
+        while (woken == 0) {
+            woken = notifying.getExport("notify").apply(Value.i32(32), Value.i32(1))[0].asInt();
+            Thread.sleep(1);
+        }
+        assertEquals(1, woken);
+        assertEquals(0, result.get(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldAccessMultipleMemories() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/multi-memory.wat.wasm"))
+                        .instantiate();
+        var scratch = instance.getMemory(0);
+        var bulk = instance.getMemory(1);
+        assertSame(scratch, instance.getMemory());
+        assertEquals("hot", scratch.getString(4, 3));
+        assertEquals("bulk", bulk.getString(0, 4));
+
+        assertEquals('b', instance.getExport("load1").apply(Value.i32(0))[0].asInt());
+        assertEquals(0, instance.getExport("load0").apply(Value.i32(0))[0].asInt());
+        instance.getExport("store1").apply(Value.i32(8), Value.i32(7));
+        assertEquals(7, bulk.get(8));
+        assertEquals(0, scratch.get(8));
+
+        instance.getExport("copy").apply(Value.i32(16), Value.i32(0), Value.i32(4));
+        assertEquals("bulk", scratch.getString(16, 4));
+
+        assertEquals(1, instance.getExport("grow1").apply(Value.i32(1))[0].asInt());
+        assertEquals(2, instance.getExport("size1").apply()[0].asInt());
+        assertEquals(1, scratch.getSize());
+        assertThrows(
+                WASMRuntimeException.class,
+                () ->
+                        instance.getExport("copy")
+                                .apply(
+                                        Value.i32(0),
+                                        Value.i32(2 * Memory.PAGE_SIZE - 2),
+                                        Value.i32(4)));
+        // the bounds are the ones of each memory, the bulk one is now larger
+        instance.getExport("copy")
+                .apply(Value.i32(0), Value.i32(2 * Memory.PAGE_SIZE - 4), Value.i32(4));
+        assertThrows(
+                WASMRuntimeException.class,
+                () ->
+                        instance.getExport("copy")
+                                .apply(
+                                        Value.i32(Memory.PAGE_SIZE - 2),
+                                        Value.i32(0),
+                                        Value.i32(4)));
+    }
+
+    @Test
+    public void shouldTailCallInConstantStackSpace() {
+        var instance =
+                Module.build(new File("src/test/resources/wasm/tail-call.wat.wasm")).instantiate();
+        var metrics = new RuntimeMetrics();
+        instance.setMetrics(metrics);
+
+        // deep enough to overflow the Java stack if every call nested a frame
+        var count = instance.getExport("count");
+        assertEquals(1_000_005L, count.apply(Value.i32(1_000_000), Value.i64(5))[0].asLong());
+        assertEquals(1, metrics.getPeakCallStackDepth());
+
+        assertEquals(1, instance.getExport("even").apply(Value.i32(100_000))[0].asInt());
+        assertEquals(1, instance.getExport("odd").apply(Value.i32(100_001))[0].asInt());
+        assertEquals(1, metrics.getPeakCallStackDepth());
+    }
+
+    @Test
+    public void shouldReturnFromTailCallToSuspendedHostFunction() throws Exception {
+        var pending = new CompletableFuture<Value[]>();
+        var fetch =
+                HostFunction.ofAsync(
+                        (Memory memory, Value... args) -> pending,
+                        "env",
+                        "fetch",
+                        List.of(ValueType.I32),
+                        List.of(ValueType.I32));
+        var instance =
+                Module.build(new File("src/test/resources/wasm/tail-call-host.wat.wasm"))
+                        .instantiate(new HostFunction[] {fetch});
+
+        var result = instance.getAsyncExport("run").apply(Value.i32(1));
+        assertFalse(result.isDone());
+        pending.complete(new Value[] {Value.i32(42)});
+        assertEquals(42, result.get(5, TimeUnit.SECONDS)[0].asInt());
+    }
+
+    @Test
+    public void shouldViewMemoryWithoutCopying() {
+        var memory = new Memory(new MemoryLimits(1, 3));
+        memory.writeBytes(8, "héllo".getBytes(StandardCharsets.UTF_8), 0, 6);
+        assertEquals("héllo", memory.getString(8, 6));
+
+        var view = memory.view(8, 8);
+        assertEquals('h', view.get(0));
+        view.putInt(4, 0x01020304);
+        assertEquals(0x01020304, memory.getI32(12).asInt());
+        assertTrue(memory.readOnlyView(0, 16).isReadOnly());
+
+        // zeroing clears what the host writes through a view it keeps, not just the first time
+        memory.zero();
+        view.put(0, (byte) 1);
+        memory.zero();
+        view.put(7, (byte) 1);
+        memory.zero();
+        assertArrayEquals(new byte[8], memory.readBytes(8, 8));
+        view.putInt(4, 0x01020304);
+
+        var bytes = new byte[4];
+        memory.readBytes(12, bytes, 0, 4);
+        assertArrayEquals(new byte[] {4, 3, 2, 1}, bytes);
+        assertThrows(WASMRuntimeException.class, () -> memory.view(Memory.PAGE_SIZE - 4, 8));
+        assertThrows(WASMRuntimeException.class, () -> memory.readBytes(-1, bytes, 0, 4));
+
+        var grown = new ArrayList<Integer>();
+        memory.addGrowListener((m, previousPages) -> grown.add(previousPages));
+        memory.grow(0);
+        memory.grow(1);
+        memory.grow(5);
+        assertEquals(List.of(1), grown);
+        assertEquals(0x01020304, memory.view(12, 4).getInt());
+
+        // one page per chunk, a view can't span two of them
+        var chunked = new Memory(new MemoryLimits(3, 3), 16);
+        chunked.writeBytes(Memory.PAGE_SIZE - 2, new byte[] {1, 2, 3, 4}, 0, 4);
+        assertThrows(ChicoryException.class, () -> chunked.view(Memory.PAGE_SIZE - 2, 4));
+        assertEquals(3, chunked.view(Memory.PAGE_SIZE, 2).get(0));
+        chunked.readBytes(Memory.PAGE_SIZE - 2, bytes, 0, 4);
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, bytes);
+    }
+
+    @Test
+    public void shouldAddressMemory64AcrossChunks() {
+        var module = Module.build(new File("src/test/resources/wasm/memory64.wat.wasm"));
+        // one page per chunk, so that growing past the first page switches to chunks
+        var memory = new Memory(new MemoryLimits(1, MemoryLimits.MAX_PAGES_64, false, true), 16);
+        var imports = new HostMemory[] {new HostMemory("env", "memory", memory)};
+        var instance = module.instantiate(new HostFunction[0], new HostGlobal[0], imports);
+        assertEquals("chicory", memory.getString(16, 7));
+
+        assertEquals(1L, instance.getExport("size").apply()[0].asLong());
+        assertEquals(1L, instance.getExport("grow").apply(Value.i64(2))[0].asLong());
+        assertEquals(3L, instance.getExport("size").apply()[0].asLong());
+        assertEquals(3L * Memory.PAGE_SIZE, memory.byteSize());
+        assertEquals("chicory", memory.getString(16, 7));
+        assertEquals(-1L, instance.getExport("grow").apply(Value.i64(1L << 40))[0].asLong());
+
+        // straddles the second and the third chunk
+        var address = 2L * Memory.PAGE_SIZE - 4;
+        instance.getExport("store").apply(Value.i64(address), Value.i64(0x0102030405060708L));
+        assertEquals(
+                0x0102030405060708L,
+                instance.getExport("load")
+                        .apply(Value.i64(address - Memory.PAGE_SIZE))[0]
+                        .asLong());
+        assertEquals(0x04, instance.getExport("load8").apply(Value.i64(address + 4))[0].asInt());
+
+        // overlapping copies across the chunk boundary, in both directions
+        var copy = instance.getExport("copy");
+        copy.apply(Value.i64(address + 2), Value.i64(address), Value.i64(8));
+        assertEquals(0x0304050607080708L, memory.getI64((int) address).asLong());
+        copy.apply(Value.i64(address), Value.i64(address + 2), Value.i64(8));
+        assertEquals(0x0102010203040506L, memory.getI64((int) address + 2).asLong());
+
+        // the effective address wraps past 2^64, and past the end of the memory
+        var exception =
+                assertThrows(
+                        WASMRuntimeException.class,
+                        () -> instance.getExport("load").apply(Value.i64(-8)));
+        assertEquals("out of bounds memory access", exception.getMessage());
+        assertThrows(
+                WASMRuntimeException.class,
+                () -> instance.getExport("load").apply(Value.i64(2L * Memory.PAGE_SIZE)));
+
+        memory.reinstantiate();
+        assertEquals(0, instance.getExport("load8").apply(Value.i64(address + 4))[0].asInt());
+
+        var memory32 =
+                new HostMemory[] {new HostMemory("env", "memory", new Memory(new MemoryLimits(1)))};
+        assertThrows(
+                ChicoryException.class,
+                () -> module.instantiate(new HostFunction[0], new HostGlobal[0], memory32));
+    }
+
     @Test
     public void shouldRunKitchenSink() {
         // check with: wasmtime src/test/resources/wasm/kitchensink.wat.wasm --invoke
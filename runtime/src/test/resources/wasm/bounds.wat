@@ -0,0 +1,23 @@
+(module
+  (memory 1)
+  (func (export "load") (param i32) (result i32)
+    local.get 0
+    i32.load offset=4)
+  (func (export "store") (param i32) (param i32)
+    local.get 0
+    local.get 1
+    i32.store offset=4)
+  (func (export "sum") (param $p i32) (result i32)
+    local.get $p
+    i32.load offset=4
+    ;; within the range checked above
+    local.get $p
+    i32.load
+    i32.add
+    local.get $p
+    i32.load16_u offset=6
+    i32.add
+    ;; beyond it
+    local.get $p
+    i32.load offset=8
+    i32.add))
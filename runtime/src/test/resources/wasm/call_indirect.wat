@@ -0,0 +1,13 @@
+(module
+  (type $ret_i32 (func (result i32)))
+  (func $forty_two (result i32)
+    i32.const 42)
+  (func $seven (result i32)
+    i32.const 7)
+  (func (export "dispatch") (param i32) (result i32)
+    local.get 0
+    call_indirect (type $ret_i32))
+  (func $identity (param i32) (result i32)
+    local.get 0)
+  (table 3 funcref)
+  (elem (i32.const 0) $forty_two $seven $identity))
@@ -0,0 +1,21 @@
+(module
+  (import "env" "base" (global $base i32))
+  (import "env" "counter" (global $counter (mut i32)))
+  (memory 1)
+  ;; extended constant expressions, the first one depends on an imported global
+  (global $offset i32 (i32.add (global.get $base) (i32.const 8)))
+  (global $answer i64 (i64.mul (i64.const 6) (i64.const 7)))
+  (data (i32.add (global.get $base) (i32.const 4)) "\2a")
+  (func (export "offset") (result i32)
+    global.get $offset)
+  (func (export "answer") (result i64)
+    global.get $answer)
+  (func (export "load") (param i32) (result i32)
+    local.get 0
+    i32.load8_u)
+  (func (export "bump") (result i32)
+    global.get $counter
+    i32.const 1
+    i32.add
+    global.set $counter
+    global.get $counter))
@@ -0,0 +1,11 @@
+(module
+  (memory 2)
+  (data (i32.const 0) "abc")
+  ;; only zeros, the page it touches stays out of the image
+  (data (i32.const 8192) "\00\00\00\00")
+  ;; spans two image pages
+  (data (i32.const 69630) "xyzw")
+  (data "passive")
+  (func (export "load") (param i32) (result i32)
+    local.get 0
+    i32.load8_u))
@@ -0,0 +1,50 @@
+(module
+  (memory 1)
+  (data (i32.const 0) "\f0\ff\ff\ff")
+  (func (export "i32_load8_s") (param i32) (result i32)
+    local.get 0
+    i32.load8_s)
+  (func (export "i32_load8_u") (param i32) (result i32)
+    local.get 0
+    i32.load8_u)
+  (func (export "i32_load16_s") (param i32) (result i32)
+    local.get 0
+    i32.load16_s)
+  (func (export "i32_load16_u") (param i32) (result i32)
+    local.get 0
+    i32.load16_u)
+  (func (export "i64_load8_s") (param i32) (result i64)
+    local.get 0
+    i64.load8_s)
+  (func (export "i64_load8_u") (param i32) (result i64)
+    local.get 0
+    i64.load8_u)
+  (func (export "i64_load16_s") (param i32) (result i64)
+    local.get 0
+    i64.load16_s)
+  (func (export "i64_load16_u") (param i32) (result i64)
+    local.get 0
+    i64.load16_u)
+  (func (export "i64_load32_s") (param i32) (result i64)
+    local.get 0
+    i64.load32_s)
+  (func (export "i64_load32_u") (param i32) (result i64)
+    local.get 0
+    i64.load32_u)
+  ;; each narrow store only writes the low bytes of its operand
+  (func (export "stores") (param i64) (result i64)
+    i32.const 8
+    local.get 0
+    i64.store32
+    i32.const 12
+    local.get 0
+    i64.store16
+    i32.const 14
+    local.get 0
+    i64.store8
+    i32.const 15
+    local.get 0
+    i32.wrap_i64
+    i32.store8
+    i32.const 8
+    i64.load))
@@ -0,0 +1,8 @@
+(module
+  (import "env" "fetch" (func $fetch (param i32) (result i32)))
+  (func (export "run") (param i32) (result i32)
+    local.get 0
+    call $fetch
+    call $fetch
+    i32.const 1
+    i32.add))
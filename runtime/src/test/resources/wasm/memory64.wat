@@ -0,0 +1,23 @@
+(module
+  (import "env" "memory" (memory i64 1))
+  (func (export "size") (result i64)
+    memory.size)
+  (func (export "grow") (param i64) (result i64)
+    local.get 0
+    memory.grow)
+  (func (export "store") (param i64) (param i64)
+    local.get 0
+    local.get 1
+    i64.store)
+  (func (export "load") (param i64) (result i64)
+    local.get 0
+    i64.load offset=0x10000)
+  (func (export "load8") (param i64) (result i32)
+    local.get 0
+    i32.load8_u)
+  (func (export "copy") (param i64) (param i64) (param i64)
+    local.get 0
+    local.get 1
+    local.get 2
+    memory.copy)
+  (data (i64.const 16) "chicory"))
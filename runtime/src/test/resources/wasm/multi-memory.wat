@@ -0,0 +1,26 @@
+(module
+  (memory $scratch 1 1)
+  (memory $bulk 1 4)
+  (func (export "load0") (param i32) (result i32)
+    local.get 0
+    i32.load8_u $scratch)
+  (func (export "load1") (param i32) (result i32)
+    local.get 0
+    i32.load8_u $bulk)
+  (func (export "store1") (param i32) (param i32)
+    local.get 0
+    local.get 1
+    i32.store8 $bulk)
+  ;; copies from the bulk memory to the scratch one
+  (func (export "copy") (param i32) (param i32) (param i32)
+    local.get 0
+    local.get 1
+    local.get 2
+    memory.copy $scratch $bulk)
+  (func (export "size1") (result i32)
+    memory.size $bulk)
+  (func (export "grow1") (param i32) (result i32)
+    local.get 0
+    memory.grow $bulk)
+  (data (memory $bulk) (i32.const 0) "bulk")
+  (data (i32.const 4) "hot"))
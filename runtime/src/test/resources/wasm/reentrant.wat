@@ -0,0 +1,8 @@
+(module
+  (import "env" "host" (func $host (param i32) (result i32)))
+  ;; 100 stays on the stack while the host is called
+  (func (export "run") (param i32) (result i32)
+    i32.const 100
+    local.get 0
+    call $host
+    i32.add))
@@ -0,0 +1,81 @@
+(module
+  (memory (export "memory") 1)
+  (func (export "splat_add") (param i32) (param i32) (result i32)
+    local.get 0
+    i32x4.splat
+    local.get 1
+    i32x4.splat
+    i32x4.add
+    i32x4.extract_lane 3)
+  (func (export "dot") (result i32)
+    (local $v v128)
+    v128.const i16x8 1 2 3 4 5 6 7 8
+    v128.const i16x8 1 2 3 4 5 6 7 8
+    i32x4.dot_i16x8_s
+    local.set $v
+    local.get $v
+    i32x4.extract_lane 0
+    local.get $v
+    i32x4.extract_lane 1
+    i32.add
+    local.get $v
+    i32x4.extract_lane 2
+    i32.add
+    local.get $v
+    i32x4.extract_lane 3
+    i32.add)
+  ;; sums the n i32 at p, n a multiple of 4
+  (func (export "sum") (param $p i32) (param $n i32) (result i32)
+    (local $acc v128)
+    (block
+      (loop
+        local.get $n
+        i32.eqz
+        br_if 1
+        local.get $acc
+        local.get $p
+        v128.load
+        i32x4.add
+        local.set $acc
+        local.get $p
+        i32.const 16
+        i32.add
+        local.set $p
+        local.get $n
+        i32.const 4
+        i32.sub
+        local.set $n
+        br 0))
+    local.get $acc
+    i32x4.extract_lane 0
+    local.get $acc
+    i32x4.extract_lane 1
+    i32.add
+    local.get $acc
+    i32x4.extract_lane 2
+    i32.add
+    local.get $acc
+    i32x4.extract_lane 3
+    i32.add)
+  (func (export "shuffle_bitmask") (result i32)
+    v128.const i8x16 0 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15
+    v128.const i8x16 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1
+    i8x16.shuffle 0 16 1 17 2 18 3 19 4 20 5 21 6 22 7 23
+    i8x16.bitmask)
+  (func (export "scale") (param f32) (result f32)
+    local.get 0
+    f32x4.splat
+    v128.const f32x4 1 2 3 4
+    f32x4.mul
+    f32x4.extract_lane 2)
+  (func (export "narrow") (param i32) (result i32)
+    local.get 0
+    i16x8.splat
+    local.get 0
+    i16x8.splat
+    i8x16.narrow_i16x8_s
+    i8x16.extract_lane_s 0)
+  (func (export "store_lane") (param i32)
+    local.get 0
+    v128.const i32x4 10 20 30 40
+    v128.store32_lane 2))
@@ -0,0 +1,6 @@
+(module
+  ;; never terminates, can only be stopped by the host
+  (func (export "spin")
+    (loop
+      br 0))
+  (func (export "nop")))
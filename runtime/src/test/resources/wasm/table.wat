@@ -0,0 +1,42 @@
+(module
+  (type $ret_i32 (func (result i32)))
+  (func $one (result i32)
+    i32.const 1)
+  (func $two (result i32)
+    i32.const 2)
+  (func $three (result i32)
+    i32.const 3)
+  (table 2 4 funcref)
+  (elem (i32.const 1) $one)
+  (elem funcref (ref.func $two) (ref.func $three))
+  (func (export "call") (param i32) (result i32)
+    local.get 0
+    call_indirect (type $ret_i32))
+  (func (export "size") (result i32)
+    table.size 0)
+  (func (export "grow") (param i32) (result i32)
+    ref.null func
+    local.get 0
+    table.grow 0)
+  (func (export "init") (param $dst i32)
+    local.get $dst
+    i32.const 0
+    i32.const 2
+    table.init 0 1)
+  (func (export "copy") (param $dst i32) (param $src i32) (param $len i32)
+    local.get $dst
+    local.get $src
+    local.get $len
+    table.copy 0 0)
+  (func (export "fill") (param $dst i32) (param $from i32) (param $len i32)
+    local.get $dst
+    local.get $from
+    table.get 0
+    local.get $len
+    table.fill 0)
+  (func (export "drop")
+    elem.drop 1)
+  (func (export "is_null") (param i32) (result i32)
+    local.get 0
+    table.get 0
+    ref.is_null))
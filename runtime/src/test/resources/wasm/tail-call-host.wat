@@ -0,0 +1,8 @@
+(module
+  (import "env" "fetch" (func $fetch (param i32) (result i32)))
+  (func (export "run") (param i32) (result i32)
+    (block
+      local.get 0
+      return_call $fetch)
+    ;; only reached if the tail call doesn't return
+    i32.const 999))
@@ -0,0 +1,24 @@
+(module
+  (type $parity (func (param i32) (result i32)))
+  (table 2 2 funcref)
+  (elem (i32.const 0) $even $odd)
+  ;; adds 1 to acc, n times, every step is a tail call
+  (func $count (export "count") (param $n i32) (param $acc i64) (result i64)
+    (if (i32.eqz (local.get $n))
+      (then (return (local.get $acc))))
+    (return_call $count
+      (i32.sub (local.get $n) (i32.const 1))
+      (i64.add (local.get $acc) (i64.const 1))))
+  ;; mutually recursive through the table
+  (func $even (export "even") (param $n i32) (result i32)
+    (if (i32.eqz (local.get $n))
+      (then (return (i32.const 1))))
+    (return_call_indirect (type $parity)
+      (i32.sub (local.get $n) (i32.const 1))
+      (i32.const 1)))
+  (func $odd (export "odd") (param $n i32) (result i32)
+    (if (i32.eqz (local.get $n))
+      (then (return (i32.const 0))))
+    (return_call_indirect (type $parity)
+      (i32.sub (local.get $n) (i32.const 1))
+      (i32.const 0))))
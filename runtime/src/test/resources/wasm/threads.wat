@@ -0,0 +1,43 @@
+(module
+  (import "env" "memory" (memory 1 1 shared))
+  ;; adds 1 to the i32 at p, n times
+  (func (export "count") (param $p i32) (param $n i32)
+    (block
+      (loop
+        local.get $n
+        i32.eqz
+        br_if 1
+        local.get $p
+        i32.const 1
+        i32.atomic.rmw.add
+        drop
+        local.get $n
+        i32.const 1
+        i32.sub
+        local.set $n
+        br 0)))
+  (func (export "load") (param i32) (result i32)
+    local.get 0
+    i32.atomic.load)
+  (func (export "cmpxchg") (param i32) (param i32) (param i32) (result i32)
+    local.get 0
+    local.get 1
+    local.get 2
+    i32.atomic.rmw.cmpxchg)
+  (func (export "add8") (param i32) (param i32) (result i32)
+    local.get 0
+    local.get 1
+    i32.atomic.rmw8.add_u)
+  (func (export "xchg64") (param i32) (param i64) (result i64)
+    local.get 0
+    local.get 1
+    i64.atomic.rmw.xchg)
+  (func (export "wait") (param i32) (param i32) (param i64) (result i32)
+    local.get 0
+    local.get 1
+    local.get 2
+    memory.atomic.wait32)
+  (func (export "notify") (param i32) (param i32) (result i32)
+    local.get 0
+    local.get 1
+    memory.atomic.notify))
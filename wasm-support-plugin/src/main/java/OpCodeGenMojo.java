@@ -1,3 +1,6 @@
+import static com.github.javaparser.StaticJavaParser.parse;
+import static com.github.javaparser.StaticJavaParser.parseStatement;
+
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.Modifier;
 import com.github.javaparser.ast.NodeList;
@@ -15,8 +18,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -28,7 +33,8 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
 /**
- * This plugin should generate the OpCodes.java file from a tsv
+ * This plugin should generate the OpCodes.java file from a tsv, and the OperandDecoder.java
+ * reading the immediates of each of its encodings
  */
 @Mojo(name = "opcode-gen", defaultPhase = LifecyclePhase.GENERATE_SOURCES)
 public class OpCodeGenMojo extends AbstractMojo {
@@ -80,12 +86,9 @@ public class OpCodeGenMojo extends AbstractMojo {
                         "OpCode.java");
         cu.setStorage(destFile);
 
-        cu.addImport("java.util.HashMap");
-        cu.addImport("java.util.Map");
-
         var enumDef = cu.addEnum("OpCode", Modifier.Keyword.PUBLIC);
-
-        List<NameExpr> staticAssignement = new ArrayList<>();
+        // the opcodes sharing each signature, in the order of the tsv
+        var bySignature = new LinkedHashMap<List<String>, List<String>>();
 
         for (var line : lines) {
             var enumConstantDecl = new EnumConstantDeclaration();
@@ -94,104 +97,238 @@ public class OpCodeGenMojo extends AbstractMojo {
             var value = line[1].trim().split(" ")[0];
             var hexValue = line[1].trim().split(" ")[0].replace("$", "0x");
 
-            enumConstantDecl.setName(enumName);
-            enumConstantDecl.setArguments(new NodeList<>(new IntegerLiteralExpr(hexValue)));
-
-            enumDef.addOrphanComment(new LineComment(line[0]));
-            enumDef.addEntry(enumConstantDecl);
-
-            var staticAssignmentParams =
+            var encodings =
                     Arrays.stream(line[0].split(" "))
                             .skip(1)
                             .map(a -> getType(a))
+                            .collect(Collectors.toList());
+            var signature =
+                    encodings.stream()
+                            .map(e -> "WasmEncoding." + e)
                             .collect(Collectors.joining(", "));
-            staticAssignement.add(
-                    new NameExpr(
-                            "signature.put("
-                                    + enumName
-                                    + ", new WasmEncoding[] {"
-                                    + staticAssignmentParams
-                                    + "})"));
+            bySignature.computeIfAbsent(encodings, k -> new ArrayList<>()).add(enumName);
+
+            enumConstantDecl.setName(enumName);
+            enumConstantDecl.setArguments(
+                    new NodeList<>(
+                            new IntegerLiteralExpr(hexValue),
+                            new NameExpr("new WasmEncoding[] {" + signature + "}")));
+
+            enumDef.addOrphanComment(new LineComment(line[0]));
+            enumDef.addEntry(enumConstantDecl);
         }
 
         var opcodeField =
                 enumDef.addField("int", "opcode", Modifier.Keyword.PRIVATE, Modifier.Keyword.FINAL);
 
+        enumDef.addField(
+                "WasmEncoding[]", "signature", Modifier.Keyword.PRIVATE, Modifier.Keyword.FINAL);
+
         var constructor = enumDef.addConstructor();
         constructor.addParameter("int", "opcode");
+        constructor.addParameter("WasmEncoding[]", "signature");
         constructor.setBody(
                 new BlockStmt()
                         .addStatement(
                                 new AssignExpr(
                                         new NameExpr("this.opcode"),
                                         new NameExpr("opcode"),
+                                        AssignExpr.Operator.ASSIGN))
+                        .addStatement(
+                                new AssignExpr(
+                                        new NameExpr("this.signature"),
+                                        new NameExpr("signature"),
                                         AssignExpr.Operator.ASSIGN)));
         opcodeField.createGetter();
 
-        var byOpCodeMap =
-                enumDef.addFieldWithInitializer(
-                        "Map<Integer, OpCode>",
-                        "byOpCode",
-                        new NameExpr("new HashMap<>()"),
-                        Modifier.Keyword.PRIVATE,
-                        Modifier.Keyword.STATIC,
-                        Modifier.Keyword.FINAL);
+        // dense decode tables: one 256 entries table per prefix byte, the single byte
+        // opcodes use the 0x00 "prefix"
+        enumDef.addFieldWithInitializer(
+                "OpCode[][]",
+                "byPrefix",
+                new NameExpr("new OpCode[256][]"),
+                Modifier.Keyword.PRIVATE,
+                Modifier.Keyword.STATIC,
+                Modifier.Keyword.FINAL);
 
         var byOpCode =
                 enumDef.addMethod("byOpCode", Modifier.Keyword.PUBLIC, Modifier.Keyword.STATIC);
         byOpCode.setType("OpCode");
         byOpCode.addParameter("int", "opcode");
         byOpCode.setBody(
-                new BlockStmt().addStatement(new ReturnStmt(new NameExpr("byOpCode.get(opcode)"))));
-
-        var signature =
-                enumDef.addFieldWithInitializer(
-                        "Map<OpCode, WasmEncoding[]>",
-                        "signature",
-                        new NameExpr("new HashMap<>()"),
-                        Modifier.Keyword.PRIVATE,
-                        Modifier.Keyword.STATIC,
-                        Modifier.Keyword.FINAL);
+                new BlockStmt()
+                        .addStatement(parseStatement("var prefix = opcode >>> 8;"))
+                        .addStatement(
+                                parseStatement(
+                                        "if (prefix > 0xff || byPrefix[prefix] == null) {"
+                                                + " return null; }"))
+                        .addStatement(
+                                new ReturnStmt(new NameExpr("byPrefix[prefix][opcode & 0xff]"))));
 
         var getSignature =
                 enumDef.addMethod("getSignature", Modifier.Keyword.PUBLIC, Modifier.Keyword.STATIC);
         getSignature.setType("WasmEncoding[]");
         getSignature.addParameter("OpCode", "o");
         getSignature.setBody(
-                new BlockStmt().addStatement(new ReturnStmt(new NameExpr("signature.get(o)"))));
+                new BlockStmt().addStatement(new ReturnStmt(new NameExpr("o.signature"))));
 
         var staticBlock = enumDef.addStaticInitializer();
 
-        // byOpCode initialization
+        // byPrefix initialization
         staticBlock.addStatement(
-                new NameExpr(
+                parseStatement(
                         "for (OpCode e: OpCode.values()) {"
-                                + " byOpCode.put(e.getOpcode(), e); }"));
-        for (var assign : staticAssignement) {
-            staticBlock.addStatement(assign);
-        }
+                                + " var prefix = e.opcode >>> 8;"
+                                + " if (byPrefix[prefix] == null) {"
+                                + " byPrefix[prefix] = new OpCode[256]; }"
+                                + " byPrefix[prefix][e.opcode & 0xff] = e; }"));
+
+        var decoder = parse(operandDecoder(bySignature));
+        decoder.setStorage(
+                Path.of(
+                        sourceDestinationFolder.getAbsolutePath(),
+                        "com",
+                        "dylibso",
+                        "chicory",
+                        "wasm",
+                        "OperandDecoder.java"));
 
         final SourceRoot dest = new SourceRoot(sourceDestinationFolder.toPath());
         dest.add(cu);
+        dest.add(decoder);
         dest.saveAll();
 
         project.addCompileSourceRoot(sourceDestinationFolder.getPath());
     }
 
+    /**
+     * One case per signature, reading its immediates straight into an array of the exact size:
+     * the operands of a memarg take 3 slots, a v128 2 and a vector its length.
+     */
+    private static String operandDecoder(Map<List<String>, List<String>> bySignature) {
+        var src = new StringBuilder();
+        src.append("package com.dylibso.chicory.wasm;\n")
+                .append("import com.dylibso.chicory.wasm.types.OpCode;\n")
+                .append("import java.nio.ByteBuffer;\n")
+                .append("final class OperandDecoder {\n")
+                .append("private OperandDecoder() {}\n")
+                .append("static long[] decode(OpCode op, ByteBuffer buffer) {\n")
+                .append("switch (op) {\n");
+        for (var entry : bySignature.entrySet()) {
+            var encodings = entry.getKey();
+            if (encodings.isEmpty()) {
+                continue;
+            }
+            for (var name : entry.getValue()) {
+                src.append("case ").append(name).append(":\n");
+            }
+            src.append("{\n");
+            if (encodings.size() == 1 && width(encodings.get(0)) == 1) {
+                src.append("return new long[] {").append(read(encodings.get(0))).append("};\n");
+            } else {
+                var fixed = encodings;
+                var index = "";
+                if (encodings.get(0).equals("VEC_VARUINT")) {
+                    src.append("var count = (int) Parser.readVarUInt32(buffer);\n");
+                    fixed = encodings.subList(1, encodings.size());
+                    index = "count + ";
+                }
+                var size = fixed.stream().mapToInt(OpCodeGenMojo::width).sum();
+                src.append("var operands = new long[").append(index).append(size).append("];\n");
+                if (!index.isEmpty()) {
+                    src.append("for (var i = 0; i < count; i++) {")
+                            .append(" operands[i] = Parser.readVarUInt32(buffer); }\n");
+                }
+                var i = 0;
+                for (var encoding : fixed) {
+                    switch (encoding) {
+                        case "MEMARG":
+                            src.append("Parser.readMemArg(buffer, operands, ")
+                                    .append(slot(index, i))
+                                    .append(");\n");
+                            break;
+                        case "V128":
+                            // the 16 bytes as two little-endian longs, the low half first
+                            src.append("operands[").append(slot(index, i));
+                            src.append("] = buffer.getLong();\n");
+                            src.append("operands[").append(slot(index, i + 1));
+                            src.append("] = buffer.getLong();\n");
+                            break;
+                        default:
+                            src.append("operands[").append(slot(index, i)).append("] = ");
+                            src.append(read(encoding)).append(";\n");
+                            break;
+                    }
+                    i += width(encoding);
+                }
+                src.append("return operands;\n");
+            }
+            src.append("}\n");
+        }
+        src.append("default:\n")
+                .append("return Parser.NO_OPERANDS;\n")
+                .append("}\n")
+                .append("}\n")
+                .append("}\n");
+        return src.toString();
+    }
+
+    private static String slot(String index, int i) {
+        return index.isEmpty() || i > 0 ? index + i : "count";
+    }
+
+    private static int width(String encoding) {
+        switch (encoding) {
+            case "MEMARG":
+                return 3;
+            case "V128":
+                return 2;
+            case "VEC_VARUINT":
+                throw new IllegalArgumentException("A vector must be the first operand");
+            default:
+                return 1;
+        }
+    }
+
+    private static String read(String encoding) {
+        switch (encoding) {
+            case "VARUINT":
+                return "Parser.readVarUInt32(buffer)";
+            case "VARSINT32":
+                return "Parser.readVarSInt32(buffer)";
+            case "VARSINT64":
+                return "Parser.readVarSInt64(buffer)";
+            case "FLOAT32":
+                return "Parser.readFloat32(buffer)";
+            case "FLOAT64":
+                return "Parser.readFloat64(buffer)";
+            case "BYTE":
+                return "buffer.get() & 0xff";
+            default:
+                throw new IllegalArgumentException("No decoder for encoding: " + encoding);
+        }
+    }
+
     private String getType(String in) {
         switch (in) {
             case "<varuint>":
-                return "WasmEncoding.VARUINT";
+                return "VARUINT";
             case "<varsint32>":
-                return "WasmEncoding.VARSINT32";
+                return "VARSINT32";
             case "<varsint64>":
-                return "WasmEncoding.VARSINT64";
+                return "VARSINT64";
             case "<float32>":
-                return "WasmEncoding.FLOAT32";
+                return "FLOAT32";
             case "<float64>":
-                return "WasmEncoding.FLOAT64";
+                return "FLOAT64";
             case "vec(<varuint>)":
-                return "WasmEncoding.VEC_VARUINT";
+                return "VEC_VARUINT";
+            case "<byte>":
+                return "BYTE";
+            case "<v128>":
+                return "V128";
+            case "<memarg>":
+                return "MEMARG";
             default:
                 throw new IllegalArgumentException("Unknown param: " + in);
         }
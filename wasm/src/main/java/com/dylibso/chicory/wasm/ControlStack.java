@@ -0,0 +1,173 @@
+package com.dylibso.chicory.wasm;
+
+import com.dylibso.chicory.wasm.exceptions.InvalidException;
+import com.dylibso.chicory.wasm.types.Instruction;
+import com.dylibso.chicory.wasm.types.OpCode;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Labels, in a single pass, the branches of a function body.
+ * Wasm has a structured form of control flow. There is no `jmp` to an address.
+ * So instead each branching point can only "jump" to a few points internal to the function
+ * we are executing in. This algorithm mimics the control flow rules and annotates each
+ * branching instruction with the labels (here the jumping point is the index of the instruction in the body)
+ * that it can jump to. Branching instructions can only jump to the beginning of a block if this target is a loop,
+ * or the end of a block for every other target block.
+ * It's up to the Machine to decide, based on what is on the stack, which label to choose.
+ * Here is an example on how to label some code. The left side contains indexes, comments show where the labels go
+ *
+ * 0     (local i32)
+ * 1     (block
+ * 2       (block
+ * 3          (block
+ *                 ;; x == 0
+ * 4               local.get 0
+ * 5               i32.eqz
+ * 6               br_if 0 ;; true=14 false=7
+ *
+ *                 ;; x == 1
+ * 7               local.get 0
+ * 8               i32.const 1
+ * 9               i32.eq
+ * 10              br_if 1 ;; true=17 false=11
+ *
+ *                 ;; the `else` case
+ * 11              i32.const 7
+ * 12              local.set 1
+ * 13              br 2    ;; true=19
+ *            )
+ * 14         i32.const 42
+ * 15         local.set 1
+ * 16         br 1         ;; true=19
+ *            )
+ * 17     i32.const 99
+ * 18     local.set 1
+ *        )
+ * 19   local.get 1)
+ *
+ * The open blocks are kept in parallel arrays indexed by nesting level, so a branch finds
+ * its target block in constant time. A branch to a loop is labeled right away, a branch to
+ * any other block is recorded in the pending list of that block and patched when its `end`
+ * is reached. The pending lists are linked lists of primitive ints sharing a single pool,
+ * which is reused by the following functions.
+ */
+final class ControlStack {
+    // patch slots, a non-negative slot is an index in the label table of a br_table
+    static final int LABEL_TRUE = -1;
+
+    private List<Instruction> instructions;
+
+    // one entry per open block, the function itself is the block at index 0
+    private OpCode[] kinds = new OpCode[16];
+    private int[] starts = new int[16];
+    private boolean[] hasElse = new boolean[16];
+    private int[] pendingHeads = new int[16];
+    private int size;
+
+    // pending patches: the branch instruction, the label it fills, the next patch of the block
+    private int[] patchInstructions = new int[64];
+    private int[] patchSlots = new int[64];
+    private int[] patchNext = new int[64];
+    private int patchCount;
+
+    /**
+     * Starts labeling a new function body, {@code instructions} is the list the parser
+     * appends the instructions of the body to.
+     */
+    void reset(List<Instruction> instructions) {
+        this.instructions = instructions;
+        this.size = 0;
+        this.patchCount = 0;
+        push(OpCode.END, 0);
+    }
+
+    /**
+     * Opens the block, loop or if starting at {@code pc}.
+     */
+    void push(OpCode kind, int pc) {
+        if (size == kinds.length) {
+            var capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            hasElse = Arrays.copyOf(hasElse, capacity);
+            pendingHeads = Arrays.copyOf(pendingHeads, capacity);
+        }
+        kinds[size] = kind;
+        starts[size] = pc;
+        hasElse[size] = false;
+        pendingHeads[size] = -1;
+        size++;
+    }
+
+    /**
+     * Labels the `else` at {@code pc}: the enclosing if jumps past it when its condition is
+     * false, and the end of the then branch jumps to the end of the if.
+     */
+    void enterElse(int pc) {
+        var top = size - 1;
+        if (kinds[top] != OpCode.IF) {
+            throw new InvalidException("else without if");
+        }
+        instructions.get(starts[top]).setLabelFalse(pc + 1);
+        hasElse[top] = true;
+        addPatch(top, pc, LABEL_TRUE);
+    }
+
+    /**
+     * Labels the {@code slot} of the branch at {@code pc} targeting the label {@code depth}.
+     */
+    void branch(Instruction instruction, int pc, int depth, int slot) {
+        if (depth < 0 || depth >= size) {
+            throw new InvalidException("unknown label " + depth);
+        }
+        var target = size - 1 - depth;
+        if (kinds[target] == OpCode.LOOP) {
+            setLabel(instruction, slot, starts[target] + 1);
+        } else {
+            addPatch(target, pc, slot);
+        }
+    }
+
+    /**
+     * Closes the innermost block with the `end` at {@code pc}, patches the branches waiting
+     * for it and returns the kind of the block, END for the function itself.
+     */
+    OpCode end(int pc) {
+        if (size == 0) {
+            throw new InvalidException("unexpected end");
+        }
+        var top = --size;
+        var kind = kinds[top];
+        var label = kind == OpCode.LOOP ? starts[top] + 1 : pc;
+        if (kind == OpCode.IF && !hasElse[top]) {
+            instructions.get(starts[top]).setLabelFalse(label);
+        }
+        for (var patch = pendingHeads[top]; patch >= 0; patch = patchNext[patch]) {
+            setLabel(instructions.get(patchInstructions[patch]), patchSlots[patch], label);
+        }
+        return kind;
+    }
+
+    private void addPatch(int block, int pc, int slot) {
+        if (patchCount == patchInstructions.length) {
+            var capacity = patchCount * 2;
+            patchInstructions = Arrays.copyOf(patchInstructions, capacity);
+            patchSlots = Arrays.copyOf(patchSlots, capacity);
+            patchNext = Arrays.copyOf(patchNext, capacity);
+        }
+        patchInstructions[patchCount] = pc;
+        patchSlots[patchCount] = slot;
+        patchNext[patchCount] = pendingHeads[block];
+        pendingHeads[block] = patchCount;
+        patchCount++;
+    }
+
+    private static void setLabel(Instruction instruction, int slot, int label) {
+        if (slot == LABEL_TRUE) {
+            instruction.setLabelTrue(label);
+        } else {
+            instruction.getLabelTable()[slot] = label;
+        }
+    }
+}
@@ -4,10 +4,42 @@ import java.nio.ByteBuffer;
 
 public final class Encoding {
 
+    // the longest encoding of a 64 bit value
+    static final int MAX_LEB128_SIZE = 10;
+
     /**
      * Reads an unsigned integer from {@code byteBuffer}.
      */
     public static long readUnsignedLeb128(ByteBuffer byteBuffer) {
+        if (byteBuffer.remaining() >= MAX_LEB128_SIZE) {
+            // no value can run past the end of the buffer, skip the per byte checks
+            int position = byteBuffer.position();
+            byte b = byteBuffer.get(position);
+            if (b >= 0) {
+                byteBuffer.position(position + 1);
+                return b;
+            }
+            long result = b & 0x7F;
+            b = byteBuffer.get(position + 1);
+            if (b >= 0) {
+                byteBuffer.position(position + 2);
+                return result | (long) b << 7;
+            }
+            result |= (long) (b & 0x7F) << 7;
+            for (int i = 2; i < MAX_LEB128_SIZE; i++) {
+                b = byteBuffer.get(position + i);
+                result |= (long) (b & 0x7F) << (7 * i);
+                if (b >= 0) {
+                    byteBuffer.position(position + i + 1);
+                    return result;
+                }
+            }
+            // an over-long encoding, let the checked loop deal with it
+        }
+        return readUnsignedLeb128Checked(byteBuffer);
+    }
+
+    private static long readUnsignedLeb128Checked(ByteBuffer byteBuffer) {
         long result = 0;
         int shift = 0;
         while (true) {
@@ -29,40 +61,62 @@ public final class Encoding {
     }
 
     /**
-     * Reads an unsigned integer from {@code byteBuffer}.
+     * Reads a signed 32 bit integer from {@code byteBuffer}.
      */
     public static long readSigned32Leb128(ByteBuffer byteBuffer) {
-        long result = 0;
-        int shift = 0;
-        byte currentByte;
-
-        do {
-            if (byteBuffer.remaining() == 0) {
-                throw new IllegalArgumentException("SLEB128 reached the end of the buffer");
-            }
+        return readSignedLeb128(byteBuffer, "SLEB128");
+    }
 
-            currentByte = byteBuffer.get();
-            result |= (long) (currentByte & 0x7F) << shift;
-            shift += 7;
-        } while ((currentByte & 0x80) != 0);
+    /**
+     * Reads a signed 64 bit integer from {@code byteBuffer}.
+     */
+    public static long readSigned64Leb128(ByteBuffer byteBuffer) {
+        return readSignedLeb128(byteBuffer, "LEB128");
+    }
 
-        // If the final byte read has its sign bit set (0x40), then sign-extend the result
-        if ((currentByte & 0x40) != 0) {
-            result |= -(1L << shift);
+    private static long readSignedLeb128(ByteBuffer byteBuffer, String name) {
+        if (byteBuffer.remaining() >= MAX_LEB128_SIZE) {
+            // no value can run past the end of the buffer, skip the per byte checks
+            int position = byteBuffer.position();
+            byte b = byteBuffer.get(position);
+            if (b >= 0) {
+                byteBuffer.position(position + 1);
+                // sign-extend from bit 6
+                return (long) b << 57 >> 57;
+            }
+            long result = b & 0x7F;
+            b = byteBuffer.get(position + 1);
+            if (b >= 0) {
+                byteBuffer.position(position + 2);
+                // sign-extend from bit 13
+                return (result | (long) b << 7) << 50 >> 50;
+            }
+            result |= (long) (b & 0x7F) << 7;
+            for (int i = 2; i < MAX_LEB128_SIZE; i++) {
+                b = byteBuffer.get(position + i);
+                result |= (long) (b & 0x7F) << (7 * i);
+                if (b >= 0) {
+                    byteBuffer.position(position + i + 1);
+                    int shift = 7 * (i + 1);
+                    if (shift < 64 && (b & 0x40) != 0) {
+                        result |= -1L << shift;
+                    }
+                    return result;
+                }
+            }
+            // an over-long encoding, let the checked loop deal with it
         }
-
-        return result;
+        return readSignedLeb128Checked(byteBuffer, name);
     }
 
-    public static long readSigned64Leb128(ByteBuffer byteBuffer) {
+    private static long readSignedLeb128Checked(ByteBuffer byteBuffer, String name) {
         long result = 0;
         int shift = 0;
         byte currentByte;
-        int size = 64; // 64 bits for i64
 
         do {
             if (byteBuffer.remaining() == 0) {
-                throw new IllegalArgumentException("LEB128 reached the end of the buffer");
+                throw new IllegalArgumentException(name + " reached the end of the buffer");
             }
 
             currentByte = byteBuffer.get();
@@ -71,7 +125,7 @@ public final class Encoding {
         } while ((currentByte & 0x80) != 0);
 
         // If the final byte read has its sign bit set (0x40), then sign-extend the result
-        if (shift < size && (currentByte & 0x40) != 0) {
+        if (shift < 64 && (currentByte & 0x40) != 0) {
             result |= -1L << shift;
         }
 
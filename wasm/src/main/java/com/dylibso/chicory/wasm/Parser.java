@@ -3,6 +3,7 @@ package com.dylibso.chicory.wasm;
 import static java.util.Objects.requireNonNull;
 
 import com.dylibso.chicory.wasm.exceptions.ChicoryException;
+import com.dylibso.chicory.wasm.exceptions.InvalidException;
 import com.dylibso.chicory.wasm.exceptions.MalformedException;
 import com.dylibso.chicory.wasm.types.ActiveDataSegment;
 import com.dylibso.chicory.wasm.types.CodeSection;
@@ -10,6 +11,7 @@ import com.dylibso.chicory.wasm.types.CustomSection;
 import com.dylibso.chicory.wasm.types.DataSection;
 import com.dylibso.chicory.wasm.types.DataSegment;
 import com.dylibso.chicory.wasm.types.Element;
+import com.dylibso.chicory.wasm.types.ElementMode;
 import com.dylibso.chicory.wasm.types.ElementSection;
 import com.dylibso.chicory.wasm.types.ElementType;
 import com.dylibso.chicory.wasm.types.Export;
@@ -50,7 +52,8 @@ import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.Stack;
+import java.util.HashMap;
+import java.util.List;
 import java.util.function.Supplier;
 
 /**
@@ -62,6 +65,9 @@ public final class Parser {
 
     private static final int MAGIC_BYTES = 1836278016; // Magic prefix \0asm
 
+    // shared by every instruction without immediates, never written to
+    static final long[] NO_OPERANDS = new long[0];
+
     private final Supplier<InputStream> input;
 
     private final BitSet includeSections;
@@ -314,7 +320,9 @@ public final class Parser {
                 case TableIdx:
                     throw new ChicoryException("Don't support table type globals yet");
                 case MemIdx:
-                    throw new ChicoryException("Don't support mem type globals yet");
+                    var memDesc = new ImportDesc(descType, parseMemoryLimits(buffer));
+                    imports[i] = new Import(moduleName, fieldName, memDesc);
+                    break;
                 case GlobalIdx:
                     var globalValType = ValueType.byId(readVarUInt32(buffer));
                     var globalMut = MutabilityType.byId(readVarUInt32(buffer));
@@ -381,16 +389,25 @@ public final class Parser {
 
     private static MemoryLimits parseMemoryLimits(ByteBuffer buffer) {
 
+        // bit 0 flags a maximum, bit 1 a shared memory and bit 2 a memory indexed with i64
         var limitType = readVarUInt32(buffer);
-        assert limitType == 0x00 || limitType == 0x01;
+        if (limitType > 0x07) {
+            throw new MalformedException("malformed limits flags");
+        }
+        var shared = (limitType & 0x02) != 0;
+        var memory64 = (limitType & 0x04) != 0;
 
-        var initial = (int) readVarUInt32(buffer);
-        if (limitType != 0x01) {
-            return new MemoryLimits(initial);
+        var initial = memory64 ? readVarUInt64(buffer) : readVarUInt32(buffer);
+        if ((limitType & 0x01) == 0) {
+            if (shared) {
+                throw new InvalidException("shared memory must have maximum");
+            }
+            var maximum = memory64 ? MemoryLimits.MAX_PAGES_64 : MemoryLimits.MAX_PAGES;
+            return new MemoryLimits(initial, maximum, false, memory64);
         }
 
-        int maximum = (int) readVarUInt32(buffer);
-        return new MemoryLimits(initial, maximum);
+        var maximum = memory64 ? readVarUInt64(buffer) : readVarUInt32(buffer);
+        return new MemoryLimits(initial, maximum, shared, memory64);
     }
 
     private static GlobalSection parseGlobalSection(
@@ -443,31 +460,70 @@ public final class Parser {
         var elements = new Element[(int) elementCount];
 
         for (var i = 0; i < elementCount; i++) {
-            var tableIndex = readVarUInt32(buffer);
-            var expr = parseExpression(buffer);
+            // bit 0: passive or declarative, bit 1: explicit table index (active) or
+            // declarative, bit 2: the elements are expressions instead of function indices
+            var flags = (int) readVarUInt32(buffer);
+            ElementMode mode;
+            if ((flags & 0b001) == 0) {
+                mode = ElementMode.Active;
+            } else if ((flags & 0b010) == 0) {
+                mode = ElementMode.Passive;
+            } else {
+                mode = ElementMode.Declarative;
+            }
+            var tableIndex = 0L;
+            var expr = new Instruction[0];
+            if (mode == ElementMode.Active) {
+                if ((flags & 0b010) != 0) {
+                    tableIndex = readVarUInt32(buffer);
+                }
+                expr = parseExpression(buffer);
+            }
+            if ((flags & 0b011) != 0) {
+                // elemkind or reftype, funcref is the only one we support
+                readVarUInt32(buffer);
+            }
             var funcIndexCount = readVarUInt32(buffer);
             var funcIndices = new long[(int) funcIndexCount];
             for (var j = 0; j < funcIndexCount; j++) {
-                funcIndices[j] = readVarUInt32(buffer);
+                if ((flags & 0b100) == 0) {
+                    funcIndices[j] = readVarUInt32(buffer);
+                } else {
+                    funcIndices[j] = parseElementExpression(buffer);
+                }
             }
-            elements[i] = new Element(tableIndex, expr, funcIndices);
+            elements[i] = new Element(mode, tableIndex, expr, funcIndices);
         }
 
         return new ElementSection(sectionId, sectionSize, elements);
     }
 
+    private static long parseElementExpression(ByteBuffer buffer) {
+        var expr = parseExpression(buffer);
+        if (expr.length == 1) {
+            switch (expr[0].getOpcode()) {
+                case REF_FUNC:
+                    return expr[0].getOperands()[0];
+                case REF_NULL:
+                    return Element.NULL_FUNC_INDEX;
+            }
+        }
+        throw new ChicoryException(
+                "We only support ref.func and ref.null element expressions right now");
+    }
+
     private static CodeSection parseCodeSection(
             ByteBuffer buffer, long sectionId, long sectionSize) {
 
         var funcBodyCount = readVarUInt32(buffer);
         var functionBodies = new FunctionBody[(int) funcBodyCount];
-
-        var root = new ControlTree();
-        var currentControlFlow = root;
+        var callSiteCount = 0;
+        var controlStack = new ControlStack();
 
         // Parse individual function bodies in the code section
         for (int i = 0; i < funcBodyCount; i++) {
-            var blockScope = new Stack<OpCode>();
+            var instructions = new ArrayList<Instruction>();
+            controlStack.reset(instructions);
             var depth = 0;
             var funcEndPoint = readVarUInt32(buffer) + buffer.position();
             var localCount = readVarUInt32(buffer);
@@ -477,128 +533,262 @@ public final class Parser {
                 var type = ValueType.byId(readVarUInt32(buffer));
                 locals.add(new Value(type, bytes));
             }
-            var instructionCount = 0;
-            var instructions = new ArrayList<Instruction>();
-            currentControlFlow = root;
             do {
                 var instruction = parseInstruction(buffer);
-                // depth control
+                var instructionCount = instructions.size();
                 switch (instruction.getOpcode()) {
                     case BLOCK:
                     case LOOP:
-                    case IF:
                         {
                             instruction.setDepth(++depth);
-                            blockScope.push(instruction.getOpcode());
-                            instruction.setScope(blockScope.peek());
-                            break;
-                        }
-                    case END:
-                        {
-                            instruction.setDepth(depth);
-                            depth--;
-                            if (blockScope.isEmpty()) {
-                                instruction.setScope(OpCode.END);
-                            } else {
-                                instruction.setScope(blockScope.pop());
-                            }
-                            break;
-                        }
-                    default:
-                        {
-                            instruction.setDepth(depth);
-                            break;
-                        }
-                }
-
-                // control-flow
-                switch (instruction.getOpcode()) {
-                    case BLOCK:
-                    case LOOP:
-                        {
-                            currentControlFlow =
-                                    currentControlFlow.spawn(instructionCount, instruction);
+                            instruction.setScope(instruction.getOpcode());
+                            controlStack.push(instruction.getOpcode(), instructionCount);
                             break;
                         }
                     case IF:
                         {
-                            currentControlFlow =
-                                    currentControlFlow.spawn(instructionCount, instruction);
-
-                            var defaultJmp = instructionCount + 1;
-                            currentControlFlow.addCallback(
-                                    end -> {
-                                        // check that there is no "else" branch
-                                        if (instruction.getLabelFalse() == defaultJmp) {
-                                            instruction.setLabelFalse(end);
-                                        }
-                                    });
-
-                            // defaults
-                            instruction.setLabelTrue(defaultJmp);
-                            instruction.setLabelFalse(defaultJmp);
+                            instruction.setDepth(++depth);
+                            instruction.setScope(instruction.getOpcode());
+                            controlStack.push(instruction.getOpcode(), instructionCount);
+                            // defaults, an else or the end relabels the false branch
+                            instruction.setLabelTrue(instructionCount + 1);
+                            instruction.setLabelFalse(instructionCount + 1);
                             break;
                         }
                     case ELSE:
                         {
-                            assert (currentControlFlow.getInstruction().getOpcode() == OpCode.IF);
-                            currentControlFlow.getInstruction().setLabelFalse(instructionCount + 1);
-
-                            currentControlFlow.addCallback(instruction::setLabelTrue);
-
+                            instruction.setDepth(depth);
+                            controlStack.enterElse(instructionCount);
                             break;
                         }
                     case BR_IF:
                         {
+                            instruction.setDepth(depth);
                             instruction.setLabelFalse(instructionCount + 1);
+                            controlStack.branch(
+                                    instruction,
+                                    instructionCount,
+                                    (int) instruction.getOperands()[0],
+                                    ControlStack.LABEL_TRUE);
+                            break;
                         }
                     case BR:
                         {
-                            var offset = (int) instruction.getOperands()[0];
-                            ControlTree reference = currentControlFlow;
-                            while (offset > 0) {
-                                reference = reference.getParent();
-                                offset--;
-                            }
-                            reference.addCallback(instruction::setLabelTrue);
+                            instruction.setDepth(depth);
+                            controlStack.branch(
+                                    instruction,
+                                    instructionCount,
+                                    (int) instruction.getOperands()[0],
+                                    ControlStack.LABEL_TRUE);
                             break;
                         }
                     case BR_TABLE:
                         {
-                            instruction.setLabelTable(new int[instruction.getOperands().length]);
-                            for (var idx = 0; idx < instruction.getLabelTable().length; idx++) {
-                                var offset = (int) instruction.getOperands()[idx];
-                                ControlTree reference = currentControlFlow;
-                                while (offset > 0) {
-                                    reference = reference.getParent();
-                                    offset--;
-                                }
-                                int finalIdx = idx;
-                                reference.addCallback(
-                                        end -> instruction.getLabelTable()[finalIdx] = end);
+                            instruction.setDepth(depth);
+                            var operands = instruction.getOperands();
+                            instruction.setLabelTable(new int[operands.length]);
+                            for (var idx = 0; idx < operands.length; idx++) {
+                                controlStack.branch(
+                                        instruction, instructionCount, (int) operands[idx], idx);
                             }
                             break;
                         }
                     case END:
                         {
-                            currentControlFlow.setFinalInstructionNumber(
-                                    instructionCount, instruction);
-                            currentControlFlow = currentControlFlow.getParent();
+                            instruction.setDepth(depth);
+                            depth--;
+                            instruction.setScope(controlStack.end(instructionCount));
+                            break;
+                        }
+                    case CALL_INDIRECT:
+                    case RETURN_CALL_INDIRECT:
+                        {
+                            instruction.setDepth(depth);
+                            instruction.setCallSiteIndex(callSiteCount++);
+                            break;
+                        }
+                    default:
+                        {
+                            instruction.setDepth(depth);
                             break;
                         }
                 }
 
-                instructionCount++;
                 instructions.add(instruction);
 
                 // System.out.println(Integer.toHexString(instruction.getAddress()) + " " +
                 // instruction);
             } while (buffer.position() < funcEndPoint);
 
+            computeBasicBlocks(instructions);
+            elideRedundantBoundsChecks(instructions);
             functionBodies[i] = new FunctionBody(locals, instructions);
         }
 
-        return new CodeSection(sectionId, sectionSize, functionBodies);
+        return new CodeSection(sectionId, sectionSize, functionBodies, callSiteCount);
+    }
+
+    /**
+     * Marks the memory accesses whose bounds check is redundant. Memories never shrink, so once
+     * an access through local x with offset o and width w is checked, any access through the
+     * unchanged local x ending before x + o + w is in bounds. The facts only hold until the end
+     * of the basic block, other paths can enter the next one.
+     */
+    private static void elideRedundantBoundsChecks(List<Instruction> instructions) {
+        // local index -> end of the range already checked from its value
+        var checkedEnd = new HashMap<Long, Long>();
+        for (var pc = 0; pc < instructions.size(); pc++) {
+            var instruction = instructions.get(pc);
+            if (instruction.getBasicBlockSize() > 0) {
+                checkedEnd.clear();
+            }
+            var opcode = instruction.getOpcode();
+            if (opcode == OpCode.LOCAL_SET || opcode == OpCode.LOCAL_TEE) {
+                checkedEnd.remove(instruction.getOperands()[0]);
+                continue;
+            }
+            // the facts are about memory 0, the one nearly all accesses go to
+            var width = memoryAccessWidth(opcode);
+            if (width == 0 || instruction.getOperands()[2] != 0) {
+                continue;
+            }
+            // a load takes the address from the previous instruction, a store takes it from the
+            // one before the instruction pushing the value
+            var addressPc = pc - 1;
+            if (isStore(opcode)) {
+                if (pc < 1 || !pushesOneValue(instructions.get(pc - 1).getOpcode())) {
+                    continue;
+                }
+                addressPc = pc - 2;
+            }
+            if (addressPc < 0 || instructions.get(addressPc).getOpcode() != OpCode.LOCAL_GET) {
+                continue;
+            }
+            var local = instructions.get(addressPc).getOperands()[0];
+            var end = instruction.getOperands()[1] + width;
+            var checked = checkedEnd.get(local);
+            if (checked != null && end <= checked) {
+                instruction.setBoundsCheckElided(true);
+            } else {
+                checkedEnd.put(local, end);
+            }
+        }
+    }
+
+    private static int memoryAccessWidth(OpCode opcode) {
+        switch (opcode) {
+            case I32_LOAD8_S:
+            case I32_LOAD8_U:
+            case I64_LOAD8_S:
+            case I64_LOAD8_U:
+            case I32_STORE8:
+            case I64_STORE8:
+                return 1;
+            case I32_LOAD16_S:
+            case I32_LOAD16_U:
+            case I64_LOAD16_S:
+            case I64_LOAD16_U:
+            case I32_STORE16:
+            case I64_STORE16:
+                return 2;
+            case I32_LOAD:
+            case F32_LOAD:
+            case I64_LOAD32_S:
+            case I64_LOAD32_U:
+            case I32_STORE:
+            case F32_STORE:
+            case I64_STORE32:
+                return 4;
+            case I64_LOAD:
+            case F64_LOAD:
+            case I64_STORE:
+            case F64_STORE:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isStore(OpCode opcode) {
+        switch (opcode) {
+            case I32_STORE:
+            case I64_STORE:
+            case F32_STORE:
+            case F64_STORE:
+            case I32_STORE8:
+            case I32_STORE16:
+            case I64_STORE8:
+            case I64_STORE16:
+            case I64_STORE32:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean pushesOneValue(OpCode opcode) {
+        switch (opcode) {
+            case LOCAL_GET:
+            case GLOBAL_GET:
+            case I32_CONST:
+            case I64_CONST:
+            case F32_CONST:
+            case F64_CONST:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Splits an already labeled function body in basic blocks and annotates every leader
+     * with the number of instructions in its block.
+     * A leader is the first instruction, any branch target, and any instruction following
+     * an instruction which can transfer control.
+     * Every other instruction can only be reached by falling through from its leader,
+     * so the runtime can account for a whole block at once when it reaches the leader.
+     */
+    private static void computeBasicBlocks(List<Instruction> instructions) {
+        var size = instructions.size();
+        var leaders = new BitSet(size + 1);
+        leaders.set(0);
+        for (var pc = 0; pc < size; pc++) {
+            var instruction = instructions.get(pc);
+            switch (instruction.getOpcode()) {
+                case IF:
+                case BR_IF:
+                    leaders.set(instruction.getLabelFalse());
+                    // fallthrough
+                case ELSE:
+                case BR:
+                    leaders.set(instruction.getLabelTrue());
+                    leaders.set(pc + 1);
+                    break;
+                case BR_TABLE:
+                    for (var target : instruction.getLabelTable()) {
+                        leaders.set(target);
+                    }
+                    leaders.set(pc + 1);
+                    break;
+                case RETURN:
+                case RETURN_CALL:
+                case RETURN_CALL_INDIRECT:
+                case UNREACHABLE:
+                    leaders.set(pc + 1);
+                    break;
+                default:
+                    break;
+            }
+        }
+        var leader = 0;
+        while (leader < size) {
+            var next = leaders.nextSetBit(leader + 1);
+            if (next < 0 || next > size) {
+                next = size;
+            }
+            instructions.get(leader).setBasicBlockSize(next - leader);
+            leader = next;
+        }
     }
 
     private static DataSection parseDataSection(
@@ -608,22 +798,21 @@ public final class Parser {
         var dataSegments = new DataSegment[(int) dataSegmentCount];
 
         for (var i = 0; i < dataSegmentCount; i++) {
-            var memidx = readVarUInt32(buffer);
-            // if memory idx == 0, then this is an active datasegment
-            // if memory idx == 1, then this is a passive datasegment
-            // TODO won't this break once we support multi-memory?
-            if (memidx == 0) {
+            var mode = readVarUInt32(buffer);
+            // mode 0 is an active segment of memory 0, 1 a passive segment and 2 an active
+            // segment of the memory whose index follows
+            if (mode == 0 || mode == 2) {
+                var memidx = mode == 2 ? readVarUInt32(buffer) : 0;
                 var offset = parseExpression(buffer);
                 byte[] data = new byte[(int) readVarUInt32(buffer)];
                 buffer.get(data);
                 dataSegments[i] = new ActiveDataSegment(memidx, offset, data);
-            } else if (memidx == 1) {
+            } else if (mode == 1) {
                 byte[] data = new byte[(int) readVarUInt32(buffer)];
                 buffer.get(data);
                 dataSegments[i] = new PassiveDataSegment(data);
             } else {
-                throw new ChicoryException(
-                        "Failed to parse data segment with data mode: " + memidx);
+                throw new ChicoryException("Failed to parse data segment with data mode: " + mode);
             }
         }
 
@@ -634,49 +823,37 @@ public final class Parser {
 
         var address = buffer.position();
         var b = (int) buffer.get() & 0xff;
-        if (b == 0xfc) { // is multi-byte
-            b = (0xfc << 8) | (buffer.get() & 0xff);
+        if (b == 0xfc || b == 0xfd || b == 0xfe) { // is multi-byte
+            var sub = readVarUInt32(buffer);
+            if (sub > 0xff) {
+                throw new IllegalArgumentException(
+                        "Can't find opcode for op value " + b + " " + sub);
+            }
+            b = (b << 8) | (int) sub;
         }
         var op = OpCode.byOpCode(b);
         if (op == null) {
             throw new IllegalArgumentException("Can't find opcode for op value " + b);
         }
         // System.out.println("b: " + b + " op: " + op);
-        var signature = OpCode.getSignature(op);
-        if (signature.length == 0) {
-            return new Instruction(address, op, new long[] {});
-        }
-        var operands = new ArrayList<Long>();
-        for (var sig : signature) {
-            switch (sig) {
-                case VARUINT:
-                    operands.add(readVarUInt32(buffer));
-                    break;
-                case VARSINT32:
-                    operands.add(readVarSInt32(buffer));
-                    break;
-                case VARSINT64:
-                    operands.add(readVarSInt64(buffer));
-                    break;
-                case FLOAT64:
-                    operands.add(readFloat64(buffer));
-                    break;
-                case FLOAT32:
-                    operands.add(readFloat32(buffer));
-                    break;
-                case VEC_VARUINT:
-                    {
-                        var vcount = (int) readVarUInt32(buffer);
-                        for (var j = 0; j < vcount; j++) {
-                            operands.add(readVarUInt32(buffer));
-                        }
-                        break;
-                    }
-            }
+        return new Instruction(address, op, OperandDecoder.decode(op, buffer));
+    }
+
+    /**
+     * Reads the align, offset and memory index of a memory access into operands, from index.
+     * Bit 6 of the alignment tells the index of the multi-memory proposal follows, it is 0
+     * otherwise.
+     */
+    static void readMemArg(ByteBuffer buffer, long[] operands, int index) {
+        var align = readVarUInt32(buffer);
+        var memidx = 0L;
+        if ((align & 0x40) != 0) {
+            align &= ~0x40;
+            memidx = readVarUInt32(buffer);
         }
-        var operandsArray = new long[operands.size()];
-        for (var i = 0; i < operands.size(); i++) operandsArray[i] = operands.get(i);
-        return new Instruction(address, op, operandsArray);
+        operands[index] = align;
+        operands[index + 1] = readVarUInt64(buffer);
+        operands[index + 2] = memidx;
     }
 
     private static Instruction[] parseExpression(ByteBuffer buffer) {
@@ -704,6 +881,16 @@ public final class Parser {
         return Encoding.readUnsignedLeb128(buffer);
     }
 
+    /**
+     * Read an unsigned I64 from the buffer, values above Long.MAX_VALUE come out negative.
+     *
+     * @param buffer the buffer positioned at the LEB128 encoded value, it is left after it
+     * @return the 64 bits of the value
+     */
+    public static long readVarUInt64(ByteBuffer buffer) {
+        return Encoding.readUnsignedLeb128(buffer);
+    }
+
     /**
      * Read a signed I32 from the buffer. We can't fit an unsigned 32bit int into a java int, so we must use a long to use the same type as unsigned.
      * See <a href="https://www.w3.org/TR/wasm-core-1/#integers">2.2.2. Integers</a> of the WebAssembly Core Specification.
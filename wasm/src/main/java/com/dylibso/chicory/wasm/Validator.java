@@ -0,0 +1,1686 @@
+package com.dylibso.chicory.wasm;
+
+import com.dylibso.chicory.wasm.exceptions.InvalidException;
+import com.dylibso.chicory.wasm.exceptions.MalformedException;
+import com.dylibso.chicory.wasm.types.ActiveDataSegment;
+import com.dylibso.chicory.wasm.types.Element;
+import com.dylibso.chicory.wasm.types.ElementMode;
+import com.dylibso.chicory.wasm.types.ExportDescType;
+import com.dylibso.chicory.wasm.types.FunctionBody;
+import com.dylibso.chicory.wasm.types.FunctionType;
+import com.dylibso.chicory.wasm.types.Global;
+import com.dylibso.chicory.wasm.types.Import;
+import com.dylibso.chicory.wasm.types.ImportDescType;
+import com.dylibso.chicory.wasm.types.Instruction;
+import com.dylibso.chicory.wasm.types.MemoryLimits;
+import com.dylibso.chicory.wasm.types.MutabilityType;
+import com.dylibso.chicory.wasm.types.OpCode;
+import com.dylibso.chicory.wasm.types.ValueType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Validates a parsed module against the rules of the WebAssembly specification, rejecting
+ * it with an {@link InvalidException} carrying the message used by the spec test suite.
+ * Every function body is type checked once, in a single pass, with the algorithm of the
+ * <a href="https://webassembly.github.io/spec/core/appendix/algorithm.html">validation
+ * appendix</a>: an operand stack of value types and a control stack of the open blocks.
+ * Code accepted here can't underflow the operand stack, pop a value of the wrong type,
+ * branch to a missing label or write an immutable global, so the interpreter doesn't need
+ * to check any of those at runtime.
+ * The stacks are plain arrays reused across the functions of the module, validating a
+ * function doesn't allocate unless it is deeper or wider than all the previous ones.
+ */
+public final class Validator {
+    private static final ValueType[] NO_TYPES = new ValueType[0];
+    // the result types of the blocks declared with a single value type, indexed by ordinal
+    private static final ValueType[][] SINGLE_TYPES = new ValueType[ValueType.values().length][];
+
+    static {
+        for (var type : ValueType.values()) {
+            SINGLE_TYPES[type.ordinal()] = new ValueType[] {type};
+        }
+    }
+
+    private final Module module;
+
+    private final FunctionType[] types;
+    // type index of every function of the function index space, imports first
+    private final int[] functionTypes;
+    private final int importedFunctionCount;
+    private final ValueType[] globalTypes;
+    private final MutabilityType[] globalMutabilities;
+    private final int importedGlobalCount;
+    private final int tableCount;
+    private final int memoryCount;
+    // i64 for the memories of the memory64 proposal, imports first
+    private final ValueType[] memoryAddressTypes;
+    private final int elementCount;
+    private final int dataCount;
+    // the functions a ref.func in a function body may refer to
+    private final boolean[] declaredFunctions;
+
+    // locals, run length encoded: group i holds the locals below localEnds[i]
+    private long[] localEnds = new long[16];
+    private ValueType[] localTypes = new ValueType[16];
+    private int localGroupCount;
+
+    // operand stack, null is the unknown type of the values popped by unreachable code
+    private ValueType[] values = new ValueType[64];
+    private int valueCount;
+
+    // control stack
+    private OpCode[] frameOpcodes = new OpCode[16];
+    private ValueType[][] frameParams = new ValueType[16][];
+    private ValueType[][] frameResults = new ValueType[16][];
+    private int[] frameHeights = new int[16];
+    private boolean[] frameUnreachable = new boolean[16];
+    private int frameCount;
+
+    public Validator(Module module) {
+        this.module = module;
+        this.types =
+                module.getTypeSection() == null
+                        ? new FunctionType[0]
+                        : module.getTypeSection().getTypes();
+
+        var imports =
+                module.getImportSection() == null
+                        ? new Import[0]
+                        : module.getImportSection().getImports();
+        var importedFunctionCount = 0;
+        var importedGlobalCount = 0;
+        var memoryLimits = new ArrayList<MemoryLimits>();
+        for (var i : imports) {
+            if (i.getDesc().getType() == ImportDescType.FuncIdx) {
+                importedFunctionCount++;
+            } else if (i.getDesc().getType() == ImportDescType.GlobalIdx) {
+                importedGlobalCount++;
+            } else if (i.getDesc().getType() == ImportDescType.MemIdx) {
+                memoryLimits.add(i.getDesc().getMemoryLimits());
+            }
+        }
+        this.importedFunctionCount = importedFunctionCount;
+        this.importedGlobalCount = importedGlobalCount;
+
+        var typeIndices =
+                module.getFunctionSection() == null
+                        ? new int[0]
+                        : module.getFunctionSection().getTypeIndices();
+        this.functionTypes = new int[importedFunctionCount + typeIndices.length];
+        var globals =
+                module.getGlobalSection() == null
+                        ? new Global[0]
+                        : module.getGlobalSection().getGlobals();
+        this.globalTypes = new ValueType[importedGlobalCount + globals.length];
+        this.globalMutabilities = new MutabilityType[globalTypes.length];
+        var funcIdx = 0;
+        var globalIdx = 0;
+        for (var i : imports) {
+            var desc = i.getDesc();
+            if (desc.getType() == ImportDescType.FuncIdx) {
+                functionTypes[funcIdx++] = typeIndex(desc.getIndex());
+            } else if (desc.getType() == ImportDescType.GlobalIdx) {
+                globalTypes[globalIdx] = desc.getValType();
+                globalMutabilities[globalIdx] = desc.getMutabilityType();
+                globalIdx++;
+            }
+        }
+        for (var typeIdx : typeIndices) {
+            functionTypes[funcIdx++] = typeIndex(typeIdx);
+        }
+        for (var global : globals) {
+            globalTypes[globalIdx] = global.getValueType();
+            globalMutabilities[globalIdx] = global.getMutabilityType();
+            globalIdx++;
+        }
+
+        this.tableCount =
+                module.getTableSection() == null ? 0 : module.getTableSection().getTables().length;
+        if (module.getMemorySection() != null) {
+            for (var memory : module.getMemorySection().getMemories()) {
+                memoryLimits.add(memory.getMemoryLimits());
+            }
+        }
+        this.memoryCount = memoryLimits.size();
+        this.memoryAddressTypes = new ValueType[memoryCount];
+        for (var i = 0; i < memoryCount; i++) {
+            memoryAddressTypes[i] =
+                    memoryLimits.get(i).isMemory64() ? ValueType.I64 : ValueType.I32;
+        }
+        this.elementCount =
+                module.getElementSection() == null
+                        ? 0
+                        : module.getElementSection().getElements().length;
+        this.dataCount =
+                module.getDataSection() == null
+                        ? 0
+                        : module.getDataSection().getDataSegments().length;
+
+        this.declaredFunctions = new boolean[functionTypes.length];
+        if (module.getElementSection() != null) {
+            for (var element : module.getElementSection().getElements()) {
+                for (var idx : element.getFuncIndices()) {
+                    if (idx != Element.NULL_FUNC_INDEX) {
+                        declareFunction(idx);
+                    }
+                }
+            }
+        }
+        if (module.getExportSection() != null) {
+            for (var export : module.getExportSection().getExports()) {
+                if (export.getDesc().getType() == ExportDescType.FuncIdx) {
+                    declareFunction(export.getDesc().getIndex());
+                }
+            }
+        }
+        for (var global : globals) {
+            for (var instruction : global.getInit()) {
+                if (instruction.getOpcode() == OpCode.REF_FUNC) {
+                    declareFunction(instruction.getOperands()[0]);
+                }
+            }
+        }
+    }
+
+    private int typeIndex(long idx) {
+        if (idx < 0 || idx >= types.length) {
+            throw new InvalidException("unknown type " + idx);
+        }
+        return (int) idx;
+    }
+
+    private void declareFunction(long idx) {
+        if (idx < 0 || idx >= declaredFunctions.length) {
+            throw new InvalidException("unknown function " + idx);
+        }
+        declaredFunctions[(int) idx] = true;
+    }
+
+    /**
+     * Validates the whole module, throws an {@link InvalidException} describing the first
+     * violation found.
+     */
+    public void validate() {
+        validateTables();
+        validateGlobals();
+        validateElements();
+        validateData();
+        validateExports();
+        validateStart();
+        validateFunctions();
+    }
+
+    private void validateTables() {
+        if (module.getTableSection() == null) {
+            return;
+        }
+        for (var table : module.getTableSection().getTables()) {
+            var max = table.getLimitMax();
+            if (max != null && table.getLimitMin() > max) {
+                throw new InvalidException("size minimum must not be greater than maximum");
+            }
+        }
+    }
+
+    private void validateGlobals() {
+        for (var i = importedGlobalCount; i < globalTypes.length; i++) {
+            var global = module.getGlobalSection().getGlobals()[i - importedGlobalCount];
+            // an initializer can read the globals defined before it
+            validateConstant(global.getInit(), global.getValueType(), i);
+        }
+    }
+
+    private void validateElements() {
+        if (module.getElementSection() == null) {
+            return;
+        }
+        for (var element : module.getElementSection().getElements()) {
+            if (element.getMode() == ElementMode.Active) {
+                if (element.getTableIndex() >= tableCount) {
+                    throw new InvalidException("unknown table " + element.getTableIndex());
+                }
+                validateConstant(element.getExpr(), ValueType.I32, globalTypes.length);
+            }
+        }
+    }
+
+    private void validateData() {
+        if (module.getDataSection() == null) {
+            return;
+        }
+        for (var segment : module.getDataSection().getDataSegments()) {
+            if (segment instanceof ActiveDataSegment) {
+                var active = (ActiveDataSegment) segment;
+                if (active.getIdx() >= memoryCount) {
+                    throw new InvalidException("unknown memory " + active.getIdx());
+                }
+                validateConstant(
+                        active.getOffset(),
+                        memoryAddressTypes[(int) active.getIdx()],
+                        globalTypes.length);
+            }
+        }
+    }
+
+    private void validateExports() {
+        if (module.getExportSection() == null) {
+            return;
+        }
+        var names = new HashSet<String>();
+        for (var export : module.getExportSection().getExports()) {
+            if (!names.add(export.getName())) {
+                throw new InvalidException("duplicate export name " + export.getName());
+            }
+            var idx = export.getDesc().getIndex();
+            switch (export.getDesc().getType()) {
+                case FuncIdx:
+                    checkIndex(idx, functionTypes.length, "unknown function ");
+                    break;
+                case TableIdx:
+                    checkIndex(idx, tableCount, "unknown table ");
+                    break;
+                case MemIdx:
+                    checkIndex(idx, memoryCount, "unknown memory ");
+                    break;
+                case GlobalIdx:
+                    checkIndex(idx, globalTypes.length, "unknown global ");
+                    break;
+            }
+        }
+    }
+
+    private void validateStart() {
+        if (module.getStartSection() == null) {
+            return;
+        }
+        var idx = module.getStartSection().getStartIndex();
+        checkIndex(idx, functionTypes.length, "unknown function ");
+        var type = types[functionTypes[(int) idx]];
+        if (type.getParams().length != 0 || type.getReturns().length != 0) {
+            throw new InvalidException("start function");
+        }
+    }
+
+    private void validateFunctions() {
+        var bodies =
+                module.getCodeSection() == null
+                        ? new FunctionBody[0]
+                        : module.getCodeSection().getFunctionBodies();
+        if (bodies.length != functionTypes.length - importedFunctionCount) {
+            throw new MalformedException("function and code section have inconsistent lengths");
+        }
+        for (var i = 0; i < bodies.length; i++) {
+            validateFunction(importedFunctionCount + i, bodies[i]);
+        }
+    }
+
+    private static void checkIndex(long idx, int count, String message) {
+        if (idx < 0 || idx >= count) {
+            throw new InvalidException(message + idx);
+        }
+    }
+
+    /**
+     * Checks that {@code expr} is a constant expression producing a single value of type
+     * {@code expected}, reading only immutable globals below {@code visibleGlobals}.
+     */
+    private void validateConstant(Instruction[] expr, ValueType expected, int visibleGlobals) {
+        valueCount = 0;
+        frameCount = 0;
+        pushFrame(OpCode.BLOCK, NO_TYPES, SINGLE_TYPES[expected.ordinal()]);
+        for (var instruction : expr) {
+            var operands = instruction.getOperands();
+            switch (instruction.getOpcode()) {
+                case I32_CONST:
+                    push(ValueType.I32);
+                    break;
+                case I64_CONST:
+                    push(ValueType.I64);
+                    break;
+                case F32_CONST:
+                    push(ValueType.F32);
+                    break;
+                case F64_CONST:
+                    push(ValueType.F64);
+                    break;
+                case V128_CONST:
+                    push(ValueType.V128);
+                    break;
+                case REF_NULL:
+                    push(refType(operands[0]));
+                    break;
+                case REF_FUNC:
+                    checkIndex(operands[0], functionTypes.length, "unknown function ");
+                    push(ValueType.FuncRef);
+                    break;
+                case GLOBAL_GET:
+                    checkIndex(operands[0], visibleGlobals, "unknown global ");
+                    if (globalMutabilities[(int) operands[0]] != MutabilityType.Const) {
+                        throw new InvalidException("constant expression required");
+                    }
+                    push(globalTypes[(int) operands[0]]);
+                    break;
+                case I32_ADD:
+                case I32_SUB:
+                case I32_MUL:
+                    binary(ValueType.I32, ValueType.I32);
+                    break;
+                case I64_ADD:
+                case I64_SUB:
+                case I64_MUL:
+                    binary(ValueType.I64, ValueType.I64);
+                    break;
+                case END:
+                    break;
+                default:
+                    throw new InvalidException("constant expression required");
+            }
+        }
+        popFrame();
+    }
+
+    private void validateFunction(int funcIdx, FunctionBody body) {
+        var type = types[functionTypes[funcIdx]];
+        localGroupCount = 0;
+        long localCount = 0;
+        for (var param : type.getParams()) {
+            localCount = addLocals(localCount, param, 1);
+        }
+        for (var local : body.getLocals()) {
+            localCount = addLocals(localCount, local.getType(), FunctionBody.localCount(local));
+        }
+
+        valueCount = 0;
+        frameCount = 0;
+        pushFrame(OpCode.BLOCK, NO_TYPES, type.getReturns());
+        for (var instruction : body.getInstructions()) {
+            if (frameCount == 0) {
+                throw new MalformedException("section size mismatch, instructions after end");
+            }
+            validateInstruction(instruction, type);
+        }
+        if (frameCount != 0) {
+            throw new MalformedException("END opcode expected");
+        }
+    }
+
+    private long addLocals(long localCount, ValueType type, long count) {
+        if (type == null) {
+            throw new MalformedException("unknown value type");
+        }
+        var end = localCount + count;
+        if (count < 0 || end > 0xFFFF_FFFFL) {
+            throw new MalformedException("too many locals");
+        }
+        if (localGroupCount == localEnds.length) {
+            localEnds = Arrays.copyOf(localEnds, localGroupCount * 2);
+            localTypes = Arrays.copyOf(localTypes, localGroupCount * 2);
+        }
+        localEnds[localGroupCount] = end;
+        localTypes[localGroupCount] = type;
+        localGroupCount++;
+        return end;
+    }
+
+    private ValueType localType(long idx) {
+        if (localGroupCount == 0 || idx < 0 || idx >= localEnds[localGroupCount - 1]) {
+            throw new InvalidException("unknown local " + idx);
+        }
+        // the first group ending after idx
+        var group = Arrays.binarySearch(localEnds, 0, localGroupCount, idx + 1);
+        if (group < 0) {
+            group = -group - 1;
+        }
+        return localTypes[group];
+    }
+
+    private void validateInstruction(Instruction instruction, FunctionType functionType) {
+        var operands = instruction.getOperands();
+        switch (instruction.getOpcode()) {
+            case UNREACHABLE:
+                unreachable();
+                break;
+            case NOP:
+                break;
+            case BLOCK:
+            case LOOP:
+                {
+                    var params = blockParams(operands[0]);
+                    pop(params);
+                    pushFrame(instruction.getOpcode(), params, blockResults(operands[0]));
+                    break;
+                }
+            case IF:
+                {
+                    pop(ValueType.I32);
+                    var params = blockParams(operands[0]);
+                    pop(params);
+                    pushFrame(OpCode.IF, params, blockResults(operands[0]));
+                    break;
+                }
+            case ELSE:
+                {
+                    if (frameCount == 0 || frameOpcodes[frameCount - 1] != OpCode.IF) {
+                        throw new InvalidException("else without if");
+                    }
+                    var frame = popFrame();
+                    pushFrame(OpCode.ELSE, frameParams[frame], frameResults[frame]);
+                    break;
+                }
+            case END:
+                {
+                    var frame = popFrame();
+                    // an if without else must leave its params as its results
+                    if (frameOpcodes[frame] == OpCode.IF
+                            && !Arrays.equals(frameParams[frame], frameResults[frame])) {
+                        throw new InvalidException("type mismatch, if without else");
+                    }
+                    push(frameResults[frame]);
+                    break;
+                }
+            case BR:
+                pop(labelTypes(operands[0]));
+                unreachable();
+                break;
+            case BR_IF:
+                {
+                    pop(ValueType.I32);
+                    var labelTypes = labelTypes(operands[0]);
+                    pop(labelTypes);
+                    push(labelTypes);
+                    break;
+                }
+            case BR_TABLE:
+                {
+                    pop(ValueType.I32);
+                    var defaultTypes = labelTypes(operands[operands.length - 1]);
+                    var arity = defaultTypes.length;
+                    for (var i = 0; i < operands.length - 1; i++) {
+                        var labelTypes = labelTypes(operands[i]);
+                        if (labelTypes.length != arity) {
+                            throw new InvalidException("type mismatch, br_table arity");
+                        }
+                        checkTop(labelTypes);
+                    }
+                    pop(defaultTypes);
+                    unreachable();
+                    break;
+                }
+            case RETURN:
+                pop(functionType.getReturns());
+                unreachable();
+                break;
+            case CALL:
+                {
+                    checkIndex(operands[0], functionTypes.length, "unknown function ");
+                    var type = types[functionTypes[(int) operands[0]]];
+                    pop(type.getParams());
+                    push(type.getReturns());
+                    break;
+                }
+            case CALL_INDIRECT:
+                {
+                    checkIndex(operands[1], tableCount, "unknown table ");
+                    checkIndex(operands[0], types.length, "unknown type ");
+                    var type = types[(int) operands[0]];
+                    pop(ValueType.I32);
+                    pop(type.getParams());
+                    push(type.getReturns());
+                    break;
+                }
+            case RETURN_CALL:
+                {
+                    checkIndex(operands[0], functionTypes.length, "unknown function ");
+                    var type = types[functionTypes[(int) operands[0]]];
+                    pop(type.getParams());
+                    checkTailCallResults(type, functionType);
+                    unreachable();
+                    break;
+                }
+            case RETURN_CALL_INDIRECT:
+                {
+                    checkIndex(operands[1], tableCount, "unknown table ");
+                    checkIndex(operands[0], types.length, "unknown type ");
+                    var type = types[(int) operands[0]];
+                    pop(ValueType.I32);
+                    pop(type.getParams());
+                    checkTailCallResults(type, functionType);
+                    unreachable();
+                    break;
+                }
+            case DROP:
+                pop();
+                break;
+            case SELECT:
+                {
+                    pop(ValueType.I32);
+                    var t1 = pop();
+                    var t2 = pop();
+                    if (!isNumeric(t1) || !isNumeric(t2)) {
+                        throw new InvalidException("type mismatch, select of references");
+                    }
+                    if (t1 != t2 && t1 != null && t2 != null) {
+                        throw new InvalidException("type mismatch");
+                    }
+                    push(t1 == null ? t2 : t1);
+                    break;
+                }
+            case LOCAL_GET:
+                push(localType(operands[0]));
+                break;
+            case LOCAL_SET:
+                pop(localType(operands[0]));
+                break;
+            case LOCAL_TEE:
+                {
+                    var type = localType(operands[0]);
+                    pop(type);
+                    push(type);
+                    break;
+                }
+            case GLOBAL_GET:
+                checkIndex(operands[0], globalTypes.length, "unknown global ");
+                push(globalTypes[(int) operands[0]]);
+                break;
+            case GLOBAL_SET:
+                checkIndex(operands[0], globalTypes.length, "unknown global ");
+                if (globalMutabilities[(int) operands[0]] != MutabilityType.Var) {
+                    throw new InvalidException("global is immutable");
+                }
+                pop(globalTypes[(int) operands[0]]);
+                break;
+            case TABLE_GET:
+                checkIndex(operands[0], tableCount, "unknown table ");
+                pop(ValueType.I32);
+                push(ValueType.FuncRef);
+                break;
+            case TABLE_SET:
+                checkIndex(operands[0], tableCount, "unknown table ");
+                pop(ValueType.FuncRef);
+                pop(ValueType.I32);
+                break;
+            case TABLE_SIZE:
+                checkIndex(operands[0], tableCount, "unknown table ");
+                push(ValueType.I32);
+                break;
+            case TABLE_GROW:
+                checkIndex(operands[0], tableCount, "unknown table ");
+                pop(ValueType.I32);
+                pop(ValueType.FuncRef);
+                push(ValueType.I32);
+                break;
+            case TABLE_FILL:
+                checkIndex(operands[0], tableCount, "unknown table ");
+                pop(ValueType.I32);
+                pop(ValueType.FuncRef);
+                pop(ValueType.I32);
+                break;
+            case TABLE_COPY:
+                checkIndex(operands[0], tableCount, "unknown table ");
+                checkIndex(operands[1], tableCount, "unknown table ");
+                popI32s(3);
+                break;
+            case TABLE_INIT:
+                checkIndex(operands[0], elementCount, "unknown elem segment ");
+                checkIndex(operands[1], tableCount, "unknown table ");
+                popI32s(3);
+                break;
+            case ELEM_DROP:
+                checkIndex(operands[0], elementCount, "unknown elem segment ");
+                break;
+            case REF_NULL:
+                push(refType(operands[0]));
+                break;
+            case REF_IS_NULL:
+                {
+                    var type = pop();
+                    if (isNumeric(type) && type != null) {
+                        throw new InvalidException("type mismatch");
+                    }
+                    push(ValueType.I32);
+                    break;
+                }
+            case REF_FUNC:
+                checkIndex(operands[0], functionTypes.length, "unknown function ");
+                if (!declaredFunctions[(int) operands[0]]) {
+                    throw new InvalidException("undeclared function reference");
+                }
+                push(ValueType.FuncRef);
+                break;
+            case I32_LOAD:
+                load(operands, 4, ValueType.I32);
+                break;
+            case I64_LOAD:
+                load(operands, 8, ValueType.I64);
+                break;
+            case F32_LOAD:
+                load(operands, 4, ValueType.F32);
+                break;
+            case F64_LOAD:
+                load(operands, 8, ValueType.F64);
+                break;
+            case I32_LOAD8_S:
+            case I32_LOAD8_U:
+                load(operands, 1, ValueType.I32);
+                break;
+            case I32_LOAD16_S:
+            case I32_LOAD16_U:
+                load(operands, 2, ValueType.I32);
+                break;
+            case I64_LOAD8_S:
+            case I64_LOAD8_U:
+                load(operands, 1, ValueType.I64);
+                break;
+            case I64_LOAD16_S:
+            case I64_LOAD16_U:
+                load(operands, 2, ValueType.I64);
+                break;
+            case I64_LOAD32_S:
+            case I64_LOAD32_U:
+                load(operands, 4, ValueType.I64);
+                break;
+            case I32_STORE:
+                store(operands, 4, ValueType.I32);
+                break;
+            case I64_STORE:
+                store(operands, 8, ValueType.I64);
+                break;
+            case F32_STORE:
+                store(operands, 4, ValueType.F32);
+                break;
+            case F64_STORE:
+                store(operands, 8, ValueType.F64);
+                break;
+            case I32_STORE8:
+                store(operands, 1, ValueType.I32);
+                break;
+            case I32_STORE16:
+                store(operands, 2, ValueType.I32);
+                break;
+            case I64_STORE8:
+                store(operands, 1, ValueType.I64);
+                break;
+            case I64_STORE16:
+                store(operands, 2, ValueType.I64);
+                break;
+            case I64_STORE32:
+                store(operands, 4, ValueType.I64);
+                break;
+            case MEMORY_SIZE:
+                checkIndex(operands[0], memoryCount, "unknown memory ");
+                push(addressType(operands[0]));
+                break;
+            case MEMORY_GROW:
+                checkIndex(operands[0], memoryCount, "unknown memory ");
+                pop(addressType(operands[0]));
+                push(addressType(operands[0]));
+                break;
+            case MEMORY_INIT:
+                checkIndex(operands[1], memoryCount, "unknown memory ");
+                checkIndex(operands[0], dataCount, "unknown data segment ");
+                popI32s(2);
+                pop(addressType(operands[1]));
+                break;
+            case DATA_DROP:
+                checkIndex(operands[0], dataCount, "unknown data segment ");
+                break;
+            case MEMORY_COPY:
+                checkIndex(operands[0], memoryCount, "unknown memory ");
+                checkIndex(operands[1], memoryCount, "unknown memory ");
+                // the size fits both memories, it is an i64 only when both are 64-bit
+                pop(
+                        addressType(operands[0]) == ValueType.I64
+                                        && addressType(operands[1]) == ValueType.I64
+                                ? ValueType.I64
+                                : ValueType.I32);
+                pop(addressType(operands[1]));
+                pop(addressType(operands[0]));
+                break;
+            case MEMORY_FILL:
+                checkIndex(operands[0], memoryCount, "unknown memory ");
+                pop(addressType(operands[0]));
+                pop(ValueType.I32);
+                pop(addressType(operands[0]));
+                break;
+            case MEMORY_ATOMIC_NOTIFY:
+                checkAtomicAccess(operands, 4);
+                pop(ValueType.I32);
+                pop(addressType(operands[2]));
+                push(ValueType.I32);
+                break;
+            case MEMORY_ATOMIC_WAIT32:
+                checkAtomicAccess(operands, 4);
+                pop(ValueType.I64);
+                pop(ValueType.I32);
+                pop(addressType(operands[2]));
+                push(ValueType.I32);
+                break;
+            case MEMORY_ATOMIC_WAIT64:
+                checkAtomicAccess(operands, 8);
+                pop(ValueType.I64);
+                pop(ValueType.I64);
+                pop(addressType(operands[2]));
+                push(ValueType.I32);
+                break;
+            case ATOMIC_FENCE:
+                break;
+            case I32_ATOMIC_LOAD:
+                atomicLoad(operands, 4, ValueType.I32);
+                break;
+            case I64_ATOMIC_LOAD:
+                atomicLoad(operands, 8, ValueType.I64);
+                break;
+            case I32_ATOMIC_LOAD8_U:
+                atomicLoad(operands, 1, ValueType.I32);
+                break;
+            case I32_ATOMIC_LOAD16_U:
+                atomicLoad(operands, 2, ValueType.I32);
+                break;
+            case I64_ATOMIC_LOAD8_U:
+                atomicLoad(operands, 1, ValueType.I64);
+                break;
+            case I64_ATOMIC_LOAD16_U:
+                atomicLoad(operands, 2, ValueType.I64);
+                break;
+            case I64_ATOMIC_LOAD32_U:
+                atomicLoad(operands, 4, ValueType.I64);
+                break;
+            case I32_ATOMIC_STORE:
+                atomicStore(operands, 4, ValueType.I32);
+                break;
+            case I64_ATOMIC_STORE:
+                atomicStore(operands, 8, ValueType.I64);
+                break;
+            case I32_ATOMIC_STORE8:
+                atomicStore(operands, 1, ValueType.I32);
+                break;
+            case I32_ATOMIC_STORE16:
+                atomicStore(operands, 2, ValueType.I32);
+                break;
+            case I64_ATOMIC_STORE8:
+                atomicStore(operands, 1, ValueType.I64);
+                break;
+            case I64_ATOMIC_STORE16:
+                atomicStore(operands, 2, ValueType.I64);
+                break;
+            case I64_ATOMIC_STORE32:
+                atomicStore(operands, 4, ValueType.I64);
+                break;
+            case I32_ATOMIC_RMW_ADD:
+            case I32_ATOMIC_RMW_SUB:
+            case I32_ATOMIC_RMW_AND:
+            case I32_ATOMIC_RMW_OR:
+            case I32_ATOMIC_RMW_XOR:
+            case I32_ATOMIC_RMW_XCHG:
+                atomicRmw(operands, 4, ValueType.I32);
+                break;
+            case I64_ATOMIC_RMW_ADD:
+            case I64_ATOMIC_RMW_SUB:
+            case I64_ATOMIC_RMW_AND:
+            case I64_ATOMIC_RMW_OR:
+            case I64_ATOMIC_RMW_XOR:
+            case I64_ATOMIC_RMW_XCHG:
+                atomicRmw(operands, 8, ValueType.I64);
+                break;
+            case I32_ATOMIC_RMW8_ADD_U:
+            case I32_ATOMIC_RMW8_SUB_U:
+            case I32_ATOMIC_RMW8_AND_U:
+            case I32_ATOMIC_RMW8_OR_U:
+            case I32_ATOMIC_RMW8_XOR_U:
+            case I32_ATOMIC_RMW8_XCHG_U:
+                atomicRmw(operands, 1, ValueType.I32);
+                break;
+            case I32_ATOMIC_RMW16_ADD_U:
+            case I32_ATOMIC_RMW16_SUB_U:
+            case I32_ATOMIC_RMW16_AND_U:
+            case I32_ATOMIC_RMW16_OR_U:
+            case I32_ATOMIC_RMW16_XOR_U:
+            case I32_ATOMIC_RMW16_XCHG_U:
+                atomicRmw(operands, 2, ValueType.I32);
+                break;
+            case I64_ATOMIC_RMW8_ADD_U:
+            case I64_ATOMIC_RMW8_SUB_U:
+            case I64_ATOMIC_RMW8_AND_U:
+            case I64_ATOMIC_RMW8_OR_U:
+            case I64_ATOMIC_RMW8_XOR_U:
+            case I64_ATOMIC_RMW8_XCHG_U:
+                atomicRmw(operands, 1, ValueType.I64);
+                break;
+            case I64_ATOMIC_RMW16_ADD_U:
+            case I64_ATOMIC_RMW16_SUB_U:
+            case I64_ATOMIC_RMW16_AND_U:
+            case I64_ATOMIC_RMW16_OR_U:
+            case I64_ATOMIC_RMW16_XOR_U:
+            case I64_ATOMIC_RMW16_XCHG_U:
+                atomicRmw(operands, 2, ValueType.I64);
+                break;
+            case I64_ATOMIC_RMW32_ADD_U:
+            case I64_ATOMIC_RMW32_SUB_U:
+            case I64_ATOMIC_RMW32_AND_U:
+            case I64_ATOMIC_RMW32_OR_U:
+            case I64_ATOMIC_RMW32_XOR_U:
+            case I64_ATOMIC_RMW32_XCHG_U:
+                atomicRmw(operands, 4, ValueType.I64);
+                break;
+            case I32_ATOMIC_RMW_CMPXCHG:
+                atomicCmpxchg(operands, 4, ValueType.I32);
+                break;
+            case I64_ATOMIC_RMW_CMPXCHG:
+                atomicCmpxchg(operands, 8, ValueType.I64);
+                break;
+            case I32_ATOMIC_RMW8_CMPXCHG_U:
+                atomicCmpxchg(operands, 1, ValueType.I32);
+                break;
+            case I32_ATOMIC_RMW16_CMPXCHG_U:
+                atomicCmpxchg(operands, 2, ValueType.I32);
+                break;
+            case I64_ATOMIC_RMW8_CMPXCHG_U:
+                atomicCmpxchg(operands, 1, ValueType.I64);
+                break;
+            case I64_ATOMIC_RMW16_CMPXCHG_U:
+                atomicCmpxchg(operands, 2, ValueType.I64);
+                break;
+            case I64_ATOMIC_RMW32_CMPXCHG_U:
+                atomicCmpxchg(operands, 4, ValueType.I64);
+                break;
+            case I32_CONST:
+                push(ValueType.I32);
+                break;
+            case I64_CONST:
+                push(ValueType.I64);
+                break;
+            case F32_CONST:
+                push(ValueType.F32);
+                break;
+            case F64_CONST:
+                push(ValueType.F64);
+                break;
+            case I32_EQZ:
+            case I32_CLZ:
+            case I32_CTZ:
+            case I32_POPCNT:
+            case I32_EXTEND_8_S:
+            case I32_EXTEND_16_S:
+                unary(ValueType.I32, ValueType.I32);
+                break;
+            case I32_EQ:
+            case I32_NE:
+            case I32_LT_S:
+            case I32_LT_U:
+            case I32_GT_S:
+            case I32_GT_U:
+            case I32_LE_S:
+            case I32_LE_U:
+            case I32_GE_S:
+            case I32_GE_U:
+            case I32_ADD:
+            case I32_SUB:
+            case I32_MUL:
+            case I32_DIV_S:
+            case I32_DIV_U:
+            case I32_REM_S:
+            case I32_REM_U:
+            case I32_AND:
+            case I32_OR:
+            case I32_XOR:
+            case I32_SHL:
+            case I32_SHR_S:
+            case I32_SHR_U:
+            case I32_ROTL:
+            case I32_ROTR:
+                binary(ValueType.I32, ValueType.I32);
+                break;
+            case I64_EQZ:
+                unary(ValueType.I64, ValueType.I32);
+                break;
+            case I64_CLZ:
+            case I64_CTZ:
+            case I64_POPCNT:
+            case I64_EXTEND_8_S:
+            case I64_EXTEND_16_S:
+            case I64_EXTEND_32_S:
+                unary(ValueType.I64, ValueType.I64);
+                break;
+            case I64_EQ:
+            case I64_NE:
+            case I64_LT_S:
+            case I64_LT_U:
+            case I64_GT_S:
+            case I64_GT_U:
+            case I64_LE_S:
+            case I64_LE_U:
+            case I64_GE_S:
+            case I64_GE_U:
+                binary(ValueType.I64, ValueType.I32);
+                break;
+            case I64_ADD:
+            case I64_SUB:
+            case I64_MUL:
+            case I64_DIV_S:
+            case I64_DIV_U:
+            case I64_REM_S:
+            case I64_REM_U:
+            case I64_AND:
+            case I64_OR:
+            case I64_XOR:
+            case I64_SHL:
+            case I64_SHR_S:
+            case I64_SHR_U:
+            case I64_ROTL:
+            case I64_ROTR:
+                binary(ValueType.I64, ValueType.I64);
+                break;
+            case F32_ABS:
+            case F32_NEG:
+            case F32_CEIL:
+            case F32_FLOOR:
+            case F32_TRUNC:
+            case F32_NEAREST:
+            case F32_SQRT:
+                unary(ValueType.F32, ValueType.F32);
+                break;
+            case F32_EQ:
+            case F32_NE:
+            case F32_LT:
+            case F32_GT:
+            case F32_LE:
+            case F32_GE:
+                binary(ValueType.F32, ValueType.I32);
+                break;
+            case F32_ADD:
+            case F32_SUB:
+            case F32_MUL:
+            case F32_DIV:
+            case F32_MIN:
+            case F32_MAX:
+            case F32_COPYSIGN:
+                binary(ValueType.F32, ValueType.F32);
+                break;
+            case F64_ABS:
+            case F64_NEG:
+            case F64_CEIL:
+            case F64_FLOOR:
+            case F64_TRUNC:
+            case F64_NEAREST:
+            case F64_SQRT:
+                unary(ValueType.F64, ValueType.F64);
+                break;
+            case F64_EQ:
+            case F64_NE:
+            case F64_LT:
+            case F64_GT:
+            case F64_LE:
+            case F64_GE:
+                binary(ValueType.F64, ValueType.I32);
+                break;
+            case F64_ADD:
+            case F64_SUB:
+            case F64_MUL:
+            case F64_DIV:
+            case F64_MIN:
+            case F64_MAX:
+            case F64_COPYSIGN:
+                binary(ValueType.F64, ValueType.F64);
+                break;
+            case I32_WRAP_I64:
+                unary(ValueType.I64, ValueType.I32);
+                break;
+            case I32_TRUNC_F32_S:
+            case I32_TRUNC_F32_U:
+            case I32_TRUNC_SAT_F32_S:
+            case I32_TRUNC_SAT_F32_U:
+            case I32_REINTERPRET_F32:
+                unary(ValueType.F32, ValueType.I32);
+                break;
+            case I32_TRUNC_F64_S:
+            case I32_TRUNC_F64_U:
+            case I32_TRUNC_SAT_F64_S:
+            case I32_TRUNC_SAT_F64_U:
+                unary(ValueType.F64, ValueType.I32);
+                break;
+            case I64_EXTEND_I32_S:
+            case I64_EXTEND_I32_U:
+                unary(ValueType.I32, ValueType.I64);
+                break;
+            case I64_TRUNC_F32_S:
+            case I64_TRUNC_F32_U:
+            case I64_TRUNC_SAT_F32_S:
+            case I64_TRUNC_SAT_F32_U:
+                unary(ValueType.F32, ValueType.I64);
+                break;
+            case I64_TRUNC_F64_S:
+            case I64_TRUNC_F64_U:
+            case I64_TRUNC_SAT_F64_S:
+            case I64_TRUNC_SAT_F64_U:
+            case I64_REINTERPRET_F64:
+                unary(ValueType.F64, ValueType.I64);
+                break;
+            case F32_CONVERT_I32_S:
+            case F32_CONVERT_I32_U:
+            case F32_REINTERPRET_I32:
+                unary(ValueType.I32, ValueType.F32);
+                break;
+            case F32_CONVERT_I64_S:
+            case F32_CONVERT_I64_U:
+                unary(ValueType.I64, ValueType.F32);
+                break;
+            case F32_DEMOTE_F64:
+                unary(ValueType.F64, ValueType.F32);
+                break;
+            case F64_CONVERT_I32_S:
+            case F64_CONVERT_I32_U:
+                unary(ValueType.I32, ValueType.F64);
+                break;
+            case F64_CONVERT_I64_S:
+            case F64_CONVERT_I64_U:
+            case F64_REINTERPRET_I64:
+                unary(ValueType.I64, ValueType.F64);
+                break;
+            case F64_PROMOTE_F32:
+                unary(ValueType.F32, ValueType.F64);
+                break;
+            case V128_LOAD8_SPLAT:
+                load(operands, 1, ValueType.V128);
+                break;
+            case V128_LOAD16_SPLAT:
+                load(operands, 2, ValueType.V128);
+                break;
+            case V128_LOAD32_SPLAT:
+            case V128_LOAD32_ZERO:
+                load(operands, 4, ValueType.V128);
+                break;
+            case V128_LOAD8X8_S:
+            case V128_LOAD8X8_U:
+            case V128_LOAD16X4_S:
+            case V128_LOAD16X4_U:
+            case V128_LOAD32X2_S:
+            case V128_LOAD32X2_U:
+            case V128_LOAD64_SPLAT:
+            case V128_LOAD64_ZERO:
+                load(operands, 8, ValueType.V128);
+                break;
+            case V128_LOAD:
+                load(operands, 16, ValueType.V128);
+                break;
+            case V128_STORE:
+                store(operands, 16, ValueType.V128);
+                break;
+            case V128_LOAD8_LANE:
+                checkMemoryAccess(operands, 1);
+                checkLane(operands[3], 16);
+                pop(ValueType.V128);
+                pop(addressType(operands[2]));
+                push(ValueType.V128);
+                break;
+            case V128_LOAD16_LANE:
+                checkMemoryAccess(operands, 2);
+                checkLane(operands[3], 8);
+                pop(ValueType.V128);
+                pop(addressType(operands[2]));
+                push(ValueType.V128);
+                break;
+            case V128_LOAD32_LANE:
+                checkMemoryAccess(operands, 4);
+                checkLane(operands[3], 4);
+                pop(ValueType.V128);
+                pop(addressType(operands[2]));
+                push(ValueType.V128);
+                break;
+            case V128_LOAD64_LANE:
+                checkMemoryAccess(operands, 8);
+                checkLane(operands[3], 2);
+                pop(ValueType.V128);
+                pop(addressType(operands[2]));
+                push(ValueType.V128);
+                break;
+            case V128_STORE8_LANE:
+                checkMemoryAccess(operands, 1);
+                checkLane(operands[3], 16);
+                pop(ValueType.V128);
+                pop(addressType(operands[2]));
+                break;
+            case V128_STORE16_LANE:
+                checkMemoryAccess(operands, 2);
+                checkLane(operands[3], 8);
+                pop(ValueType.V128);
+                pop(addressType(operands[2]));
+                break;
+            case V128_STORE32_LANE:
+                checkMemoryAccess(operands, 4);
+                checkLane(operands[3], 4);
+                pop(ValueType.V128);
+                pop(addressType(operands[2]));
+                break;
+            case V128_STORE64_LANE:
+                checkMemoryAccess(operands, 8);
+                checkLane(operands[3], 2);
+                pop(ValueType.V128);
+                pop(addressType(operands[2]));
+                break;
+            case V128_CONST:
+                push(ValueType.V128);
+                break;
+            case I8X16_SHUFFLE:
+                for (var i = 0; i < 16; i++) {
+                    checkLane((operands[i / 8] >>> (i % 8 * 8)) & 0xFF, 32);
+                }
+                binary(ValueType.V128, ValueType.V128);
+                break;
+            case I8X16_SPLAT:
+            case I16X8_SPLAT:
+            case I32X4_SPLAT:
+                unary(ValueType.I32, ValueType.V128);
+                break;
+            case I64X2_SPLAT:
+                unary(ValueType.I64, ValueType.V128);
+                break;
+            case F32X4_SPLAT:
+                unary(ValueType.F32, ValueType.V128);
+                break;
+            case F64X2_SPLAT:
+                unary(ValueType.F64, ValueType.V128);
+                break;
+            case I8X16_EXTRACT_LANE_S:
+            case I8X16_EXTRACT_LANE_U:
+                checkLane(operands[0], 16);
+                unary(ValueType.V128, ValueType.I32);
+                break;
+            case I16X8_EXTRACT_LANE_S:
+            case I16X8_EXTRACT_LANE_U:
+                checkLane(operands[0], 8);
+                unary(ValueType.V128, ValueType.I32);
+                break;
+            case I32X4_EXTRACT_LANE:
+                checkLane(operands[0], 4);
+                unary(ValueType.V128, ValueType.I32);
+                break;
+            case I64X2_EXTRACT_LANE:
+                checkLane(operands[0], 2);
+                unary(ValueType.V128, ValueType.I64);
+                break;
+            case F32X4_EXTRACT_LANE:
+                checkLane(operands[0], 4);
+                unary(ValueType.V128, ValueType.F32);
+                break;
+            case F64X2_EXTRACT_LANE:
+                checkLane(operands[0], 2);
+                unary(ValueType.V128, ValueType.F64);
+                break;
+            case I8X16_REPLACE_LANE:
+                checkLane(operands[0], 16);
+                pop(ValueType.I32);
+                unary(ValueType.V128, ValueType.V128);
+                break;
+            case I16X8_REPLACE_LANE:
+                checkLane(operands[0], 8);
+                pop(ValueType.I32);
+                unary(ValueType.V128, ValueType.V128);
+                break;
+            case I32X4_REPLACE_LANE:
+                checkLane(operands[0], 4);
+                pop(ValueType.I32);
+                unary(ValueType.V128, ValueType.V128);
+                break;
+            case I64X2_REPLACE_LANE:
+                checkLane(operands[0], 2);
+                pop(ValueType.I64);
+                unary(ValueType.V128, ValueType.V128);
+                break;
+            case F32X4_REPLACE_LANE:
+                checkLane(operands[0], 4);
+                pop(ValueType.F32);
+                unary(ValueType.V128, ValueType.V128);
+                break;
+            case F64X2_REPLACE_LANE:
+                checkLane(operands[0], 2);
+                pop(ValueType.F64);
+                unary(ValueType.V128, ValueType.V128);
+                break;
+            case V128_ANY_TRUE:
+            case I8X16_ALL_TRUE:
+            case I8X16_BITMASK:
+            case I16X8_ALL_TRUE:
+            case I16X8_BITMASK:
+            case I32X4_ALL_TRUE:
+            case I32X4_BITMASK:
+            case I64X2_ALL_TRUE:
+            case I64X2_BITMASK:
+                unary(ValueType.V128, ValueType.I32);
+                break;
+            case I8X16_SHL:
+            case I8X16_SHR_S:
+            case I8X16_SHR_U:
+            case I16X8_SHL:
+            case I16X8_SHR_S:
+            case I16X8_SHR_U:
+            case I32X4_SHL:
+            case I32X4_SHR_S:
+            case I32X4_SHR_U:
+            case I64X2_SHL:
+            case I64X2_SHR_S:
+            case I64X2_SHR_U:
+                pop(ValueType.I32);
+                unary(ValueType.V128, ValueType.V128);
+                break;
+            case V128_BITSELECT:
+                pop(ValueType.V128);
+                binary(ValueType.V128, ValueType.V128);
+                break;
+            case V128_NOT:
+            case F32X4_DEMOTE_F64X2_ZERO:
+            case F64X2_PROMOTE_LOW_F32X4:
+            case I8X16_ABS:
+            case I8X16_NEG:
+            case I8X16_POPCNT:
+            case F32X4_CEIL:
+            case F32X4_FLOOR:
+            case F32X4_TRUNC:
+            case F32X4_NEAREST:
+            case F64X2_CEIL:
+            case F64X2_FLOOR:
+            case F64X2_TRUNC:
+            case I16X8_EXTADD_PAIRWISE_I8X16_S:
+            case I16X8_EXTADD_PAIRWISE_I8X16_U:
+            case I32X4_EXTADD_PAIRWISE_I16X8_S:
+            case I32X4_EXTADD_PAIRWISE_I16X8_U:
+            case I16X8_ABS:
+            case I16X8_NEG:
+            case I16X8_EXTEND_LOW_I8X16_S:
+            case I16X8_EXTEND_HIGH_I8X16_S:
+            case I16X8_EXTEND_LOW_I8X16_U:
+            case I16X8_EXTEND_HIGH_I8X16_U:
+            case F64X2_NEAREST:
+            case I32X4_ABS:
+            case I32X4_NEG:
+            case I32X4_EXTEND_LOW_I16X8_S:
+            case I32X4_EXTEND_HIGH_I16X8_S:
+            case I32X4_EXTEND_LOW_I16X8_U:
+            case I32X4_EXTEND_HIGH_I16X8_U:
+            case I64X2_ABS:
+            case I64X2_NEG:
+            case I64X2_EXTEND_LOW_I32X4_S:
+            case I64X2_EXTEND_HIGH_I32X4_S:
+            case I64X2_EXTEND_LOW_I32X4_U:
+            case I64X2_EXTEND_HIGH_I32X4_U:
+            case F32X4_ABS:
+            case F32X4_NEG:
+            case F32X4_SQRT:
+            case F64X2_ABS:
+            case F64X2_NEG:
+            case F64X2_SQRT:
+            case I32X4_TRUNC_SAT_F32X4_S:
+            case I32X4_TRUNC_SAT_F32X4_U:
+            case F32X4_CONVERT_I32X4_S:
+            case F32X4_CONVERT_I32X4_U:
+            case I32X4_TRUNC_SAT_F64X2_S_ZERO:
+            case I32X4_TRUNC_SAT_F64X2_U_ZERO:
+            case F64X2_CONVERT_LOW_I32X4_S:
+            case F64X2_CONVERT_LOW_I32X4_U:
+                unary(ValueType.V128, ValueType.V128);
+                break;
+            case I8X16_SWIZZLE:
+            case I8X16_EQ:
+            case I8X16_NE:
+            case I8X16_LT_S:
+            case I8X16_LT_U:
+            case I8X16_GT_S:
+            case I8X16_GT_U:
+            case I8X16_LE_S:
+            case I8X16_LE_U:
+            case I8X16_GE_S:
+            case I8X16_GE_U:
+            case I16X8_EQ:
+            case I16X8_NE:
+            case I16X8_LT_S:
+            case I16X8_LT_U:
+            case I16X8_GT_S:
+            case I16X8_GT_U:
+            case I16X8_LE_S:
+            case I16X8_LE_U:
+            case I16X8_GE_S:
+            case I16X8_GE_U:
+            case I32X4_EQ:
+            case I32X4_NE:
+            case I32X4_LT_S:
+            case I32X4_LT_U:
+            case I32X4_GT_S:
+            case I32X4_GT_U:
+            case I32X4_LE_S:
+            case I32X4_LE_U:
+            case I32X4_GE_S:
+            case I32X4_GE_U:
+            case F32X4_EQ:
+            case F32X4_NE:
+            case F32X4_LT:
+            case F32X4_GT:
+            case F32X4_LE:
+            case F32X4_GE:
+            case F64X2_EQ:
+            case F64X2_NE:
+            case F64X2_LT:
+            case F64X2_GT:
+            case F64X2_LE:
+            case F64X2_GE:
+            case V128_AND:
+            case V128_ANDNOT:
+            case V128_OR:
+            case V128_XOR:
+            case I8X16_NARROW_I16X8_S:
+            case I8X16_NARROW_I16X8_U:
+            case I8X16_ADD:
+            case I8X16_ADD_SAT_S:
+            case I8X16_ADD_SAT_U:
+            case I8X16_SUB:
+            case I8X16_SUB_SAT_S:
+            case I8X16_SUB_SAT_U:
+            case I8X16_MIN_S:
+            case I8X16_MIN_U:
+            case I8X16_MAX_S:
+            case I8X16_MAX_U:
+            case I8X16_AVGR_U:
+            case I16X8_Q15MULR_SAT_S:
+            case I16X8_NARROW_I32X4_S:
+            case I16X8_NARROW_I32X4_U:
+            case I16X8_ADD:
+            case I16X8_ADD_SAT_S:
+            case I16X8_ADD_SAT_U:
+            case I16X8_SUB:
+            case I16X8_SUB_SAT_S:
+            case I16X8_SUB_SAT_U:
+            case I16X8_MUL:
+            case I16X8_MIN_S:
+            case I16X8_MIN_U:
+            case I16X8_MAX_S:
+            case I16X8_MAX_U:
+            case I16X8_AVGR_U:
+            case I16X8_EXTMUL_LOW_I8X16_S:
+            case I16X8_EXTMUL_HIGH_I8X16_S:
+            case I16X8_EXTMUL_LOW_I8X16_U:
+            case I16X8_EXTMUL_HIGH_I8X16_U:
+            case I32X4_ADD:
+            case I32X4_SUB:
+            case I32X4_MUL:
+            case I32X4_MIN_S:
+            case I32X4_MIN_U:
+            case I32X4_MAX_S:
+            case I32X4_MAX_U:
+            case I32X4_DOT_I16X8_S:
+            case I32X4_EXTMUL_LOW_I16X8_S:
+            case I32X4_EXTMUL_HIGH_I16X8_S:
+            case I32X4_EXTMUL_LOW_I16X8_U:
+            case I32X4_EXTMUL_HIGH_I16X8_U:
+            case I64X2_ADD:
+            case I64X2_SUB:
+            case I64X2_MUL:
+            case I64X2_EQ:
+            case I64X2_NE:
+            case I64X2_LT_S:
+            case I64X2_GT_S:
+            case I64X2_LE_S:
+            case I64X2_GE_S:
+            case I64X2_EXTMUL_LOW_I32X4_S:
+            case I64X2_EXTMUL_HIGH_I32X4_S:
+            case I64X2_EXTMUL_LOW_I32X4_U:
+            case I64X2_EXTMUL_HIGH_I32X4_U:
+            case F32X4_ADD:
+            case F32X4_SUB:
+            case F32X4_MUL:
+            case F32X4_DIV:
+            case F32X4_MIN:
+            case F32X4_MAX:
+            case F32X4_PMIN:
+            case F32X4_PMAX:
+            case F64X2_ADD:
+            case F64X2_SUB:
+            case F64X2_MUL:
+            case F64X2_DIV:
+            case F64X2_MIN:
+            case F64X2_MAX:
+            case F64X2_PMIN:
+            case F64X2_PMAX:
+                binary(ValueType.V128, ValueType.V128);
+                break;
+            default:
+                throw new InvalidException("unsupported instruction " + instruction.getOpcode());
+        }
+    }
+
+    private void load(long[] operands, int width, ValueType type) {
+        checkMemoryAccess(operands, width);
+        pop(addressType(operands[2]));
+        push(type);
+    }
+
+    private void store(long[] operands, int width, ValueType type) {
+        checkMemoryAccess(operands, width);
+        pop(type);
+        pop(addressType(operands[2]));
+    }
+
+    private void checkMemoryAccess(long[] operands, int width) {
+        checkIndex(operands[2], memoryCount, "unknown memory ");
+        var align = operands[0];
+        if (align >= 32 || (1 << align) > width) {
+            throw new InvalidException("alignment must not be larger than natural");
+        }
+        checkOffset(operands[1], operands[2]);
+    }
+
+    private void atomicLoad(long[] operands, int width, ValueType type) {
+        checkAtomicAccess(operands, width);
+        pop(addressType(operands[2]));
+        push(type);
+    }
+
+    private void atomicStore(long[] operands, int width, ValueType type) {
+        checkAtomicAccess(operands, width);
+        pop(type);
+        pop(addressType(operands[2]));
+    }
+
+    private void atomicRmw(long[] operands, int width, ValueType type) {
+        checkAtomicAccess(operands, width);
+        pop(type);
+        pop(addressType(operands[2]));
+        push(type);
+    }
+
+    private void atomicCmpxchg(long[] operands, int width, ValueType type) {
+        checkAtomicAccess(operands, width);
+        pop(type);
+        pop(type);
+        pop(addressType(operands[2]));
+        push(type);
+    }
+
+    // unlike the plain accesses, the atomic ones must declare their natural alignment
+    private void checkAtomicAccess(long[] operands, int width) {
+        checkIndex(operands[2], memoryCount, "unknown memory ");
+        var align = operands[0];
+        if (align >= 32 || (1 << align) != width) {
+            throw new InvalidException("alignment must be exactly natural");
+        }
+        checkOffset(operands[1], operands[2]);
+    }
+
+    // the offset of a 32 bits memory is an u32, a 64 bits one takes any u64
+    private void checkOffset(long offset, long memoryIdx) {
+        if (addressType(memoryIdx) == ValueType.I32 && (offset >>> 32) != 0) {
+            throw new InvalidException("offset out of range");
+        }
+    }
+
+    private ValueType addressType(long memoryIdx) {
+        return memoryAddressTypes[(int) memoryIdx];
+    }
+
+    private static void checkLane(long lane, int laneCount) {
+        if (lane >= laneCount) {
+            throw new InvalidException("invalid lane index " + lane);
+        }
+    }
+
+    private void unary(ValueType in, ValueType out) {
+        pop(in);
+        push(out);
+    }
+
+    private void binary(ValueType in, ValueType out) {
+        pop(in);
+        pop(in);
+        push(out);
+    }
+
+    private void popI32s(int count) {
+        for (var i = 0; i < count; i++) {
+            pop(ValueType.I32);
+        }
+    }
+
+    private static boolean isNumeric(ValueType type) {
+        return type != ValueType.FuncRef && type != ValueType.ExternRef;
+    }
+
+    private static ValueType refType(long id) {
+        var type = ValueType.byId(id);
+        if (type != ValueType.FuncRef && type != ValueType.ExternRef) {
+            throw new MalformedException("malformed reference type " + id);
+        }
+        return type;
+    }
+
+    // block types are either empty (0x40), a single value type or an index in the type section
+    private ValueType[] blockParams(long typeId) {
+        if (typeId == 0x40 || ValueType.byId(typeId) != null) {
+            return NO_TYPES;
+        }
+        return types[typeIndex(typeId)].getParams();
+    }
+
+    private ValueType[] blockResults(long typeId) {
+        if (typeId == 0x40) {
+            return NO_TYPES;
+        }
+        var type = ValueType.byId(typeId);
+        if (type != null) {
+            return SINGLE_TYPES[type.ordinal()];
+        }
+        return types[typeIndex(typeId)].getReturns();
+    }
+
+    private ValueType[] labelTypes(long depth) {
+        if (depth < 0 || depth >= frameCount) {
+            throw new InvalidException("unknown label " + depth);
+        }
+        var frame = frameCount - 1 - (int) depth;
+        return frameOpcodes[frame] == OpCode.LOOP ? frameParams[frame] : frameResults[frame];
+    }
+
+    /**
+     * The callee of a tail call returns straight to our caller, so it must produce exactly
+     * the results of the current function.
+     */
+    private static void checkTailCallResults(FunctionType callee, FunctionType caller) {
+        if (!Arrays.equals(callee.getReturns(), caller.getReturns())) {
+            throw new InvalidException("type mismatch, tail call results");
+        }
+    }
+
+    private void push(ValueType type) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount * 2);
+        }
+        values[valueCount++] = type;
+    }
+
+    private void push(ValueType[] types) {
+        for (var type : types) {
+            push(type);
+        }
+    }
+
+    private ValueType pop() {
+        var frame = frameCount - 1;
+        if (valueCount == frameHeights[frame]) {
+            if (frameUnreachable[frame]) {
+                return null;
+            }
+            throw new InvalidException("type mismatch, the stack is empty");
+        }
+        return values[--valueCount];
+    }
+
+    private ValueType pop(ValueType expected) {
+        var actual = pop();
+        if (actual != expected && actual != null && expected != null) {
+            throw new InvalidException(
+                    "type mismatch, expected " + expected + " but found " + actual);
+        }
+        return actual == null ? expected : actual;
+    }
+
+    private void pop(ValueType[] types) {
+        for (var i = types.length - 1; i >= 0; i--) {
+            pop(types[i]);
+        }
+    }
+
+    // checks the values on top of the stack against types without popping them
+    private void checkTop(ValueType[] types) {
+        var frame = frameCount - 1;
+        var position = valueCount;
+        for (var i = types.length - 1; i >= 0; i--) {
+            if (position == frameHeights[frame]) {
+                if (frameUnreachable[frame]) {
+                    return;
+                }
+                throw new InvalidException("type mismatch, the stack is empty");
+            }
+            var actual = values[--position];
+            if (actual != types[i] && actual != null) {
+                throw new InvalidException(
+                        "type mismatch, expected " + types[i] + " but found " + actual);
+            }
+        }
+    }
+
+    private void pushFrame(OpCode opcode, ValueType[] params, ValueType[] results) {
+        if (frameCount == frameOpcodes.length) {
+            var capacity = frameCount * 2;
+            frameOpcodes = Arrays.copyOf(frameOpcodes, capacity);
+            frameParams = Arrays.copyOf(frameParams, capacity);
+            frameResults = Arrays.copyOf(frameResults, capacity);
+            frameHeights = Arrays.copyOf(frameHeights, capacity);
+            frameUnreachable = Arrays.copyOf(frameUnreachable, capacity);
+        }
+        frameOpcodes[frameCount] = opcode;
+        frameParams[frameCount] = params;
+        frameResults[frameCount] = results;
+        frameHeights[frameCount] = valueCount;
+        frameUnreachable[frameCount] = false;
+        frameCount++;
+        push(params);
+    }
+
+    // returns the index of the popped frame, its entries stay valid until the next push
+    private int popFrame() {
+        if (frameCount == 0) {
+            throw new InvalidException("unexpected end");
+        }
+        var frame = frameCount - 1;
+        pop(frameResults[frame]);
+        if (valueCount != frameHeights[frame]) {
+            throw new InvalidException("type mismatch, values remaining on the stack");
+        }
+        frameCount--;
+        return frame;
+    }
+
+    private void unreachable() {
+        var frame = frameCount - 1;
+        valueCount = frameHeights[frame];
+        frameUnreachable[frame] = true;
+    }
+}
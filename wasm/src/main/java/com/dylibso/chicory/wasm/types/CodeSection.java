@@ -2,13 +2,27 @@ package com.dylibso.chicory.wasm.types;
 
 public class CodeSection extends Section {
     private FunctionBody[] functionBodies;
+    private int callSiteCount;
 
     public CodeSection(long id, long size, FunctionBody[] functionBodies) {
+        this(id, size, functionBodies, 0);
+    }
+
+    public CodeSection(long id, long size, FunctionBody[] functionBodies, int callSiteCount) {
         super(id, size);
         this.functionBodies = functionBodies;
+        this.callSiteCount = callSiteCount;
     }
 
     public FunctionBody[] getFunctionBodies() {
         return functionBodies;
     }
+
+    /**
+     * The number of indirect call sites in all the function bodies,
+     * see {@link Instruction#getCallSiteIndex()}.
+     */
+    public int getCallSiteCount() {
+        return callSiteCount;
+    }
 }
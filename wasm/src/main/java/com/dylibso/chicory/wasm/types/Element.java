@@ -1,20 +1,38 @@
 package com.dylibso.chicory.wasm.types;
 
 public class Element {
+    /**
+     * The value of the function indices of an element segment that holds a null reference.
+     */
+    public static final long NULL_FUNC_INDEX = -1;
+
+    private ElementMode mode;
     private long tableIndex;
     private Instruction[] expr;
     private long[] funcIndices;
 
     public Element(long tableIndex, Instruction[] expr, long[] funcIndices) {
+        this(ElementMode.Active, tableIndex, expr, funcIndices);
+    }
+
+    public Element(ElementMode mode, long tableIndex, Instruction[] expr, long[] funcIndices) {
+        this.mode = mode;
         this.tableIndex = tableIndex;
         this.expr = expr;
         this.funcIndices = funcIndices;
     }
 
+    public ElementMode getMode() {
+        return mode;
+    }
+
     public long[] getFuncIndices() {
         return funcIndices;
     }
 
+    /**
+     * The offset expression of an active segment, empty for the other modes.
+     */
     public Instruction[] getExpr() {
         return expr;
     }
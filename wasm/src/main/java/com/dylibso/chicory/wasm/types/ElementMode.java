@@ -0,0 +1,14 @@
+package com.dylibso.chicory.wasm.types;
+
+/**
+ * How an element segment is used, see
+ * <a href="https://www.w3.org/TR/wasm-core-2/#element-segments%E2%91%A0">Element Segments</a>.
+ */
+public enum ElementMode {
+    /** Copied into a table during instantiation. */
+    Active,
+    /** Only copied into a table by table.init. */
+    Passive,
+    /** Only declares the functions which can be referenced by ref.func. */
+    Declarative
+}
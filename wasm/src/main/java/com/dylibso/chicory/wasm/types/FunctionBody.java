@@ -15,6 +15,25 @@ public class FunctionBody {
         return locals;
     }
 
+    /**
+     * The number of locals declared by one of the {@link #getLocals() groups of locals}, the
+     * parser keeps it as the value of a {@link Value} of the type of the group.
+     */
+    public static long localCount(Value group) {
+        var data = group.getData();
+        switch (data.length) {
+            case 4:
+                return Integer.toUnsignedLong(group.asInt());
+            case 8:
+                return group.asLong();
+            case 16:
+                return group.asV128Lane64(0);
+            default:
+                throw new IllegalArgumentException(
+                        "Can't count the locals of type " + group.getType());
+        }
+    }
+
     public List<Instruction> getInstructions() {
         return instructions;
     }
@@ -1,5 +1,7 @@
 package com.dylibso.chicory.wasm.types;
 
+import java.util.Arrays;
+
 public class FunctionType {
     private ValueType[] params;
     private ValueType[] returns;
@@ -17,6 +19,27 @@ public class FunctionType {
         return returns;
     }
 
+    /**
+     * Function types are structural, two types with the same params and returns are equal
+     * even if they are declared at different indices of the type section.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FunctionType)) {
+            return false;
+        }
+        var that = (FunctionType) o;
+        return Arrays.equals(params, that.params) && Arrays.equals(returns, that.returns);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(params) + Arrays.hashCode(returns);
+    }
+
     public String toString() {
         var builder = new StringBuilder();
         builder.append('(');
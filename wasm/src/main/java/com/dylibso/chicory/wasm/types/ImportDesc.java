@@ -5,6 +5,7 @@ public class ImportDesc {
     private ImportDescType type;
     private MutabilityType mutabilityType;
     private ValueType valType;
+    private MemoryLimits memoryLimits;
 
     public ImportDesc(ImportDescType type, int index) {
         this.type = type;
@@ -17,6 +18,11 @@ public class ImportDesc {
         this.valType = valType;
     }
 
+    public ImportDesc(ImportDescType type, MemoryLimits memoryLimits) {
+        this.type = type;
+        this.memoryLimits = memoryLimits;
+    }
+
     public long getIndex() {
         return index;
     }
@@ -25,6 +31,18 @@ public class ImportDesc {
         return type;
     }
 
+    public MutabilityType getMutabilityType() {
+        return mutabilityType;
+    }
+
+    public ValueType getValType() {
+        return valType;
+    }
+
+    public MemoryLimits getMemoryLimits() {
+        return memoryLimits;
+    }
+
     public String toString() {
         switch (type) {
             case FuncIdx:
@@ -32,7 +50,11 @@ public class ImportDesc {
             case TableIdx:
                 return "table[]";
             case MemIdx:
-                return "memory[]";
+                return "memory[] pages: initial="
+                        + memoryLimits.getInitial()
+                        + " max="
+                        + memoryLimits.getMaximum()
+                        + (memoryLimits.isShared() ? " shared" : "");
             case GlobalIdx:
                 return "global[] " + valType + " mutability=" + mutabilityType;
             default:
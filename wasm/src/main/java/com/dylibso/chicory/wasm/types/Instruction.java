@@ -14,6 +14,9 @@ public class Instruction {
     private int[] labelTable;
     private Integer depth;
     private OpCode scope;
+    private int basicBlockSize;
+    private int callSiteIndex = -1;
+    private boolean boundsCheckElided;
 
     public Instruction(int address, OpCode opcode, long[] operands) {
         this.address = address;
@@ -88,4 +91,39 @@ public class Instruction {
     public void setScope(OpCode scope) {
         this.scope = scope;
     }
+
+    /**
+     * The number of instructions in the basic block starting at this instruction,
+     * or 0 if this instruction is not the leader of a basic block.
+     */
+    public int getBasicBlockSize() {
+        return basicBlockSize;
+    }
+
+    public void setBasicBlockSize(int basicBlockSize) {
+        this.basicBlockSize = basicBlockSize;
+    }
+
+    /**
+     * The module wide index of this indirect call site, or -1 if this is not a call_indirect.
+     */
+    public int getCallSiteIndex() {
+        return callSiteIndex;
+    }
+
+    public void setCallSiteIndex(int callSiteIndex) {
+        this.callSiteIndex = callSiteIndex;
+    }
+
+    /**
+     * True if this memory access is proven to be in bounds by an earlier access
+     * of the same basic block, so the interpreter can skip its bounds check.
+     */
+    public boolean isBoundsCheckElided() {
+        return boundsCheckElided;
+    }
+
+    public void setBoundsCheckElided(boolean boundsCheckElided) {
+        this.boundsCheckElided = boundsCheckElided;
+    }
 }
@@ -7,32 +7,58 @@ public class MemoryLimits {
      */
     public static final int MAX_PAGES = 2 << 15;
 
+    /**
+     * Maximum allowed number of pages of a memory indexed with i64, as defined by the memory64
+     * proposal.
+     */
+    public static final long MAX_PAGES_64 = 1L << 48;
+
     /**
      * Initial number of pages.
      */
-    private final int initial;
+    private final long initial;
 
     /**
      * Maximum number of pages.
      */
-    private final int maximum;
+    private final long maximum;
+
+    /**
+     * Whether the memory can be shared between threads, as defined by the threads proposal.
+     */
+    private final boolean shared;
+
+    /**
+     * Whether the memory is indexed with i64 addresses, as defined by the memory64 proposal.
+     */
+    private final boolean memory64;
 
-    public MemoryLimits(int initial) {
+    public MemoryLimits(long initial) {
         this(initial, MAX_PAGES);
     }
 
-    public MemoryLimits(int initial, int maximum) {
+    public MemoryLimits(long initial, long maximum) {
+        this(initial, maximum, false);
+    }
+
+    public MemoryLimits(long initial, long maximum, boolean shared) {
+        this(initial, maximum, shared, false);
+    }
+
+    public MemoryLimits(long initial, long maximum, boolean shared, boolean memory64) {
         if (initial < 0 || initial > maximum) {
             throw new IllegalArgumentException(
                     "initial must be >= 0 and <= maximum, but was " + initial);
         }
 
-        if (maximum > MAX_PAGES) {
+        if (maximum > (memory64 ? MAX_PAGES_64 : MAX_PAGES)) {
             throw new IllegalArgumentException("maximum must be <= MAX_PAGES, but was " + maximum);
         }
 
         this.initial = initial;
         this.maximum = maximum;
+        this.shared = shared;
+        this.memory64 = memory64;
     }
 
     /**
@@ -43,11 +69,19 @@ public class MemoryLimits {
         return new MemoryLimits(0, MAX_PAGES);
     }
 
-    public int getInitial() {
+    public long getInitial() {
         return initial;
     }
 
-    public int getMaximum() {
+    public long getMaximum() {
         return maximum;
     }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    public boolean isMemory64() {
+        return memory64;
+    }
 }
@@ -4,44 +4,76 @@ import com.dylibso.chicory.wasm.Parser;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class NameSection extends CustomSection {
+    private static final int MODULE_NAME = 0;
+    private static final int FUNCTION_NAMES = 1;
 
-    private final List<String> funcNames;
+    private String moduleName;
+    private final Map<Integer, String> funcNames;
 
     public NameSection(CustomSection sec) {
         super(sec.getSectionId(), sec.getSectionSize());
         this.setBytes(sec.getBytes());
-        this.funcNames = parseFunctionNames();
+        this.funcNames = parseNames();
     }
 
-    private List<String> parseFunctionNames() {
+    private Map<Integer, String> parseNames() {
         ByteBuffer buf = ByteBuffer.wrap(this.getBytes());
 
-        List<String> names = new ArrayList<>();
+        Map<Integer, String> names = new HashMap<>();
 
-        // Expecting function name subsection
-        if (buf.get() != 1) {
-            throw new IllegalArgumentException("Not a function name subsection");
+        // the local names and the other subsections are skipped
+        while (buf.hasRemaining()) {
+            var subsectionId = buf.get();
+            var subsectionSize = (int) Parser.readVarUInt32(buf);
+            if (subsectionId == MODULE_NAME) {
+                moduleName = Parser.readName(buf);
+                continue;
+            }
+            if (subsectionId != FUNCTION_NAMES) {
+                buf.position(buf.position() + subsectionSize);
+                continue;
+            }
+            // Decode name map length
+            long nameMapLength = Parser.readVarUInt32(buf);
+            for (int i = 0; i < nameMapLength; i++) {
+                // the map can be sparse, keep the function index
+                var funcIdx = (int) Parser.readVarUInt32(buf);
+                names.put(funcIdx, Parser.readName(buf));
+            }
         }
 
-        // Skip the subsection length
-        Parser.readVarUInt32(buf);
+        return Collections.unmodifiableMap(names);
+    }
 
-        // Decode name map length
-        long nameMapLength = Parser.readVarUInt32(buf);
-        for (int i = 0; i < nameMapLength; i++) {
-            // Skip function index
-            Parser.readVarUInt32(buf);
-            // Decode function name
-            names.add(Parser.readName(buf));
-        }
+    /**
+     * The name of the module, or null if it has none.
+     */
+    public String getModuleName() {
+        return moduleName;
+    }
 
-        return Collections.unmodifiableList(names);
+    /**
+     * The name of the function with the given index, or null if it has none.
+     */
+    public String getFunctionName(int funcIdx) {
+        return funcNames.get(funcIdx);
     }
 
+    /**
+     * The function names ordered by function index.
+     */
     public List<String> getFunctionNames() {
-        return funcNames;
+        var indices = new ArrayList<>(funcNames.keySet());
+        Collections.sort(indices);
+        var names = new ArrayList<String>(indices.size());
+        for (var idx : indices) {
+            names.add(funcNames.get(idx));
+        }
+        return Collections.unmodifiableList(names);
     }
 }
@@ -1,21 +1,17 @@
 package com.dylibso.chicory.wasm.types;
 
-import java.util.ArrayList;
-import java.util.List;
-
+/**
+ * The type of a table declared by a module, the elements live in the runtime table of an instance.
+ */
 public class Table {
     private ElementType elementType;
     private long limitMin;
-    private long limitMax;
-    private List<Integer> funcRefs;
+    private Long limitMax;
 
     public Table(ElementType elementType, long limitMin, Long limitMax) {
         this.elementType = elementType;
         this.limitMin = limitMin;
-        if (limitMax != null) {
-            this.limitMax = limitMax;
-        }
-        this.funcRefs = new ArrayList<>();
+        this.limitMax = limitMax;
     }
 
     public ElementType getElementType() {
@@ -26,15 +22,10 @@ public class Table {
         return limitMin;
     }
 
+    /**
+     * The maximum number of elements, or null if the table is unbounded.
+     */
     public Long getLimitMax() {
         return limitMax;
     }
-
-    public void addFuncRef(int funcRef) {
-        this.funcRefs.add(funcRef);
-    }
-
-    public int getFuncRef(int index) {
-        return this.funcRefs.get(index);
-    }
 }
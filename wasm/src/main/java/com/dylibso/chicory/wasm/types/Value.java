@@ -53,10 +53,40 @@ public class Value {
         return new Value(ValueType.F64, data);
     }
 
+    /**
+     * A reference to the function with the given index, or a null reference if the index is -1.
+     */
+    public static Value funcRef(long data) {
+        return new Value(ValueType.FuncRef, data);
+    }
+
     public static Value externRef(long data) {
         return new Value(ValueType.ExternRef, data);
     }
 
+    /**
+     * A 128 bits vector, {@code data} holds its 16 bytes in little-endian order, lane 0 first.
+     */
+    public static Value v128(byte[] data) {
+        if (data.length != 16) {
+            throw new IllegalArgumentException(
+                    "Invalid v128 value, 16 bytes expected, given: " + data.length);
+        }
+        return new Value(ValueType.V128, data);
+    }
+
+    /**
+     * A 128 bits vector from its low and high 64 bits halves.
+     */
+    public static Value v128(long low, long high) {
+        var data = new byte[16];
+        for (var i = 0; i < 8; i++) {
+            data[i] = (byte) (low >>> (i * 8));
+            data[i + 8] = (byte) (high >>> (i * 8));
+        }
+        return new Value(ValueType.V128, data);
+    }
+
     public Value(ValueType type, byte[] data) {
         this.type = requireNonNull(type, "type");
         this.data = requireNonNull(data, "data");
@@ -106,6 +136,7 @@ public class Value {
                     data[7] = (byte) value;
                     break;
                 }
+            case FuncRef:
             case ExternRef:
                 data = new byte[4];
                 data[0] = (byte) (value >> 24);
@@ -113,6 +144,13 @@ public class Value {
                 data[2] = (byte) (value >> 8);
                 data[3] = (byte) value;
                 break;
+            case V128:
+                // the value is the low half, v128 values are little-endian
+                data = new byte[16];
+                for (var i = 0; i < 8; i++) {
+                    data[i] = (byte) (value >>> (i * 8));
+                }
+                break;
             default:
                 data = new byte[0];
                 break;
@@ -125,6 +163,8 @@ public class Value {
         switch (type) {
             case I32:
             case F32:
+            case FuncRef:
+            case ExternRef:
                 return ByteBuffer.wrap(this.data).getInt();
             case I64:
             case F64:
@@ -162,6 +202,18 @@ public class Value {
                 | ((long) (data[7] & 0xFF));
     }
 
+    /**
+     * The 64 bits lane {@code lane}, 0 or 1, of a v128 value.
+     */
+    public long asV128Lane64(int lane) {
+        var offset = lane * 8;
+        var result = 0L;
+        for (var i = 7; i >= 0; i--) {
+            result = (result << 8) | (data[offset + i] & 0xFF);
+        }
+        return result;
+    }
+
     public BigInteger asULong() {
         var b = new BigInteger(this.data);
         if (b.signum() < 0) {
@@ -221,6 +273,8 @@ public class Value {
                 return "func";
             case ExternRef:
                 return "ext";
+            case V128:
+                return String.format("0x%016x%016x@v128", asV128Lane64(1), asV128Lane64(0));
             default:
                 throw new RuntimeException("TODO handle missing types");
         }
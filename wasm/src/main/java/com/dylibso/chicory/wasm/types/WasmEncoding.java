@@ -7,4 +7,7 @@ public enum WasmEncoding {
     FLOAT32,
     FLOAT64,
     VEC_VARUINT,
+    BYTE,
+    V128,
+    MEMARG,
 }
@@ -0,0 +1,102 @@
+package com.dylibso.chicory.wasm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+public class EncodingTest {
+
+    private static final long[] UNSIGNED = {
+        0, 1, 63, 64, 127, 128, 255, 16383, 16384, 0xFFFF_FFFFL, Long.MAX_VALUE, -1L
+    };
+
+    private static final long[] SIGNED = {
+        0,
+        1,
+        -1,
+        63,
+        -64,
+        64,
+        -65,
+        8191,
+        -8192,
+        8192,
+        -8193,
+        Integer.MAX_VALUE,
+        Integer.MIN_VALUE,
+        Long.MAX_VALUE,
+        Long.MIN_VALUE
+    };
+
+    @Test
+    public void shouldReadUnsignedLeb128() {
+        for (var value : UNSIGNED) {
+            var encoded = encodeUnsigned(value);
+            // the last value of a buffer goes through the checked path, a padded one doesn't
+            for (var padding : new int[] {0, 16}) {
+                var buffer = ByteBuffer.wrap(pad(encoded, padding));
+                assertEquals(value, Encoding.readUnsignedLeb128(buffer));
+                assertEquals(encoded.length, buffer.position());
+            }
+        }
+    }
+
+    @Test
+    public void shouldReadSignedLeb128() {
+        for (var value : SIGNED) {
+            var encoded = encodeSigned(value);
+            for (var padding : new int[] {0, 16}) {
+                var buffer = ByteBuffer.wrap(pad(encoded, padding));
+                assertEquals(value, Encoding.readSigned64Leb128(buffer));
+                assertEquals(encoded.length, buffer.position());
+                if (value == (int) value) {
+                    buffer = ByteBuffer.wrap(pad(encoded, padding));
+                    assertEquals(value, Encoding.readSigned32Leb128(buffer));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldFailAtTheEndOfTheBuffer() {
+        var truncated = new byte[] {(byte) 0x80, (byte) 0x80};
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> Encoding.readUnsignedLeb128(ByteBuffer.wrap(truncated)));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> Encoding.readSigned64Leb128(ByteBuffer.wrap(truncated)));
+    }
+
+    private static byte[] encodeUnsigned(long value) {
+        var out = new ByteArrayOutputStream();
+        do {
+            var b = (int) (value & 0x7F);
+            value >>>= 7;
+            out.write(value != 0 ? b | 0x80 : b);
+        } while (value != 0);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeSigned(long value) {
+        var out = new ByteArrayOutputStream();
+        while (true) {
+            var b = (int) (value & 0x7F);
+            value >>= 7;
+            if ((value == 0 && (b & 0x40) == 0) || (value == -1 && (b & 0x40) != 0)) {
+                out.write(b);
+                return out.toByteArray();
+            }
+            out.write(b | 0x80);
+        }
+    }
+
+    private static byte[] pad(byte[] bytes, int padding) {
+        var padded = new byte[bytes.length + padding];
+        System.arraycopy(bytes, 0, padded, 0, bytes.length);
+        return padded;
+    }
+}
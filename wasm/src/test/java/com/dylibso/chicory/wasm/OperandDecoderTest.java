@@ -0,0 +1,62 @@
+package com.dylibso.chicory.wasm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.dylibso.chicory.wasm.types.OpCode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.jupiter.api.Test;
+
+public class OperandDecoderTest {
+
+    @Test
+    public void shouldDecodeEverySignature() {
+        // zeroed immediates: one byte per leb128, an empty vector and a memarg without index
+        for (var op : OpCode.values()) {
+            var operands = 0;
+            var bytes = 0;
+            for (var encoding : OpCode.getSignature(op)) {
+                switch (encoding) {
+                    case VEC_VARUINT:
+                        bytes += 1;
+                        break;
+                    case FLOAT32:
+                        operands += 1;
+                        bytes += 4;
+                        break;
+                    case FLOAT64:
+                        operands += 1;
+                        bytes += 8;
+                        break;
+                    case V128:
+                        operands += 2;
+                        bytes += 16;
+                        break;
+                    case MEMARG:
+                        operands += 3;
+                        bytes += 2;
+                        break;
+                    default:
+                        operands += 1;
+                        bytes += 1;
+                        break;
+                }
+            }
+            var buffer = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(operands, OperandDecoder.decode(op, buffer).length, op.name());
+            assertEquals(bytes, buffer.position(), op.name());
+        }
+    }
+
+    @Test
+    public void shouldDecodeVectorsAndMemArgs() {
+        // br_table 2 labels and a default
+        var buffer = ByteBuffer.wrap(new byte[] {2, 5, 6, 7});
+        assertArrayEquals(new long[] {5, 6, 7}, OperandDecoder.decode(OpCode.BR_TABLE, buffer));
+        // v128.load8_lane of memory 1: align with bit 6, memory index, offset, lane
+        buffer = ByteBuffer.wrap(new byte[] {0x40, 1, (byte) 0x80, 1, 3});
+        assertArrayEquals(
+                new long[] {0, 128, 1, 3}, OperandDecoder.decode(OpCode.V128_LOAD8_LANE, buffer));
+    }
+}
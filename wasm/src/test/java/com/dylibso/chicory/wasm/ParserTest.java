@@ -105,6 +105,50 @@ public class ParserTest {
         assertEquals(22, instructions.size());
     }
 
+    @Test
+    public void shouldElideRedundantBoundsChecks() {
+        var parser = new Parser(new File("src/test/resources/wasm/bounds.wat.wasm"));
+        var module = parser.parseModule();
+        var sum = module.getCodeSection().getFunctionBodies()[2].getInstructions();
+
+        assertEquals(OpCode.I32_LOAD, sum.get(1).getOpcode());
+        assertFalse(sum.get(1).isBoundsCheckElided());
+        assertEquals(OpCode.I32_LOAD, sum.get(3).getOpcode());
+        assertTrue(sum.get(3).isBoundsCheckElided());
+        assertEquals(OpCode.I32_LOAD16_U, sum.get(6).getOpcode());
+        assertTrue(sum.get(6).isBoundsCheckElided());
+        assertEquals(OpCode.I32_LOAD, sum.get(9).getOpcode());
+        assertFalse(sum.get(9).isBoundsCheckElided());
+    }
+
+    @Test
+    public void shouldLabelBranches() {
+        var branching =
+                new Parser(new File("src/test/resources/wasm/branching.wat.wasm"))
+                        .parseModule()
+                        .getCodeSection()
+                        .getFunctionBodies()[0]
+                        .getInstructions();
+        assertEquals(OpCode.BR_IF, branching.get(5).getOpcode());
+        assertEquals(13, branching.get(5).getLabelTrue());
+        assertEquals(6, branching.get(5).getLabelFalse());
+        assertEquals(OpCode.BR_IF, branching.get(9).getOpcode());
+        assertEquals(17, branching.get(9).getLabelTrue());
+        assertEquals(10, branching.get(9).getLabelFalse());
+        assertEquals(OpCode.BR, branching.get(12).getOpcode());
+        assertEquals(20, branching.get(12).getLabelTrue());
+
+        var brTable =
+                new Parser(new File("src/test/resources/wasm/br_table.wat.wasm"))
+                        .parseModule()
+                        .getCodeSection()
+                        .getFunctionBodies()[0]
+                        .getInstructions();
+        assertEquals(OpCode.BR_TABLE, brTable.get(5).getOpcode());
+        assertArrayEquals(new int[] {12, 9, 6, 15}, brTable.get(5).getLabelTable());
+        assertEquals(OpCode.END, brTable.get(18).getScope());
+    }
+
     @Test
     public void shouldParseAllFiles() {
         File dir = new File("src/test/resources/wasm/");
@@ -0,0 +1,189 @@
+package com.dylibso.chicory.wasm;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.dylibso.chicory.wasm.exceptions.InvalidException;
+import com.dylibso.chicory.wasm.types.CodeSection;
+import com.dylibso.chicory.wasm.types.FunctionBody;
+import com.dylibso.chicory.wasm.types.FunctionSection;
+import com.dylibso.chicory.wasm.types.FunctionType;
+import com.dylibso.chicory.wasm.types.Global;
+import com.dylibso.chicory.wasm.types.GlobalSection;
+import com.dylibso.chicory.wasm.types.Instruction;
+import com.dylibso.chicory.wasm.types.Memory;
+import com.dylibso.chicory.wasm.types.MemoryLimits;
+import com.dylibso.chicory.wasm.types.MemorySection;
+import com.dylibso.chicory.wasm.types.MutabilityType;
+import com.dylibso.chicory.wasm.types.OpCode;
+import com.dylibso.chicory.wasm.types.SectionId;
+import com.dylibso.chicory.wasm.types.TypeSection;
+import com.dylibso.chicory.wasm.types.ValueType;
+import java.io.File;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class ValidatorTest {
+
+    private static final ValueType[] NONE = new ValueType[0];
+    private static final ValueType[] I32 = {ValueType.I32};
+
+    @Test
+    public void shouldValidateAllFiles() {
+        File dir = new File("src/test/resources/wasm/");
+        File[] files = dir.listFiles((dir1, name) -> name.toLowerCase().endsWith(".wasm"));
+        if (files == null) {
+            throw new RuntimeException("Could not find files");
+        }
+        for (var f : files) {
+            var module = new Parser(f).parseModule();
+            assertDoesNotThrow(() -> new Validator(module).validate(), f.toString());
+        }
+    }
+
+    @Test
+    public void shouldRejectTypeMismatch() {
+        var module = function(I32, instr(OpCode.I64_CONST, 1), instr(OpCode.END));
+        assertInvalid(module, "type mismatch");
+    }
+
+    @Test
+    public void shouldRejectStackUnderflow() {
+        var module =
+                function(I32, instr(OpCode.I32_CONST, 1), instr(OpCode.I32_ADD), instr(OpCode.END));
+        assertInvalid(module, "type mismatch");
+    }
+
+    @Test
+    public void shouldRejectUnknownLabelsAndLocals() {
+        assertInvalid(function(NONE, instr(OpCode.BR, 1), instr(OpCode.END)), "unknown label");
+        assertInvalid(
+                function(NONE, instr(OpCode.LOCAL_GET, 0), instr(OpCode.DROP), instr(OpCode.END)),
+                "unknown local");
+    }
+
+    @Test
+    public void shouldRejectImmutableGlobalSet() {
+        var module =
+                function(
+                        NONE,
+                        instr(OpCode.I32_CONST, 1),
+                        instr(OpCode.GLOBAL_SET, 0),
+                        instr(OpCode.END));
+        var init = new Instruction[] {instr(OpCode.I32_CONST, 0)};
+        module.setGlobalSection(
+                new GlobalSection(
+                        SectionId.GLOBAL,
+                        0,
+                        new Global[] {new Global(ValueType.I32, MutabilityType.Const, init)}));
+        assertInvalid(module, "global is immutable");
+    }
+
+    @Test
+    public void shouldAcceptAnythingAfterUnreachable() {
+        // the values popped by unreachable code have any type
+        var module =
+                function(I32, instr(OpCode.UNREACHABLE), instr(OpCode.I32_ADD), instr(OpCode.END));
+        assertDoesNotThrow(() -> new Validator(module).validate());
+    }
+
+    @Test
+    public void shouldRequireNaturalAlignmentOfAtomics() {
+        var module =
+                function(
+                        I32,
+                        instr(OpCode.I32_CONST, 0),
+                        instr(OpCode.I32_ATOMIC_LOAD16_U, 0, 0, 0),
+                        instr(OpCode.END));
+        module.setMemorySection(
+                new MemorySection(
+                        SectionId.MEMORY,
+                        0,
+                        new Memory[] {new Memory(new MemoryLimits(1, 1, true))}));
+        assertInvalid(module, "alignment must be exactly natural");
+    }
+
+    @Test
+    public void shouldTypeAddressesByTheirMemory() {
+        // memory 1 is the 64-bit one, an i32 address doesn't fit it
+        assertInvalid(withTwoMemories(1), "type mismatch, expected I64 but found I32");
+        assertInvalid(withTwoMemories(2), "unknown memory 2");
+        assertDoesNotThrow(() -> new Validator(withTwoMemories(0)).validate());
+    }
+
+    @Test
+    public void shouldRequireTailCallsToReturnTheCallerResults() {
+        assertDoesNotThrow(
+                () ->
+                        new Validator(
+                                        function(
+                                                I32,
+                                                instr(OpCode.RETURN_CALL, 0),
+                                                instr(OpCode.END)))
+                                .validate());
+        // function 1 returns nothing, so it can't end a function returning an i32
+        var module = function(I32, instr(OpCode.RETURN_CALL, 1), instr(OpCode.END));
+        module.setTypeSection(
+                new TypeSection(
+                        SectionId.TYPE,
+                        0,
+                        new FunctionType[] {
+                            new FunctionType(NONE, I32), new FunctionType(NONE, NONE)
+                        }));
+        module.setFunctionSection(new FunctionSection(SectionId.FUNCTION, 0, new int[] {0, 1}));
+        module.setCodeSection(
+                new CodeSection(
+                        SectionId.CODE,
+                        0,
+                        new FunctionBody[] {
+                            module.getCodeSection().getFunctionBodies()[0],
+                            new FunctionBody(List.of(), List.of(instr(OpCode.END)))
+                        }));
+        assertInvalid(module, "type mismatch, tail call results");
+    }
+
+    private static Module withTwoMemories(long memoryIdx) {
+        var module =
+                function(
+                        I32,
+                        instr(OpCode.I32_CONST, 0),
+                        instr(OpCode.I32_LOAD, 2, 0, memoryIdx),
+                        instr(OpCode.END));
+        module.setMemorySection(
+                new MemorySection(
+                        SectionId.MEMORY,
+                        0,
+                        new Memory[] {
+                            new Memory(new MemoryLimits(1)),
+                            new Memory(new MemoryLimits(1, 1, false, true))
+                        }));
+        return module;
+    }
+
+    private static Instruction instr(OpCode opcode, long... operands) {
+        return new Instruction(0, opcode, operands);
+    }
+
+    private static Module function(ValueType[] results, Instruction... body) {
+        var module = new Module();
+        module.setTypeSection(
+                new TypeSection(
+                        SectionId.TYPE, 0, new FunctionType[] {new FunctionType(NONE, results)}));
+        module.setFunctionSection(new FunctionSection(SectionId.FUNCTION, 0, new int[] {0}));
+        module.setCodeSection(
+                new CodeSection(
+                        SectionId.CODE,
+                        0,
+                        new FunctionBody[] {new FunctionBody(List.of(), List.of(body))}));
+        return module;
+    }
+
+    private static void assertInvalid(Module module, String message) {
+        var exception =
+                assertThrows(InvalidException.class, () -> new Validator(module).validate());
+        assertTrue(
+                exception.getMessage().contains(message),
+                "'" + exception.getMessage() + "' doesn't contain: '" + message + "'");
+    }
+}
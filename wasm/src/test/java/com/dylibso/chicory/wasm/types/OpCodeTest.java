@@ -0,0 +1,46 @@
+package com.dylibso.chicory.wasm.types;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class OpCodeTest {
+
+    @Test
+    public void shouldDecodeEveryOpCode() {
+        for (var op : OpCode.values()) {
+            assertEquals(op, OpCode.byOpCode(op.getOpcode()));
+        }
+    }
+
+    @Test
+    public void shouldDecodePrefixedOpCodes() {
+        assertEquals(OpCode.I32_ADD, OpCode.byOpCode(0x6a));
+        assertEquals(OpCode.I32_TRUNC_SAT_F32_S, OpCode.byOpCode(0xfc00));
+        assertEquals(OpCode.MEMORY_COPY, OpCode.byOpCode(0xfc0a));
+        assertEquals(OpCode.MEMORY_ATOMIC_NOTIFY, OpCode.byOpCode(0xfe00));
+        assertEquals(OpCode.I64_ATOMIC_RMW32_CMPXCHG_U, OpCode.byOpCode(0xfe4e));
+        assertNull(OpCode.byOpCode(0x06));
+        assertNull(OpCode.byOpCode(0xfcff));
+        assertNull(OpCode.byOpCode(0xfb00));
+        assertNull(OpCode.byOpCode(0x1fc00));
+    }
+
+    @Test
+    public void shouldExposeSignatures() {
+        assertArrayEquals(new WasmEncoding[] {}, OpCode.getSignature(OpCode.NOP));
+        assertArrayEquals(
+                new WasmEncoding[] {WasmEncoding.MEMARG}, OpCode.getSignature(OpCode.I32_LOAD));
+        assertArrayEquals(
+                new WasmEncoding[] {WasmEncoding.MEMARG, WasmEncoding.BYTE},
+                OpCode.getSignature(OpCode.V128_LOAD8_LANE));
+        assertArrayEquals(
+                new WasmEncoding[] {WasmEncoding.VARUINT, WasmEncoding.VARUINT},
+                OpCode.getSignature(OpCode.MEMORY_COPY));
+        assertArrayEquals(
+                new WasmEncoding[] {WasmEncoding.VEC_VARUINT, WasmEncoding.VARUINT},
+                OpCode.getSignature(OpCode.BR_TABLE));
+    }
+}